@@ -0,0 +1,95 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.service.FareEngine;
+import com.ridebooking.service.TariffConfig;
+import com.ridebooking.service.TariffTable;
+import com.ridebooking.util.GeoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fare estimates as served by GET api/rides/estimate.
+ * <p>
+ * {@code legacy} is the old hard-coded formula for reference. The engine runs against the default tariffs
+ * ({@code zones=0}) and against a city grid with hourly multipliers. Pickups are spread over the whole grid so
+ * the zone lookup isn't always the same cache line. Run with {@code -prof gc} to check that the estimate
+ * doesn't allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FareEngineBenchmark {
+
+    private static final int POINTS = 4096;
+
+    @Param({"0", "100", "2500"})
+    private int zones;
+
+    private FareEngine engine;
+    private final double[] pickupLat = new double[POINTS];
+    private final double[] pickupLng = new double[POINTS];
+    private final double[] dropLat = new double[POINTS];
+    private final double[] dropLng = new double[POINTS];
+    private long now;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        TariffConfig config = new TariffConfig();
+        config.getDefaultMultipliers().add(new TariffConfig.Multiplier(22, 6, 1.25));
+
+        // Square zones of 0.02 degrees tiled over Bengaluru, each with its own rates and a morning peak
+        int side = (int) Math.ceil(Math.sqrt(zones));
+        List<TariffConfig.Zone> list = new ArrayList<>();
+        for (int i = 0; i < zones; i++) {
+            TariffConfig.Zone zone = new TariffConfig.Zone();
+            zone.setName("zone-" + i);
+            zone.setMinLat(12.8 + (i / side) * 0.02);
+            zone.setMaxLat(zone.getMinLat() + 0.02);
+            zone.setMinLng(77.4 + (i % side) * 0.02);
+            zone.setMaxLng(zone.getMinLng() + 0.02);
+            zone.setRates(new TariffConfig.Rates(30 + i % 10, 10 + i % 5, 2, 50));
+            zone.getMultipliers().add(new TariffConfig.Multiplier(8, 11, 1.2));
+            list.add(zone);
+        }
+        config.setZones(list);
+        engine = new FareEngine(TariffTable.compile(config));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double span = Math.max(side, 1) * 0.02;
+        for (int i = 0; i < POINTS; i++) {
+            pickupLat[i] = 12.8 + random.nextDouble() * span;
+            pickupLng[i] = 77.4 + random.nextDouble() * span;
+            dropLat[i] = pickupLat[i] + random.nextDouble(-0.1, 0.1);
+            dropLng[i] = pickupLng[i] + random.nextDouble(-0.1, 0.1);
+        }
+        now = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public double legacy() {
+        int i = next++ & (POINTS - 1);
+        double distanceKm = GeoUtils.haversineKm(pickupLat[i], pickupLng[i], dropLat[i], dropLng[i]);
+        double durationMin = distanceKm / 40.0 * 60;
+        return 30 + 10 * distanceKm + 2 * durationMin;
+    }
+
+    @Benchmark
+    public double estimate() {
+        int i = next++ & (POINTS - 1);
+        return engine.current().estimate(pickupLat[i], pickupLng[i], dropLat[i], dropLng[i], now);
+    }
+
+    @Benchmark
+    public double fareOnly() {
+        int i = next++ & (POINTS - 1);
+        return engine.fare(pickupLat[i], pickupLng[i], 8.5, 21, now);
+    }
+}
@@ -0,0 +1,26 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.util.GeoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Haversine distance (RideService.calculateDistance delegates to GeoUtils); fare estimates are in FareEngineBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoBenchmark {
+
+    private double pickupLat = 12.9716;
+    private double pickupLng = 77.5946;
+    private double dropLat = 13.0827;
+    private double dropLng = 77.5877;
+
+    @Benchmark
+    public double calculateDistance() {
+        return GeoUtils.haversineKm(pickupLat, pickupLng, dropLat, dropLng);
+    }
+}
@@ -0,0 +1,36 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.model.Role;
+import com.ridebooking.security.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Token issue and verification cost in JwtUtil, without the verified-token cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtUtil jwtUtil;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil();
+        token = jwtUtil.generateToken("driver@example.com", 7L, Role.DRIVER);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken("driver@example.com", 7L, Role.DRIVER);
+    }
+
+    @Benchmark
+    public Object parseToken() {
+        return jwtUtil.parse(token);
+    }
+}
@@ -0,0 +1,92 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.model.Role;
+import com.ridebooking.security.CustomUserDetailsService;
+import com.ridebooking.security.JwtAuthenticationFilter;
+import com.ridebooking.security.JwtUtil;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of authenticating one request.
+ * <p>
+ * {@code legacyDoubleParse} is what the filter used to do before touching the DB: build a parser and verify the
+ * token twice. The old filter also loaded the user from MySQL on top of that, which isn't measured here.
+ * {@code filterUncached} verifies once per request, {@code filterCached} is the steady state where a client
+ * keeps sending the same token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private static final Key LEGACY_KEY = Keys.hmacShaKeyFor("ridebookingsecretkeyridebookingsecretkey".getBytes());
+
+    private JwtUtil jwtUtil;
+    private JwtAuthenticationFilter filter;
+    private String token;
+    // More distinct tokens than the verified-token cache holds, so cycling through them keeps missing
+    private String[] freshTokens;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil();
+        filter = new JwtAuthenticationFilter();
+        ReflectionTestUtils.setField(filter, "jwtUtil", jwtUtil);
+        // Only used for tokens without claims, which this benchmark doesn't send
+        ReflectionTestUtils.setField(filter, "userDetailsService", new CustomUserDetailsService());
+        token = jwtUtil.generateToken("rider@example.com", 42L, Role.USER);
+
+        freshTokens = new String[100_000];
+        for (int i = 0; i < freshTokens.length; i++)
+            freshTokens[i] = jwtUtil.generateToken("rider" + i + "@example.com", (long) i, Role.USER);
+    }
+
+    @Benchmark
+    public boolean legacyDoubleParse() {
+        String subject = Jwts.parserBuilder().setSigningKey(LEGACY_KEY).build()
+                .parseClaimsJws(token).getBody().getSubject();
+        Jwts.parserBuilder().setSigningKey(LEGACY_KEY).build().parseClaimsJws(token);
+        return subject != null;
+    }
+
+    @Benchmark
+    public Object parseOnce() {
+        return jwtUtil.parse(token);
+    }
+
+    @Benchmark
+    public Object filterCached() throws Exception {
+        return runFilter(token);
+    }
+
+    @Benchmark
+    public Object filterUncached() throws Exception {
+        next = (next + 1) % freshTokens.length;
+        return runFilter(freshTokens[next]);
+    }
+
+    private Object runFilter(String bearer) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/rides/estimate");
+        request.addHeader("Authorization", "Bearer " + bearer);
+        try {
+            filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+            return SecurityContextHolder.getContext().getAuthentication();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.service.DriverSpatialIndex;
+import com.ridebooking.util.GeoUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearby-driver selection over synthetic fleets spread across a ~40 x 40 km city.
+ * <p>
+ * {@code linearScan} is the old createRide approach (Haversine over every driver row, minus the DB load),
+ * {@code indexRadius} and {@code indexNearest} go through DriverSpatialIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NearbyDriverBenchmark {
+
+    private static final double CENTER_LAT = 12.9716;
+    private static final double CENTER_LNG = 77.5946;
+    private static final double SPREAD_DEG = 0.36;
+    private static final double RADIUS_KM = 5.0;
+
+    private record FleetDriver(long id, double lat, double lng, boolean available) {
+    }
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int fleetSize;
+
+    private List<FleetDriver> fleet;
+    private DriverSpatialIndex index;
+    private double[] queryLat;
+    private double[] queryLng;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        fleet = new ArrayList<>(fleetSize);
+        index = new DriverSpatialIndex(0.01);
+        for (long id = 0; id < fleetSize; id++) {
+            double lat = CENTER_LAT + (random.nextDouble() - 0.5) * SPREAD_DEG;
+            double lng = CENTER_LNG + (random.nextDouble() - 0.5) * SPREAD_DEG;
+            boolean available = random.nextInt(3) != 0;
+            fleet.add(new FleetDriver(id, lat, lng, available));
+            index.put(id, lat, lng, available);
+        }
+
+        queryLat = new double[1024];
+        queryLng = new double[1024];
+        for (int i = 0; i < queryLat.length; i++) {
+            queryLat[i] = CENTER_LAT + (random.nextDouble() - 0.5) * SPREAD_DEG;
+            queryLng[i] = CENTER_LNG + (random.nextDouble() - 0.5) * SPREAD_DEG;
+        }
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int i = nextQuery();
+        return fleet.stream()
+                .filter(FleetDriver::available)
+                .filter(d -> GeoUtils.haversineKm(queryLat[i], queryLng[i], d.lat(), d.lng()) <= RADIUS_KM)
+                .toList()
+                .size();
+    }
+
+    @Benchmark
+    public int indexRadius() {
+        int i = nextQuery();
+        return index.findAvailableWithinRadius(queryLat[i], queryLng[i], RADIUS_KM).size();
+    }
+
+    @Benchmark
+    public int indexNearest() {
+        int i = nextQuery();
+        return index.findNearestAvailable(queryLat[i], queryLng[i], 10, RADIUS_KM).size();
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (queryLat.length - 1);
+        return next;
+    }
+}
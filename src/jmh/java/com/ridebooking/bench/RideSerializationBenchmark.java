@@ -0,0 +1,88 @@
+package com.ridebooking.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ridebooking.dto.RideSummary;
+import com.ridebooking.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// Jackson cost of a ride response: the full entity graph as controllers used to return it, and the slim summary
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideSerializationBenchmark {
+
+    private ObjectMapper mapper;
+    private Ride ride;
+    private RideSummary summary;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        LocalDateTime now = LocalDateTime.now();
+        User rider = User.builder()
+                .username("rider")
+                .email("rider@example.com")
+                .password("$2a$10$abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWX")
+                .role(Role.USER)
+                .build();
+        rider.setId(1L);
+        Driver driver = Driver.builder()
+                .username("driver")
+                .password("$2a$10$abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWX")
+                .fullName("Test Driver")
+                .phoneNumber("9000000000")
+                .vehicleNumber("KA01AB1234")
+                .vehicleModel("Swift")
+                .licenceNumber("DL123")
+                .status(driverStatus.ON_RIDE)
+                .currentLatitude(12.97)
+                .currentLongitude(77.59)
+                .role(Role.DRIVER)
+                .build();
+        driver.setId(2L);
+
+        ride = Ride.builder()
+                .rider(rider)
+                .driver(driver)
+                .pickupLocation("MG Road")
+                .dropoffLocation("Airport")
+                .pickupLattitude(12.9716)
+                .pickupLongitude(77.5946)
+                .startTime(now)
+                .completionTime(now)
+                .fare(412.5)
+                .status(rideStatus.COMPLETED)
+                .distanceKm(34.2)
+                .durationMinutes(51.0)
+                .paymentStatus(paymentStatus.PENDING)
+                .transactionId("order_123")
+                .build();
+        ride.setId(3L);
+        ride.setCreatedAt(now);
+        ride.setUpdatedAt(now);
+
+        summary = new RideSummary(3L, rideStatus.COMPLETED, "MG Road", "Airport", 412.5, 34.2, 51.0,
+                paymentStatus.PENDING, now, now, now, 1L, 2L);
+    }
+
+    @Benchmark
+    public byte[] serializeRideEntity() throws Exception {
+        return mapper.writeValueAsBytes(ride);
+    }
+
+    @Benchmark
+    public byte[] serializeRideSummary() throws Exception {
+        return mapper.writeValueAsBytes(summary);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.routing.RoadGraph;
+import com.ridebooking.routing.RoadGraphBuilder;
+import com.ridebooking.routing.RoadGraphRouter;
+import com.ridebooking.routing.Route;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-to-point routing on a synthetic city: a square street grid of {@code side} x {@code side} junctions
+ * about 130 m apart, with every tenth street an arterial at twice the speed.
+ * <p>
+ * {@code astar} is an uncached search between random points, {@code cached} replays a small set of trips so
+ * it mostly measures the cell-pair cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteBenchmark {
+
+    private static final double ORIGIN_LAT = 12.85;
+    private static final double ORIGIN_LNG = 77.45;
+    private static final double STEP_DEG = 0.0012;
+    private static final int TRIPS = 1024;
+
+    @Param({"100", "300"})
+    public int side;
+
+    private RoadGraphRouter router;
+    private final double[] trips = new double[TRIPS * 4];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("route-bench");
+        Path nodes = dir.resolve("nodes.csv");
+        Path edges = dir.resolve("edges.csv");
+        try (BufferedWriter n = Files.newBufferedWriter(nodes); BufferedWriter e = Files.newBufferedWriter(edges)) {
+            for (int row = 0; row < side; row++) {
+                for (int col = 0; col < side; col++) {
+                    int id = row * side + col;
+                    n.write(id + "," + (ORIGIN_LAT + row * STEP_DEG) + "," + (ORIGIN_LNG + col * STEP_DEG) + "\n");
+                    if (col + 1 < side)
+                        e.write(id + "," + (id + 1) + ",130," + (row % 10 == 0 ? 50 : 25) + ",0\n");
+                    if (row + 1 < side)
+                        e.write(id + "," + (id + side) + ",133," + (col % 10 == 0 ? 50 : 25) + ",0\n");
+                }
+            }
+        }
+        Path graphFile = dir.resolve("city.rgr");
+        RoadGraphBuilder.build(nodes, edges, graphFile);
+        router = new RoadGraphRouter(RoadGraph.load(graphFile), 0.5, 15, 0.005, 1_000_000,
+                Runtime.getRuntime().availableProcessors(), 100_000, Duration.ofHours(1));
+
+        Random random = new Random(42);
+        double span = (side - 1) * STEP_DEG;
+        for (int i = 0; i < trips.length; i += 2) {
+            trips[i] = ORIGIN_LAT + random.nextDouble() * span;
+            trips[i + 1] = ORIGIN_LNG + random.nextDouble() * span;
+        }
+    }
+
+    @Benchmark
+    public Optional<Route> astar() {
+        int i = (next++ & (TRIPS - 1)) * 4;
+        return router.compute(trips[i], trips[i + 1], trips[i + 2], trips[i + 3]);
+    }
+
+    @Benchmark
+    public Optional<Route> cached() {
+        int i = (next++ & 63) * 4;
+        return router.route(trips[i], trips[i + 1], trips[i + 2], trips[i + 3]);
+    }
+}
@@ -0,0 +1,59 @@
+package com.ridebooking.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Local Caffeine caches for the lookups done on almost every request.
+ * <p>
+ * Profiles change rarely, so they live longer; active rides change with every state transition and are also
+ * evicted explicitly, the short TTL only limits how long a missed eviction can linger. Stats are recorded so
+ * the hit rate shows up under the cache.* metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String USERS = "users";
+    public static final String USERS_BY_EMAIL = "usersByEmail";
+    public static final String ACTIVE_RIDE_BY_RIDER = "activeRideByRider";
+    public static final String ACTIVE_RIDE_BY_DRIVER = "activeRideByDriver";
+
+    @Value("${cache.profiles.max-size:10000}")
+    private long profilesMaxSize;
+
+    @Value("${cache.profiles.ttl:10m}")
+    private Duration profilesTtl;
+
+    @Value("${cache.active-rides.max-size:10000}")
+    private long activeRidesMaxSize;
+
+    @Value("${cache.active-rides.ttl:30s}")
+    private Duration activeRidesTtl;
+
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.registerCustomCache(USERS, build(profilesMaxSize, profilesTtl));
+        manager.registerCustomCache(USERS_BY_EMAIL, build(profilesMaxSize, profilesTtl));
+        manager.registerCustomCache(ACTIVE_RIDE_BY_RIDER, build(activeRidesMaxSize, activeRidesTtl));
+        manager.registerCustomCache(ACTIVE_RIDE_BY_DRIVER, build(activeRidesMaxSize, activeRidesTtl));
+        return manager;
+    }
+
+    private static Cache<Object, Object> build(long maxSize, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+}
@@ -0,0 +1,107 @@
+package com.ridebooking.config;
+
+import com.ridebooking.messaging.ClusterBrokerBridge;
+import com.ridebooking.messaging.ClusterMessageBus;
+import com.ridebooking.messaging.InMemoryClusterMessageBus;
+import com.ridebooking.messaging.TcpClusterMessageBus;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.MessageChannel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Clustered WebSocket broker ({@code websocket.broker.mode=cluster}): every node runs the simple broker and
+ * messages are fanned out to the other nodes over a {@link ClusterMessageBus}. The bus is plain TCP between the
+ * nodes in {@code websocket.cluster.peers}, or in-memory for tests that start several nodes in one JVM.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "websocket.broker.mode", havingValue = "cluster")
+public class ClusterBrokerConfig {
+
+    @Value("${websocket.cluster.node-id:}")
+    private String nodeId;
+
+    @Value("${websocket.cluster.transport:tcp}")
+    private String transport;
+
+    @Value("${websocket.cluster.name:ridebooking}")
+    private String clusterName;
+
+    // Interface the tcp transport listens on, all of them when blank
+    @Value("${websocket.cluster.bind-address:}")
+    private String bindAddress;
+
+    @Value("${websocket.cluster.port:7400}")
+    private int port;
+
+    // Signs the frames between nodes; required by the tcp transport
+    @Value("${websocket.cluster.secret:}")
+    private String secret;
+
+    @Value("${websocket.cluster.max-frame-bytes:1048576}")
+    private int maxFrameBytes;
+
+    // host:port of every node, this one may be included
+    @Value("${websocket.cluster.peers:}")
+    private String[] peers;
+
+    @Value("${websocket.cluster.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Bean
+    public ClusterMessageBus clusterMessageBus() throws IOException {
+        String node = nodeId();
+        switch (transport) {
+            case "in-memory":
+                return new InMemoryClusterMessageBus(clusterName, node);
+            case "tcp":
+                List<InetSocketAddress> addresses = Arrays.stream(peers)
+                        .filter(peer -> !peer.isBlank())
+                        .map(ClusterBrokerConfig::parseAddress)
+                        .toList();
+                if (secret.isBlank())
+                    throw new IllegalStateException("websocket.cluster.secret must be set for the tcp transport");
+                InetAddress bind = bindAddress.isBlank() ? null : InetAddress.getByName(bindAddress.trim());
+                TcpClusterMessageBus bus = new TcpClusterMessageBus(node, bind, port, addresses, queueCapacity, secret,
+                        maxFrameBytes);
+                bus.start();
+                return bus;
+            default:
+                throw new IllegalStateException("Unknown websocket.cluster.transport: " + transport);
+        }
+    }
+
+    @Bean
+    public ClusterBrokerBridge clusterBrokerBridge(ClusterMessageBus bus,
+                                                   @Qualifier("brokerChannel") @Lazy MessageChannel brokerChannel,
+                                                   MeterRegistry meterRegistry) {
+        log.info("WebSocket broker clustered over {} transport as node {}", transport, nodeId());
+        return new ClusterBrokerBridge(bus, brokerChannel, nodeId(), WebSocketConfig.BROKER_DESTINATIONS, meterRegistry);
+    }
+
+    private String nodeId() {
+        if (nodeId.isBlank())
+            nodeId = UUID.randomUUID().toString();
+        return nodeId;
+    }
+
+    private static InetSocketAddress parseAddress(String peer) {
+        int colon = peer.lastIndexOf(':');
+        if (colon < 0)
+            throw new IllegalStateException("Cluster peer must be host:port, got " + peer);
+        return new InetSocketAddress(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim()));
+    }
+}
@@ -0,0 +1,58 @@
+package com.ridebooking.config;
+
+import com.ridebooking.routing.RoadGraph;
+import com.ridebooking.routing.RoadGraphRouter;
+import com.ridebooking.routing.RouteEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Road routing, only active when {@code routing.graph-path} points at a file built by RoadGraphBuilder.
+ * Without it there is no {@link RouteEstimator} bean and fares and dispatch use straight-line distance.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "routing.graph-path")
+public class RoutingConfig {
+
+    @Value("${routing.graph-path}")
+    private Path graphPath;
+
+    @Value("${routing.max-snap-km:0.5}")
+    private double maxSnapKm;
+
+    @Value("${routing.access-speed-kmph:15}")
+    private double accessSpeedKmph;
+
+    @Value("${routing.max-settled-nodes:500000}")
+    private int maxSettledNodes;
+
+    // Searches running at once, each holding buffers the size of the graph; 0 means one per core
+    @Value("${routing.max-concurrent-searches:0}")
+    private int maxConcurrentSearches;
+
+    @Value("${routing.cache.cell-size-deg:0.005}")
+    private double cacheCellSizeDeg;
+
+    @Value("${routing.cache.max-size:200000}")
+    private long cacheMaxSize;
+
+    @Value("${routing.cache.ttl:1h}")
+    private Duration cacheTtl;
+
+    @Bean
+    public RouteEstimator routeEstimator() throws IOException {
+        RoadGraph graph = RoadGraph.load(graphPath);
+        log.info("Loaded road graph {} with {} nodes and {} edges", graphPath, graph.nodeCount(), graph.edgeCount());
+        int searches = maxConcurrentSearches > 0 ? maxConcurrentSearches : Runtime.getRuntime().availableProcessors();
+        return new RoadGraphRouter(graph, maxSnapKm, accessSpeedKmph, cacheCellSizeDeg, maxSettledNodes, searches,
+                cacheMaxSize, cacheTtl);
+    }
+}
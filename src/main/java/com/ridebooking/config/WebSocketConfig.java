@@ -1,14 +1,64 @@
 package com.ridebooking.config;
 
+import com.ridebooking.messaging.BrokerMetricsInterceptor;
+import com.ridebooking.messaging.ClusterBrokerBridge;
+import com.ridebooking.security.StompAuthChannelInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+/**
+ * STOMP over WebSocket. {@code websocket.broker.mode} picks the broker behind the topics:
+ * <ul>
+ *     <li>{@code simple} - in-process, for a single node</li>
+ *     <li>{@code relay} - an external STOMP broker (e.g. ActiveMQ Artemis) shared by all nodes</li>
+ *     <li>{@code cluster} - in-process on every node, fanned out between nodes by {@link ClusterBrokerConfig}</li>
+ * </ul>
+ */
+@Slf4j
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+
+    // Prefixes of outgoing messages to clients; /ride/{rideId} carries live status and position of a ride,
+    // /driver/{driverId}/offers the rides offered to a driver
+    public static final String[] BROKER_DESTINATIONS = {"/driver", "/ride"};
+
+    // Threads handling inbound STOMP frames, most of which are driver location pings
+    @Value("${websocket.inbound.pool-size:8}")
+    private int inboundPoolSize;
+
+    @Value("${websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${websocket.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${websocket.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${websocket.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${websocket.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private ClusterBrokerBridge clusterBrokerBridge;
+
+    @Autowired
+    private StompAuthChannelInterceptor stompAuthChannelInterceptor;
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Client will connect here
@@ -17,9 +67,48 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Prefix for outgoing messages to client
-        config.enableSimpleBroker("/driver");
+        switch (brokerMode) {
+            case "simple", "cluster":
+                config.enableSimpleBroker(BROKER_DESTINATIONS);
+                break;
+            case "relay":
+                // All nodes share the external broker, so a message sent on any node reaches subscribers on all of them
+                config.enableStompBrokerRelay(BROKER_DESTINATIONS)
+                        .setRelayHost(relayHost)
+                        .setRelayPort(relayPort)
+                        .setClientLogin(relayLogin)
+                        .setClientPasscode(relayPasscode)
+                        .setSystemLogin(relayLogin)
+                        .setSystemPasscode(relayPasscode);
+                break;
+            default:
+                throw new IllegalStateException("Unknown websocket.broker.mode: " + brokerMode);
+        }
+        log.info("WebSocket broker mode: {}", brokerMode);
+
         // Prefix for messages sent from client to server
         config.setApplicationDestinationPrefixes("/app");
+
+        ChannelRegistration brokerChannel = config.configureBrokerChannel();
+        brokerChannel.interceptors(new BrokerMetricsInterceptor(meterRegistry, "websocket.broker.messages"));
+        if ("cluster".equals(brokerMode)) {
+            if (clusterBrokerBridge == null)
+                throw new IllegalStateException("websocket.broker.mode=cluster but no cluster bus is configured");
+            brokerChannel.interceptors(clusterBrokerBridge);
+        }
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(stompAuthChannelInterceptor);
+        registration.taskExecutor()
+                .corePoolSize(inboundPoolSize)
+                .maxPoolSize(inboundPoolSize);
+    }
+
+    // Every frame the broker hands to a client session, i.e. the fan-out per destination
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(new BrokerMetricsInterceptor(meterRegistry, "websocket.outbound.messages"));
     }
 }
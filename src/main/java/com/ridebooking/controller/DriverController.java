@@ -4,13 +4,20 @@ package com.ridebooking.controller;
 import com.ridebooking.dto.DriverLocationUpdateRequest;
 import com.ridebooking.dto.DriverLoginRequest;
 import com.ridebooking.dto.DriverRegisterRequest;
+import com.ridebooking.dto.DriverSummary;
 import com.ridebooking.model.Driver;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.security.JwtPrincipal;
 import com.ridebooking.security.JwtUtil;
 import com.ridebooking.service.DriverService;
+import com.ridebooking.service.RideOfferInbox;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -20,6 +27,7 @@ import java.util.List;
 @RequiredArgsConstructor
 public class DriverController {
     private final DriverService driverService;
+    private final RideOfferInbox offerInbox;
     private final AuthenticationManager authenticationManager;
     private final JwtUtil jwtUtil;
 
@@ -35,23 +43,32 @@ public class DriverController {
                 new UsernamePasswordAuthenticationToken(request.getUsername(), request.getPassword()));
 
         Driver driver = driverService.findByUsername(request.getUsername());
-        String token = jwtUtil.generateToken(driver.getUsername());
+        String token = jwtUtil.generateToken(driver.getUsername(), driver.getId(), Role.DRIVER);
 
         return ResponseEntity.ok().body("Bearer " + token);
     }
 
     @PostMapping("/{id}/availability")
     public ResponseEntity<?> driverAvailability(@PathVariable Long id){
-        Driver driver = driverService.toggleAvailability(id);
-        return ResponseEntity.ok(driver);
+        driverStatus status = driverService.toggleAvailability(id);
+        return ResponseEntity.ok(status);
     }
 
     @GetMapping("/available")
-    public ResponseEntity<List<Driver>> getAvailableDrivers(){
-        List<Driver> availableDrivers =  driverService.getAvailableDrivers();
+    public ResponseEntity<List<DriverSummary>> getAvailableDrivers(){
+        List<DriverSummary> availableDrivers =  driverService.getAvailableDrivers();
         return ResponseEntity.ok(availableDrivers);
     }
 
+    // Rides currently offered to the driver, each with the token needed to accept it, so only for that driver
+    @GetMapping("/{driverId}/offers")
+    public ResponseEntity<List<RideOfferInbox.Offer>> getPendingOffers(@PathVariable Long driverId,
+                                                                       @AuthenticationPrincipal JwtPrincipal principal){
+        if (principal == null || !principal.isDriver(driverId))
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        return ResponseEntity.ok(offerInbox.pending(driverId));
+    }
+
     @PostMapping("/{driverId}/location")
     public ResponseEntity<String> updateLocation(
             @PathVariable Long driverId,
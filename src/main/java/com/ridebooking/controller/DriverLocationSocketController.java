@@ -0,0 +1,33 @@
+package com.ridebooking.controller;
+
+import com.ridebooking.service.DriverService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+
+// Location stream for drivers that keep a STOMP connection open on /ws instead of posting every ping over HTTP
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class DriverLocationSocketController {
+
+    private final DriverService driverService;
+
+    // Frames are sent to /app/driver/{driverId}/location with a compact JSON body: [latitude, longitude]
+    @MessageMapping("/driver/{driverId}/location")
+    public void updateLocation(@DestinationVariable Long driverId, @Payload double[] position) {
+        if (position == null || position.length != 2)
+            throw new IllegalArgumentException("Location frame must be [latitude, longitude]");
+
+        driverService.updateDriverLocation(driverId, position[0], position[1]);
+    }
+
+    @MessageExceptionHandler
+    public void handleException(Exception e) {
+        log.warn("Dropped driver location frame: {}", e.getMessage());
+    }
+}
@@ -0,0 +1,32 @@
+package com.ridebooking.controller;
+
+import com.ridebooking.service.RideOfferInbox;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.List;
+
+// Ride offers: subscribe to /driver/{driverId}/offers for new and withdrawn offers, and once to
+// /app/driver/{driverId}/offers for the ones still open, e.g. after a reconnect. Both need a session connected
+// with that driver's token, see StompAuthChannelInterceptor
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class DriverOfferSocketController {
+
+    private final RideOfferInbox offerInbox;
+
+    @SubscribeMapping("/driver/{driverId}/offers")
+    public List<RideOfferInbox.Offer> pendingOffers(@DestinationVariable Long driverId) {
+        return offerInbox.pending(driverId);
+    }
+
+    @MessageExceptionHandler
+    public void handleException(Exception e) {
+        log.warn("Offer inbox subscription failed: {}", e.getMessage());
+    }
+}
@@ -1,20 +1,28 @@
 package com.ridebooking.controller;
 
+import com.ridebooking.dto.RideHistoryPage;
 import com.ridebooking.dto.RideRatingRequest;
 import com.ridebooking.dto.RideRequest;
+import com.ridebooking.dto.RideView;
 import com.ridebooking.model.Ride;
+import com.ridebooking.model.Role;
 import com.ridebooking.model.paymentStatus;
 import com.ridebooking.model.rideStatus;
 import com.ridebooking.repository.RideRepository;
+import com.ridebooking.security.JwtPrincipal;
 import com.ridebooking.service.RideService;
+import com.ridebooking.service.RideStateMachine;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -22,6 +30,12 @@ import java.util.Objects;
 @RestController
 @RequestMapping("api/rides")
 public class RideController {
+    private static final String NDJSON = "application/x-ndjson";
+    // Optional on the booking and transition endpoints; a retried request with the same key is not applied twice
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String KEY_TOO_LONG =
+            IDEMPOTENCY_KEY + " must be at most " + RideStateMachine.MAX_CLIENT_KEY_LENGTH + " characters";
+
     @Autowired
     private RideService rideService;
 
@@ -29,26 +43,38 @@ public class RideController {
 
     @PostMapping("/book")
 //    @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<?> bookRide(@RequestBody RideRequest request) {
+    public ResponseEntity<?> bookRide(@RequestBody RideRequest request,
+                                      @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         log.info("Ride booking requested : {}", request );
+        if (RideStateMachine.isTooLong(idempotencyKey))
+            return ResponseEntity.badRequest().body(KEY_TOO_LONG);
         try{
-            Ride ride = rideService.createRide(request);
+            Ride ride = rideService.createRide(request, idempotencyKey);
             log.info("Ride booked successfully: {}", ride.getId());
-            return ResponseEntity.ok(ride);
+            return ResponseEntity.ok(RideView.of(ride));
         } catch (Exception e) {
             log.error("Ride booking failed ", e);
             return ResponseEntity.status(500).body("Error booking ride");
         }
     }
 
+    // The accepting driver is the one the token was issued to. The path names no driver; instead the offer token
+    // must have been made out to that driver's id, which the inbox checks when it is redeemed
     @PostMapping("/{rideId}/accept")
 //    @PreAuthorize("hasRole('DRIVER')")
     public ResponseEntity<String> acceptRide(
             @PathVariable Long rideId,
-            @RequestParam Long driverId) {
+            @RequestParam String offerToken,
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (principal == null || principal.role() != Role.DRIVER || principal.id() == null)
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Only a signed in driver can accept a ride");
+        if (RideStateMachine.isTooLong(idempotencyKey))
+            return ResponseEntity.badRequest().body(KEY_TOO_LONG);
+        Long driverId = principal.id();
         log.info("Ride {} accept initiated by driver {}", rideId, driverId);
         try{
-            rideService.acceptRide(rideId, driverId);
+            rideService.acceptRide(rideId, driverId, offerToken, idempotencyKey);
             log.info("Ride accepted successfully");
             return ResponseEntity.ok("Ride accepted successfully");
         } catch (Exception e) {
@@ -59,10 +85,13 @@ public class RideController {
 
     @PostMapping("/{rideId}/start")
 //    @PreAuthorize("hasRole('DRIVER')")
-    public ResponseEntity<String> startRide(@PathVariable("rideId") Long rideId){
+    public ResponseEntity<String> startRide(@PathVariable("rideId") Long rideId,
+                                            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey){
         log.info("Ride {} start initiated", rideId);
+        if (RideStateMachine.isTooLong(idempotencyKey))
+            return ResponseEntity.badRequest().body(KEY_TOO_LONG);
         try{
-            rideService.startRide(rideId);
+            rideService.startRide(rideId, idempotencyKey);
             log.info("Ride {} started successfully.", rideId);
             return ResponseEntity.ok("Ride started successfully");
         } catch (Exception e) {
@@ -75,11 +104,14 @@ public class RideController {
     @PostMapping("/{rideId}/complete")
 //    @PreAuthorize("hasRole('DRIVER')")
     public ResponseEntity<String> completeRide(@PathVariable Long rideId,
-                                               @RequestParam double distanceKm,
-                                               @RequestParam double durationMinutes) {
+                                               @RequestParam(required = false) Double distanceKm,
+                                               @RequestParam(required = false) Double durationMinutes,
+                                               @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         log.info("Complete ride {} with distance {} and duration {} initiated", rideId, distanceKm, durationMinutes);
+        if (RideStateMachine.isTooLong(idempotencyKey))
+            return ResponseEntity.badRequest().body(KEY_TOO_LONG);
         try{
-            rideService.completeRide(rideId, distanceKm, durationMinutes);
+            rideService.completeRide(rideId, distanceKm, durationMinutes, idempotencyKey);
             log.info("Ride {} completed successfully.", rideId);
             return ResponseEntity.ok("Ride completed successfully");
         } catch (Exception e) {
@@ -92,12 +124,15 @@ public class RideController {
 
     @PostMapping("/{rideId}/cancel")
 //    @PreAuthorize("hasRole('DRIVER')")
-    public ResponseEntity<?> cancelRide(@PathVariable Long rideId){
+    public ResponseEntity<?> cancelRide(@PathVariable Long rideId,
+                                        @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey){
         log.info("Ride {} cancellation initiated.", rideId);
+        if (RideStateMachine.isTooLong(idempotencyKey))
+            return ResponseEntity.badRequest().body(KEY_TOO_LONG);
         try{
-            Ride cancelRide = rideService.cancelRide(rideId);
+            Ride cancelRide = rideService.cancelRide(rideId, idempotencyKey);
             log.info("Ride {} cancelled successfully", rideId);
-            return ResponseEntity.ok(cancelRide);
+            return ResponseEntity.ok(RideView.of(cancelRide));
         }
         catch (RuntimeException e){
             log.error("Failed to cancel the ride {}", rideId);
@@ -120,14 +155,30 @@ public class RideController {
         }
     }
 
+    @GetMapping("/{rideId}/events")
+//    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getRideEvents(@PathVariable Long rideId){
+        log.info("Ride {} events requested", rideId);
+        return ResponseEntity.ok(rideService.getRideEvents(rideId));
+    }
+
+    @GetMapping("/{rideId}/trail")
+//    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getRideTrail(@PathVariable Long rideId){
+        log.info("Ride {} trail requested", rideId);
+        return ResponseEntity.ok(rideService.getRideTrail(rideId));
+    }
+
     @PostMapping("/user/{userId}/rides")
 //    @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<List<Ride>> getUserRideHistory(@PathVariable Long userId){
+    public ResponseEntity<RideHistoryPage> getUserRideHistory(@PathVariable Long userId,
+                                                              @RequestParam(required = false) String cursor,
+                                                              @RequestParam(defaultValue = "50") int limit){
         log.info("User {} ride history initiated", userId);
         try{
-            List<Ride> rides = rideService.getUserRideHistory(userId);
+            RideHistoryPage page = rideService.getUserRideHistory(userId, cursor, limit);
             log.info("Ride history successfully fetched");
-            return ResponseEntity.ok(rides);
+            return ResponseEntity.ok(page);
         }
         catch (RuntimeException e){
             log.error("Failed to fetch the user's ride history");
@@ -137,18 +188,37 @@ public class RideController {
 
     @PostMapping("/driver/{driverId}/rides")
 //    @PreAuthorize("hasRole('DRIVER')")
-    public ResponseEntity<List<Ride>> getDriverRideHistory(@PathVariable Long driverId){
+    public ResponseEntity<RideHistoryPage> getDriverRideHistory(@PathVariable Long driverId,
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(defaultValue = "50") int limit){
         log.info("Driver {} ride history fetch initiated", driverId);
         try{
-            List<Ride> rides = rideService.getDirverRideHistory(driverId);
+            RideHistoryPage page = rideService.getDirverRideHistory(driverId, cursor, limit);
             log.info("Driver {} rides fetched successfully." , driverId);
-            return ResponseEntity.ok(rides);
+            return ResponseEntity.ok(page);
         } catch (Exception e) {
             log.error("Failed to fetch driver's ride history");
             throw new RuntimeException(e.getMessage());
         }
     }
 
+    // Full history as newline-delimited JSON, streamed row by row
+    @GetMapping(value = "/user/{userId}/rides/export", produces = NDJSON)
+//    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<StreamingResponseBody> exportUserRideHistory(@PathVariable Long userId){
+        log.info("User {} ride history export initiated", userId);
+        StreamingResponseBody body = out -> rideService.exportUserRideHistory(userId, out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    @GetMapping(value = "/driver/{driverId}/rides/export", produces = NDJSON)
+//    @PreAuthorize("hasRole('DRIVER')")
+    public ResponseEntity<StreamingResponseBody> exportDriverRideHistory(@PathVariable Long driverId){
+        log.info("Driver {} ride history export initiated", driverId);
+        StreamingResponseBody body = out -> rideService.exportDriverRideHistory(driverId, out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
     @PostMapping("/rate")
 //    @PreAuthorize("hasRole('DRIVER') or hasRole('USER')")
     public ResponseEntity<?> rateRide(@RequestBody RideRatingRequest request){
@@ -192,6 +262,7 @@ public class RideController {
         double estimatedFare = rideService.estimateFare(pickupLat, pickupLng, dropLat, dropLng);
         Map<String, Object> response = new HashMap<>();
         response.put("estimatedFare", Math.round(estimatedFare * 100.0) / 100.0);
+        response.put("surgeMultiplier", rideService.getSurgeMultiplier(pickupLat, pickupLng));
         return ResponseEntity.ok(response);
     }
 
@@ -0,0 +1,34 @@
+package com.ridebooking.controller;
+
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.service.RideService;
+import com.ridebooking.service.RideTrackingPublisher;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+// Live ride updates: subscribe to /ride/{rideId} for the stream, and once to /app/ride/{rideId} for the current state
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class RideTrackingSocketController {
+
+    private final RideTrackingPublisher trackingPublisher;
+    private final RideService rideService;
+
+    // Status from the DB, position from this node's channel if it follows the ride
+    @SubscribeMapping("/ride/{rideId}")
+    public RideTrackingPublisher.Snapshot snapshot(@DestinationVariable Long rideId) {
+        rideStatus status = rideService.getRideStatus(rideId);
+        return trackingPublisher.snapshot(rideId).orElseGet(() ->
+                new RideTrackingPublisher.Snapshot(rideId, status, null, null, null, null));
+    }
+
+    @MessageExceptionHandler
+    public void handleException(Exception e) {
+        log.warn("Ride tracking subscription failed: {}", e.getMessage());
+    }
+}
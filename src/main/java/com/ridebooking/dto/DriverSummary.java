@@ -0,0 +1,18 @@
+package com.ridebooking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Public view of a driver for listings, selected column by column instead of loading the entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DriverSummary {
+    private Long id;
+    private String fullName;
+    private String vehicleNumber;
+    private String vehicleModel;
+    private Double currentLatitude;
+    private Double currentLongitude;
+}
@@ -0,0 +1,14 @@
+package com.ridebooking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class RideHistoryPage {
+    private List<RideSummary> rides;
+    // Pass back as ?cursor= to get the next page, null when there are no more rides
+    private String nextCursor;
+}
@@ -0,0 +1,29 @@
+package com.ridebooking.dto;
+
+import com.ridebooking.model.paymentStatus;
+import com.ridebooking.model.rideStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Slim read model of a ride for history listings, built straight from the query without loading the entity graph
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RideSummary {
+    private Long id;
+    private rideStatus status;
+    private String pickupLocation;
+    private String dropoffLocation;
+    private Double fare;
+    private Double distanceKm;
+    private Double durationMinutes;
+    private paymentStatus paymentStatus;
+    private LocalDateTime createdAt;
+    private LocalDateTime startTime;
+    private LocalDateTime completionTime;
+    private Long riderId;
+    private Long driverId;
+}
@@ -0,0 +1,39 @@
+package com.ridebooking.dto;
+
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.paymentStatus;
+import com.ridebooking.model.rideStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// What the ride endpoints send back instead of the entity: the ride's own columns plus the ids of rider and driver
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RideView {
+    private Long id;
+    private rideStatus status;
+    private String pickupLocation;
+    private String dropoffLocation;
+    private double pickupLattitude;
+    private double pickupLongitude;
+    private Double surgeMultiplier;
+    private Double fare;
+    private paymentStatus paymentStatus;
+    private LocalDateTime createdAt;
+    private LocalDateTime startTime;
+    private LocalDateTime completionTime;
+    private Long riderId;
+    private Long driverId;
+
+    // Only reads the ids of the associations, so lazy rider and driver stay unloaded
+    public static RideView of(Ride ride) {
+        return new RideView(ride.getId(), ride.getStatus(), ride.getPickupLocation(), ride.getDropoffLocation(),
+                ride.getPickupLattitude(), ride.getPickupLongitude(), ride.getSurgeMultiplier(), ride.getFare(),
+                ride.getPaymentStatus(), ride.getCreatedAt(), ride.getStartTime(), ride.getCompletionTime(),
+                ride.getRider().getId(), ride.getDriver() != null ? ride.getDriver().getId() : null);
+    }
+}
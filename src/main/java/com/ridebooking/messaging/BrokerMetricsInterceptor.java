@@ -0,0 +1,49 @@
+package com.ridebooking.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts STOMP messages per destination on a message channel. Destinations are tagged by their first path segment
+ * only ({@code /ride/42} counts as {@code /ride}) so ride ids don't turn into a tag value each; messages that came
+ * in from another cluster node are tagged {@code origin=remote}.
+ */
+public class BrokerMetricsInterceptor implements ChannelInterceptor {
+
+    private final MeterRegistry meterRegistry;
+    private final String metricName;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public BrokerMetricsInterceptor(MeterRegistry meterRegistry, String metricName) {
+        this.meterRegistry = meterRegistry;
+        this.metricName = metricName;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE)
+            return message;
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null)
+            return message;
+
+        String origin = message.getHeaders().containsKey(ClusterBrokerBridge.ORIGIN_HEADER) ? "remote" : "local";
+        String group = group(destination);
+        counters.computeIfAbsent(group + '|' + origin,
+                key -> meterRegistry.counter(metricName, "destination", group, "origin", origin)).increment();
+        return message;
+    }
+
+    static String group(String destination) {
+        int end = destination.indexOf('/', 1);
+        return end < 0 ? destination : destination.substring(0, end);
+    }
+}
@@ -0,0 +1,93 @@
+package com.ridebooking.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Connects the in-process simple broker of this node to the brokers of the other nodes.
+ * <p>
+ * Registered as an interceptor on the broker channel, it copies every message headed for one of the broker
+ * destinations onto the {@link ClusterMessageBus} before the local broker delivers it. Messages arriving from the
+ * bus are sent into the local broker channel, marked with their origin so they aren't published again. Each node
+ * then delivers to its own subscribers, so a rider connected to any node sees updates sent from any other.
+ */
+@Slf4j
+public class ClusterBrokerBridge implements ChannelInterceptor {
+
+    public static final String ORIGIN_HEADER = "clusterOrigin";
+
+    private final ClusterMessageBus bus;
+    private final MessageChannel brokerChannel;
+    private final String nodeId;
+    private final String[] destinationPrefixes;
+
+    private final Counter forwardedCounter;
+    private final Counter receivedCounter;
+    private final Counter skippedCounter;
+
+    public ClusterBrokerBridge(ClusterMessageBus bus, MessageChannel brokerChannel, String nodeId,
+                               String[] destinationPrefixes, MeterRegistry meterRegistry) {
+        this.bus = bus;
+        this.brokerChannel = brokerChannel;
+        this.nodeId = nodeId;
+        this.destinationPrefixes = destinationPrefixes;
+
+        this.forwardedCounter = meterRegistry.counter("websocket.cluster.messages", "direction", "out");
+        this.receivedCounter = meterRegistry.counter("websocket.cluster.messages", "direction", "in");
+        this.skippedCounter = meterRegistry.counter("websocket.cluster.messages.skipped");
+        bus.subscribe(this::deliver);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || message.getHeaders().containsKey(ORIGIN_HEADER))
+            return message;
+
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !isBrokerDestination(destination))
+            return message;
+
+        // SimpMessagingTemplate has already serialized the payload, anything else can't travel
+        if (!(message.getPayload() instanceof byte[] payload)) {
+            skippedCounter.increment();
+            log.debug("Not forwarding {} payload to {}", message.getPayload().getClass().getSimpleName(), destination);
+            return message;
+        }
+
+        MimeType contentType = SimpMessageHeaderAccessor.getContentType(message.getHeaders());
+        bus.publish(new ClusterMessage(nodeId, destination, contentType != null ? contentType.toString() : null, payload));
+        forwardedCounter.increment();
+        return message;
+    }
+
+    private void deliver(ClusterMessage message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(message.destination());
+        if (message.contentType() != null)
+            accessor.setContentType(MimeTypeUtils.parseMimeType(message.contentType()));
+        accessor.setHeader(ORIGIN_HEADER, message.origin());
+        brokerChannel.send(MessageBuilder.createMessage(message.payload(), accessor.getMessageHeaders()));
+        receivedCounter.increment();
+    }
+
+    private boolean isBrokerDestination(String destination) {
+        for (String prefix : destinationPrefixes)
+            if (destination.startsWith(prefix))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,5 @@
+package com.ridebooking.messaging;
+
+// A broker message as it travels between nodes; the payload is already serialized by the sending node
+public record ClusterMessage(String origin, String destination, String contentType, byte[] payload) {
+}
@@ -0,0 +1,17 @@
+package com.ridebooking.messaging;
+
+import java.util.function.Consumer;
+
+/**
+ * Pub/sub between the app nodes of one cluster. Every message published on one node is handed to the
+ * subscribers of all other nodes; delivery is best effort and a node never receives its own messages.
+ */
+public interface ClusterMessageBus extends AutoCloseable {
+
+    void publish(ClusterMessage message);
+
+    void subscribe(Consumer<ClusterMessage> subscriber);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,45 @@
+package com.ridebooking.messaging;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Bus between application contexts running in the same JVM, for tests that start several nodes side by side.
+ * Buses created with the same cluster name see each other's messages; delivery happens on the publishing thread.
+ */
+public class InMemoryClusterMessageBus implements ClusterMessageBus {
+
+    private record Subscriber(String nodeId, Consumer<ClusterMessage> consumer) {
+    }
+
+    private static final Map<String, List<Subscriber>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final List<Subscriber> members;
+
+    public InMemoryClusterMessageBus(String clusterName, String nodeId) {
+        this.nodeId = nodeId;
+        this.members = CLUSTERS.computeIfAbsent(clusterName, name -> new CopyOnWriteArrayList<>());
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (Subscriber subscriber : members)
+            if (!subscriber.nodeId().equals(message.origin()))
+                subscriber.consumer().accept(message);
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterMessage> consumer) {
+        members.add(new Subscriber(nodeId, consumer));
+    }
+
+    // Leave the cluster when the context shuts down
+    @Override
+    public void close() {
+        members.removeIf(subscriber -> subscriber.nodeId().equals(nodeId));
+    }
+}
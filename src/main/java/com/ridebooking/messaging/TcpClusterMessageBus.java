@@ -0,0 +1,367 @@
+package com.ridebooking.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bus over plain TCP connections between a fixed list of nodes, no external broker needed.
+ * <p>
+ * Every node listens on {@code websocket.cluster.port} and keeps one outgoing connection per peer, fed from a
+ * bounded queue by its own sender thread; when a peer is down or too slow its queue fills up and further messages
+ * for it are dropped instead of slowing the publisher. The peer list may include the node itself, so all nodes can
+ * share the same configuration.
+ * <p>
+ * Frames go straight into the local broker, past the STOMP authorization, so only nodes holding
+ * {@code websocket.cluster.secret} may send them. A node accepting a connection first sends a random nonce. Every
+ * frame is then {@code [length][origin][destination][content type][payload length][payload][mac]}, where the mac is
+ * an HMAC-SHA256 over the nonce, the frame's sequence number on the connection and the frame itself, so frames can't
+ * be forged, replayed or reordered. A connection is closed on the first bad mac, on a frame longer than
+ * {@code websocket.cluster.max-frame-bytes}, or when its first frame doesn't arrive within the connect timeout.
+ */
+@Slf4j
+public class TcpClusterMessageBus implements ClusterMessageBus {
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_BYTES = 32;
+    private static final int NONCE_BYTES = 16;
+
+    private final String nodeId;
+    private final InetAddress bindAddress;
+    private final int port;
+    private final List<Peer> peers;
+    private final SecretKeySpec key;
+    private final int maxFrameBytes;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Consumer<ClusterMessage>> subscribers = new CopyOnWriteArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    /**
+     * @param bindAddress   Interface to listen on, or null for all of them.
+     * @param secret        Shared by every node of the cluster; frames signed with anything else are refused.
+     * @param maxFrameBytes Longest frame, headers included, accepted from a peer; longer messages aren't sent.
+     */
+    public TcpClusterMessageBus(String nodeId, InetAddress bindAddress, int port, List<InetSocketAddress> peerAddresses,
+                                int queueCapacity, String secret, int maxFrameBytes) {
+        if (secret == null || secret.isBlank())
+            throw new IllegalArgumentException("websocket.cluster.secret must be set for the tcp transport");
+        if (maxFrameBytes <= 0)
+            throw new IllegalArgumentException("websocket.cluster.max-frame-bytes must be positive");
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.maxFrameBytes = maxFrameBytes;
+        this.peers = peerAddresses.stream().map(address -> new Peer(address, queueCapacity)).toList();
+    }
+
+    public void start() throws IOException {
+        running = true;
+        serverSocket = new ServerSocket(port, 50, bindAddress);
+        daemon("cluster-bus-accept", this::acceptLoop).start();
+        for (Peer peer : peers)
+            daemon("cluster-bus-send-" + peer.address, peer::sendLoop).start();
+        log.info("Cluster bus of node {} listening on {} with {} peers", nodeId, serverSocket.getLocalSocketAddress(),
+                peers.size());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null)
+                serverSocket.close();
+        } catch (IOException e) {
+            log.debug("Closing cluster bus listener failed", e);
+        }
+        // Unblocks the readers; senders notice within a poll interval and close their own connections
+        for (Socket socket : inbound) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Closing cluster bus connection failed", e);
+            }
+        }
+    }
+
+    public int localPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long droppedMessages() {
+        return dropped.get();
+    }
+
+    // Connections closed for a bad mac, an oversized frame or no first frame in time
+    public long rejectedConnections() {
+        return rejected.get();
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        // Peers would close the connection on it
+        if (message.payload().length > maxFrameBytes) {
+            log.warn("Not publishing {} bytes to {}, more than websocket.cluster.max-frame-bytes",
+                    message.payload().length, message.destination());
+            dropped.addAndGet(peers.size());
+            return;
+        }
+        for (Peer peer : peers)
+            if (!peer.queue.offer(message))
+                dropped.incrementAndGet();
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterMessage> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                inbound.add(socket);
+                daemon("cluster-bus-read-" + socket.getRemoteSocketAddress(), () -> readLoop(socket)).start();
+            } catch (IOException e) {
+                if (running)
+                    log.warn("Cluster bus accept failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            byte[] nonce = new byte[NONCE_BYTES];
+            random.nextBytes(nonce);
+            socket.getOutputStream().write(nonce);
+            socket.getOutputStream().flush();
+            // A peer connects when it has something to send, so the first frame follows right away
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+
+            Mac mac = mac();
+            byte[] expected = new byte[MAC_BYTES];
+            for (long sequence = 0; running; sequence++) {
+                int length = in.readInt();
+                if (length < 0 || length > maxFrameBytes) {
+                    reject(socket, "frame of " + length + " bytes");
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                byte[] received = new byte[MAC_BYTES];
+                in.readFully(received);
+                sign(mac, nonce, sequence, frame, expected);
+                if (!MessageDigest.isEqual(expected, received)) {
+                    reject(socket, "bad mac");
+                    return;
+                }
+                if (sequence == 0)
+                    socket.setSoTimeout(0);
+
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(frame));
+                String origin = fields.readUTF();
+                String destination = fields.readUTF();
+                String contentType = fields.readUTF();
+                int payloadLength = fields.readInt();
+                if (payloadLength < 0 || payloadLength != fields.available()) {
+                    reject(socket, "payload length " + payloadLength);
+                    return;
+                }
+                byte[] payload = new byte[payloadLength];
+                fields.readFully(payload);
+
+                // Our own messages come back when the peer list includes this node
+                if (origin.equals(nodeId))
+                    continue;
+                ClusterMessage message = new ClusterMessage(origin, destination,
+                        contentType.isEmpty() ? null : contentType, payload);
+                for (Consumer<ClusterMessage> subscriber : subscribers) {
+                    try {
+                        subscriber.accept(message);
+                    } catch (RuntimeException e) {
+                        log.warn("Cluster bus subscriber failed on {}: {}", destination, e.getMessage());
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("Cluster peer {} disconnected", socket.getRemoteSocketAddress());
+        } catch (SocketTimeoutException e) {
+            reject(socket, "no frame within " + CONNECT_TIMEOUT_MS + " ms");
+        } catch (IOException e) {
+            if (running)
+                log.warn("Cluster bus connection from {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            inbound.remove(socket);
+        }
+    }
+
+    private void reject(Socket socket, String reason) {
+        rejected.incrementAndGet();
+        log.warn("Closing cluster bus connection from {}: {}", socket.getRemoteSocketAddress(), reason);
+    }
+
+    private Mac mac() {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+
+    // HMAC of the connection's nonce, the frame's position on the connection and the frame
+    private static void sign(Mac mac, byte[] nonce, long sequence, byte[] frame, byte[] out) {
+        mac.update(nonce);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            mac.update((byte) (sequence >>> shift));
+        mac.update(frame);
+        try {
+            mac.doFinal(out, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private final class Peer {
+        final InetSocketAddress address;
+        final BlockingQueue<ClusterMessage> queue;
+        final Mac mac = mac();
+        final byte[] signature = new byte[MAC_BYTES];
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Socket socket;
+        DataOutputStream out;
+        byte[] nonce;
+        long sequence;
+
+        Peer(InetSocketAddress address, int queueCapacity) {
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        void sendLoop() {
+            while (running) {
+                ClusterMessage message;
+                try {
+                    message = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (message == null)
+                    continue;
+
+                try {
+                    if (out == null)
+                        connect();
+                    write(message);
+                    // Batch up whatever queued meanwhile into one flush
+                    if (queue.isEmpty())
+                        out.flush();
+                } catch (IOException e) {
+                    dropped.incrementAndGet();
+                    log.warn("Cluster peer {} unreachable: {}", address, e.getMessage());
+                    disconnect();
+                    pause();
+                }
+            }
+            disconnect();
+        }
+
+        void connect() throws IOException {
+            Socket s = new Socket();
+            s.setTcpNoDelay(true);
+            s.connect(address, CONNECT_TIMEOUT_MS);
+            socket = s;
+            s.setSoTimeout(CONNECT_TIMEOUT_MS);
+            nonce = new DataInputStream(s.getInputStream()).readNBytes(NONCE_BYTES);
+            if (nonce.length != NONCE_BYTES)
+                throw new EOFException("Peer closed before sending its nonce");
+            s.setSoTimeout(0);
+            sequence = 0;
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        }
+
+        void write(ClusterMessage message) throws IOException {
+            buffer.reset();
+            DataOutputStream fields = new DataOutputStream(buffer);
+            fields.writeUTF(message.origin());
+            fields.writeUTF(message.destination());
+            fields.writeUTF(message.contentType() != null ? message.contentType() : "");
+            fields.writeInt(message.payload().length);
+            fields.write(message.payload());
+            byte[] frame = buffer.toByteArray();
+            // The headers pushed it over what publish() let through
+            if (frame.length > maxFrameBytes) {
+                dropped.incrementAndGet();
+                log.warn("Not sending {} bytes to {}, more than websocket.cluster.max-frame-bytes", frame.length,
+                        message.destination());
+                return;
+            }
+
+            sign(mac, nonce, sequence++, frame, signature);
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.write(signature);
+        }
+
+        void disconnect() {
+            try {
+                if (socket != null)
+                    socket.close();
+            } catch (IOException e) {
+                log.debug("Closing connection to {} failed", address, e);
+            }
+            socket = null;
+            out = null;
+        }
+
+        void pause() {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
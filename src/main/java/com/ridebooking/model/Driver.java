@@ -2,13 +2,14 @@ package com.ridebooking.model;
 
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.*;
 
 import java.util.List;
 
 @Entity
-@Table(name = "drivers")
+@Table(name = "drivers", indexes = @Index(name = "idx_drivers_status", columnList = "status"))
 @Getter
 @Setter
 @Builder
@@ -21,6 +22,8 @@ public class Driver extends base{
     @Column(unique = true)
     private String email;
 
+    // Accepted on registration, never written back out
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     @Column(nullable = false)
     private String password;
 
@@ -0,0 +1,45 @@
+package com.ridebooking.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// A payment order waiting to be created at the gateway for a completed ride
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "payment_outbox",
+        indexes = @Index(name = "idx_payment_outbox_due", columnList = "status, next_attempt_at"))
+public class PaymentOutbox extends base {
+
+    @Column(nullable = false, unique = true)
+    private Long rideId;
+
+    // Sent to the gateway as the order receipt, so a retried request can find an order that already went through
+    @Column(nullable = false, unique = true)
+    private String idempotencyKey;
+
+    @Column(nullable = false)
+    private double amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private outboxStatus status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    // When the entry is next due; while IN_PROGRESS this is the end of the worker's lease
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column
+    private String orderId;
+
+    @Column(length = 1000)
+    private String lastError;
+}
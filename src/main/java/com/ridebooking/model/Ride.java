@@ -11,16 +11,23 @@ import java.time.LocalDateTime;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "rides")
+// Indexes are created by the Flyway migrations, listed here to keep the mapping honest
+@Table(name = "rides", indexes = {
+        @Index(name = "idx_rides_rider_status", columnList = "rider_id, status"),
+        @Index(name = "idx_rides_driver_status", columnList = "driver_id, status"),
+        @Index(name = "idx_rides_status_created", columnList = "status, created_at"),
+        @Index(name = "idx_rides_rider_created", columnList = "rider_id, created_at, id"),
+        @Index(name = "idx_rides_driver_created", columnList = "driver_id, created_at, id")
+})
 public class Ride extends base{
 
-    //Many rides can belong to a single user
-    @ManyToOne
+    //Many rides can belong to a single user; loaded only when used, read endpoints select the ids they need
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "rider_id", nullable = false)
     private User rider;
 
     // many rides can also belong to a single driver
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "driver_id")
     private Driver driver;
 
@@ -47,6 +54,10 @@ public class Ride extends base{
     @Column(name = "fare")
     private Double fare;
 
+    // Surge in effect at the pickup when the ride was booked, applied to the final fare
+    @Column
+    private Double surgeMultiplier;
+
     @Enumerated(EnumType.STRING)
     private rideStatus status;
 
@@ -68,6 +79,15 @@ public class Ride extends base{
     @Column
     private Double durationMinutes;
 
+    // Distance the server tracked from the driver's pings; null when the fare fell back to the client's distance.
+    // While the ride is STARTED, the running distance last checkpointed by the node tracking it
+    @Column
+    private Double trackedDistanceKm;
+
+    // Accepted pings behind the checkpointed trackedDistanceKm
+    @Column
+    private Integer trackedPoints;
+
     @Enumerated(EnumType.STRING)
     private paymentStatus paymentStatus;
 
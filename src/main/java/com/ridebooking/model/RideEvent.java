@@ -0,0 +1,41 @@
+package com.ridebooking.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// One status transition of a ride; rows are only ever inserted
+@Entity
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "ride_events", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_ride_events_ride_to_status", columnNames = {"ride_id", "to_status"}),
+        @UniqueConstraint(name = "uk_ride_events_idempotency_key", columnNames = "idempotency_key")
+})
+public class RideEvent extends base {
+
+    @Column(nullable = false)
+    private Long rideId;
+
+    // Null for the REQUESTED event written when the ride is booked
+    @Enumerated(EnumType.STRING)
+    private rideStatus fromStatus;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private rideStatus toStatus;
+
+    @Column
+    private Long driverId;
+
+    // Set on COMPLETED
+    @Column
+    private Double fare;
+
+    // The client's Idempotency-Key scoped to the rider (booking) or the ride (transitions), or ride-{id}-{status}
+    // when it didn't send one
+    @Column(nullable = false, length = 128)
+    private String idempotencyKey;
+}
@@ -1,5 +1,6 @@
 package com.ridebooking.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -18,6 +19,8 @@ public class User extends base{
     @Column(unique = true)
     private String email;
 
+    // Accepted on registration, never written back out
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     @Column(nullable = false)
     private String password;
 
@@ -0,0 +1,8 @@
+package com.ridebooking.model;
+
+public enum outboxStatus {
+    PENDING,
+    IN_PROGRESS,
+    DONE,
+    FAILED
+}
@@ -1,14 +1,50 @@
 package com.ridebooking.repository;
 
+import com.ridebooking.dto.DriverSummary;
 import com.ridebooking.model.Driver;
 import com.ridebooking.model.driverStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DriverRepository extends JpaRepository<Driver, Long> {
     Driver findByUsername(String username);
     List<Driver> findByStatus(driverStatus status);
+
+    @Query("select new com.ridebooking.dto.DriverSummary(d.Id, d.fullName, d.vehicleNumber, d.vehicleModel, " +
+            "d.currentLatitude, d.currentLongitude) from Driver d where d.status = :status")
+    List<DriverSummary> findSummariesByStatus(@Param("status") driverStatus status);
+
+    @Query("select d.status from Driver d where d.Id = :driverId")
+    Optional<driverStatus> findStatusById(@Param("driverId") Long driverId);
+
+    // [driverId, status] of each of the drivers
+    @Query("select d.Id, d.status from Driver d where d.Id in :driverIds")
+    List<Object[]> findStatusesByIds(@Param("driverIds") Collection<Long> driverIds);
+
+    // Compare-and-set on the driver status, returns 1 if the driver was in the expected status
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Driver d set d.status = :next, d.updatedAt = :now where d.Id = :driverId and d.status = :expected")
+    int updateStatusIf(@Param("driverId") Long driverId,
+                       @Param("expected") driverStatus expected,
+                       @Param("next") driverStatus next,
+                       @Param("now") LocalDateTime now);
+
+    // Writes only the token, so the location and status columns written by others are left alone
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Driver d set d.fcmToken = :token, d.updatedAt = :now where d.Id = :driverId")
+    int updateFcmToken(@Param("driverId") Long driverId,
+                       @Param("token") String token,
+                       @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,64 @@
+package com.ridebooking.repository;
+
+import com.ridebooking.model.PaymentOutbox;
+import com.ridebooking.model.outboxStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PaymentOutboxRepository extends JpaRepository<PaymentOutbox, Long> {
+
+    Optional<PaymentOutbox> findByRideId(Long rideId);
+
+    long countByStatus(outboxStatus status);
+
+    @Query("select o from PaymentOutbox o where o.status in :statuses and o.nextAttemptAt <= :now order by o.nextAttemptAt")
+    List<PaymentOutbox> findDue(@Param("statuses") Collection<outboxStatus> statuses,
+                                @Param("now") LocalDateTime now,
+                                Pageable pageable);
+
+    // Take the entry for one worker until leaseUntil; returns 0 if another worker got there first
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update PaymentOutbox o set o.status = com.ridebooking.model.outboxStatus.IN_PROGRESS, " +
+            "o.attempts = o.attempts + 1, o.nextAttemptAt = :leaseUntil, o.updatedAt = :now " +
+            "where o.Id = :id and o.status = :expected and o.nextAttemptAt <= :now")
+    int claim(@Param("id") Long id,
+              @Param("expected") outboxStatus expected,
+              @Param("now") LocalDateTime now,
+              @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    // Records the outcome of the attempt a worker claimed; returns 0 if its lease ran out and another worker claimed
+    // the entry since, so only the current owner decides the entry's fate
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update PaymentOutbox o set o.status = com.ridebooking.model.outboxStatus.DONE, o.orderId = :orderId, " +
+            "o.lastError = null, o.updatedAt = :now " +
+            "where o.Id = :id and o.status = com.ridebooking.model.outboxStatus.IN_PROGRESS and o.attempts = :attempts")
+    int completeAttempt(@Param("id") Long id,
+                        @Param("attempts") int attempts,
+                        @Param("orderId") String orderId,
+                        @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update PaymentOutbox o set o.status = :next, o.nextAttemptAt = :nextAttemptAt, o.lastError = :error, " +
+            "o.updatedAt = :now " +
+            "where o.Id = :id and o.status = com.ridebooking.model.outboxStatus.IN_PROGRESS and o.attempts = :attempts")
+    int failAttempt(@Param("id") Long id,
+                    @Param("attempts") int attempts,
+                    @Param("next") outboxStatus next,
+                    @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                    @Param("error") String error,
+                    @Param("now") LocalDateTime now);
+}
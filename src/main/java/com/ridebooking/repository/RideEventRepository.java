@@ -0,0 +1,19 @@
+package com.ridebooking.repository;
+
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.rideStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface RideEventRepository extends JpaRepository<RideEvent, Long> {
+
+    Optional<RideEvent> findByRideIdAndToStatus(Long rideId, rideStatus toStatus);
+
+    Optional<RideEvent> findByIdempotencyKey(String idempotencyKey);
+
+    List<RideEvent> findByRideIdOrderByIdAsc(Long rideId);
+}
@@ -1,21 +1,147 @@
 package com.ridebooking.repository;
 
+import com.ridebooking.dto.RideSummary;
+import com.ridebooking.dto.RideView;
 import com.ridebooking.model.Driver;
 import com.ridebooking.model.Ride;
-import com.ridebooking.model.User;
+import com.ridebooking.model.paymentStatus;
 import com.ridebooking.model.rideStatus;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface RideRepository extends JpaRepository<Ride, Long> {
+
+    String SUMMARY_SELECT = "select new com.ridebooking.dto.RideSummary(r.Id, r.status, r.pickupLocation, " +
+            "r.dropoffLocation, r.fare, r.distanceKm, r.durationMinutes, r.paymentStatus, r.createdAt, " +
+            "r.startTime, r.completionTime, r.rider.Id, d.Id) from Ride r left join r.driver d ";
+
+    String VIEW_SELECT = "select new com.ridebooking.dto.RideView(r.Id, r.status, r.pickupLocation, " +
+            "r.dropoffLocation, r.pickupLattitude, r.pickupLongitude, r.surgeMultiplier, r.fare, r.paymentStatus, " +
+            "r.createdAt, r.startTime, r.completionTime, r.rider.Id, d.Id) from Ride r left join r.driver d ";
+
+    // Newest first; (createdAt, id) is the keyset so pages stay stable while new rides come in
+    String NEWEST_FIRST = " order by r.createdAt desc, r.Id desc";
+
+    String BEFORE_CURSOR = " and (r.createdAt < :createdAt or (r.createdAt = :createdAt and r.Id < :id))";
+
+    // Rows per round trip while streaming. MySQL honours it only with useCursorFetch=true on the JDBC URL and buffers
+    // the whole result otherwise; its Integer.MIN_VALUE row-by-row mode would be rejected by other databases
+    String STREAMING_FETCH_SIZE = "500";
+
     List<Ride> findByRiderId(Long userId);
 
     List<Ride> findByDriverId(Long driverId);
 
-    Optional<Ride> findByRiderAndStatusIn(User rider, List<rideStatus> statuses);
+    @Query(VIEW_SELECT + "where r.rider.Id = :riderId and r.status in :statuses")
+    Optional<RideView> findRiderRideInStatus(@Param("riderId") Long riderId,
+                                             @Param("statuses") List<rideStatus> statuses);
+
+    @Query(VIEW_SELECT + "where r.driver.Id = :driverId and r.status in :statuses")
+    Optional<RideView> findDriverRideInStatus(@Param("driverId") Long driverId,
+                                              @Param("statuses") List<rideStatus> statuses);
+
+    @Query("select r.rider.Id from Ride r where r.Id = :rideId")
+    Long findRiderIdById(@Param("rideId") Long rideId);
+
+    @Query("select r.status from Ride r where r.Id = :rideId")
+    Optional<rideStatus> findStatusById(@Param("rideId") Long rideId);
+
+    @Query("select d.Id from Ride r join r.driver d where r.Id = :rideId")
+    Optional<Long> findDriverIdById(@Param("rideId") Long rideId);
+
+    // [rideId, status] of each of the rides
+    @Query("select r.Id, r.status from Ride r where r.Id in :rideIds")
+    List<Object[]> findStatusesByIds(@Param("rideIds") Collection<Long> rideIds);
+
+    // [rideId, status, trackedDistanceKm, trackedPoints] of the driver's rides in the statuses
+    @Query("select r.Id, r.status, r.trackedDistanceKm, r.trackedPoints from Ride r " +
+            "where r.driver.Id = :driverId and r.status in :statuses")
+    List<Object[]> findDriverRideProgress(@Param("driverId") Long driverId,
+                                          @Param("statuses") List<rideStatus> statuses);
+
+    // [rideId, driverId] of every ride in the status that has a driver
+    @Query("select r.Id, d.Id from Ride r join r.driver d where r.status = :status")
+    List<Object[]> findRideAndDriverIdsByStatus(@Param("status") rideStatus status);
+
+    @Query(SUMMARY_SELECT + "where r.rider.Id = :riderId" + NEWEST_FIRST)
+    List<RideSummary> findRiderHistory(@Param("riderId") Long riderId, Pageable pageable);
+
+    @Query(SUMMARY_SELECT + "where r.rider.Id = :riderId" + BEFORE_CURSOR + NEWEST_FIRST)
+    List<RideSummary> findRiderHistoryBefore(@Param("riderId") Long riderId,
+                                             @Param("createdAt") LocalDateTime createdAt,
+                                             @Param("id") Long id,
+                                             Pageable pageable);
+
+    @Query(SUMMARY_SELECT + "where r.driver.Id = :driverId" + NEWEST_FIRST)
+    List<RideSummary> findDriverHistory(@Param("driverId") Long driverId, Pageable pageable);
+
+    @Query(SUMMARY_SELECT + "where r.driver.Id = :driverId" + BEFORE_CURSOR + NEWEST_FIRST)
+    List<RideSummary> findDriverHistoryBefore(@Param("driverId") Long driverId,
+                                              @Param("createdAt") LocalDateTime createdAt,
+                                              @Param("id") Long id,
+                                              Pageable pageable);
+
+    // Must be consumed inside a read-only transaction and closed afterwards
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAMING_FETCH_SIZE))
+    @Query(SUMMARY_SELECT + "where r.rider.Id = :riderId" + NEWEST_FIRST)
+    Stream<RideSummary> streamRiderHistory(@Param("riderId") Long riderId);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = STREAMING_FETCH_SIZE))
+    @Query(SUMMARY_SELECT + "where r.driver.Id = :driverId" + NEWEST_FIRST)
+    Stream<RideSummary> streamDriverHistory(@Param("driverId") Long driverId);
+
+    // Assigns the driver only while the ride is still in the expected status, returns the number of rows claimed (0 or 1)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Ride r set r.driver = :driver, r.status = :next, r.updatedAt = :now " +
+            "where r.Id = :rideId and r.status = :expected")
+    int assignDriverIfStatus(@Param("rideId") Long rideId,
+                             @Param("driver") Driver driver,
+                             @Param("expected") rideStatus expected,
+                             @Param("next") rideStatus next,
+                             @Param("now") LocalDateTime now);
+
+    // The conditional writes behind RideStateMachine transitions; each returns 1 if the ride was in the expected status
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Ride r set r.status = :next, r.updatedAt = :now where r.Id = :rideId and r.status = :expected")
+    int updateStatusIf(@Param("rideId") Long rideId,
+                       @Param("expected") rideStatus expected,
+                       @Param("next") rideStatus next,
+                       @Param("now") LocalDateTime now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Ride r set r.status = :next, r.startTime = :now, r.updatedAt = :now " +
+            "where r.Id = :rideId and r.status = :expected")
+    int startIfStatus(@Param("rideId") Long rideId,
+                      @Param("expected") rideStatus expected,
+                      @Param("next") rideStatus next,
+                      @Param("now") LocalDateTime now);
 
-    Optional<Ride> findByDriverAndStatusIn(Driver driver, List<rideStatus> statuses);
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Ride r set r.status = :next, r.completionTime = :now, r.distanceKm = :distanceKm, " +
+            "r.durationMinutes = :durationMinutes, r.trackedDistanceKm = :trackedDistanceKm, r.fare = :fare, " +
+            "r.paymentStatus = :paymentStatus, r.updatedAt = :now where r.Id = :rideId and r.status = :expected")
+    int completeIfStatus(@Param("rideId") Long rideId,
+                         @Param("expected") rideStatus expected,
+                         @Param("next") rideStatus next,
+                         @Param("distanceKm") double distanceKm,
+                         @Param("durationMinutes") double durationMinutes,
+                         @Param("trackedDistanceKm") Double trackedDistanceKm,
+                         @Param("fare") double fare,
+                         @Param("paymentStatus") paymentStatus paymentStatus,
+                         @Param("now") LocalDateTime now);
 }
@@ -1,11 +1,29 @@
 package com.ridebooking.repository;
 
+import com.ridebooking.config.CacheConfig;
 import com.ridebooking.model.User;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
+
+    @Cacheable(value = CacheConfig.USERS_BY_EMAIL, key = "#p0")
     Optional<User> findByEmail(String email);
+
+    @Override
+    @Cacheable(value = CacheConfig.USERS, key = "#p0")
+    Optional<User> findById(Long id);
+
+    // Keep the id cache current and drop the email entry, which is reloaded on the next lookup
+    @Override
+    @Caching(
+            put = @CachePut(value = CacheConfig.USERS, key = "#result.id"),
+            evict = @CacheEvict(value = CacheConfig.USERS_BY_EMAIL, key = "#p0.email", condition = "#p0.email != null"))
+    <S extends User> S save(S user);
 }
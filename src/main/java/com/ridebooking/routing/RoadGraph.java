@@ -0,0 +1,189 @@
+package com.ridebooking.routing;
+
+import com.ridebooking.util.GeoUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only road network in compressed sparse row (CSR) form, memory-mapped from the file written by
+ * {@link RoadGraphBuilder}.
+ * <p>
+ * File layout, little endian:
+ * <pre>
+ * header   int magic "RGR1", int version, int nodeCount, int edgeCount, float maxSpeedKmph, 3 x int reserved
+ * lat      int[nodeCount]      microdegrees
+ * lng      int[nodeCount]      microdegrees
+ * offsets  int[nodeCount + 1]  edges of node i are [offsets[i], offsets[i + 1])
+ * targets  int[edgeCount]
+ * lengths  int[edgeCount]      metres
+ * speeds   short[edgeCount]    km/h
+ * </pre>
+ * The edge arrays stay in the page cache instead of the heap. Only the grid used to snap points to the nearest
+ * node is built on the heap at load time. A single mapping limits the file to 2 GB, which fits a large city.
+ */
+public final class RoadGraph {
+
+    static final int MAGIC = 0x52475231; // "RGR1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+
+    private static final double SNAP_CELL_DEG = 0.01;
+
+    private final int nodeCount;
+    private final int edgeCount;
+    private final double maxSpeedKmph;
+
+    private final IntBuffer lat;
+    private final IntBuffer lng;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final IntBuffer lengths;
+    private final ShortBuffer speeds;
+
+    // Snap grid: cell -> nodes in it
+    private final Map<Long, int[]> cells;
+
+    private RoadGraph(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a road graph file");
+        if (buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Unsupported road graph version " + buffer.getInt(4));
+
+        this.nodeCount = buffer.getInt(8);
+        this.edgeCount = buffer.getInt(12);
+        this.maxSpeedKmph = buffer.getFloat(16);
+
+        int pos = HEADER_BYTES;
+        this.lat = ints(buffer, pos, nodeCount);
+        pos += nodeCount * 4;
+        this.lng = ints(buffer, pos, nodeCount);
+        pos += nodeCount * 4;
+        this.offsets = ints(buffer, pos, nodeCount + 1);
+        pos += (nodeCount + 1) * 4;
+        this.targets = ints(buffer, pos, edgeCount);
+        pos += edgeCount * 4;
+        this.lengths = ints(buffer, pos, edgeCount);
+        pos += edgeCount * 4;
+        this.speeds = buffer.slice(pos, edgeCount * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+
+        this.cells = buildSnapGrid();
+    }
+
+    public static RoadGraph load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Road graph " + file + " is larger than 2 GB");
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new RoadGraph(buffer);
+        }
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    // Fastest speed on any edge, used to keep the A* heuristic admissible
+    public double maxSpeedKmph() {
+        return maxSpeedKmph;
+    }
+
+    public double latitude(int node) {
+        return lat.get(node) / 1e6;
+    }
+
+    public double longitude(int node) {
+        return lng.get(node) / 1e6;
+    }
+
+    public int firstEdge(int node) {
+        return offsets.get(node);
+    }
+
+    public int endEdge(int node) {
+        return offsets.get(node + 1);
+    }
+
+    public int target(int edge) {
+        return targets.get(edge);
+    }
+
+    public int lengthMeters(int edge) {
+        return lengths.get(edge);
+    }
+
+    public int speedKmph(int edge) {
+        return speeds.get(edge);
+    }
+
+    // Closest node within maxKm of the point, or -1
+    public int nearestNode(double pointLat, double pointLng, double maxKm) {
+        double latSpanDeg = maxKm / GeoUtils.KM_PER_DEGREE_LAT;
+        double cosLat = Math.max(Math.cos(Math.toRadians(pointLat)), 0.01);
+        double lngSpanDeg = maxKm / (GeoUtils.KM_PER_DEGREE_LAT * cosLat);
+
+        int best = -1;
+        double bestKm = maxKm;
+        for (int latIdx = index(pointLat - latSpanDeg); latIdx <= index(pointLat + latSpanDeg); latIdx++) {
+            for (int lngIdx = index(pointLng - lngSpanDeg); lngIdx <= index(pointLng + lngSpanDeg); lngIdx++) {
+                int[] nodes = cells.get(key(latIdx, lngIdx));
+                if (nodes == null)
+                    continue;
+                for (int node : nodes) {
+                    double km = GeoUtils.haversineKm(pointLat, pointLng, latitude(node), longitude(node));
+                    if (km <= bestKm) {
+                        bestKm = km;
+                        best = node;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private Map<Long, int[]> buildSnapGrid() {
+        Map<Long, int[]> counts = new HashMap<>();
+        long[] nodeCell = new long[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            nodeCell[node] = key(index(latitude(node)), index(longitude(node)));
+            counts.computeIfAbsent(nodeCell[node], cell -> new int[1])[0]++;
+        }
+
+        Map<Long, int[]> grid = new HashMap<>(counts.size() * 2);
+        Map<Long, int[]> fill = new HashMap<>(counts.size() * 2);
+        counts.forEach((cell, count) -> {
+            grid.put(cell, new int[count[0]]);
+            fill.put(cell, new int[1]);
+        });
+        for (int node = 0; node < nodeCount; node++)
+            grid.get(nodeCell[node])[fill.get(nodeCell[node])[0]++] = node;
+        return grid;
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int offset, int count) {
+        return buffer.slice(offset, count * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private static int index(double degrees) {
+        return (int) Math.floor(degrees / SNAP_CELL_DEG);
+    }
+
+    private static long key(int latIdx, int lngIdx) {
+        return ((long) latIdx << 32) | (lngIdx & 0xffffffffL);
+    }
+}
@@ -0,0 +1,139 @@
+package com.ridebooking.routing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the binary {@link RoadGraph} file from two CSV files.
+ * <p>
+ * The CSVs are the hand-off from whatever extracts the road network; for OpenStreetMap that is an offline step
+ * (e.g. osmium or a small script over a .osm.pbf city extract) that emits:
+ * <pre>
+ * nodes.csv  id,lat,lng
+ * edges.csv  fromId,toId,lengthMeters,speedKmph,oneway   (oneway: 1 = only from -> to, 0 = both ways)
+ * </pre>
+ * A header line is skipped if present. Run with
+ * {@code ./gradlew buildRoadGraph -Pnodes=nodes.csv -Pedges=edges.csv -Pout=city.rgr}.
+ */
+public final class RoadGraphBuilder {
+
+    private RoadGraphBuilder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: RoadGraphBuilder <nodes.csv> <edges.csv> <out.rgr>");
+            System.exit(1);
+        }
+        build(Path.of(args[0]), Path.of(args[1]), Path.of(args[2]));
+    }
+
+    public static void build(Path nodesCsv, Path edgesCsv, Path out) throws IOException {
+        // External ids can be anything (OSM ids are sparse 64-bit), nodes get dense indexes in file order
+        Map<Long, Integer> index = new HashMap<>();
+        List<int[]> coordinates = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(nodesCsv)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(",");
+                if (f.length < 3 || !isNumber(f[0]))
+                    continue;
+                if (index.putIfAbsent(Long.parseLong(f[0].trim()), coordinates.size()) != null)
+                    throw new IllegalArgumentException("Duplicate node id " + f[0]);
+                coordinates.add(new int[]{
+                        (int) Math.round(Double.parseDouble(f[1].trim()) * 1e6),
+                        (int) Math.round(Double.parseDouble(f[2].trim()) * 1e6)});
+            }
+        }
+
+        int nodeCount = coordinates.size();
+        // from, to, length, speed per directed edge
+        List<int[]> edges = new ArrayList<>();
+        int[] degree = new int[nodeCount];
+        int maxSpeed = 1;
+        try (BufferedReader reader = Files.newBufferedReader(edgesCsv)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(",");
+                if (f.length < 4 || !isNumber(f[0]))
+                    continue;
+                Integer from = index.get(Long.parseLong(f[0].trim()));
+                Integer to = index.get(Long.parseLong(f[1].trim()));
+                if (from == null || to == null)
+                    throw new IllegalArgumentException("Edge references unknown node: " + line);
+                int length = (int) Math.round(Double.parseDouble(f[2].trim()));
+                int speed = (int) Math.round(Double.parseDouble(f[3].trim()));
+                if (speed <= 0 || speed > Short.MAX_VALUE)
+                    throw new IllegalArgumentException("Edge speed out of range: " + line);
+                boolean oneway = f.length > 4 && f[4].trim().equals("1");
+
+                edges.add(new int[]{from, to, length, speed});
+                degree[from]++;
+                if (!oneway) {
+                    edges.add(new int[]{to, from, length, speed});
+                    degree[to]++;
+                }
+                maxSpeed = Math.max(maxSpeed, speed);
+            }
+        }
+
+        // Counting sort by source node gives the CSR layout
+        int edgeCount = edges.size();
+        int[] offsets = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++)
+            offsets[node + 1] = offsets[node] + degree[node];
+        int[] cursor = offsets.clone();
+        int[] targets = new int[edgeCount];
+        int[] lengths = new int[edgeCount];
+        short[] speeds = new short[edgeCount];
+        for (int[] edge : edges) {
+            int slot = cursor[edge[0]]++;
+            targets[slot] = edge[1];
+            lengths[slot] = edge[2];
+            speeds[slot] = (short) edge[3];
+        }
+
+        long size = RoadGraph.HEADER_BYTES + 4L * nodeCount * 3 + 4 + 4L * edgeCount * 2 + 2L * edgeCount;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Road graph would exceed 2 GB, split the extract");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(RoadGraph.MAGIC).putInt(RoadGraph.VERSION).putInt(nodeCount).putInt(edgeCount)
+                .putFloat(maxSpeed).putInt(0).putInt(0).putInt(0);
+        for (int[] c : coordinates)
+            buffer.putInt(c[0]);
+        for (int[] c : coordinates)
+            buffer.putInt(c[1]);
+        for (int offset : offsets)
+            buffer.putInt(offset);
+        for (int target : targets)
+            buffer.putInt(target);
+        for (int length : lengths)
+            buffer.putInt(length);
+        for (short speed : speeds)
+            buffer.putShort(speed);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        System.out.printf("Wrote %s: %d nodes, %d edges%n", out, nodeCount, edgeCount);
+    }
+
+    private static boolean isNumber(String s) {
+        String t = s.trim();
+        return !t.isEmpty() && (Character.isDigit(t.charAt(0)) || t.charAt(0) == '-');
+    }
+}
@@ -0,0 +1,241 @@
+package com.ridebooking.routing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ridebooking.util.GeoUtils;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A* over a {@link RoadGraph}, optimising travel time with a straight-line heuristic.
+ * <p>
+ * Both ends are snapped to the nearest road node; the snap legs are added at {@code accessSpeedKmph}. Results
+ * are cached per (origin cell, destination cell), so repeated estimates between the same neighbourhoods cost
+ * a map lookup; the first query in a cell pair decides the cached route. Search buffers are sized to the graph
+ * and pooled, not thread-local, so virtual threads don't each allocate their own. At most
+ * {@code maxConcurrentSearches} run at once, which also bounds the pool; a query finding them all busy gets no
+ * route, so the caller falls back to the straight line, and that answer isn't cached.
+ */
+public class RoadGraphRouter implements RouteEstimator {
+
+    private record CellPair(long from, long to) {
+    }
+
+    private final RoadGraph graph;
+    private final double maxSnapKm;
+    private final double accessSpeedKmph;
+    private final double cacheCellDeg;
+    private final int maxSettledNodes;
+    private final Semaphore searchPermits;
+    private final LongAdder busy = new LongAdder();
+    // Seconds per km at the fastest speed in the graph, keeps the heuristic admissible
+    private final double heuristicSecondsPerKm;
+
+    private final Cache<CellPair, Optional<Route>> cache;
+    private final ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<>();
+
+    public RoadGraphRouter(RoadGraph graph, double maxSnapKm, double accessSpeedKmph, double cacheCellDeg,
+                           int maxSettledNodes, int maxConcurrentSearches, long cacheSize, Duration cacheTtl) {
+        if (maxConcurrentSearches < 1)
+            throw new IllegalArgumentException("maxConcurrentSearches must be at least 1");
+        this.graph = graph;
+        this.maxSnapKm = maxSnapKm;
+        this.accessSpeedKmph = accessSpeedKmph;
+        this.cacheCellDeg = cacheCellDeg;
+        this.maxSettledNodes = maxSettledNodes;
+        this.searchPermits = new Semaphore(maxConcurrentSearches);
+        this.heuristicSecondsPerKm = 3600 / graph.maxSpeedKmph();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Optional<Route> route(double fromLat, double fromLng, double toLat, double toLng) {
+        CellPair key = new CellPair(cellOf(fromLat, fromLng), cellOf(toLat, toLng));
+        // Caffeine doesn't store a null, so a query that found no free search is retried next time
+        Optional<Route> route = cache.get(key, k -> search(fromLat, fromLng, toLat, toLng));
+        return route != null ? route : Optional.empty();
+    }
+
+    // Uncached search, for tests and benchmarks
+    public Optional<Route> compute(double fromLat, double fromLng, double toLat, double toLng) {
+        Optional<Route> route = search(fromLat, fromLng, toLat, toLng);
+        return route != null ? route : Optional.empty();
+    }
+
+    // Queries answered without a route because every search was busy
+    public long busyFallbacks() {
+        return busy.sum();
+    }
+
+    public long cacheSize() {
+        return cache.estimatedSize();
+    }
+
+    // Null when all searches are busy
+    private Optional<Route> search(double fromLat, double fromLng, double toLat, double toLng) {
+        int source = graph.nearestNode(fromLat, fromLng, maxSnapKm);
+        int target = graph.nearestNode(toLat, toLng, maxSnapKm);
+        if (source < 0 || target < 0)
+            return Optional.empty();
+
+        double accessKm = GeoUtils.haversineKm(fromLat, fromLng, graph.latitude(source), graph.longitude(source))
+                + GeoUtils.haversineKm(toLat, toLng, graph.latitude(target), graph.longitude(target));
+        double accessMinutes = accessKm / accessSpeedKmph * 60;
+
+        if (!searchPermits.tryAcquire()) {
+            busy.increment();
+            return null;
+        }
+        // Holding a permit, so the pool never grows past maxConcurrentSearches buffers
+        Search search = searches.poll();
+        if (search == null)
+            search = new Search(graph.nodeCount());
+        try {
+            if (!search.run(source, target))
+                return Optional.empty();
+            return Optional.of(new Route(
+                    search.meters(target) / 1000.0 + accessKm,
+                    search.seconds(target) / 60.0 + accessMinutes));
+        } finally {
+            searches.offer(search);
+            searchPermits.release();
+        }
+    }
+
+    private long cellOf(double lat, double lng) {
+        int latIdx = (int) Math.floor(lat / cacheCellDeg);
+        int lngIdx = (int) Math.floor(lng / cacheCellDeg);
+        return ((long) latIdx << 32) | (lngIdx & 0xffffffffL);
+    }
+
+    // Per-search state; a stamp marks which entries belong to the current run so nothing is cleared between runs
+    private final class Search {
+        final int[] stamp;
+        final double[] seconds;
+        final double[] meters;
+        final boolean[] settled;
+        int run;
+
+        // Binary min-heap on f = g + h with lazy deletion
+        int[] heapNodes = new int[64];
+        double[] heapKeys = new double[64];
+        int heapSize;
+
+        Search(int nodeCount) {
+            stamp = new int[nodeCount];
+            seconds = new double[nodeCount];
+            meters = new double[nodeCount];
+            settled = new boolean[nodeCount];
+        }
+
+        boolean run(int source, int target) {
+            if (++run == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                run = 1;
+            }
+            heapSize = 0;
+
+            double targetLat = graph.latitude(target);
+            double targetLng = graph.longitude(target);
+            visit(source, 0, 0);
+            push(source, heuristic(source, targetLat, targetLng));
+
+            int settledCount = 0;
+            while (heapSize > 0) {
+                int node = pop();
+                if (settled[node])
+                    continue;
+                settled[node] = true;
+                if (node == target)
+                    return true;
+                if (++settledCount > maxSettledNodes)
+                    return false;
+
+                for (int edge = graph.firstEdge(node), end = graph.endEdge(node); edge < end; edge++) {
+                    int next = graph.target(edge);
+                    int length = graph.lengthMeters(edge);
+                    double time = seconds[node] + length * 3.6 / graph.speedKmph(edge);
+                    if (stamp[next] != run) {
+                        visit(next, time, meters[node] + length);
+                    } else if (!settled[next] && time < seconds[next]) {
+                        seconds[next] = time;
+                        meters[next] = meters[node] + length;
+                    } else {
+                        continue;
+                    }
+                    push(next, time + heuristic(next, targetLat, targetLng));
+                }
+            }
+            return false;
+        }
+
+        double seconds(int node) {
+            return seconds[node];
+        }
+
+        double meters(int node) {
+            return meters[node];
+        }
+
+        private void visit(int node, double time, double distance) {
+            stamp[node] = run;
+            seconds[node] = time;
+            meters[node] = distance;
+            settled[node] = false;
+        }
+
+        private double heuristic(int node, double targetLat, double targetLng) {
+            return GeoUtils.haversineKm(graph.latitude(node), graph.longitude(node), targetLat, targetLng)
+                    * heuristicSecondsPerKm;
+        }
+
+        private void push(int node, double key) {
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapKeys[parent] <= key)
+                    break;
+                heapNodes[i] = heapNodes[parent];
+                heapKeys[i] = heapKeys[parent];
+                i = parent;
+            }
+            heapNodes[i] = node;
+            heapKeys[i] = key;
+        }
+
+        private int pop() {
+            int top = heapNodes[0];
+            int lastNode = heapNodes[--heapSize];
+            double lastKey = heapKeys[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child])
+                    child++;
+                if (heapKeys[child] >= lastKey)
+                    break;
+                heapNodes[i] = heapNodes[child];
+                heapKeys[i] = heapKeys[child];
+                i = child;
+            }
+            heapNodes[i] = lastNode;
+            heapKeys[i] = lastKey;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.ridebooking.routing;
+
+// A road route between two points; distance and duration include the walk/drive to and from the road network
+public record Route(double distanceKm, double durationMinutes) {
+}
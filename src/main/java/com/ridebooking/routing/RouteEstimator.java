@@ -0,0 +1,15 @@
+package com.ridebooking.routing;
+
+import java.util.Optional;
+
+/**
+ * Road distance and travel time between two points.
+ * <p>
+ * Only registered when a road graph is configured ({@code routing.graph-path}); without one, callers keep
+ * using straight-line distance. An empty result means the points are off the network or not connected, and
+ * the caller should fall back to the straight line as well.
+ */
+public interface RouteEstimator {
+
+    Optional<Route> route(double fromLat, double fromLng, double toLat, double toLng);
+}
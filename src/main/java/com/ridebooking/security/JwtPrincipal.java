@@ -0,0 +1,30 @@
+package com.ridebooking.security;
+
+import com.ridebooking.model.Role;
+import org.springframework.security.core.Authentication;
+
+import java.security.Principal;
+import java.util.Optional;
+
+// What a verified token says about its caller; id and role are null for tokens issued before they became claims
+public record JwtPrincipal(String username, Long id, Role role, long expiresAtMillis) {
+
+    public boolean hasClaims() {
+        return id != null && role != null;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+
+    public boolean isDriver(Long driverId) {
+        return role == Role.DRIVER && id != null && id.equals(driverId);
+    }
+
+    // The token principal behind an authenticated request or STOMP session, if it came with a token carrying claims
+    public static Optional<JwtPrincipal> of(Principal user) {
+        return user instanceof Authentication authentication && authentication.getPrincipal() instanceof JwtPrincipal p
+                ? Optional.of(p)
+                : Optional.empty();
+    }
+}
@@ -1,11 +1,16 @@
 package com.ridebooking.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ridebooking.model.Role;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.stereotype.Component;
 
 import java.security.Key;
+import java.time.Duration;
 import java.util.Date;
+import java.util.Optional;
 
 @Component
 public class JwtUtil {
@@ -13,31 +18,65 @@ public class JwtUtil {
     private final String SECRET = "ridebookingsecretkeyridebookingsecretkey"; // 32+ chars
     private final long EXPIRATION_TIME = 1000 * 60 * 60 * 10; // 10 hours
 
+    private static final String ID_CLAIM = "uid";
+    private static final String ROLE_CLAIM = "role";
+
     private final Key key = Keys.hmacShaKeyFor(SECRET.getBytes());
 
-    public String generateToken(String email) {
+    // Parsers are immutable and thread-safe, so build it once instead of per call
+    private final JwtParser parser = Jwts.parserBuilder().setSigningKey(key).build();
+
+    // Tokens that already passed signature verification; a client sends the same token on every request
+    private final Cache<String, JwtPrincipal> verifiedTokens = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    // Token carrying the account id and role, so requests can be authenticated without loading the account
+    public String generateToken(String subject, Long id, Role role) {
         return Jwts.builder()
-                .setSubject(email)
+                .setSubject(subject)
+                .claim(ID_CLAIM, id)
+                .claim(ROLE_CLAIM, role != null ? role.name() : null)
                 .setIssuedAt(new Date())
                 .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
                 .signWith(key, SignatureAlgorithm.HS256)
                 .compact();
     }
 
-    public String extractUsername(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key).build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
-    }
+    // Verify the token once and return its principal, repeated tokens are answered from the cache
+    public Optional<JwtPrincipal> verify(String token) {
+        long now = System.currentTimeMillis();
+
+        JwtPrincipal cached = verifiedTokens.getIfPresent(token);
+        if (cached != null) {
+            if (!cached.isExpired(now))
+                return Optional.of(cached);
+            verifiedTokens.invalidate(token);
+            return Optional.empty();
+        }
 
-    public boolean validateToken(String token) {
         try {
-            Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token);
-            return true;
-        } catch (JwtException e) {
-            return false;
+            JwtPrincipal principal = parse(token);
+            verifiedTokens.put(token, principal);
+            return Optional.of(principal);
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
         }
     }
+
+    // Full signature check and claim extraction, no caching
+    public JwtPrincipal parse(String token) {
+        Claims claims = parser.parseClaimsJws(token).getBody();
+
+        Number id = claims.get(ID_CLAIM, Number.class);
+        String role = claims.get(ROLE_CLAIM, String.class);
+        Date expiration = claims.getExpiration();
+
+        return new JwtPrincipal(
+                claims.getSubject(),
+                id != null ? id.longValue() : null,
+                role != null ? Role.valueOf(role) : null,
+                expiration != null ? expiration.getTime() : Long.MAX_VALUE);
+    }
 }
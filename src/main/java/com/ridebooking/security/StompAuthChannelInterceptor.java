@@ -0,0 +1,77 @@
+package com.ridebooking.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Authenticates STOMP sessions, keeps each driver's offers to that driver and only lets drivers report their own
+ * location.
+ * <p>
+ * Browsers can't set headers on the WebSocket handshake, so the JWT comes in the {@code Authorization} header of
+ * the CONNECT frame and becomes the user of the session. Offers carry the token that accepts the ride, so a
+ * subscription to {@code /driver/{driverId}/offers}, or to {@code /app/driver/{driverId}/offers} for the open ones,
+ * is refused unless the session belongs to that driver. Pings sent to {@code /app/driver/{driverId}/location} move
+ * the driver in the index, add to the billed distance and reach the rider, so those of any other session are
+ * dropped.
+ */
+@Slf4j
+@Component
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+
+    private static final Pattern OFFERS = Pattern.compile("(?:/app)?/driver/(\\d+)/offers");
+    private static final Pattern LOCATION = Pattern.compile("/app/driver/(\\d+)/location");
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null)
+            return message;
+
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            String authHeader = accessor.getFirstNativeHeader("Authorization");
+            if (authHeader != null && authHeader.startsWith("Bearer ")) {
+                jwtUtil.verify(authHeader.substring(7))
+                        .filter(JwtPrincipal::hasClaims)
+                        .ifPresent(principal -> accessor.setUser(new UsernamePasswordAuthenticationToken(principal,
+                                null, List.of(new SimpleGrantedAuthority("ROLE_" + principal.role())))));
+            }
+        } else if (StompCommand.SUBSCRIBE.equals(accessor.getCommand()) && accessor.getDestination() != null) {
+            Matcher offers = OFFERS.matcher(accessor.getDestination());
+            if (offers.matches()) {
+                Long driverId = Long.valueOf(offers.group(1));
+                if (!isDriver(accessor, driverId))
+                    throw new AccessDeniedException("Offers of driver " + driverId + " are only for that driver");
+            }
+        } else if (StompCommand.SEND.equals(accessor.getCommand()) && accessor.getDestination() != null) {
+            Matcher location = LOCATION.matcher(accessor.getDestination());
+            if (location.matches() && !isDriver(accessor, Long.valueOf(location.group(1)))) {
+                // Dropped like a malformed frame; an ERROR frame would close the session
+                log.debug("Dropped location frame for driver {} from session {}", location.group(1),
+                        accessor.getSessionId());
+                return null;
+            }
+        }
+        return message;
+    }
+
+    private static boolean isDriver(StompHeaderAccessor accessor, Long driverId) {
+        return JwtPrincipal.of(accessor.getUser()).map(p -> p.isDriver(driverId)).orElse(false);
+    }
+}
@@ -0,0 +1,275 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.trail.TrailStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which ride each driver is currently driving, so a location ping can be attached to its ride without a DB
+ * lookup. A driver is tracked from start to completion or cancellation of the ride, and every ping on the way
+ * is added to the ride's {@link RideOdometer}, so the distance is known the moment the ride completes.
+ * <p>
+ * The odometer lives on the node that receives the driver's pings, which need not be the node that started or
+ * completes the ride. A ping of a driver this node doesn't track, and whom the index doesn't show as free, looks
+ * up the driver's STARTED ride at most once per {@code ride.tracking.lookup-interval-ms} and continues from its
+ * checkpoint. Every {@code ride.tracking.checkpoint-interval-ms} the running distances are written to the ride
+ * rows, odometers of rides that ended on another node are dropped, and {@link #tracked} answers from the
+ * checkpoint when this node has no odometer for the ride. A checkpoint only moves forward in points, so a node
+ * holding fewer points than the checkpoint finds out that the driver's pings are split between nodes; that is
+ * logged and counted in {@code ride.tracking.split}, as the distance is then short of what was driven.
+ */
+@Slf4j
+@Component
+public class ActiveRideTracker {
+
+    // Distance tracked for a ride, by the odometer on this node or from the checkpoint
+    public record TrackedDistance(double distanceKm, int acceptedPoints, int rejectedPoints) {
+    }
+
+    private static final String CHECKPOINT_SQL = "UPDATE rides SET tracked_distance_km = ?, tracked_points = ? "
+            + "WHERE id = ? AND status = 'STARTED' AND (tracked_points IS NULL OR tracked_points <= ?)";
+
+    private static final int STATUS_BATCH = 500;
+
+    private final RideRepository rideRepository;
+    private final TrailStore trailStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final DriverSpatialIndex spatialIndex;
+    private final double jitterMeters;
+    private final double maxSpeedKmph;
+    private final int maxConsecutiveOutliers;
+    private final long lookupIntervalMs;
+
+    // driverId -> odometer of the STARTED ride
+    private final Map<Long, RideOdometer> rides = new ConcurrentHashMap<>();
+    // rideId -> accepted points at the last checkpoint, so unchanged odometers aren't written again
+    private final Map<Long, Integer> checkpointed = new ConcurrentHashMap<>();
+    // driverId -> when a ping of the untracked driver last looked up a STARTED ride
+    private final Map<Long, Long> lookedUp = new ConcurrentHashMap<>();
+
+    private final Counter splitCounter;
+    private final Counter checkpointReadCounter;
+    private final Counter adoptedCounter;
+
+    public ActiveRideTracker(RideRepository rideRepository,
+                             TrailStore trailStore,
+                             JdbcTemplate jdbcTemplate,
+                             DriverSpatialIndex spatialIndex,
+                             MeterRegistry meterRegistry,
+                             @Value("${ride.tracking.jitter-meters:15}") double jitterMeters,
+                             @Value("${ride.tracking.max-speed-kmph:150}") double maxSpeedKmph,
+                             @Value("${ride.tracking.max-consecutive-outliers:3}") int maxConsecutiveOutliers,
+                             @Value("${ride.tracking.lookup-interval-ms:5000}") long lookupIntervalMs) {
+        this.rideRepository = rideRepository;
+        this.trailStore = trailStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.spatialIndex = spatialIndex;
+        this.splitCounter = meterRegistry.counter("ride.tracking.split");
+        this.checkpointReadCounter = meterRegistry.counter("ride.tracking.checkpoint.reads");
+        this.adoptedCounter = meterRegistry.counter("ride.tracking.adopted");
+        this.jitterMeters = jitterMeters;
+        this.maxSpeedKmph = maxSpeedKmph;
+        this.maxConsecutiveOutliers = maxConsecutiveOutliers;
+        this.lookupIntervalMs = lookupIntervalMs;
+    }
+
+    // Pick up rides that were already in progress when the app restarted; their distance so far is replayed
+    // from the trail
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadStartedRides() {
+        for (Object[] row : rideRepository.findRideAndDriverIdsByStatus(rideStatus.STARTED)) {
+            RideOdometer odometer = newOdometer((Long) row[0]);
+            trailStore.replay(odometer.rideId(), odometer::record);
+            rides.put((Long) row[1], odometer);
+        }
+        log.info("Tracking {} rides in progress", rides.size());
+    }
+
+    public void start(Long driverId, Long rideId) {
+        rides.put(driverId, newOdometer(rideId));
+    }
+
+    public void end(Long driverId, Long rideId) {
+        rides.computeIfPresent(driverId, (id, odometer) -> odometer.rideId().equals(rideId) ? null : odometer);
+    }
+
+    /**
+     * Adds a ping to the driver's active ride, if any, also when the ride was started on another node.
+     *
+     * @return The ride the ping belongs to.
+     */
+    public Optional<Long> record(Long driverId, double lat, double lng, long timestampMillis) {
+        RideOdometer odometer = rides.get(driverId);
+        if (odometer == null)
+            odometer = adopt(driverId, timestampMillis);
+        if (odometer == null)
+            return Optional.empty();
+        odometer.record(lat, lng, timestampMillis);
+        return Optional.of(odometer.rideId());
+    }
+
+    // Picks up the driver's STARTED ride from its checkpoint. Free drivers aren't looked up and busy ones once per
+    // interval, so the pings of drivers between rides don't each cost a query
+    private RideOdometer adopt(Long driverId, long nowMillis) {
+        if (spatialIndex.isAvailable(driverId))
+            return null;
+        Long last = lookedUp.get(driverId);
+        if (last != null && nowMillis - last < lookupIntervalMs)
+            return null;
+        lookedUp.put(driverId, nowMillis);
+
+        List<Object[]> started;
+        try {
+            started = rideRepository.findDriverRideProgress(driverId, List.of(rideStatus.STARTED));
+        } catch (DataAccessException e) {
+            log.warn("Failed to look up the ride of driver {}: {}", driverId, e.getMessage());
+            return null;
+        }
+        if (started.isEmpty())
+            return null;
+
+        Object[] row = started.get(0);
+        Long rideId = (Long) row[0];
+        double checkpointKm = row[2] != null ? (Double) row[2] : 0;
+        int checkpointPoints = row[3] != null ? (Integer) row[3] : 0;
+        RideOdometer adopted = new RideOdometer(rideId, jitterMeters, maxSpeedKmph, maxConsecutiveOutliers,
+                checkpointKm, checkpointPoints);
+        RideOdometer current = rides.putIfAbsent(driverId, adopted);
+        if (current != null)
+            return current;
+        lookedUp.remove(driverId);
+        adoptedCounter.increment();
+        log.info("Tracking ride {} of driver {} from its checkpoint of {} km", rideId, driverId, checkpointKm);
+        return adopted;
+    }
+
+    public Optional<Long> rideOf(Long driverId) {
+        return odometer(driverId).map(RideOdometer::rideId);
+    }
+
+    public Optional<RideOdometer> odometer(Long driverId) {
+        return Optional.ofNullable(rides.get(driverId));
+    }
+
+    /**
+     * The distance tracked for a ride: this node's odometer, or the checkpoint read with the ride when another
+     * node got more of its pings or this node got none.
+     *
+     * @param checkpointKm     {@code tracked_distance_km} of the ride row.
+     * @param checkpointPoints {@code tracked_points} of the ride row.
+     */
+    public Optional<TrackedDistance> tracked(Long driverId, Long rideId, Double checkpointKm, Integer checkpointPoints) {
+        RideOdometer odometer = rides.get(driverId);
+        Optional<TrackedDistance> local = odometer != null && odometer.rideId().equals(rideId)
+                ? Optional.of(new TrackedDistance(odometer.distanceKm(), odometer.acceptedPoints(), odometer.rejectedPoints()))
+                : Optional.empty();
+        if (checkpointKm == null || checkpointPoints == null)
+            return local;
+
+        if (local.isPresent()) {
+            if (checkpointPoints <= local.get().acceptedPoints())
+                return local;
+            log.warn("Ride {} was checkpointed with {} points by another node, this node has {}; the driver's pings "
+                    + "are split between nodes", rideId, checkpointPoints, local.get().acceptedPoints());
+            splitCounter.increment();
+        } else {
+            log.info("Ride {} is tracked on another node, using its checkpoint of {} km", rideId, checkpointKm);
+        }
+        checkpointReadCounter.increment();
+        return Optional.of(new TrackedDistance(checkpointKm, checkpointPoints, 0));
+    }
+
+    // Write the running distance of every ride that moved since its last checkpoint, in one batch
+    @Scheduled(fixedDelayString = "${ride.tracking.checkpoint-interval-ms:5000}")
+    public void checkpoint() {
+        long now = System.currentTimeMillis();
+        lookedUp.values().removeIf(at -> now - at >= lookupIntervalMs);
+        dropFinished();
+
+        List<Map.Entry<Long, RideOdometer>> changed = new ArrayList<>();
+        List<Object[]> args = new ArrayList<>();
+        Set<Long> tracked = new HashSet<>();
+        for (Map.Entry<Long, RideOdometer> ride : rides.entrySet()) {
+            RideOdometer odometer = ride.getValue();
+            tracked.add(odometer.rideId());
+            int points = odometer.acceptedPoints();
+            if (points < 2 || checkpointed.getOrDefault(odometer.rideId(), 0) == points)
+                continue;
+            changed.add(ride);
+            args.add(new Object[]{odometer.distanceKm(), points, odometer.rideId(), points});
+        }
+        // Forget rides that ended since the last run
+        checkpointed.keySet().retainAll(tracked);
+        if (args.isEmpty())
+            return;
+
+        try {
+            int[] rows = jdbcTemplate.batchUpdate(CHECKPOINT_SQL, args);
+            for (int i = 0; i < rows.length; i++) {
+                Long driverId = changed.get(i).getKey();
+                RideOdometer odometer = changed.get(i).getValue();
+                if (rides.get(driverId) != odometer)
+                    continue; // the ride ended meanwhile, nothing to compare with
+                int points = (Integer) args.get(i)[1];
+                checkpointed.put(odometer.rideId(), points);
+                if (rows[i] == 0) {
+                    log.warn("Ride {} has a checkpoint ahead of this node's {} points; the driver's pings are split "
+                            + "between nodes", odometer.rideId(), points);
+                    splitCounter.increment();
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("Failed to checkpoint the distance of {} rides: {}", args.size(), e.getMessage());
+        }
+    }
+
+    // Rides completed or cancelled on another node are only ended there; stop attaching pings to them here
+    private void dropFinished() {
+        Map<Long, Map.Entry<Long, RideOdometer>> byRide = new HashMap<>();
+        for (Map.Entry<Long, RideOdometer> ride : rides.entrySet())
+            byRide.put(ride.getValue().rideId(), Map.entry(ride.getKey(), ride.getValue()));
+
+        List<Long> rideIds = new ArrayList<>(byRide.keySet());
+        Set<Long> started = new HashSet<>();
+        try {
+            for (int from = 0; from < rideIds.size(); from += STATUS_BATCH) {
+                List<Long> batch = rideIds.subList(from, Math.min(rideIds.size(), from + STATUS_BATCH));
+                for (Object[] row : rideRepository.findStatusesByIds(batch))
+                    if (row[1] == rideStatus.STARTED)
+                        started.add((Long) row[0]);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Failed to check the status of {} tracked rides: {}", rideIds.size(), e.getMessage());
+            return;
+        }
+
+        byRide.keySet().removeAll(started);
+        for (Map.Entry<Long, RideOdometer> finished : byRide.values()) {
+            if (rides.remove(finished.getKey(), finished.getValue()))
+                log.info("Ride {} ended on another node, no longer tracking it", finished.getValue().rideId());
+        }
+    }
+
+    private RideOdometer newOdometer(Long rideId) {
+        return new RideOdometer(rideId, jitterMeters, maxSpeedKmph, maxConsecutiveOutliers);
+    }
+}
@@ -1,6 +1,7 @@
 package com.ridebooking.service;
 
 import com.ridebooking.model.Driver;
+import com.ridebooking.model.Role;
 import com.ridebooking.model.User;
 import com.ridebooking.repository.DriverRepository;
 import com.ridebooking.repository.UserRepository;
@@ -41,7 +42,7 @@ public class AuthService {
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
         if(passwordEncoder.matches(password, user.getPassword()))
-            return jwtUtil.generateToken(user.getEmail());
+            return jwtUtil.generateToken(user.getEmail(), user.getId(), user.getRole());
         else
             throw new RuntimeException("Invalid Password");
     }
@@ -50,7 +51,7 @@ public class AuthService {
         Driver driver = driverRepository.findByUsername(username);
 
         if(passwordEncoder.matches(password, driver.getPassword()))
-            return jwtUtil.generateToken(driver.getEmail());
+            return jwtUtil.generateToken(driver.getEmail(), driver.getId(), Role.DRIVER);
         else
             throw new RuntimeException("Invalid Password");
     }
@@ -0,0 +1,248 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import com.ridebooking.util.HungarianAssignment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches a batch of waiting rides to available drivers so that the total pickup ETA is as low as possible.
+ * <p>
+ * The batch works on a copy of the available drivers taken when it starts. Every ride brings its
+ * {@code dispatch.batch.candidates-per-ride} nearest free drivers into the batch. Rides and drivers are then split
+ * by area into partitions of at most {@code dispatch.batch.max-partition-size} rides, and each partition is solved
+ * as a min-cost assignment on the {@link ForkJoinPool}. Matched drivers are taken out of the copy, and the rides
+ * left over get further passes, so a ride whose nearest drivers went to its neighbours, or sat across a partition
+ * border, still finds the next free one. Pairs further apart than the widest dispatch radius are never matched.
+ */
+@Service
+public class BatchMatcher {
+
+    // A ride waiting for a driver; drivers in exclude have already been offered the ride
+    public record Request(Long rideId, double pickupLat, double pickupLng, Set<Long> exclude) {
+    }
+
+    public record Match(Long rideId, Long driverId, double distanceKm, double etaMinutes) {
+    }
+
+    private record Partition(List<Request> rides, List<DriverSpatialIndex.Neighbor> drivers) {
+    }
+
+    // Higher than any sum of real ETAs in a partition, so the solver matches as many rides as it can first
+    private static final double INFEASIBLE = 1e9;
+    private static final int MAX_PASSES = 8;
+    private static final int MAX_SPLIT_DEPTH = 16;
+
+    private final DriverSpatialIndex spatialIndex;
+    private final ForkJoinPool pool;
+    private final int candidatesPerRide;
+    private final int maxPartitionSize;
+    private final double maxRadiusKm;
+    private final double averageSpeedKmPerHr;
+
+    private final Timer matchTimer;
+    private final Counter matchedCounter;
+    private final Counter unmatchedCounter;
+
+    public BatchMatcher(DriverSpatialIndex spatialIndex,
+                        MeterRegistry meterRegistry,
+                        @Value("${dispatch.batch.parallelism:0}") int parallelism,
+                        @Value("${dispatch.batch.candidates-per-ride:5}") int candidatesPerRide,
+                        @Value("${dispatch.batch.max-partition-size:200}") int maxPartitionSize,
+                        @Value("${dispatch.radii-km:2,5,8}") double[] radiiKm,
+                        @Value("${dispatch.average-speed-kmph:25}") double averageSpeedKmPerHr) {
+        if (candidatesPerRide <= 0 || maxPartitionSize <= 0)
+            throw new IllegalArgumentException("Batch candidates and partition size must be positive");
+        this.spatialIndex = spatialIndex;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.candidatesPerRide = candidatesPerRide;
+        this.maxPartitionSize = maxPartitionSize;
+        this.maxRadiusKm = Arrays.stream(radiiKm).max().orElse(8);
+        this.averageSpeedKmPerHr = averageSpeedKmPerHr;
+
+        this.matchTimer = meterRegistry.timer("dispatch.batch.match");
+        this.matchedCounter = meterRegistry.counter("dispatch.batch.rides", "outcome", "matched");
+        this.unmatchedCounter = meterRegistry.counter("dispatch.batch.rides", "outcome", "unmatched");
+    }
+
+    /**
+     * Matches the rides to AVAILABLE drivers, each driver to at most one ride.
+     *
+     * @param reserved Drivers that must not be matched, such as those with an offer still open.
+     * @return The matches; rides without a driver within reach are left out.
+     */
+    public List<Match> match(List<Request> requests, Set<Long> reserved) {
+        long start = System.nanoTime();
+        List<Match> matches = new ArrayList<>();
+        DriverSpatialIndex free = spatialIndex.copyAvailable();
+        reserved.forEach(driverId -> free.setAvailable(driverId, false));
+        List<Request> open = requests;
+
+        for (int pass = 0; pass < MAX_PASSES && !open.isEmpty(); pass++) {
+            Map<Long, DriverSpatialIndex.Neighbor> drivers = candidates(open, free);
+            if (drivers.isEmpty())
+                break;
+
+            List<Partition> partitions = new ArrayList<>();
+            split(open, new ArrayList<>(drivers.values()), 0, partitions);
+            List<Match> found = solveAll(partitions);
+            if (found.isEmpty())
+                break;
+
+            Set<Long> matchedRides = new HashSet<>();
+            for (Match match : found) {
+                free.setAvailable(match.driverId(), false);
+                matchedRides.add(match.rideId());
+            }
+            matches.addAll(found);
+            open = open.stream().filter(r -> !matchedRides.contains(r.rideId())).toList();
+        }
+
+        matchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        matchedCounter.increment(matches.size());
+        unmatchedCounter.increment(requests.size() - matches.size());
+        return matches;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // The nearest few free drivers of every ride that aren't excluded for it, by driver id
+    private Map<Long, DriverSpatialIndex.Neighbor> candidates(List<Request> rides, DriverSpatialIndex free) {
+        List<List<DriverSpatialIndex.Neighbor>> perRide = invoke(() -> rides.parallelStream()
+                .map(ride -> nearest(ride, free))
+                .toList());
+
+        Map<Long, DriverSpatialIndex.Neighbor> drivers = new LinkedHashMap<>();
+        for (List<DriverSpatialIndex.Neighbor> neighbors : perRide)
+            for (DriverSpatialIndex.Neighbor n : neighbors)
+                drivers.putIfAbsent(n.driverId(), n);
+        return drivers;
+    }
+
+    private List<DriverSpatialIndex.Neighbor> nearest(Request ride, DriverSpatialIndex free) {
+        int k = candidatesPerRide + ride.exclude().size();
+        List<DriverSpatialIndex.Neighbor> result = new ArrayList<>(candidatesPerRide);
+        for (DriverSpatialIndex.Neighbor n : free.findNearestAvailable(ride.pickupLat(), ride.pickupLng(), k, maxRadiusKm)) {
+            if (ride.exclude().contains(n.driverId()))
+                continue;
+            result.add(n);
+            if (result.size() == candidatesPerRide)
+                break;
+        }
+        return result;
+    }
+
+    // Quarter the area at the median pickup until every partition is small enough to solve quickly
+    private void split(List<Request> rides, List<DriverSpatialIndex.Neighbor> drivers, int depth, List<Partition> out) {
+        if (rides.isEmpty() || drivers.isEmpty())
+            return;
+        boolean small = rides.size() <= maxPartitionSize && drivers.size() <= maxPartitionSize * candidatesPerRide;
+        if (small || depth == MAX_SPLIT_DEPTH) {
+            out.add(new Partition(rides, drivers));
+            return;
+        }
+
+        double midLat = median(rides.stream().mapToDouble(Request::pickupLat).toArray());
+        double midLng = median(rides.stream().mapToDouble(Request::pickupLng).toArray());
+
+        List<List<Request>> rideQuadrants = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        List<List<DriverSpatialIndex.Neighbor>> driverQuadrants = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        for (Request ride : rides)
+            rideQuadrants.get(quadrant(ride.pickupLat(), ride.pickupLng(), midLat, midLng)).add(ride);
+        // Pickups piled on one spot can't be split further, keep them together with all their drivers
+        if (rideQuadrants.stream().anyMatch(q -> q.size() == rides.size())) {
+            out.add(new Partition(rides, drivers));
+            return;
+        }
+        for (DriverSpatialIndex.Neighbor driver : drivers)
+            driverQuadrants.get(quadrant(driver.latitude(), driver.longitude(), midLat, midLng)).add(driver);
+
+        for (int q = 0; q < 4; q++)
+            split(rideQuadrants.get(q), driverQuadrants.get(q), depth + 1, out);
+    }
+
+    private List<Match> solveAll(List<Partition> partitions) {
+        if (partitions.size() == 1)
+            return solve(partitions.get(0));
+
+        List<Callable<List<Match>>> tasks = partitions.stream()
+                .map(p -> (Callable<List<Match>>) () -> solve(p))
+                .toList();
+        List<Match> matches = new ArrayList<>();
+        for (Future<List<Match>> result : pool.invokeAll(tasks))
+            matches.addAll(get(result));
+        return matches;
+    }
+
+    private List<Match> solve(Partition partition) {
+        List<Request> rides = partition.rides();
+        List<DriverSpatialIndex.Neighbor> drivers = partition.drivers();
+
+        double[][] cost = new double[rides.size()][drivers.size()];
+        double[][] distance = new double[rides.size()][drivers.size()];
+        for (int i = 0; i < rides.size(); i++) {
+            Request ride = rides.get(i);
+            for (int j = 0; j < drivers.size(); j++) {
+                DriverSpatialIndex.Neighbor driver = drivers.get(j);
+                double km = GeoUtils.haversineKm(ride.pickupLat(), ride.pickupLng(), driver.latitude(), driver.longitude());
+                distance[i][j] = km;
+                cost[i][j] = km > maxRadiusKm || ride.exclude().contains(driver.driverId())
+                        ? INFEASIBLE
+                        : km / averageSpeedKmPerHr * 60;
+            }
+        }
+
+        int[] assigned = HungarianAssignment.solve(cost);
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < assigned.length; i++) {
+            int j = assigned[i];
+            if (j >= 0 && cost[i][j] < INFEASIBLE)
+                matches.add(new Match(rides.get(i).rideId(), drivers.get(j).driverId(), distance[i][j], cost[i][j]));
+        }
+        return matches;
+    }
+
+    private <T> T invoke(Callable<T> task) {
+        return get(pool.submit(task));
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while matching rides", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ride matching failed", e.getCause());
+        }
+    }
+
+    private static int quadrant(double lat, double lng, double midLat, double midLng) {
+        return (lat >= midLat ? 2 : 0) + (lng >= midLng ? 1 : 0);
+    }
+
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
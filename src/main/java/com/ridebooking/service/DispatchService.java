@@ -0,0 +1,477 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.Driver;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.routing.Route;
+import com.ridebooking.routing.RouteEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Offers new rides to a few well-ranked drivers at a time instead of every driver in range.
+ * <p>
+ * Each wave ranks the AVAILABLE drivers around the pickup by estimated pickup time, distance and their recent
+ * acceptance rate, and offers the ride to the best {@code dispatch.wave-size} of them that haven't seen it yet.
+ * If nobody accepts within {@code dispatch.wave-timeout-ms} the next wave searches a wider radius. Waves are
+ * driven by the shared task scheduler, so a ride waiting for a driver doesn't hold a thread. With a road graph
+ * configured, the pickup ETA of the best {@code dispatch.route-candidates} is taken from the road route.
+ * Offers land in the drivers' {@link RideOfferInbox}; the push notification only wakes the app up. Dispatch of a
+ * ride stops when its ACCEPTED or CANCELLED event comes in. Those events are only raised on the node that made
+ * the transition, so before each further wave, and before a batch ride goes back into matching, the ride's status
+ * is read from the DB and dispatch stops if it has moved on.
+ * <p>
+ * With {@code dispatch.mode=batch} there are no waves. Waiting rides are collected for
+ * {@code dispatch.batch.window-ms}, then the {@link BatchMatcher} offers each ride to one driver, keeping the
+ * total pickup ETA of the batch as low as possible. If the driver doesn't accept within
+ * {@code dispatch.wave-timeout-ms}, the ride goes back into the next batch without that driver. A ride that has
+ * no driver after {@code dispatch.batch.max-wait-ms} is given up.
+ * <p>
+ * A ride given up on, in either mode, has its open offers withdrawn and a {@link DispatchExpired} event published.
+ * {@link RideService} cancels the ride on it through the state machine, which tells the rider on
+ * {@code /ride/{rideId}}.
+ */
+@Slf4j
+@Service
+public class DispatchService implements RideEventListener {
+
+    // A ranked dispatch candidate, lower score is better
+    public record Candidate(Long driverId, double distanceKm, double etaMinutes, double acceptanceRate, double score) {
+    }
+
+    // No driver took the ride before dispatch ran out of radii or batch wait
+    public record DispatchExpired(Long rideId) {
+    }
+
+    private static final class DispatchState {
+        final Long rideId;
+        final double pickupLat;
+        final double pickupLng;
+        final RideOfferInbox.RideDetails details;
+        final String title;
+        final String body;
+        final long createdAt = System.currentTimeMillis();
+        final Set<Long> offered = new HashSet<>();
+        final ReentrantLock lock = new ReentrantLock();
+        int wave;
+        boolean finished;
+        ScheduledFuture<?> nextWave;
+        // Batch mode: the driver holding the current offer and until when
+        Long offeredTo;
+        long offerExpiresAt;
+
+        DispatchState(RideOfferInbox.RideDetails details, String title, String body) {
+            this.rideId = details.rideId();
+            this.pickupLat = details.pickupLat();
+            this.pickupLng = details.pickupLng();
+            this.details = details;
+            this.title = title;
+            this.body = body;
+        }
+    }
+
+    private final DriverSpatialIndex spatialIndex;
+    private final DriverAcceptanceTracker acceptanceTracker;
+    private final DriverRepository driverRepository;
+    private final RideRepository rideRepository;
+    private final NotificationDispatcher notificationDispatcher;
+    private final RideOfferInbox offerInbox;
+    private final BatchMatcher batchMatcher;
+    private final TaskScheduler taskScheduler;
+    private final ObjectProvider<RouteEstimator> routeEstimator;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final boolean batchMode;
+    private final long batchMaxWaitMs;
+
+    private final int waveSize;
+    private final Duration waveTimeout;
+    private final double[] radiiKm;
+    private final double averageSpeedKmPerHr;
+    private final double etaWeight;
+    private final double distanceWeight;
+    private final double acceptanceWeight;
+    private final int routeCandidates;
+
+    private final Map<Long, DispatchState> active = new ConcurrentHashMap<>();
+
+    public DispatchService(DriverSpatialIndex spatialIndex,
+                           DriverAcceptanceTracker acceptanceTracker,
+                           DriverRepository driverRepository,
+                           RideRepository rideRepository,
+                           NotificationDispatcher notificationDispatcher,
+                           RideOfferInbox offerInbox,
+                           BatchMatcher batchMatcher,
+                           TaskScheduler taskScheduler,
+                           ObjectProvider<RouteEstimator> routeEstimator,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${dispatch.mode:waves}") String mode,
+                           @Value("${dispatch.batch.max-wait-ms:60000}") long batchMaxWaitMs,
+                           @Value("${dispatch.wave-size:3}") int waveSize,
+                           @Value("${dispatch.wave-timeout-ms:15000}") long waveTimeoutMs,
+                           @Value("${dispatch.radii-km:2,5,8}") double[] radiiKm,
+                           @Value("${dispatch.average-speed-kmph:25}") double averageSpeedKmPerHr,
+                           @Value("${dispatch.weight.eta:1.0}") double etaWeight,
+                           @Value("${dispatch.weight.distance:0.5}") double distanceWeight,
+                           @Value("${dispatch.weight.acceptance:5.0}") double acceptanceWeight,
+                           @Value("${dispatch.route-candidates:10}") int routeCandidates) {
+        this.spatialIndex = spatialIndex;
+        this.acceptanceTracker = acceptanceTracker;
+        this.driverRepository = driverRepository;
+        this.rideRepository = rideRepository;
+        this.notificationDispatcher = notificationDispatcher;
+        this.offerInbox = offerInbox;
+        this.batchMatcher = batchMatcher;
+        this.taskScheduler = taskScheduler;
+        this.routeEstimator = routeEstimator;
+        this.eventPublisher = eventPublisher;
+        if (!mode.equals("waves") && !mode.equals("batch"))
+            throw new IllegalArgumentException("Unknown dispatch.mode " + mode + ", expected waves or batch");
+        this.batchMode = mode.equals("batch");
+        this.batchMaxWaitMs = batchMaxWaitMs;
+        this.waveSize = waveSize;
+        this.waveTimeout = Duration.ofMillis(waveTimeoutMs);
+        this.radiiKm = radiiKm;
+        this.averageSpeedKmPerHr = averageSpeedKmPerHr;
+        this.etaWeight = etaWeight;
+        this.distanceWeight = distanceWeight;
+        this.acceptanceWeight = acceptanceWeight;
+        this.routeCandidates = routeCandidates;
+    }
+
+    // Start offering a freshly created ride; the first wave goes out right away, in batch mode with the next batch
+    public void startDispatch(Ride ride) {
+        RideOfferInbox.RideDetails details = new RideOfferInbox.RideDetails(ride.getId(), ride.getPickupLocation(),
+                ride.getDropoffLocation(), ride.getPickupLattitude(), ride.getPickupLongitude());
+        DispatchState state = new DispatchState(details,
+                "New Ride Request",
+                "Ride #" + ride.getId() + " Pickup: " + ride.getPickupLocation() + ", Drop: " + ride.getDropoffLocation());
+        active.put(ride.getId(), state);
+        if (!batchMode)
+            runWave(state);
+    }
+
+    /**
+     * Stops dispatching a ride that has been accepted and withdraws the offers to the other drivers.
+     *
+     * @return The other drivers the ride was offered to, so they can be told it is gone.
+     */
+    public Set<Long> onRideAccepted(Long rideId, Long driverId) {
+        acceptanceTracker.recordAccept(driverId);
+        Set<Long> others = stop(rideId);
+        others.remove(driverId);
+        offerInbox.withdraw(rideId, others);
+        return others;
+    }
+
+    public void onRideCancelled(Long rideId) {
+        offerInbox.withdraw(rideId, stop(rideId));
+    }
+
+    @Override
+    public void onRideEvent(RideEvent event) {
+        switch (event.getToStatus()) {
+            case ACCEPTED -> {
+                Set<Long> otherDrivers = onRideAccepted(event.getRideId(), event.getDriverId());
+                notifyRideTaken(event.getRideId(), otherDrivers);
+            }
+            case CANCELLED -> onRideCancelled(event.getRideId());
+            default -> {
+            }
+        }
+    }
+
+    public boolean isDispatching(Long rideId) {
+        return active.containsKey(rideId);
+    }
+
+    // Rank available drivers around a pickup point, best first
+    public List<Candidate> rankCandidates(double lat, double lng, double radiusKm, Set<Long> exclude) {
+        List<DriverSpatialIndex.Neighbor> neighbors = new ArrayList<>();
+        for (DriverSpatialIndex.Neighbor n : spatialIndex.findAvailableWithinRadius(lat, lng, radiusKm))
+            if (!exclude.contains(n.driverId()))
+                neighbors.add(n);
+
+        List<Candidate> candidates = new ArrayList<>(neighbors.size());
+        for (DriverSpatialIndex.Neighbor n : neighbors)
+            candidates.add(candidate(n.driverId(), n.distanceKm(), n.distanceKm() / averageSpeedKmPerHr * 60));
+        candidates.sort(Comparator.comparingDouble(Candidate::score));
+
+        // Straight-line ranking is a good first cut; re-rank the best few on real road ETA when we have a graph
+        RouteEstimator estimator = routeEstimator.getIfAvailable();
+        if (estimator == null || candidates.isEmpty())
+            return candidates;
+
+        Map<Long, DriverSpatialIndex.Neighbor> byId = new HashMap<>();
+        neighbors.forEach(n -> byId.put(n.driverId(), n));
+        int routed = Math.min(routeCandidates, candidates.size());
+        for (int i = 0; i < routed; i++) {
+            DriverSpatialIndex.Neighbor n = byId.get(candidates.get(i).driverId());
+            Optional<Route> route = estimator.route(n.latitude(), n.longitude(), lat, lng);
+            if (route.isPresent())
+                candidates.set(i, candidate(n.driverId(), route.get().distanceKm(), route.get().durationMinutes()));
+        }
+        candidates.subList(0, routed).sort(Comparator.comparingDouble(Candidate::score));
+        return candidates;
+    }
+
+    private Candidate candidate(Long driverId, double distanceKm, double etaMinutes) {
+        double acceptanceRate = acceptanceTracker.acceptanceRate(driverId);
+        double score = etaWeight * etaMinutes
+                + distanceWeight * distanceKm
+                + acceptanceWeight * (1 - acceptanceRate);
+        return new Candidate(driverId, distanceKm, etaMinutes, acceptanceRate, score);
+    }
+
+    private void runWave(DispatchState state) {
+        // The first wave goes out right after booking; later ones may find the ride taken on another node
+        if (state.wave > 0 && movedOn(state.rideId, readStatus(state.rideId)))
+            return;
+
+        boolean gaveUp;
+        state.lock.lock();
+        try {
+            gaveUp = nextWave(state);
+        } finally {
+            state.lock.unlock();
+        }
+        if (gaveUp)
+            expire(state.rideId);
+    }
+
+    // Must hold state.lock; returns true when the radii ran out without anyone taking the ride
+    private boolean nextWave(DispatchState state) {
+        if (state.finished)
+            return false;
+
+        try {
+            // Widen the search each wave until something turns up or we run out of radii
+            List<Candidate> picked = List.of();
+            while (state.wave < radiiKm.length) {
+                double radiusKm = radiiKm[state.wave++];
+                List<Candidate> ranked = rankCandidates(state.pickupLat, state.pickupLng, radiusKm, state.offered);
+                if (!ranked.isEmpty()) {
+                    picked = ranked.subList(0, Math.min(waveSize, ranked.size()));
+                    log.info("Ride {} wave {} offered to {} drivers within {} km",
+                            state.rideId, state.wave, picked.size(), radiusKm);
+                    break;
+                }
+            }
+
+            if (picked.isEmpty()) {
+                log.info("No driver took ride {} after {} waves", state.rideId, state.wave);
+                giveUp(state);
+                return true;
+            }
+
+            sendOffers(state, picked);
+        } catch (RuntimeException e) {
+            // The next wave tries again a radius further out, until the radii run out
+            log.error("Dispatch wave for ride {} failed", state.rideId, e);
+        }
+        state.nextWave = taskScheduler.schedule(() -> runWave(state), Instant.now().plus(waveTimeout));
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${dispatch.batch.window-ms:300}")
+    public void runBatch() {
+        if (!batchMode || active.isEmpty())
+            return;
+
+        long now = System.currentTimeMillis();
+        // Rides whose offer ran out go back into matching, unless a driver took them through another node
+        List<Long> rematched = new ArrayList<>();
+        for (DispatchState state : active.values())
+            if (state.offeredTo != null && now >= state.offerExpiresAt)
+                rematched.add(state.rideId);
+        if (!rematched.isEmpty()) {
+            try {
+                for (Object[] row : rideRepository.findStatusesByIds(rematched))
+                    movedOn((Long) row[0], Optional.of((rideStatus) row[1]));
+            } catch (DataAccessException e) {
+                log.warn("Failed to read the status of {} dispatched rides: {}", rematched.size(), e.getMessage());
+            }
+        }
+
+        List<BatchMatcher.Request> requests = new ArrayList<>();
+        Set<Long> reserved = new HashSet<>();
+        List<Long> expired = new ArrayList<>();
+        for (DispatchState state : active.values()) {
+            state.lock.lock();
+            try {
+                if (state.finished)
+                    continue;
+                if (state.offeredTo != null && now < state.offerExpiresAt) {
+                    reserved.add(state.offeredTo);
+                    continue;
+                }
+                state.offeredTo = null;
+                if (now - state.createdAt > batchMaxWaitMs) {
+                    log.info("No driver took ride {} within {} ms", state.rideId, batchMaxWaitMs);
+                    giveUp(state);
+                    expired.add(state.rideId);
+                    continue;
+                }
+                requests.add(new BatchMatcher.Request(state.rideId, state.pickupLat, state.pickupLng, Set.copyOf(state.offered)));
+            } finally {
+                state.lock.unlock();
+            }
+        }
+        expired.forEach(this::expire);
+        if (requests.isEmpty())
+            return;
+
+        List<BatchMatcher.Match> matches = batchMatcher.match(requests, reserved);
+        log.debug("Batch matched {} of {} waiting rides", matches.size(), requests.size());
+
+        // One lookup for the push tokens of every matched driver instead of one per ride
+        Map<Long, String> fcmTokens = new HashMap<>();
+        for (Driver driver : driverRepository.findAllById(matches.stream().map(BatchMatcher.Match::driverId).toList()))
+            if (driver.getFcmToken() != null)
+                fcmTokens.put(driver.getId(), driver.getFcmToken());
+
+        for (BatchMatcher.Match match : matches) {
+            DispatchState state = active.get(match.rideId());
+            if (state == null)
+                continue;
+
+            state.lock.lock();
+            try {
+                if (state.finished)
+                    continue;
+                state.offeredTo = match.driverId();
+                state.offerExpiresAt = now + waveTimeout.toMillis();
+                state.offered.add(match.driverId());
+                acceptanceTracker.recordOffer(match.driverId());
+                offerInbox.offer(match.driverId(), state.details, match.distanceKm(), match.etaMinutes());
+            } finally {
+                state.lock.unlock();
+            }
+
+            String fcmToken = fcmTokens.get(match.driverId());
+            if (fcmToken != null)
+                notificationDispatcher.broadcast(List.of(fcmToken), state.title, state.body);
+        }
+    }
+
+    private void sendOffers(DispatchState state, List<Candidate> picked) {
+        List<Long> driverIds = picked.stream().map(Candidate::driverId).toList();
+        driverIds.forEach(acceptanceTracker::recordOffer);
+        state.offered.addAll(driverIds);
+        for (Candidate candidate : picked)
+            offerInbox.offer(candidate.driverId(), state.details, candidate.distanceKm(), candidate.etaMinutes());
+
+        List<String> tokens = driverRepository.findAllById(driverIds).stream()
+                .map(Driver::getFcmToken)
+                .filter(Objects::nonNull)
+                .toList();
+        notificationDispatcher.broadcast(tokens, state.title, state.body);
+    }
+
+    // Tell the other drivers who got the offer that the ride has been taken
+    private void notifyRideTaken(Long rideId, Collection<Long> otherDriverIds) {
+        if (otherDriverIds.isEmpty())
+            return;
+
+        log.info("Notifying {} offered drivers that ride {} has been taken.", otherDriverIds.size(), rideId);
+        List<String> tokens = driverRepository.findAllById(otherDriverIds).stream()
+                .map(Driver::getFcmToken)
+                .filter(Objects::nonNull)
+                .toList();
+        notificationDispatcher.broadcast(tokens, "Ride Unavailable", "Ride #" + rideId + " has already been accepted");
+    }
+
+    private Optional<rideStatus> readStatus(Long rideId) {
+        try {
+            return rideRepository.findStatusById(rideId);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read the status of ride {}, dispatching on: {}", rideId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    // Stops dispatch of a ride accepted or cancelled on another node, as its event would have here. The accepting
+    // driver keeps the offer they redeemed
+    private boolean movedOn(Long rideId, Optional<rideStatus> status) {
+        if (status.isEmpty() || status.get() == rideStatus.REQUESTED || !isDispatching(rideId))
+            return false;
+
+        log.info("Ride {} is {} on another node, stopping dispatch", rideId, status.get());
+        Set<Long> offered = stop(rideId);
+        if (status.get() == rideStatus.CANCELLED) {
+            offerInbox.withdraw(rideId, offered);
+            return true;
+        }
+        try {
+            rideRepository.findDriverIdById(rideId).ifPresent(offered::remove);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read the driver of ride {}: {}", rideId, e.getMessage());
+        }
+        offerInbox.withdraw(rideId, offered);
+        notifyRideTaken(rideId, offered);
+        return true;
+    }
+
+    private Set<Long> stop(Long rideId) {
+        DispatchState state = active.get(rideId);
+        if (state == null)
+            return new HashSet<>();
+
+        state.lock.lock();
+        try {
+            finish(state);
+            return new HashSet<>(state.offered);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    // Must hold state.lock. The ride's CANCELLED event will find dispatch already stopped, so the offers go here
+    private void giveUp(DispatchState state) {
+        finish(state);
+        offerInbox.withdraw(state.rideId, new HashSet<>(state.offered));
+    }
+
+    // Outside any state lock: the listener cancels the ride in a transaction of its own
+    private void expire(Long rideId) {
+        try {
+            eventPublisher.publishEvent(new DispatchExpired(rideId));
+        } catch (RuntimeException e) {
+            // Most likely accepted or cancelled at the last moment
+            log.warn("Could not expire ride {}: {}", rideId, e.getMessage());
+        }
+    }
+
+    // Must hold state.lock
+    private void finish(DispatchState state) {
+        state.finished = true;
+        if (state.nextWave != null)
+            state.nextWave.cancel(false);
+        active.remove(state.rideId, state);
+    }
+}
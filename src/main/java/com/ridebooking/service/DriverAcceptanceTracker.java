@@ -0,0 +1,43 @@
+package com.ridebooking.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps a running acceptance rate per driver (offers accepted / offers received), used to rank dispatch candidates
+@Component
+public class DriverAcceptanceTracker {
+
+    // Older behaviour fades out: counts are halved once a driver has seen this many offers
+    private static final long DECAY_THRESHOLD = 50;
+
+    private static final class Stats {
+        final AtomicLong offers = new AtomicLong();
+        final AtomicLong accepts = new AtomicLong();
+    }
+
+    private final Map<Long, Stats> stats = new ConcurrentHashMap<>();
+
+    public void recordOffer(Long driverId) {
+        Stats s = stats.computeIfAbsent(driverId, id -> new Stats());
+        if (s.offers.incrementAndGet() > DECAY_THRESHOLD) {
+            s.offers.updateAndGet(v -> v / 2);
+            s.accepts.updateAndGet(v -> v / 2);
+        }
+    }
+
+    public void recordAccept(Long driverId) {
+        stats.computeIfAbsent(driverId, id -> new Stats()).accepts.incrementAndGet();
+    }
+
+    // Smoothed so a new driver starts at 0.5 instead of 0 or 1
+    public double acceptanceRate(Long driverId) {
+        Stats s = stats.get(driverId);
+        if (s == null)
+            return 0.5;
+        double rate = (s.accepts.get() + 1.0) / (s.offers.get() + 2.0);
+        return Math.min(rate, 1.0);
+    }
+}
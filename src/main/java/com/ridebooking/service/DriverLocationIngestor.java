@@ -0,0 +1,184 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for driver GPS pings.
+ * <p>
+ * Pings are kept in memory and only the newest position per driver survives until the next flush, which
+ * writes all buffered positions to the drivers table as a single JDBC batch. A flush runs on a fixed
+ * interval, or earlier once the number of drivers waiting to be written reaches the batch size.
+ * Readers get the freshest position straight from memory through {@link #getLatest(Long)}.
+ */
+@Slf4j
+@Service
+public class DriverLocationIngestor {
+
+    public record LocationPing(Long driverId, double latitude, double longitude, long timestampMillis) {
+    }
+
+    // Newest position of a driver still to be written, and when its oldest unwritten ping came in
+    private record Pending(LocationPing ping, long waitingSinceMillis) {
+    }
+
+    private static final String UPDATE_SQL =
+            "UPDATE drivers SET current_latitude = ?, current_longitude = ?, updated_at = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    // Positions waiting to be written, one per driver
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    // Freshest known position per driver, served to readers
+    private final Map<Long, LocationPing> latest = new ConcurrentHashMap<>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ExecutorService flushExecutor;
+
+    private final AtomicLong pingsReceived = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    private final Counter pingCounter;
+    private final Counter rowCounter;
+    private final Timer flushTimer;
+    private final Timer flushLagTimer;
+
+    public DriverLocationIngestor(JdbcTemplate jdbcTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${driver.location.batch-size:500}") int batchSize,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        this.flushExecutor = Executors.newSingleThreadExecutor(virtualThreads
+                ? Thread.ofVirtual().name("location-flush").factory()
+                : r -> {
+                    Thread thread = new Thread(r, "location-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.pingCounter = meterRegistry.counter("driver.location.pings");
+        this.rowCounter = meterRegistry.counter("driver.location.rows.written");
+        this.flushTimer = meterRegistry.timer("driver.location.flush.duration");
+        // How long the oldest ping of a batch waited in memory before reaching the DB
+        this.flushLagTimer = meterRegistry.timer("driver.location.flush.lag");
+        Gauge.builder("driver.location.pending", pending, Map::size).register(meterRegistry);
+        // Pings received per row written; higher means more pings were coalesced away
+        Gauge.builder("driver.location.coalescing.ratio", this, DriverLocationIngestor::coalescingRatio)
+                .register(meterRegistry);
+    }
+
+    public void submit(Long driverId, double latitude, double longitude) {
+        LocationPing ping = new LocationPing(driverId, latitude, longitude, System.currentTimeMillis());
+        latest.put(driverId, ping);
+        // A newer ping replaces the position but keeps the wait of the first one it coalesced
+        pending.merge(driverId, new Pending(ping, ping.timestampMillis()),
+                (waiting, next) -> new Pending(next.ping(), waiting.waitingSinceMillis()));
+        pingsReceived.incrementAndGet();
+        pingCounter.increment();
+
+        // Don't wait for the timer when enough drivers are queued up
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true))
+            flushExecutor.execute(this::flush);
+    }
+
+    public Optional<LocationPing> getLatest(Long driverId) {
+        return Optional.ofNullable(latest.get(driverId));
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public double coalescingRatio() {
+        long written = rowsWritten.get();
+        return written == 0 ? 0 : (double) pingsReceived.get() / written;
+    }
+
+    @Scheduled(fixedDelayString = "${driver.location.flush-interval-ms:1000}")
+    public void flush() {
+        flushRequested.set(false);
+        if (!flushLock.tryLock())
+            return; // another flush is already running and will pick these up
+
+        try {
+            while (!pending.isEmpty()) {
+                List<Pending> batch = drain();
+                if (batch.isEmpty())
+                    break;
+                write(batch);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    private List<Pending> drain() {
+        List<Pending> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+        for (Long driverId : pending.keySet()) {
+            Pending entry = pending.remove(driverId);
+            if (entry != null)
+                batch.add(entry);
+            if (batch.size() >= batchSize)
+                break;
+        }
+        return batch;
+    }
+
+    private void write(List<Pending> batch) {
+        long oldest = Long.MAX_VALUE;
+        for (Pending entry : batch)
+            oldest = Math.min(oldest, entry.waitingSinceMillis());
+
+        Timestamp updatedAt = Timestamp.valueOf(LocalDateTime.now());
+        try {
+            flushTimer.record(() -> jdbcTemplate.batchUpdate(UPDATE_SQL, batch, batch.size(), (ps, entry) -> {
+                ps.setDouble(1, entry.ping().latitude());
+                ps.setDouble(2, entry.ping().longitude());
+                ps.setTimestamp(3, updatedAt);
+                ps.setLong(4, entry.ping().driverId());
+            }));
+            flushLagTimer.record(System.currentTimeMillis() - oldest, TimeUnit.MILLISECONDS);
+            rowsWritten.addAndGet(batch.size());
+            rowCounter.increment(batch.size());
+        } catch (Exception e) {
+            log.error("Failed to flush {} driver locations", batch.size(), e);
+            // Put the positions back unless a newer ping already replaced them, either way the wait goes on
+            for (Pending entry : batch) {
+                pending.merge(entry.ping().driverId(), entry, (newer, failed) ->
+                        new Pending(newer.ping(), Math.min(newer.waitingSinceMillis(), failed.waitingSinceMillis())));
+            }
+            throw e;
+        }
+    }
+}
@@ -1,27 +1,85 @@
 package com.ridebooking.service;
 
 import com.ridebooking.dto.DriverRegisterRequest;
+import com.ridebooking.dto.DriverSummary;
 import com.ridebooking.model.Driver;
 import com.ridebooking.model.driverStatus;
 import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.trail.TrailStore;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class DriverService {
 
+    private static final int REFRESH_BATCH = 500;
+
     @Autowired
     private final DriverRepository driverRepo;
 
     @Autowired
     private final PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private final DriverSpatialIndex spatialIndex;
+
+    @Autowired
+    private final DriverLocationIngestor locationIngestor;
+
+    @Autowired
+    private final ActiveRideTracker activeRideTracker;
+
+    @Autowired
+    private final TrailStore trailStore;
+
+    @Autowired
+    private final RideTrackingPublisher trackingPublisher;
+
+    // Seed the spatial index with every driver that has a known location
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadSpatialIndex(){
+        for (Driver driver : driverRepo.findAll()) {
+            if (driver.getCurrentLatitude() != null && driver.getCurrentLongitude() != null) {
+                spatialIndex.put(driver.getId(), driver.getCurrentLatitude(), driver.getCurrentLongitude(),
+                        driver.getStatus() == driverStatus.AVAILABLE);
+            }
+        }
+        log.info("Driver spatial index loaded with {} drivers", spatialIndex.size());
+    }
+
+    // A claim, completion or toggle only flips the index of the node that handled it, so every node re-reads the
+    // status of its indexed drivers; an ON_RIDE driver stays offered elsewhere for at most one interval, and the
+    // claim turns such an accept down anyway
+    @Scheduled(fixedDelayString = "${dispatch.index.refresh-interval-ms:10000}")
+    public void refreshAvailability() {
+        List<Long> driverIds = spatialIndex.driverIds();
+        for (int from = 0; from < driverIds.size(); from += REFRESH_BATCH) {
+            List<Long> batch = driverIds.subList(from, Math.min(driverIds.size(), from + REFRESH_BATCH));
+            Set<Long> missing = new HashSet<>(batch);
+            for (Object[] row : driverRepo.findStatusesByIds(batch)) {
+                missing.remove((Long) row[0]);
+                spatialIndex.setAvailable((Long) row[0], row[1] == driverStatus.AVAILABLE);
+            }
+            // Deleted drivers
+            missing.forEach(spatialIndex::remove);
+        }
+    }
+
     public Driver register(DriverRegisterRequest request){
         //Create the driver entity
         Driver driver = Driver.builder()
@@ -43,42 +101,64 @@ public class DriverService {
     }
 
     // This function enables drivers to mark that they are ready to accept rides or not
-    public Driver toggleAvailability(Long driverId){
-        Driver driver = driverRepo.findById(driverId)
+    public driverStatus toggleAvailability(Long driverId){
+        driverStatus current = driverRepo.findStatusById(driverId)
                 .orElseThrow(()-> new RuntimeException("Driver doesn't exist"));
 
         // If the driver is already on a ride
-        if(driver.getStatus() == driverStatus.ON_RIDE)
+        if(current == driverStatus.ON_RIDE)
             throw new RuntimeException("Can't toggle rn, as driver status is ON_RIDE");
 
         // If the current state is AVAILABLE make it OFFLINE and vice-versa
-        if(driver.getStatus() == driverStatus.AVAILABLE)
-            driver.setStatus(driverStatus.OFFLINE);
-        else if(driver.getStatus() == driverStatus.OFFLINE)
-            driver.setStatus(driverStatus.AVAILABLE);
+        driverStatus next = current == driverStatus.AVAILABLE ? driverStatus.OFFLINE : driverStatus.AVAILABLE;
 
-        return driverRepo.save(driver);
+        // Only flips the status read above, so a ride claimed in between isn't overwritten with AVAILABLE
+        if (driverRepo.updateStatusIf(driverId, current, next, LocalDateTime.now()) == 0)
+            throw new RuntimeException("Driver status changed meanwhile, try again");
+
+        spatialIndex.setAvailable(driverId, next == driverStatus.AVAILABLE);
+        return next;
     }
 
-    public List<Driver> getAvailableDrivers(){
-        return driverRepo.findByStatus(driverStatus.AVAILABLE);
+    public List<DriverSummary> getAvailableDrivers(){
+        List<DriverSummary> drivers = driverRepo.findSummariesByStatus(driverStatus.AVAILABLE);
+        // The location columns trail the pings by up to a flush, prefer the position still waiting in memory
+        for (DriverSummary driver : drivers) {
+            locationIngestor.getLatest(driver.getId()).ifPresent(ping -> {
+                driver.setCurrentLatitude(ping.latitude());
+                driver.setCurrentLongitude(ping.longitude());
+            });
+        }
+        return drivers;
     }
 
-    // function to keep updating the driver's lve location in the DB
+    // function to keep updating the driver's live location, the DB write happens in batches in the background
     public void updateDriverLocation(Long driverId, Double lat, Double lon) {
-        Driver driver = driverRepo.findById(driverId)
-                .orElseThrow(() -> new RuntimeException("Driver not found"));
-
-        driver.setCurrentLatitude(lat);
-        driver.setCurrentLongitude(lon);
-        driverRepo.save(driver);
+        if (lat == null || lon == null)
+            throw new RuntimeException("Latitude and longitude are required");
+
+        if (spatialIndex.contains(driverId)) {
+            spatialIndex.updateLocation(driverId, lat, lon);
+        } else {
+            // First ping we've seen from this driver, look it up once to learn its status
+            driverStatus status = driverRepo.findStatusById(driverId)
+                    .orElseThrow(() -> new RuntimeException("Driver not found"));
+            spatialIndex.put(driverId, lat, lon, status == driverStatus.AVAILABLE);
+        }
+
+        locationIngestor.submit(driverId, lat, lon);
+
+        // Add the ping to the distance of a ride in progress and keep its full trail for disputes
+        long now = System.currentTimeMillis();
+        Optional<Long> rideId = activeRideTracker.record(driverId, lat, lon, now);
+        if (rideId.isPresent())
+            trailStore.append(rideId.get(), lat, lon, now);
+        trackingPublisher.publishPosition(driverId, lat, lon, now);
     }
 
     public void updateFcmToken(Long driverId, String token) {
-        Driver driver = driverRepo.findById(driverId)
-                .orElseThrow(() -> new RuntimeException("Driver not found"));
-        driver.setFcmToken(token);
-        driverRepo.save(driver);
+        if (driverRepo.updateFcmToken(driverId, token, LocalDateTime.now()) == 0)
+            throw new RuntimeException("Driver not found");
     }
 
 
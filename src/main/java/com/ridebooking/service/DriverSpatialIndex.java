@@ -0,0 +1,240 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory grid index over driver positions.
+ * <p>
+ * The map is split into fixed-size lat/lng cells. Every driver with a known location lives in exactly one
+ * cell, so a radius query only has to look at the handful of cells that overlap the search circle instead
+ * of loading the whole drivers table. Only AVAILABLE drivers are returned by the queries, but positions of
+ * busy drivers are kept as well so they show up again as soon as they become available.
+ */
+@Component
+public class DriverSpatialIndex {
+
+    // A single indexed driver position
+    public record Neighbor(Long driverId, double latitude, double longitude, double distanceKm) {
+    }
+
+    private record Entry(double latitude, double longitude, long cell, boolean available) {
+    }
+
+    @FunctionalInterface
+    public interface PositionConsumer {
+        void accept(Long driverId, double latitude, double longitude);
+    }
+
+    private final double cellSizeDeg;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> cells = new ConcurrentHashMap<>();
+
+    public DriverSpatialIndex(@Value("${dispatch.index.cell-size-deg:0.01}") double cellSizeDeg) {
+        if (cellSizeDeg <= 0)
+            throw new IllegalArgumentException("Cell size must be positive");
+        this.cellSizeDeg = cellSizeDeg;
+    }
+
+    // Record the latest position of a driver, keeping its current availability
+    public void updateLocation(Long driverId, double lat, double lng) {
+        entries.compute(driverId, (id, old) -> {
+            boolean available = old != null && old.available();
+            Entry updated = new Entry(lat, lng, cellOf(lat, lng), available);
+            moveCell(id, old, updated);
+            return updated;
+        });
+    }
+
+    // Record the position and availability of a driver in one step (used when loading from the DB)
+    public void put(Long driverId, double lat, double lng, boolean available) {
+        entries.compute(driverId, (id, old) -> {
+            Entry updated = new Entry(lat, lng, cellOf(lat, lng), available);
+            moveCell(id, old, updated);
+            return updated;
+        });
+    }
+
+    // Flip the availability of a driver; drivers without a known location are ignored
+    public void setAvailable(Long driverId, boolean available) {
+        entries.computeIfPresent(driverId,
+                (id, old) -> new Entry(old.latitude(), old.longitude(), old.cell(), available));
+    }
+
+    public void remove(Long driverId) {
+        entries.computeIfPresent(driverId, (id, old) -> {
+            moveCell(id, old, null);
+            return null;
+        });
+    }
+
+    public Optional<Neighbor> getPosition(Long driverId) {
+        Entry entry = entries.get(driverId);
+        if (entry == null)
+            return Optional.empty();
+        return Optional.of(new Neighbor(driverId, entry.latitude(), entry.longitude(), 0));
+    }
+
+    public boolean contains(Long driverId) {
+        return entries.containsKey(driverId);
+    }
+
+    public boolean isAvailable(Long driverId) {
+        Entry entry = entries.get(driverId);
+        return entry != null && entry.available();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Snapshot of every indexed driver, available or not
+    public List<Long> driverIds() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    // Visit every AVAILABLE driver; a weakly consistent view, drivers may move or flip while this runs
+    public void forEachAvailable(PositionConsumer consumer) {
+        entries.forEach((driverId, entry) -> {
+            if (entry.available())
+                consumer.accept(driverId, entry.latitude(), entry.longitude());
+        });
+    }
+
+    // A separate index holding only the drivers that are AVAILABLE right now, for work that needs a stable view
+    public DriverSpatialIndex copyAvailable() {
+        DriverSpatialIndex copy = new DriverSpatialIndex(cellSizeDeg);
+        forEachAvailable((driverId, lat, lng) -> copy.put(driverId, lat, lng, true));
+        return copy;
+    }
+
+    // All AVAILABLE drivers within radiusKm of the point, closest first
+    public List<Neighbor> findAvailableWithinRadius(double lat, double lng, double radiusKm) {
+        List<Neighbor> result = new ArrayList<>();
+        collect(lat, lng, radiusKm, result);
+        result.sort(Comparator.comparingDouble(Neighbor::distanceKm));
+        return result;
+    }
+
+    // The k closest AVAILABLE drivers, searching no further than maxRadiusKm
+    public List<Neighbor> findNearestAvailable(double lat, double lng, int k, double maxRadiusKm) {
+        if (k <= 0)
+            return List.of();
+
+        // Grow the search ring until we have k drivers or hit the radius cap
+        double radiusKm = Math.min(cellSizeDeg * GeoUtils.KM_PER_DEGREE_LAT, maxRadiusKm);
+        List<Neighbor> result = new ArrayList<>();
+        while (true) {
+            result.clear();
+            collect(lat, lng, radiusKm, result);
+            if (result.size() >= k || radiusKm >= maxRadiusKm)
+                break;
+            radiusKm = Math.min(radiusKm * 2, maxRadiusKm);
+        }
+
+        result.sort(Comparator.comparingDouble(Neighbor::distanceKm));
+        return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    }
+
+    private void collect(double lat, double lng, double radiusKm, List<Neighbor> out) {
+        // Spans come from the same sphere the distances are measured on, padded a hair so rounding never drops a
+        // driver sitting right on the rim
+        double radiusRad = radiusKm / GeoUtils.EARTH_RADIUS_KM * (1 + 1e-9);
+        double latSpanDeg = Math.toDegrees(radiusRad);
+        int minLat = index(Math.max(lat - latSpanDeg, -90));
+        int maxLat = index(Math.min(lat + latSpanDeg, 90));
+
+        // A circle over a pole takes in every longitude
+        List<int[]> lngRanges = Math.abs(lat) + latSpanDeg >= 90 ? null : lngRanges(lat, lng, radiusRad);
+        long cellsUnderCircle = lngRanges == null
+                ? Long.MAX_VALUE
+                : (maxLat - minLat + 1L) * lngRanges.stream().mapToLong(r -> r[1] - r[0] + 1L).sum();
+
+        // Wide searches (near the poles, or over a sparse fleet) are cheaper walking just the occupied cells
+        if (cellsUnderCircle > cells.size()) {
+            cells.forEach((cell, members) -> {
+                int latIdx = (int) (cell >> 32);
+                int lngIdx = (int) cell.longValue();
+                if (latIdx < minLat || latIdx > maxLat)
+                    return;
+                if (lngRanges == null || lngRanges.stream().anyMatch(r -> lngIdx >= r[0] && lngIdx <= r[1]))
+                    collectCell(members, lat, lng, radiusKm, out);
+            });
+            return;
+        }
+
+        for (int[] lngRange : lngRanges) {
+            for (int latIdx = minLat; latIdx <= maxLat; latIdx++) {
+                for (int lngIdx = lngRange[0]; lngIdx <= lngRange[1]; lngIdx++) {
+                    Set<Long> members = cells.get(key(latIdx, lngIdx));
+                    if (members != null)
+                        collectCell(members, lat, lng, radiusKm, out);
+                }
+            }
+        }
+    }
+
+    // Cell columns the circle overlaps, split in two where it crosses the antimeridian
+    private List<int[]> lngRanges(double lat, double lng, double radiusRad) {
+        // Widest longitude offset of a circle on the sphere; it grows faster than 1 / cos(lat) towards the poles
+        double lngSpanDeg = Math.toDegrees(Math.asin(Math.sin(radiusRad) / Math.cos(Math.toRadians(lat))));
+        double west = lng - lngSpanDeg;
+        double east = lng + lngSpanDeg;
+        if (west < -180)
+            return List.of(new int[]{index(-180), index(east)}, new int[]{index(west + 360), index(180)});
+        if (east > 180)
+            return List.of(new int[]{index(west), index(180)}, new int[]{index(-180), index(east - 360)});
+        return List.<int[]>of(new int[]{index(west), index(east)});
+    }
+
+    private void collectCell(Set<Long> members, double lat, double lng, double radiusKm, List<Neighbor> out) {
+        for (Long driverId : members) {
+            Entry entry = entries.get(driverId);
+            if (entry == null || !entry.available())
+                continue;
+
+            double distance = GeoUtils.haversineKm(lat, lng, entry.latitude(), entry.longitude());
+            if (distance <= radiusKm)
+                out.add(new Neighbor(driverId, entry.latitude(), entry.longitude(), distance));
+        }
+    }
+
+    // Called from inside entries.compute so moves of one driver never interleave
+    private void moveCell(Long driverId, Entry old, Entry updated) {
+        if (old != null && (updated == null || old.cell() != updated.cell())) {
+            cells.computeIfPresent(old.cell(), (cell, members) -> {
+                members.remove(driverId);
+                return members.isEmpty() ? null : members;
+            });
+        }
+        if (updated != null && (old == null || old.cell() != updated.cell())) {
+            cells.compute(updated.cell(), (cell, members) -> {
+                Set<Long> set = members != null ? members : ConcurrentHashMap.newKeySet();
+                set.add(driverId);
+                return set;
+            });
+        }
+    }
+
+    private long cellOf(double lat, double lng) {
+        return key(index(lat), index(lng));
+    }
+
+    private int index(double degrees) {
+        return (int) Math.floor(degrees / cellSizeDeg);
+    }
+
+    private static long key(int latIdx, int lngIdx) {
+        return ((long) latIdx << 32) | (lngIdx & 0xffffffffL);
+    }
+}
@@ -1,13 +1,27 @@
 package com.ridebooking.service;
 
+import com.google.firebase.messaging.BatchResponse;
 import com.google.firebase.messaging.FirebaseMessaging;
 import com.google.firebase.messaging.FirebaseMessagingException;
 import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.MulticastMessage;
 import com.google.firebase.messaging.Notification;
+import com.google.firebase.messaging.SendResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+@Slf4j
 @Service
-public class FCMService {
+public class FCMService implements PushSender {
+
+    // Errors worth retrying; anything else (bad or unregistered token) won't succeed on a second try
+    private static final Set<MessagingErrorCode> RETRYABLE_ERRORS =
+            Set.of(MessagingErrorCode.UNAVAILABLE, MessagingErrorCode.INTERNAL, MessagingErrorCode.QUOTA_EXCEEDED);
 
     /**
      * Sends a push notification to a single device using its FCM token.
@@ -27,10 +41,9 @@ public class FCMService {
 
         try {
             String response = FirebaseMessaging.getInstance().send(message);
-            System.out.println("Successfully sent message: " + response);
+            log.debug("Successfully sent message: {}", response);
         } catch (FirebaseMessagingException e) {
-            System.err.println("Error sending FCM message: " + e.getMessage());
-            e.printStackTrace();
+            log.warn("Error sending FCM message", e);
         }
     }
 
@@ -45,9 +58,42 @@ public class FCMService {
 
         try {
             String response = FirebaseMessaging.getInstance().send(message);
-            System.out.println("Successfully sent data message: " + response);
+            log.debug("Successfully sent data message: {}", response);
         } catch (FirebaseMessagingException e) {
-            System.err.println("Error sending data message: " + e.getMessage());
+            log.warn("Error sending data message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends one notification to up to 500 devices in a single multicast call.
+     *
+     * @return The tokens that failed with a retryable error.
+     */
+    @Override
+    public List<String> sendBatch(List<String> tokens, String title, String body) throws FirebaseMessagingException {
+        MulticastMessage message = MulticastMessage.builder()
+                .addAllTokens(tokens)
+                .setNotification(Notification.builder()
+                        .setTitle(title)
+                        .setBody(body)
+                        .build())
+                .build();
+
+        BatchResponse response = FirebaseMessaging.getInstance().sendEachForMulticast(message);
+
+        List<String> retry = new ArrayList<>();
+        List<SendResponse> responses = response.getResponses();
+        for (int i = 0; i < responses.size(); i++) {
+            SendResponse sendResponse = responses.get(i);
+            if (sendResponse.isSuccessful())
+                continue;
+
+            FirebaseMessagingException e = sendResponse.getException();
+            if (e != null && RETRYABLE_ERRORS.contains(e.getMessagingErrorCode()))
+                retry.add(tokens.get(i));
+            else
+                log.warn("Dropping FCM message to a token: {}", e != null ? e.getMessage() : "unknown error");
         }
+        return retry;
     }
 }
@@ -0,0 +1,99 @@
+package com.ridebooking.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prices rides from the tariffs in {@code fare.tariffs-location}.
+ * <p>
+ * The configuration is compiled once into a {@link TariffTable} and every fare is read from the current table.
+ * When the file changes the table is rebuilt and swapped in atomically; a file that doesn't parse or validate
+ * is logged and the previous table stays in use.
+ */
+@Slf4j
+@Service
+public class FareEngine {
+
+    private final ObjectMapper objectMapper;
+    private final Resource tariffs;
+
+    private final AtomicReference<TariffTable> table = new AtomicReference<>();
+    private volatile long loadedModified;
+
+    @Autowired
+    public FareEngine(ObjectMapper objectMapper,
+                      ResourceLoader resourceLoader,
+                      @Value("${fare.tariffs-location:classpath:tariffs.json}") String tariffsLocation) throws IOException {
+        this.objectMapper = objectMapper;
+        this.tariffs = resourceLoader.getResource(tariffsLocation);
+        // A broken tariff file at startup should stop the app rather than price rides with nothing
+        reload();
+    }
+
+    // For callers that already have a table, e.g. tests and benchmarks
+    public FareEngine(TariffTable table) {
+        this.objectMapper = null;
+        this.tariffs = null;
+        this.table.set(table);
+    }
+
+    public TariffTable current() {
+        return table.get();
+    }
+
+    public double estimate(double pickupLat, double pickupLng, double dropLat, double dropLng) {
+        return table.get().estimate(pickupLat, pickupLng, dropLat, dropLng, System.currentTimeMillis());
+    }
+
+    public double fare(double pickupLat, double pickupLng, double distanceKm, double durationMinutes, long epochMillis) {
+        return table.get().fare(pickupLat, pickupLng, distanceKm, durationMinutes, epochMillis);
+    }
+
+    public void reload() throws IOException {
+        long modified = lastModified();
+        TariffConfig config;
+        try (InputStream in = tariffs.getInputStream()) {
+            config = objectMapper.readValue(in, TariffConfig.class);
+        }
+        TariffTable compiled = TariffTable.compile(config);
+        table.set(compiled);
+        loadedModified = modified;
+        log.info("Loaded {} tariff zones from {}", compiled.zoneCount() - 1, tariffs.getDescription());
+    }
+
+    // Only file resources can change under us; anything packaged in the jar is loaded once
+    @Scheduled(fixedDelayString = "${fare.reload-interval-ms:30000}")
+    public void reloadIfChanged() {
+        if (tariffs == null || !tariffs.isFile())
+            return;
+
+        long modified = lastModified();
+        if (modified == loadedModified)
+            return;
+
+        try {
+            reload();
+        } catch (IOException | RuntimeException e) {
+            log.error("Ignoring invalid tariffs in {}, keeping the previous ones", tariffs.getDescription(), e);
+            loadedModified = modified; // don't retry the same broken file every poll
+        }
+    }
+
+    private long lastModified() {
+        try {
+            return tariffs.lastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends push notifications off the request thread.
+ * <p>
+ * Tokens are grouped into batches of up to {@value #MAX_BATCH_SIZE} and handed to a bounded pool. Tokens that
+ * fail with a retryable error are sent again with exponential backoff; the retry is scheduled rather than
+ * slept so no sender thread is held while waiting. When the queue is full new batches are dropped and counted
+ * instead of blocking the caller.
+ */
+@Slf4j
+@Service
+public class NotificationDispatcher {
+
+    // FCM multicast limit
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private record Batch(List<String> tokens, String title, String body, int attempt) {
+    }
+
+    private final PushSender sender;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retryScheduler;
+
+    private final Timer batchTimer;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+
+    public NotificationDispatcher(PushSender sender,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${notifications.threads:4}") int threads,
+                                  @Value("${notifications.queue-capacity:1000}") int queueCapacity,
+                                  @Value("${notifications.max-attempts:3}") int maxAttempts,
+                                  @Value("${notifications.initial-backoff-ms:200}") long initialBackoffMs,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.sender = sender;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+
+        // The pool still bounds concurrency and the queue; virtual senders just don't tie up a platform
+        // thread while blocked on the FCM HTTP call
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("push-sender-", 1).factory()
+                : r -> {
+                    Thread thread = new Thread(r, "push-sender-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "push-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.batchTimer = meterRegistry.timer("notifications.batch.latency");
+        this.sentCounter = meterRegistry.counter("notifications.sent");
+        this.failedCounter = meterRegistry.counter("notifications.failed");
+        this.droppedCounter = meterRegistry.counter("notifications.dropped");
+        Gauge.builder("notifications.queue.depth", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    // Queue the same notification for every token; returns immediately
+    public void broadcast(Collection<String> tokens, String title, String body) {
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(tokens));
+        unique.removeIf(Objects::isNull);
+
+        for (int from = 0; from < unique.size(); from += MAX_BATCH_SIZE) {
+            List<String> chunk = List.copyOf(unique.subList(from, Math.min(from + MAX_BATCH_SIZE, unique.size())));
+            submit(new Batch(chunk, title, body, 1));
+        }
+    }
+
+    public void send(String token, String title, String body) {
+        if (token != null)
+            submit(new Batch(List.of(token), title, body, 1));
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private void submit(Batch batch) {
+        try {
+            executor.execute(() -> deliver(batch));
+        } catch (RejectedExecutionException e) {
+            droppedCounter.increment(batch.tokens().size());
+            log.warn("Notification queue full, dropped batch of {} for '{}'", batch.tokens().size(), batch.title());
+        }
+    }
+
+    private void deliver(Batch batch) {
+        List<String> retry;
+        Timer.Sample sample = Timer.start();
+        try {
+            retry = sender.sendBatch(batch.tokens(), batch.title(), batch.body());
+        } catch (Exception e) {
+            log.warn("Push batch of {} failed on attempt {}: {}", batch.tokens().size(), batch.attempt(), e.getMessage());
+            retry = batch.tokens();
+        } finally {
+            sample.stop(batchTimer);
+        }
+
+        sentCounter.increment(batch.tokens().size() - retry.size());
+        if (retry.isEmpty())
+            return;
+
+        if (batch.attempt() >= maxAttempts) {
+            failedCounter.increment(retry.size());
+            log.error("Giving up on {} push notifications for '{}' after {} attempts",
+                    retry.size(), batch.title(), batch.attempt());
+            return;
+        }
+
+        // Exponential backoff with some jitter so retries from many batches don't line up
+        long delay = initialBackoffMs * (1L << (batch.attempt() - 1));
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        Batch next = new Batch(List.copyOf(retry), batch.title(), batch.body(), batch.attempt() + 1);
+        try {
+            retryScheduler.schedule(() -> submit(next), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            failedCounter.increment(retry.size()); // shutting down
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.ridebooking.service;
+
+import java.util.Optional;
+
+// Creates payment orders for completed rides; PaymentService (Razorpay) is the production implementation
+public interface PaymentGateway {
+
+    /**
+     * Creates a payment order.
+     *
+     * @param idempotencyKey Unique per ride, stored with the order so a retry can find it again.
+     * @param amountInRupees The amount to collect.
+     * @return The gateway's order id.
+     * @throws Exception when the order could not be created.
+     */
+    String createOrder(String idempotencyKey, double amountInRupees) throws Exception;
+
+    // The order created earlier with this key, if the gateway already has one
+    Optional<String> findOrder(String idempotencyKey) throws Exception;
+}
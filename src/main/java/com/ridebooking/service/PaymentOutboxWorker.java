@@ -0,0 +1,223 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.PaymentOutbox;
+import com.ridebooking.model.outboxStatus;
+import com.ridebooking.model.paymentStatus;
+import com.ridebooking.repository.PaymentOutboxRepository;
+import com.ridebooking.repository.RideRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the payment orders that completed rides leave in the payment_outbox table.
+ * <p>
+ * Every poll picks up the entries that are due and claims each one with a conditional update, so several app
+ * nodes can drain the same table without creating an order twice. At most {@code payment.outbox.concurrency}
+ * gateway calls run at once. A failed call is retried with exponential backoff until
+ * {@code payment.outbox.max-attempts}, after which the entry and the ride's payment are marked FAILED. A claim
+ * is only a lease: if a node dies halfway, the entry becomes due again once the lease runs out, and the retry
+ * first asks the gateway for an order with the same idempotency key before creating a new one. The outcome of an
+ * attempt is only written while the entry is still IN_PROGRESS under that attempt's claim, so a worker that
+ * outlived its lease can't overwrite the entry once another worker has taken it over.
+ */
+@Slf4j
+@Service
+public class PaymentOutboxWorker {
+
+    private static final List<outboxStatus> DUE_STATUSES = List.of(outboxStatus.PENDING, outboxStatus.IN_PROGRESS);
+
+    private final PaymentOutboxRepository outboxRepository;
+    private final RideRepository rideRepository;
+    private final PaymentGateway gateway;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final Duration lease;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final Timer gatewayTimer;
+    private final Counter createdCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+
+    public PaymentOutboxWorker(PaymentOutboxRepository outboxRepository,
+                               RideRepository rideRepository,
+                               PaymentGateway gateway,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${payment.outbox.concurrency:4}") int concurrency,
+                               @Value("${payment.outbox.max-attempts:8}") int maxAttempts,
+                               @Value("${payment.outbox.initial-backoff-ms:2000}") long initialBackoffMs,
+                               @Value("${payment.outbox.lease-ms:60000}") long leaseMs,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.outboxRepository = outboxRepository;
+        this.rideRepository = rideRepository;
+        this.gateway = gateway;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.lease = Duration.ofMillis(leaseMs);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("payment-outbox-", 1).factory()
+                : r -> {
+                    Thread thread = new Thread(r, "payment-outbox-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+        this.executor = Executors.newFixedThreadPool(concurrency, threadFactory);
+        this.permits = new Semaphore(concurrency);
+
+        this.gatewayTimer = meterRegistry.timer("payment.gateway.latency");
+        this.createdCounter = meterRegistry.counter("payment.outbox.created");
+        this.retriedCounter = meterRegistry.counter("payment.outbox.retried");
+        this.failedCounter = meterRegistry.counter("payment.outbox.failed");
+        Gauge.builder("payment.outbox.in.flight", permits, p -> concurrency - p.availablePermits())
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.poll-interval-ms:1000}")
+    public void poll() {
+        int free = permits.availablePermits();
+        if (free == 0)
+            return; // all gateway slots busy, the next poll will pick these up
+
+        LocalDateTime now = LocalDateTime.now();
+        for (PaymentOutbox entry : outboxRepository.findDue(DUE_STATUSES, now, PageRequest.of(0, free))) {
+            if (!permits.tryAcquire())
+                break;
+
+            if (outboxRepository.claim(entry.getId(), entry.getStatus(), now, now.plus(lease)) == 0) {
+                permits.release(); // another node took it
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    try {
+                        process(entry);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the entry becomes due again when the lease runs out
+                permits.release();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // entry is the snapshot from before the claim, so entry.getAttempts() counts the earlier attempts only
+    private void process(PaymentOutbox entry) {
+        int attempt = entry.getAttempts() + 1;
+        String key = entry.getIdempotencyKey();
+
+        Timer.Sample sample = Timer.start();
+        try {
+            // An earlier attempt may have reached the gateway before it failed or its node died
+            String orderId = attempt > 1 ? gateway.findOrder(key).orElse(null) : null;
+            if (orderId == null)
+                orderId = gateway.createOrder(key, entry.getAmount());
+            if (orderId == null)
+                throw new IllegalStateException("Gateway returned no order id");
+
+            if (markDone(entry, attempt, orderId)) {
+                createdCounter.increment();
+                log.info("Payment order {} created for ride {}", orderId, entry.getRideId());
+            }
+        } catch (Exception e) {
+            markFailed(entry, attempt, e);
+        } finally {
+            sample.stop(gatewayTimer);
+        }
+    }
+
+    private boolean markDone(PaymentOutbox entry, int attempt, String orderId) {
+        Boolean owned = transactionTemplate.execute(tx -> {
+            if (outboxRepository.completeAttempt(entry.getId(), attempt, orderId, LocalDateTime.now()) == 0)
+                return false;
+
+            rideRepository.findById(entry.getRideId()).ifPresent(ride -> {
+                // Don't overwrite a payment id that already came in for this ride
+                if (ride.getTransactionId() == null)
+                    ride.setTransactionId(orderId);
+            });
+            return true;
+        });
+        if (!Boolean.TRUE.equals(owned))
+            leaseLost(entry, attempt);
+        return Boolean.TRUE.equals(owned);
+    }
+
+    private void markFailed(PaymentOutbox entry, int attempt, Exception error) {
+        String message = error.getClass().getSimpleName() + ": " + error.getMessage();
+        String lastError = message.length() > 1000 ? message.substring(0, 1000) : message;
+        LocalDateTime now = LocalDateTime.now();
+
+        if (attempt >= maxAttempts) {
+            Boolean owned = transactionTemplate.execute(tx -> {
+                if (outboxRepository.failAttempt(entry.getId(), attempt, outboxStatus.FAILED, now, lastError, now) == 0)
+                    return false;
+                rideRepository.findById(entry.getRideId())
+                        .ifPresent(ride -> ride.setPaymentStatus(paymentStatus.FAILED));
+                return true;
+            });
+            if (!Boolean.TRUE.equals(owned)) {
+                leaseLost(entry, attempt);
+                return;
+            }
+            failedCounter.increment();
+            log.error("Giving up on payment order for ride {} after {} attempts: {}",
+                    entry.getRideId(), attempt, message);
+            return;
+        }
+
+        // Exponential backoff with some jitter so a gateway outage doesn't end in a burst of retries
+        long delay = initialBackoffMs * (1L << Math.min(attempt - 1, 20));
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (outboxRepository.failAttempt(entry.getId(), attempt, outboxStatus.PENDING,
+                now.plusNanos(delay * 1_000_000), lastError, now) == 0) {
+            leaseLost(entry, attempt);
+            return;
+        }
+        retriedCounter.increment();
+        log.warn("Payment order for ride {} failed on attempt {}, retrying in {} ms: {}",
+                entry.getRideId(), attempt, delay, message);
+    }
+
+    // The lease ran out mid-call and another worker owns the entry now; it finds any order made here by its key
+    private void leaseLost(PaymentOutbox entry, int attempt) {
+        log.warn("Lease on the payment order for ride {} ran out during attempt {}, leaving it to the new owner",
+                entry.getRideId(), attempt);
+    }
+}
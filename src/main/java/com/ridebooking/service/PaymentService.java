@@ -5,10 +5,15 @@ import com.razorpay.RazorpayClient;
 import com.razorpay.RazorpayException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+import java.util.Optional;
+
 @Service
-public class PaymentService {
+@ConditionalOnProperty(name = "payment.gateway", havingValue = "razorpay", matchIfMissing = true)
+public class PaymentService implements PaymentGateway {
 
     @Autowired
     private RazorpayClient razorpayClient;
@@ -22,4 +27,19 @@ public class PaymentService {
 
         return razorpayClient.orders.create(options);
     }
+
+    @Override
+    public String createOrder(String idempotencyKey, double amountInRupees) throws RazorpayException {
+        return createOrder(amountInRupees, idempotencyKey).get("id");
+    }
+
+    // Orders are created with the idempotency key as receipt, so look them up by it
+    @Override
+    public Optional<String> findOrder(String idempotencyKey) throws RazorpayException {
+        JSONObject filter = new JSONObject();
+        filter.put("receipt", idempotencyKey);
+
+        List<Order> orders = razorpayClient.orders.fetchAll(filter);
+        return orders.stream().findFirst().map(order -> order.<String>get("id"));
+    }
 }
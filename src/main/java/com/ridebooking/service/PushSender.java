@@ -0,0 +1,18 @@
+package com.ridebooking.service;
+
+import java.util.List;
+
+// Delivers push notifications to devices; FCMService is the production implementation
+public interface PushSender {
+
+    /**
+     * Sends the same notification to a batch of devices.
+     *
+     * @param tokens Registration tokens of the target devices, at most 500 per call.
+     * @param title  The title of the notification.
+     * @param body   The body/content of the notification.
+     * @return The tokens that failed with a retryable error and should be sent again.
+     * @throws Exception when the whole batch could not be sent.
+     */
+    List<String> sendBatch(List<String> tokens, String title, String body) throws Exception;
+}
@@ -0,0 +1,103 @@
+package com.ridebooking.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.RideRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Makes accepting a ride a single atomic claim.
+ * <p>
+ * An in-memory claim table sits in front of the DB: the first driver to claim a ride on this node wins the
+ * putIfAbsent and every other driver is rejected right away without touching MySQL. The winner then runs two
+ * conditional updates in one transaction (driver AVAILABLE -> ON_RIDE and ride REQUESTED -> ACCEPTED), which
+ * keeps the claim safe across several app nodes as well. The ride update goes through {@link RideStateMachine},
+ * so the ACCEPTED event is logged in the same transaction.
+ * <p>
+ * Claims are dropped when the ride finishes on this node, and in any case expire after
+ * {@code ride.claim.ttl-ms}: a ride may be finished on another node, and once the DB holds the accept a stale
+ * claim has nothing left to guard.
+ */
+@Slf4j
+@Service
+public class RideClaimService {
+
+    private final RideRepository rideRepository;
+    private final DriverRepository driverRepository;
+    private final RideStateMachine stateMachine;
+    private final TransactionTemplate transactionTemplate;
+
+    // rideId -> driverId of the driver holding the claim
+    private final Map<Long, Long> claims;
+
+    public RideClaimService(RideRepository rideRepository,
+                            DriverRepository driverRepository,
+                            RideStateMachine stateMachine,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${ride.claim.ttl-ms:300000}") long claimTtlMs) {
+        this.rideRepository = rideRepository;
+        this.driverRepository = driverRepository;
+        this.stateMachine = stateMachine;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.claims = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(claimTtlMs))
+                .<Long, Long>build()
+                .asMap();
+    }
+
+    public void claim(Long rideId, Long driverId, String idempotencyKey) {
+        if (claims.putIfAbsent(rideId, driverId) != null) {
+            log.info("Ride {} already claimed, rejecting driver {}", rideId, driverId);
+            throw new RuntimeException("Ride has already been accepted");
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                LocalDateTime now = LocalDateTime.now();
+
+                if (driverRepository.updateStatusIf(driverId, driverStatus.AVAILABLE, driverStatus.ON_RIDE, now) == 0) {
+                    if (!driverRepository.existsById(driverId))
+                        throw new RuntimeException("Driver not found");
+                    throw new RuntimeException("Driver is not available");
+                }
+
+                stateMachine.transition(rideId, rideStatus.REQUESTED, rideStatus.ACCEPTED, driverId, null,
+                        idempotencyKey, at -> {
+                            int claimed = rideRepository.assignDriverIfStatus(rideId,
+                                    driverRepository.getReferenceById(driverId), rideStatus.REQUESTED,
+                                    rideStatus.ACCEPTED, at);
+                            if (claimed == 0) {
+                                if (!rideRepository.existsById(rideId))
+                                    throw new RuntimeException("Ride not found");
+                                throw new RuntimeException("Ride has already been accepted");
+                            }
+                            return claimed;
+                        });
+            });
+        } catch (DataAccessException e) {
+            // Lost a race on the row in the DB (e.g. against another node), treat it like any other lost claim
+            claims.remove(rideId, driverId);
+            log.info("Ride {} claim by driver {} failed in the DB: {}", rideId, driverId, e.getMessage());
+            throw new RuntimeException("Ride has already been accepted");
+        } catch (RuntimeException e) {
+            claims.remove(rideId, driverId);
+            throw e;
+        }
+    }
+
+    // Drop the claim once the ride is finished rather than waiting for it to expire
+    public void release(Long rideId) {
+        claims.remove(rideId);
+    }
+}
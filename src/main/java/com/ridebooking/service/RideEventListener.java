@@ -0,0 +1,12 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.RideEvent;
+
+/**
+ * Reacts to ride status transitions. Beans implementing this are called by {@link RideStateMachine} after the
+ * transition has committed, each on its own thread and in the order the transitions happened.
+ */
+public interface RideEventListener {
+
+    void onRideEvent(RideEvent event);
+}
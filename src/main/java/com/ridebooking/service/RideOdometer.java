@@ -0,0 +1,119 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Running distance of one ride, built from the driver's location pings as they arrive.
+ * <p>
+ * Each ping is measured from the last accepted point. Moves shorter than the jitter radius are ignored without
+ * moving that point, so a parked phone wandering around its true position adds nothing while slow real movement
+ * still adds up once it leaves the radius. A ping implying a speed above the limit is treated as a GPS outlier
+ * and skipped; if several in a row are skipped the last accepted point was probably the bad one, so the
+ * odometer re-anchors on the new position without adding the jump.
+ */
+public final class RideOdometer {
+
+    private final Long rideId;
+    private final double jitterKm;
+    private final double maxSpeedKmph;
+    private final int maxConsecutiveOutliers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean anchored;
+    private double anchorLat;
+    private double anchorLng;
+    private long anchorMillis;
+    private double distanceKm;
+    private int acceptedPoints;
+    private int rejectedPoints;
+    private int consecutiveOutliers;
+
+    public RideOdometer(Long rideId, double jitterMeters, double maxSpeedKmph, int maxConsecutiveOutliers) {
+        this(rideId, jitterMeters, maxSpeedKmph, maxConsecutiveOutliers, 0, 0);
+    }
+
+    // Continues from a distance tracked elsewhere; the first ping anchors without adding the gap since then
+    public RideOdometer(Long rideId, double jitterMeters, double maxSpeedKmph, int maxConsecutiveOutliers,
+                        double distanceKm, int acceptedPoints) {
+        this.rideId = rideId;
+        this.jitterKm = jitterMeters / 1000;
+        this.maxSpeedKmph = maxSpeedKmph;
+        this.maxConsecutiveOutliers = maxConsecutiveOutliers;
+        this.distanceKm = distanceKm;
+        this.acceptedPoints = acceptedPoints;
+    }
+
+    public void record(double lat, double lng, long timestampMillis) {
+        lock.lock();
+        try {
+            if (!anchored) {
+                anchor(lat, lng, timestampMillis);
+                acceptedPoints++;
+                return;
+            }
+
+            double stepKm = GeoUtils.haversineKm(anchorLat, anchorLng, lat, lng);
+            if (stepKm < jitterKm)
+                return;
+
+            long elapsedMillis = timestampMillis - anchorMillis;
+            boolean outlier = elapsedMillis <= 0 || stepKm / (elapsedMillis / 3_600_000.0) > maxSpeedKmph;
+            if (outlier) {
+                rejectedPoints++;
+                if (++consecutiveOutliers >= maxConsecutiveOutliers && elapsedMillis > 0) {
+                    anchor(lat, lng, timestampMillis);
+                    acceptedPoints++;
+                }
+                return;
+            }
+
+            distanceKm += stepKm;
+            anchor(lat, lng, timestampMillis);
+            acceptedPoints++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Long rideId() {
+        return rideId;
+    }
+
+    public double distanceKm() {
+        lock.lock();
+        try {
+            return distanceKm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int acceptedPoints() {
+        lock.lock();
+        try {
+            return acceptedPoints;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int rejectedPoints() {
+        lock.lock();
+        try {
+            return rejectedPoints;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold lock
+    private void anchor(double lat, double lng, long timestampMillis) {
+        anchored = true;
+        anchorLat = lat;
+        anchorLng = lng;
+        anchorMillis = timestampMillis;
+        consecutiveOutliers = 0;
+    }
+}
@@ -0,0 +1,243 @@
+package com.ridebooking.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Pending ride offers per driver, pushed to {@code /driver/{driverId}/offers} as they are made and withdrawn.
+ * <p>
+ * Every offer carries a token signed with {@code dispatch.offer.secret} over the ride, the driver and the expiry,
+ * and accepting a ride requires it. So a driver can only accept a ride it was actually offered, and stale or
+ * made-up accepts are turned away in memory before they reach the claim in the DB. The token is self-contained,
+ * so any node can check it, not just the one that made the offer. An inbox holds at most
+ * {@code dispatch.offer.inbox-size} offers, dropping the one that expires first, and offers expire after
+ * {@code dispatch.offer.ttl-ms}.
+ */
+@Slf4j
+@Service
+public class RideOfferInbox {
+
+    public static final String DESTINATION_SUFFIX = "/offers";
+
+    // What drivers are told about a ride, the same for every driver it is offered to
+    public record RideDetails(Long rideId, String pickupLocation, String dropoffLocation,
+                              double pickupLat, double pickupLng) {
+    }
+
+    public record Offer(Long rideId, String token, String pickupLocation, String dropoffLocation,
+                        double pickupLat, double pickupLng, double distanceKm, double etaMinutes, long expiresAt) {
+    }
+
+    // t = "o": new offer, t = "r": offer withdrawn because the ride was taken or cancelled
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record OfferFrame(String t, Long rideId, Offer offer) {
+    }
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final SecretKeySpec key;
+    private final long ttlMs;
+    private final int inboxSize;
+    private final LongSupplier clock;
+
+    // driverId -> rideId -> offer, oldest first. Inboxes are only touched inside compute() so a driver's inbox
+    // can be dropped when it empties without racing a new offer
+    private final Map<Long, LinkedHashMap<Long, Offer>> inboxes = new ConcurrentHashMap<>();
+
+    private final Counter offeredCounter;
+    private final Counter droppedCounter;
+    private final Counter withdrawnCounter;
+    private final Counter rejectedCounter;
+
+    @Autowired
+    public RideOfferInbox(SimpMessageSendingOperations messagingTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${dispatch.offer.secret:}") String secret,
+                          @Value("${dispatch.offer.ttl-ms:30000}") long ttlMs,
+                          @Value("${dispatch.offer.inbox-size:5}") int inboxSize) {
+        this(messagingTemplate, meterRegistry, secret, ttlMs, inboxSize, System::currentTimeMillis);
+    }
+
+    RideOfferInbox(SimpMessageSendingOperations messagingTemplate, MeterRegistry meterRegistry,
+                   String secret, long ttlMs, int inboxSize, LongSupplier clock) {
+        if (inboxSize <= 0)
+            throw new IllegalArgumentException("Offer inbox size must be positive");
+        this.messagingTemplate = messagingTemplate;
+        this.ttlMs = ttlMs;
+        this.inboxSize = inboxSize;
+        this.clock = clock;
+
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            // Fine for one node; with several, tokens made on one node would be rejected by the others
+            log.warn("dispatch.offer.secret is not set, signing ride offers with a random key");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+
+        this.offeredCounter = meterRegistry.counter("dispatch.offers", "outcome", "offered");
+        this.droppedCounter = meterRegistry.counter("dispatch.offers", "outcome", "dropped");
+        this.withdrawnCounter = meterRegistry.counter("dispatch.offers", "outcome", "withdrawn");
+        this.rejectedCounter = meterRegistry.counter("dispatch.offers.accept.rejected");
+        Gauge.builder("dispatch.offers.inboxes", inboxes, Map::size).register(meterRegistry);
+    }
+
+    public static String destination(Long driverId) {
+        return "/driver/" + driverId + DESTINATION_SUFFIX;
+    }
+
+    // Put the ride in the driver's inbox and push it; an earlier offer of the same ride is replaced
+    public Offer offer(Long driverId, RideDetails ride, double distanceKm, double etaMinutes) {
+        long now = clock.getAsLong();
+        long expiresAt = now + ttlMs;
+        Offer offer = new Offer(ride.rideId(), sign(ride.rideId(), driverId, expiresAt),
+                ride.pickupLocation(), ride.dropoffLocation(), ride.pickupLat(), ride.pickupLng(),
+                distanceKm, etaMinutes, expiresAt);
+
+        inboxes.compute(driverId, (id, inbox) -> {
+            LinkedHashMap<Long, Offer> offers = inbox != null ? inbox : new LinkedHashMap<>();
+            removeExpired(offers, now);
+            offers.remove(ride.rideId());
+            // Every offer lives equally long, so the oldest is also the first to expire
+            if (offers.size() >= inboxSize) {
+                Iterator<Long> oldest = offers.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+                droppedCounter.increment();
+            }
+            offers.put(ride.rideId(), offer);
+            return offers;
+        });
+
+        send(driverId, new OfferFrame("o", ride.rideId(), offer));
+        offeredCounter.increment();
+        return offer;
+    }
+
+    // Offers the driver can still accept, oldest first
+    public List<Offer> pending(Long driverId) {
+        long now = clock.getAsLong();
+        List<Offer> result = new ArrayList<>();
+        inboxes.computeIfPresent(driverId, (id, offers) -> {
+            removeExpired(offers, now);
+            result.addAll(offers.values());
+            return offers.isEmpty() ? null : offers;
+        });
+        return result;
+    }
+
+    /**
+     * Checks the token sent with an accept and takes the offer out of the driver's inbox.
+     *
+     * @throws RuntimeException if the ride wasn't offered to this driver or the offer has expired.
+     */
+    public void redeem(Long rideId, Long driverId, String token) {
+        if (!verify(rideId, driverId, token)) {
+            rejectedCounter.increment();
+            log.info("Rejected accept of ride {} by driver {} without a valid offer", rideId, driverId);
+            throw new RuntimeException("Ride was not offered to this driver or the offer has expired");
+        }
+        remove(driverId, rideId);
+    }
+
+    // Take the ride out of these drivers' inboxes and tell them it is gone
+    public void withdraw(Long rideId, Collection<Long> driverIds) {
+        for (Long driverId : driverIds) {
+            remove(driverId, rideId);
+            send(driverId, new OfferFrame("r", rideId, null));
+            withdrawnCounter.increment();
+        }
+    }
+
+    // Expired offers are also dropped whenever an inbox is touched, this catches drivers that went quiet
+    @Scheduled(fixedDelayString = "${dispatch.offer.purge-interval-ms:10000}")
+    public void purgeExpired() {
+        long now = clock.getAsLong();
+        for (Long driverId : inboxes.keySet()) {
+            inboxes.computeIfPresent(driverId, (id, offers) -> {
+                removeExpired(offers, now);
+                return offers.isEmpty() ? null : offers;
+            });
+        }
+    }
+
+    boolean verify(Long rideId, Long driverId, String token) {
+        if (token == null)
+            return false;
+        int dot = token.indexOf('.');
+        if (dot <= 0)
+            return false;
+
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(token.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expiresAt < clock.getAsLong())
+            return false;
+
+        byte[] expected = sign(rideId, driverId, expiresAt).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // <expiresAt>.<base64url HMAC of rideId:driverId:expiresAt>
+    private String sign(Long rideId, Long driverId, long expiresAt) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            byte[] digest = mac.doFinal((rideId + ":" + driverId + ":" + expiresAt).getBytes(StandardCharsets.US_ASCII));
+            return expiresAt + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign ride offer", e);
+        }
+    }
+
+    private void remove(Long driverId, Long rideId) {
+        inboxes.computeIfPresent(driverId, (id, offers) -> {
+            offers.remove(rideId);
+            return offers.isEmpty() ? null : offers;
+        });
+    }
+
+    private static void removeExpired(LinkedHashMap<Long, Offer> offers, long now) {
+        offers.values().removeIf(offer -> offer.expiresAt() < now);
+    }
+
+    private void send(Long driverId, OfferFrame frame) {
+        try {
+            messagingTemplate.convertAndSend(destination(driverId), frame);
+        } catch (RuntimeException e) {
+            // The offer stays in the inbox, the driver still gets it by subscribing or polling
+            log.warn("Could not push offer frame for ride {} to driver {}: {}", frame.rideId(), driverId, e.getMessage());
+        }
+    }
+}
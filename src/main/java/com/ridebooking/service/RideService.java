@@ -1,19 +1,48 @@
 package com.ridebooking.service;
 
-import com.razorpay.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ridebooking.config.CacheConfig;
+import com.ridebooking.dto.RideHistoryPage;
 import com.ridebooking.dto.RideRatingRequest;
 import com.ridebooking.dto.RideRequest;
+import com.ridebooking.dto.RideSummary;
+import com.ridebooking.dto.RideView;
 import com.ridebooking.model.*;
 import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.PaymentOutboxRepository;
+import com.ridebooking.repository.RideEventRepository;
 import com.ridebooking.repository.RideRepository;
 import com.ridebooking.repository.UserRepository;
+import com.ridebooking.routing.Route;
+import com.ridebooking.routing.RouteEstimator;
+import com.ridebooking.trail.TrailPoint;
+import com.ridebooking.trail.TrailStore;
+import com.ridebooking.util.GeoUtils;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -32,56 +61,163 @@ public class RideService {
     private SimpMessagingTemplate messagingTemplate;
 
     @Autowired
-    private FCMService fcmService;
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Autowired
+    private DriverSpatialIndex driverSpatialIndex;
+
+    @Autowired
+    private RideClaimService rideClaimService;
+
+    @Autowired
+    private DispatchService dispatchService;
+
+    @Autowired
+    private RideOfferInbox offerInbox;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private FareEngine fareEngine;
+
+    @Autowired
+    private SurgePricingService surgePricingService;
+
+    @Autowired(required = false)
+    private RouteEstimator routeEstimator;
+
+    @Autowired
+    private ActiveRideTracker activeRideTracker;
+
+    @Autowired
+    private TrailStore trailStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RideTrackingPublisher trackingPublisher;
+
+    @Autowired
+    private RideStateMachine stateMachine;
+
+    @Autowired
+    private RideEventRepository rideEventRepository;
 
     @Autowired
-    private PaymentService paymentService;
+    private TransactionTemplate transactionTemplate;
 
-    private static final double EARTH_RADIUS_KM = 6371;
+    // A client distance off the tracked one by more than max(absolute, ratio * tracked) is flagged
+    @Value("${ride.tracking.distance-tolerance-km:0.5}")
+    private double distanceToleranceKm;
+
+    @Value("${ride.tracking.distance-tolerance-ratio:0.15}")
+    private double distanceToleranceRatio;
+
+    // An untracked ride is billed at most this times the distance from the pickup to where the driver is now,
+    // or, when that isn't known, the duration at this speed
+    @Value("${ride.distance.fallback-detour-factor:1.5}")
+    private double fallbackDetourFactor;
+
+    @Value("${ride.distance.fallback-max-kmph:50}")
+    private double fallbackMaxKmph;
+
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
 
     private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return EARTH_RADIUS_KM * c;
+        return GeoUtils.haversineKm(lat1, lon1, lat2, lon2);
     }
 
-    // Using Haversine distance between pickup & drop to compute the fare
-    private double calculateFare(double distanceKm, double durationMinutes){
-        double baseFare = 30;
-        double ratePerKm = 10;
-        double ratePerMin = 2;
+    // Priced with the tariff of the pickup zone at the current hour, including surge. Uses the road route when a
+    // road graph is configured and straight-line distance otherwise
+    public double estimateFare(double pickupLat, double pickupLng, double dropLat, double dropLng) {
+        double surge = surgePricingService.multiplierAt(pickupLat, pickupLng);
+        if (routeEstimator != null) {
+            Optional<Route> route = routeEstimator.route(pickupLat, pickupLng, dropLat, dropLng);
+            if (route.isPresent())
+                return fareEngine.fare(pickupLat, pickupLng, route.get().distanceKm(), route.get().durationMinutes(),
+                        System.currentTimeMillis()) * surge;
+        }
+        return fareEngine.estimate(pickupLat, pickupLng, dropLat, dropLng) * surge;
+    }
 
-        return baseFare + (ratePerKm * distanceKm) + (ratePerMin * durationMinutes);
+    public double getSurgeMultiplier(double pickupLat, double pickupLng) {
+        return surgePricingService.multiplierAt(pickupLat, pickupLng);
     }
 
-    public double estimateFare(double pickupLat, double pickupLng, double dropLat, double dropLng) {
-        double distanceKm = calculateDistance(pickupLat, pickupLng, dropLat, dropLng);
+    // Tariff of the pickup zone at the hour the ride started, times the surge locked in at booking
+    private double calculateFare(Ride ride, double distanceKm, double durationMinutes) {
+        LocalDateTime startedAt = ride.getStartTime() != null ? ride.getStartTime() : LocalDateTime.now();
+        long epochMillis = startedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double surge = ride.getSurgeMultiplier() != null ? ride.getSurgeMultiplier() : 1.0;
+        return fareEngine.fare(ride.getPickupLattitude(), ride.getPickupLongitude(), distanceKm, durationMinutes, epochMillis)
+                * surge;
+    }
 
-        // Estimated duration based on average speed (e.g., 40 km/h)
-        double averageSpeedKmPerHr = 40.0;
-        double estimatedDurationMin = (distanceKm / averageSpeedKmPerHr) * 60;
+    // Drop the cached "current ride" of both parties after a state transition
+    private void evictActiveRide(Ride ride) {
+        evictActiveRide(ride.getRider().getId(), ride.getDriver() != null ? ride.getDriver().getId() : null);
+    }
 
-        return calculateFare(distanceKm, estimatedDurationMin);
+    private void evictActiveRide(Long riderId, Long driverId) {
+        Cache byRider = cacheManager.getCache(CacheConfig.ACTIVE_RIDE_BY_RIDER);
+        Cache byDriver = cacheManager.getCache(CacheConfig.ACTIVE_RIDE_BY_DRIVER);
+        if (riderId != null && byRider != null)
+            byRider.evict(riderId);
+        if (driverId != null && byDriver != null)
+            byDriver.evict(driverId);
     }
 
-    private void notifyRideTakenToOtherDrivers(Long rideId, Long acceptedDriverId, List<Driver> nearbyDrivers) {
-        for (Driver d : nearbyDrivers) {
-            if (!d.getId().equals(acceptedDriverId) && d.getFcmToken() != null) {
-                fcmService.sendNotification(
-                        d.getFcmToken(),
-                        "Ride Unavailable",
-                        "Ride #" + rideId + " has already been accepted"
-                );
-            }
+    // Put the driver back to AVAILABLE without overwriting the rest of the row (e.g. the batched location)
+    private void releaseDriver(Long driverId) {
+        driverRepository.updateStatusIf(driverId, driverStatus.ON_RIDE, driverStatus.AVAILABLE, LocalDateTime.now());
+        afterCommit(() -> driverSpatialIndex.setAvailable(driverId, true));
+    }
+
+    // In-memory bookkeeping follows the DB only once the transaction has committed
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    // Function to create a new ride, notify the nearby drivers. A retried booking with the same idempotency key
+    // gets the ride the first one created, also when both arrive at the same time
+    public Ride createRide(RideRequest request, String idempotencyKey) {
+        Optional<Ride> previous = previousBooking(request.getUserId(), idempotencyKey);
+        if (previous.isPresent())
+            return previous.get();
+
+        try {
+            return transactionTemplate.execute(status -> book(request, idempotencyKey));
+        } catch (DataIntegrityViolationException e) {
+            // A concurrent booking with the same key logged its event first
+            return previousBooking(request.getUserId(), idempotencyKey).orElseThrow(() -> e);
         }
     }
 
-    // Function to create a new ride, notify the nearby drivers
-    public Ride createRide(RideRequest request) {
+    private Optional<Ride> previousBooking(Long riderId, String idempotencyKey) {
+        if (idempotencyKey == null)
+            return Optional.empty();
+        return stateMachine.previousBooking(riderId, idempotencyKey).map(event -> {
+            log.info("Booking with key {} already created ride {}", idempotencyKey, event.getRideId());
+            return rideRepository.findById(event.getRideId())
+                    .orElseThrow(() -> new RuntimeException("Ride not found"));
+        });
+    }
+
+    private Ride book(RideRequest request, String idempotencyKey) {
         // Step 1: Fetch User
         User user = userRepository.findById(request.getUserId())
                 .orElseThrow(() -> new RuntimeException("User not found"));
@@ -91,30 +227,9 @@ public class RideService {
 
         log.info("Ride request generated, pickupLat :{} and pickupLang: {}", pickupLat, pickupLng);
 
-        // proximity to search in for the drivers
-        double radiusKm = 5.0;
-
-        // Get all available nearby drivers in 5km radius
-        List<Driver> nearbyDrivers = driverRepository.findAll().stream()
-                .filter(driver -> driver.getStatus() == driverStatus.AVAILABLE)
-                .filter(driver -> driver.getCurrentLatitude() != null && driver.getCurrentLongitude() != null)
-                .filter(driver -> calculateDistance(pickupLat, pickupLng, driver.getCurrentLatitude(), driver.getCurrentLongitude()) <= radiusKm)
-                .toList();
-
-//        if(nearbyDrivers.isEmpty()) throw new RuntimeException("No driver available now");
-
-        //Notify the nearby drivers
-        log.info("Notify all nearby drivers");
-        for (Driver d : nearbyDrivers) {
-            if (d.getFcmToken() != null) {
-                fcmService.sendNotification(
-                        d.getFcmToken(),
-                        "New Ride Request",
-                        "Pickup: " + request.getPickupLocation() +
-                                ", Drop: " + request.getDropLocation()
-                );
-            }
-        }
+        // Quote the surge before this request counts towards it
+        double surge = surgePricingService.multiplierAt(pickupLat, pickupLng);
+        surgePricingService.recordRequest(pickupLat, pickupLng);
 
         // Step 2: Create ride WITHOUT assigning driver
         Ride ride = Ride.builder()
@@ -124,75 +239,65 @@ public class RideService {
                 .pickupLongitude(request.getPickupLongitude())
                 .rider(user)
                 .status(rideStatus.REQUESTED)
+                .surgeMultiplier(surge)
                 .build();
+        Ride saved = rideRepository.save(ride);
+        stateMachine.created(saved.getId(), user.getId(), idempotencyKey);
+
+        // Step 3: Offer the ride to the best nearby drivers in waves once it is committed, this returns right away
+        afterCommit(() -> {
+            log.info("Start dispatching ride {}", saved.getId());
+            dispatchService.startDispatch(saved);
+        });
 
-        return rideRepository.save(ride);
+        return saved;
     }
 
     // This function handles the logic of accepting a ride from the driver side, and when a ride is accepted notify the other drivers as well that ride has already been taken.
-    public void acceptRide(Long rideId, Long driverId) {
+    // Dispatch, the other drivers and the rider's subscribers hear about it from the ACCEPTED event
+    public void acceptRide(Long rideId, Long driverId, String offerToken, String idempotencyKey) {
         log.info("Accept ride initiated with rideId {} by driverId {}", rideId, driverId);
 
-        //Get the ride for which the request has been raised
-        Ride ride = rideRepository.findById(rideId)
-                .orElseThrow(() -> new RuntimeException("Ride not found"));
-
-        if(ride.getStatus() != rideStatus.REQUESTED && ride.getDriver() != null){
-            log.info("Ride has already been accepted");
-            throw new RuntimeException("Ride has already been accepted");
-        }
-
-        // fetch the driver from DB who is going to accept the ride
-        Driver driver = driverRepository.findById(driverId)
-                .orElseThrow(() -> new RuntimeException("Driver not found"));
-
-        if (driver.getStatus() != driverStatus.AVAILABLE){
-            log.info("No drivers available nearby");
-            throw new RuntimeException("Driver is not available");
-        }
-
-        // Assign driver to the ride
-        ride.setDriver(driver);
-        ride.setStatus(rideStatus.ACCEPTED);
-
-        // Update driver status
-        driver.setStatus(driverStatus.ON_RIDE);
-
-        // Save both updates
-        driverRepository.save(driver);
-        rideRepository.save(ride);
-
-        //fetch the ride pickup coordinates and notify the other drivers that ride is already taken
-        double pickupLat = ride.getPickupLattitude();
-        double pickupLng = ride.getPickupLattitude();
-
-        // proximity to search in for the drivers
-        double radiusKm = 5.0;
+        // Only drivers holding an offer for this ride get as far as the claim
+        offerInbox.redeem(rideId, driverId, offerToken);
 
-        List<Driver> nearbyDrivers = driverRepository.findAll().stream()
-                .filter(drivers -> drivers.getStatus() == driverStatus.AVAILABLE)
-                .filter(drivers -> drivers.getCurrentLatitude() != null && driver.getCurrentLongitude() != null)
-                .filter(drivers -> calculateDistance(pickupLat, pickupLng, driver.getCurrentLatitude(), driver.getCurrentLongitude()) <= radiusKm)
-                .toList();
-
-        // Notify other drivers (WebSocket) that ride has been taken
-        if(!nearbyDrivers.isEmpty()){
-            log.info("Notifying nearby drivers that ride has been taken.");
-            notifyRideTakenToOtherDrivers(rideId, driverId, nearbyDrivers);
+        // Atomically claim the ride; concurrent accepts for the same ride fail fast here
+        try {
+            rideClaimService.claim(rideId, driverId, idempotencyKey);
+        } catch (RuntimeException e) {
+            // A retry of an accept that went through is answered from the event log
+            Optional<RideEvent> previous = stateMachine.previous(rideId, rideStatus.ACCEPTED, idempotencyKey);
+            if (previous.isPresent() && driverId.equals(previous.get().getDriverId())) {
+                log.info("Ride {} was already accepted by driver {}", rideId, driverId);
+                return;
+            }
+            throw e;
         }
+        driverSpatialIndex.setAvailable(driverId, false);
+        evictActiveRide(rideRepository.findRiderIdById(rideId), driverId);
     }
 
-    public void startRide(Long rideId){
+    @Transactional
+    public void startRide(Long rideId, String idempotencyKey){
         log.info("Start ride initiated with rideId {}", rideId);
         Ride ride = rideRepository.findById(rideId)
                 .orElseThrow(() -> new RuntimeException("Ride not found"));
 
-        if(ride.getStatus() != rideStatus.ACCEPTED)
+        if(ride.getStatus() != rideStatus.ACCEPTED) {
+            if (stateMachine.previous(rideId, rideStatus.STARTED, idempotencyKey).isPresent()) {
+                log.info("Ride {} was already started", rideId);
+                return;
+            }
             throw new RuntimeException("Ride is not in a ACCEPTED state");
+        }
 
-        ride.setStatus(rideStatus.STARTED); // update the ride status
-        ride.setStartTime(LocalDateTime.now());
-        rideRepository.save(ride);
+        Long driverId = ride.getDriver().getId();
+        stateMachine.transition(rideId, rideStatus.ACCEPTED, rideStatus.STARTED, driverId, null, idempotencyKey,
+                now -> rideRepository.startIfStatus(rideId, rideStatus.ACCEPTED, rideStatus.STARTED, now));
+        afterCommit(() -> {
+            activeRideTracker.start(driverId, rideId);
+            evictActiveRide(ride);
+        });
     }
 
 //    public void completeRide(Long rideId, double distance, double duration){
@@ -227,86 +332,263 @@ public class RideService {
 //        rideRepository.save(ride);
 //    }
 
-    public void completeRide(Long rideId, double distance, double duration) {
+    // Ride, driver, event and the payment outbox entry are written in one transaction, and a retried complete is
+    // answered from the event log, so it can't create a second payment order. Distance and duration are taken
+    // from the server's own tracking; the client values are only a fallback and are checked against it
+    @Transactional
+    public void completeRide(Long rideId, Double clientDistance, Double clientDuration, String idempotencyKey) {
         Ride ride = rideRepository.findById(rideId)
                 .orElseThrow(() -> new RuntimeException("Ride doesn't exist"));
 
         if (ride.getStatus() != rideStatus.STARTED) {
+            if (stateMachine.previous(rideId, rideStatus.COMPLETED, idempotencyKey).isPresent()) {
+                log.info("Ride {} was already completed", rideId);
+                return;
+            }
             log.info("Ride has not yet started.");
             throw new RuntimeException("Ride is not in STARTED state");
         }
 
-        // Set distance and duration
-        ride.setDistanceKm(distance);
-        ride.setDurationMinutes(duration);
-
+        Long driverId = ride.getDriver().getId();
+        Optional<ActiveRideTracker.TrackedDistance> tracked = activeRideTracker.tracked(driverId, rideId,
+                ride.getTrackedDistanceKm(), ride.getTrackedPoints());
+        double duration = resolveDuration(ride, clientDuration);
+        double distance = resolveDistance(ride, tracked, clientDistance, duration);
+        Double trackedDistance = hasTrackedDistance(tracked) ? distance : null;
         log.info("Ride distance {} and duration is {}.", distance, duration);
 
         // Calculate fare
-        double fare = calculateFare(distance, duration);
+        double fare = calculateFare(ride, distance, duration);
         log.info("Calculated fare {}", fare);
-        ride.setFare(fare);
 
-        // Set completion status & time
-        ride.setStatus(rideStatus.COMPLETED);
-        ride.setCompletionTime(LocalDateTime.now());
+        // Completion status & time, distance, duration and fare in one conditional update
+        stateMachine.transition(rideId, rideStatus.STARTED, rideStatus.COMPLETED, driverId, fare, idempotencyKey,
+                now -> rideRepository.completeIfStatus(rideId, rideStatus.STARTED, rideStatus.COMPLETED, distance,
+                        duration, trackedDistance, fare, paymentStatus.PENDING, now));
         log.info("Ride {} completed at {}", rideId, LocalDateTime.now());
 
-        // Mark driver as available again
-        Driver driver = ride.getDriver();
-        driver.setStatus(driverStatus.AVAILABLE);
-        driverRepository.save(driver);
-
-        // Generate Razorpay payment order
-        try {
-            Order razorpayOrder = paymentService.createOrder(fare, "ride_" + rideId);
-
-            // Store transaction ID & mark payment as PENDING
-            ride.setTransactionId(razorpayOrder.get("id"));
-            ride.setPaymentStatus(paymentStatus.PENDING);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to create Razorpay payment order: " + e.getMessage());
-        }
+        // The payment order is created by PaymentOutboxWorker once this commits; the ride gets the order id then
+        paymentOutboxRepository.save(PaymentOutbox.builder()
+                .rideId(rideId)
+                .idempotencyKey("ride_" + rideId)
+                .amount(fare)
+                .status(outboxStatus.PENDING)
+                .attempts(0)
+                .nextAttemptAt(LocalDateTime.now())
+                .build());
 
-        // Save ride
-        rideRepository.save(ride);
+        // Mark driver as available again
+        releaseDriver(driverId);
+
+        // Stop tracking, the trail stays on disk for disputes
+        afterCommit(() -> {
+            rideClaimService.release(rideId);
+            activeRideTracker.end(driverId, rideId);
+            trailStore.close(rideId);
+            evictActiveRide(ride);
+        });
     }
 
 
-    public Ride cancelRide(Long rideId) {
+    // Dispatch stops and the rider's subscribers are told through the CANCELLED event
+    @Transactional
+    public Ride cancelRide(Long rideId, String idempotencyKey) {
         Ride ride = rideRepository.findById(rideId)
                 .orElseThrow(() -> new RuntimeException("Ride not found"));
 
         if (ride.getStatus() == rideStatus.COMPLETED || ride.getStatus() == rideStatus.CANCELLED) {
+            if (ride.getStatus() == rideStatus.CANCELLED
+                    && stateMachine.previous(rideId, rideStatus.CANCELLED, idempotencyKey).isPresent())
+                return ride;
             throw new RuntimeException("Ride is already completed or cancelled");
         }
 
-        // Update the status of the ride to CANCELLED
+        rideStatus from = ride.getStatus();
+        Long driverId = ride.getDriver() != null ? ride.getDriver().getId() : null;
+        stateMachine.transition(rideId, from, rideStatus.CANCELLED, driverId, null, idempotencyKey,
+                now -> rideRepository.updateStatusIf(rideId, from, rideStatus.CANCELLED, now));
+        // The update detached the ride, this only changes the copy returned to the caller
         ride.setStatus(rideStatus.CANCELLED);
 
         // Set driver to AVAILABLE if assigned
-        if (ride.getDriver() != null) {
-            Driver driver = ride.getDriver();
-            driver.setStatus(driverStatus.AVAILABLE);
-            driverRepository.save(driver);
+        if (driverId != null)
+            releaseDriver(driverId);
+
+        afterCommit(() -> {
+            rideClaimService.release(rideId);
+            if (driverId != null)
+                activeRideTracker.end(driverId, rideId);
+            trailStore.close(rideId);
+            evictActiveRide(ride);
+        });
+        return ride;
+    }
+
+    // Dispatch found nobody for the ride. It is cancelled like a rider cancel, and the CANCELLED event tells the
+    // rider on /ride/{rideId}; a ride accepted meanwhile fails the conditional write and is left alone
+    @EventListener
+    @Transactional
+    public void onDispatchExpired(DispatchService.DispatchExpired expired) {
+        Long rideId = expired.rideId();
+        stateMachine.transition(rideId, rideStatus.REQUESTED, rideStatus.CANCELLED, null, null, null,
+                now -> rideRepository.updateStatusIf(rideId, rideStatus.REQUESTED, rideStatus.CANCELLED, now));
+        meterRegistry.counter("ride.dispatch.expired").increment();
+        log.info("Ride {} cancelled, no driver took it", rideId);
+    }
+
+    private static boolean hasTrackedDistance(Optional<ActiveRideTracker.TrackedDistance> tracked) {
+        return tracked.isPresent() && tracked.get().acceptedPoints() >= 2;
+    }
+
+    // Distance accumulated from the driver's pings while the ride was STARTED, on any node, or the client's if no
+    // node got enough of them. The client's distance is capped, and a ride billed on it keeps trackedDistanceKm
+    // null so it can be picked out for review
+    private double resolveDistance(Ride ride, Optional<ActiveRideTracker.TrackedDistance> tracked,
+                                   Double clientDistance, double durationMinutes) {
+        if (!hasTrackedDistance(tracked)) {
+            if (clientDistance == null)
+                throw new RuntimeException("No locations were tracked for this ride, distanceKm is required");
+            meterRegistry.counter("ride.distance.client.fallback").increment();
+            double capKm = fallbackDistanceCap(ride, durationMinutes);
+            if (clientDistance > capKm) {
+                log.warn("Ride {} has no tracked distance on any node and reported {} km, billing the cap of {} km",
+                        ride.getId(), clientDistance, capKm);
+                meterRegistry.counter("ride.distance.client.capped").increment();
+                return capKm;
+            }
+            log.warn("Ride {} has no tracked distance on any node, billing the client supplied {} km", ride.getId(),
+                    clientDistance);
+            return clientDistance;
+        }
+
+        double trackedKm = tracked.get().distanceKm();
+        if (clientDistance != null) {
+            double tolerance = Math.max(distanceToleranceKm, distanceToleranceRatio * trackedKm);
+            if (Math.abs(clientDistance - trackedKm) > tolerance) {
+                log.warn("Ride {} reported {} km but {} km were tracked from {} points ({} rejected)", ride.getId(),
+                        clientDistance, trackedKm, tracked.get().acceptedPoints(), tracked.get().rejectedPoints());
+                meterRegistry.counter("ride.distance.mismatch").increment();
+            }
+        }
+        return trackedKm;
+    }
+
+    // The road (or straight line) from the pickup to the driver's last known position with room for detours. The
+    // driver row trails the pings by at most a flush and is the same on every node
+    private double fallbackDistanceCap(Ride ride, double durationMinutes) {
+        Driver driver = ride.getDriver();
+        Double lat = driver.getCurrentLatitude();
+        Double lng = driver.getCurrentLongitude();
+        if (lat == null || lng == null) {
+            Optional<DriverSpatialIndex.Neighbor> position = driverSpatialIndex.getPosition(driver.getId());
+            if (position.isEmpty())
+                return durationMinutes / 60 * fallbackMaxKmph;
+            lat = position.get().latitude();
+            lng = position.get().longitude();
         }
 
-       return rideRepository.save(ride);
+        double estimateKm = calculateDistance(ride.getPickupLattitude(), ride.getPickupLongitude(), lat, lng);
+        if (routeEstimator != null) {
+            Optional<Route> route = routeEstimator.route(ride.getPickupLattitude(), ride.getPickupLongitude(), lat, lng);
+            if (route.isPresent())
+                estimateKm = route.get().distanceKm();
+        }
+        return estimateKm * fallbackDetourFactor;
     }
 
+    private double resolveDuration(Ride ride, Double clientDuration) {
+        if (ride.getStartTime() != null)
+            return Duration.between(ride.getStartTime(), LocalDateTime.now()).toMillis() / 60_000.0;
+        if (clientDuration == null)
+            throw new RuntimeException("Ride has no start time, durationMinutes is required");
+        return clientDuration;
+    }
+
+    // Status transitions of a ride, oldest first
+    public List<RideEvent> getRideEvents(Long rideId) {
+        return rideEventRepository.findByRideIdOrderByIdAsc(rideId);
+    }
+
+    // Recorded GPS trail of a ride, oldest point first
+    public List<TrailPoint> getRideTrail(Long rideId) {
+        return trailStore.points(rideId);
+    }
+
+    // Read from the DB: a ride can move on any node, and the tracking channels here only see the moves made here
     public rideStatus getRideStatus(Long rideId){
-        Ride ride = rideRepository.findById(rideId)
+        rideStatus status = rideRepository.findStatusById(rideId)
                 .orElseThrow(() -> new RuntimeException("Ride doesn't exists"));
+        trackingPublisher.reconcile(rideId, status);
+        return status;
+    }
 
-        return ride.getStatus();
+    // One page of a user's rides, newest first; pass the previous page's nextCursor to continue
+    public RideHistoryPage getUserRideHistory(Long userId, String cursor, int limit){
+        int size = clampPageSize(limit);
+        Pageable page = PageRequest.of(0, size);
+
+        List<RideSummary> rides;
+        if (cursor == null || cursor.isBlank()) {
+            rides = rideRepository.findRiderHistory(userId, page);
+        } else {
+            RideCursor position = RideCursor.decode(cursor);
+            rides = rideRepository.findRiderHistoryBefore(userId, position.createdAt(), position.id(), page);
+        }
+        return toPage(rides, size);
+    }
+
+    public RideHistoryPage getDirverRideHistory(Long driverId, String cursor, int limit){
+        int size = clampPageSize(limit);
+        Pageable page = PageRequest.of(0, size);
+
+        List<RideSummary> rides;
+        if (cursor == null || cursor.isBlank()) {
+            rides = rideRepository.findDriverHistory(driverId, page);
+        } else {
+            RideCursor position = RideCursor.decode(cursor);
+            rides = rideRepository.findDriverHistoryBefore(driverId, position.createdAt(), position.id(), page);
+        }
+        return toPage(rides, size);
     }
 
-    public List<Ride> getUserRideHistory(Long userId){
-        return rideRepository.findByRiderId(userId);
+    // Write the full ride history as NDJSON, one ride per line, without holding it in memory
+    @Transactional(readOnly = true)
+    public void exportUserRideHistory(Long userId, OutputStream out) throws IOException {
+        try (Stream<RideSummary> rides = rideRepository.streamRiderHistory(userId)) {
+            writeNdjson(rides, out);
+        }
     }
 
-    public List<Ride> getDirverRideHistory(Long driverId){
-        return rideRepository.findByDriverId(driverId);
+    @Transactional(readOnly = true)
+    public void exportDriverRideHistory(Long driverId, OutputStream out) throws IOException {
+        try (Stream<RideSummary> rides = rideRepository.streamDriverHistory(driverId)) {
+            writeNdjson(rides, out);
+        }
+    }
+
+    private void writeNdjson(Stream<RideSummary> rides, OutputStream out) throws IOException {
+        Iterator<RideSummary> iterator = rides.iterator();
+        int written = 0;
+        while (iterator.hasNext()) {
+            out.write(objectMapper.writeValueAsBytes(iterator.next()));
+            out.write('\n');
+            if (++written % 500 == 0)
+                out.flush();
+        }
+        out.flush();
+    }
+
+    private static int clampPageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+    }
+
+    private static RideHistoryPage toPage(List<RideSummary> rides, int size) {
+        String nextCursor = null;
+        if (rides.size() == size) {
+            RideSummary last = rides.get(rides.size() - 1);
+            nextCursor = new RideCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+        return new RideHistoryPage(rides, nextCursor);
     }
 
     public void rateRide(RideRatingRequest request){
@@ -329,16 +611,15 @@ public class RideService {
         rideRepository.save(ride);
     }
 
-    public Optional<Ride> getCurrentRideForUser(Long userID){
-        User user = userRepository.findById(userID)
-                .orElseThrow(()-> new RuntimeException("User doesn't exists"));
-        return rideRepository.findByRiderAndStatusIn(user, List.of(rideStatus.ACCEPTED, rideStatus.STARTED));
+    // A single query by id; an unknown user simply has no current ride
+    @Cacheable(value = CacheConfig.ACTIVE_RIDE_BY_RIDER, key = "#p0")
+    public Optional<RideView> getCurrentRideForUser(Long userID){
+        return rideRepository.findRiderRideInStatus(userID, List.of(rideStatus.ACCEPTED, rideStatus.STARTED));
     }
 
-    public Optional<Ride> getCurrentRideForDriver(Long driverId){
-        Driver driver = driverRepository.findById(driverId)
-                .orElseThrow(()-> new RuntimeException("Driver doesn't exist"));
-        return rideRepository.findByDriverAndStatusIn(driver, List.of(rideStatus.ACCEPTED, rideStatus.STARTED));
+    @Cacheable(value = CacheConfig.ACTIVE_RIDE_BY_DRIVER, key = "#p0")
+    public Optional<RideView> getCurrentRideForDriver(Long driverId){
+        return rideRepository.findDriverRideInStatus(driverId, List.of(rideStatus.ACCEPTED, rideStatus.STARTED));
     }
 
 
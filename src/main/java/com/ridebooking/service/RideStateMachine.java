@@ -0,0 +1,218 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The only way a ride changes status.
+ * <p>
+ * A transition is one conditional write, which only matches while the ride is still in the expected status, and
+ * one insert into the append-only {@code ride_events} log, both in the caller's transaction. A ride reaches each
+ * status at most once, so the event doubles as the idempotency record: a repeated request, such as a retried
+ * complete, finds the event of the transition it asked for and is answered without doing the work again.
+ * Once the transaction has committed, the event is handed to every {@link RideEventListener} on that listener's
+ * own thread, which keeps notifications and status pushes off the request path.
+ */
+@Slf4j
+@Service
+public class RideStateMachine {
+
+    // Conditional update of the ride row, returns the number of rows it changed (0 or 1)
+    @FunctionalInterface
+    public interface ConditionalWrite {
+        int apply(LocalDateTime now);
+    }
+
+    private static final Map<rideStatus, Set<rideStatus>> TRANSITIONS = new EnumMap<>(Map.of(
+            rideStatus.REQUESTED, Set.of(rideStatus.ACCEPTED, rideStatus.CANCELLED),
+            rideStatus.ACCEPTED, Set.of(rideStatus.STARTED, rideStatus.CANCELLED),
+            rideStatus.STARTED, Set.of(rideStatus.COMPLETED, rideStatus.CANCELLED)));
+
+    // Longest Idempotency-Key a client may send; scoped it still fits ride_events.idempotency_key (VARCHAR(128))
+    public static final int MAX_CLIENT_KEY_LENGTH = 64;
+
+    private final RideEventRepository rideEventRepository;
+    private final List<RideEventListener> listeners;
+    private final List<ExecutorService> listenerExecutors = new ArrayList<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Counter replayedCounter;
+    private final Counter listenerFailureCounter;
+
+    public RideStateMachine(RideEventRepository rideEventRepository,
+                            MeterRegistry meterRegistry,
+                            List<RideEventListener> listeners,
+                            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.rideEventRepository = rideEventRepository;
+        this.listeners = List.copyOf(listeners);
+        this.meterRegistry = meterRegistry;
+        this.replayedCounter = meterRegistry.counter("ride.transitions.replayed");
+        this.listenerFailureCounter = meterRegistry.counter("ride.events.listener.failures");
+
+        // One thread per listener keeps each listener's events in order without a slow one holding up the rest
+        for (RideEventListener listener : this.listeners) {
+            String name = "ride-events-" + listenerExecutors.size();
+            ThreadFactory threadFactory = virtualThreads
+                    ? Thread.ofVirtual().name(name).factory()
+                    : r -> {
+                        Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    };
+            listenerExecutors.add(Executors.newSingleThreadExecutor(threadFactory));
+        }
+    }
+
+    public static boolean isAllowed(rideStatus from, rideStatus to) {
+        return TRANSITIONS.getOrDefault(from, Set.of()).contains(to);
+    }
+
+    // Used when the client didn't send an Idempotency-Key; unique because a ride reaches each status only once
+    public static String naturalKey(Long rideId, rideStatus to) {
+        return "ride-" + rideId + "-" + to.name().toLowerCase();
+    }
+
+    public static boolean isTooLong(String idempotencyKey) {
+        return idempotencyKey != null && idempotencyKey.length() > MAX_CLIENT_KEY_LENGTH;
+    }
+
+    // Booking keys are only unique per rider, so another rider sending the same Idempotency-Key makes its own booking
+    public static String bookingKey(Long riderId, String idempotencyKey) {
+        return idempotencyKey != null ? "rider-" + riderId + "-" + checked(idempotencyKey) : null;
+    }
+
+    // Transition keys are only unique per ride, so clients of different rides can't collide. The "key-" part keeps
+    // them apart from the natural keys of the same ride.
+    public static String transitionKey(Long rideId, String idempotencyKey) {
+        return idempotencyKey != null ? "ride-" + rideId + "-key-" + checked(idempotencyKey) : null;
+    }
+
+    /**
+     * The event of a transition that already happened, for answering a repeated request.
+     *
+     * @throws RuntimeException if the idempotency key was used for a different transition.
+     */
+    public Optional<RideEvent> previous(Long rideId, rideStatus to, String idempotencyKey) {
+        Optional<RideEvent> event = idempotencyKey != null
+                ? rideEventRepository.findByIdempotencyKey(transitionKey(rideId, idempotencyKey))
+                : rideEventRepository.findByRideIdAndToStatus(rideId, to);
+        if (event.isPresent() && (!event.get().getRideId().equals(rideId) || event.get().getToStatus() != to))
+            throw new RuntimeException("Idempotency key was already used for another ride transition");
+        event.ifPresent(e -> replayedCounter.increment());
+        return event;
+    }
+
+    // The booking the rider made with this key, if any
+    public Optional<RideEvent> previousBooking(Long riderId, String idempotencyKey) {
+        Optional<RideEvent> event = rideEventRepository.findByIdempotencyKey(bookingKey(riderId, idempotencyKey));
+        if (event.isPresent() && event.get().getToStatus() != rideStatus.REQUESTED)
+            throw new RuntimeException("Idempotency key was already used for another ride transition");
+        event.ifPresent(e -> replayedCounter.increment());
+        return event;
+    }
+
+    // Log the REQUESTED event of a ride the rider just booked
+    @Transactional(propagation = Propagation.MANDATORY)
+    public RideEvent created(Long rideId, Long riderId, String idempotencyKey) {
+        return append(rideId, null, rideStatus.REQUESTED, null, null, bookingKey(riderId, idempotencyKey));
+    }
+
+    /**
+     * Moves a ride from one status to another.
+     *
+     * @param idempotencyKey The client's key as sent, scoped to the ride here; null for the natural key.
+     * @param write          Conditional update of the ride that only matches while it is still in {@code from}.
+     * @throws RuntimeException if the transition isn't allowed or the ride has left {@code from} in the meantime.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public RideEvent transition(Long rideId, rideStatus from, rideStatus to, Long driverId, Double fare,
+                                String idempotencyKey, ConditionalWrite write) {
+        if (!isAllowed(from, to))
+            throw new RuntimeException("Ride can't go from " + from + " to " + to);
+        String key = transitionKey(rideId, idempotencyKey);
+
+        if (write.apply(LocalDateTime.now()) == 0)
+            throw new RuntimeException("Ride is not in " + from + " state");
+
+        return append(rideId, from, to, driverId, fare, key);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listenerExecutors.forEach(ExecutorService::shutdown);
+    }
+
+    private static String checked(String idempotencyKey) {
+        if (isTooLong(idempotencyKey))
+            throw new IllegalArgumentException("Idempotency key is longer than " + MAX_CLIENT_KEY_LENGTH + " characters");
+        return idempotencyKey;
+    }
+
+    private RideEvent append(Long rideId, rideStatus from, rideStatus to, Long driverId, Double fare,
+                             String idempotencyKey) {
+        RideEvent event = rideEventRepository.save(RideEvent.builder()
+                .rideId(rideId)
+                .fromStatus(from)
+                .toStatus(to)
+                .driverId(driverId)
+                .fare(fare)
+                .idempotencyKey(idempotencyKey != null ? idempotencyKey : naturalKey(rideId, to))
+                .build());
+        meterRegistry.counter("ride.transitions", "to", to.name()).increment();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatch(event);
+                }
+            });
+        } else {
+            dispatch(event);
+        }
+        return event;
+    }
+
+    private void dispatch(RideEvent event) {
+        for (int i = 0; i < listeners.size(); i++) {
+            RideEventListener listener = listeners.get(i);
+            try {
+                listenerExecutors.get(i).execute(() -> deliver(listener, event));
+            } catch (RejectedExecutionException e) {
+                log.warn("Dropped ride {} {} event, shutting down", event.getRideId(), event.getToStatus());
+            }
+        }
+    }
+
+    private void deliver(RideEventListener listener, RideEvent event) {
+        try {
+            listener.onRideEvent(event);
+        } catch (Exception e) {
+            listenerFailureCounter.increment();
+            log.error("Ride event listener failed on ride {} {}", event.getRideId(), event.getToStatus(), e);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.ridebooking.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.util.GeoUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes ride status changes and the driver's position to {@code /ride/{rideId}}, so riders subscribe once
+ * instead of polling the track endpoint.
+ * <p>
+ * Positions are only followed while a ride is ACCEPTED or STARTED. At most one position frame per
+ * {@code ride.tracking.publish-interval-ms} is sent per ride, and only once the driver has moved more than
+ * {@code ride.tracking.publish-min-move-meters}. Most frames carry just the change in microdegrees since the
+ * previous one; after {@code ride.tracking.keyframe-every} of those a full position is sent so a late subscriber
+ * catches up without asking. A subscriber can also get the current state once by subscribing to
+ * {@code /app/ride/{rideId}}.
+ * <p>
+ * Ride events only reach the listeners of the node that made the transition, so a ride can move on without the
+ * channels here noticing. Reads of the status go to the DB and bring the channel along, and every
+ * {@code ride.tracking.reconcile-interval-ms} all followed rides are checked against the DB, which also drops the
+ * channels of rides finished elsewhere. A ride accepted on another node is followed here once its driver's pings
+ * arrive: a ping of a driver without a channel, whom the index doesn't show as free, looks up the driver's ACCEPTED
+ * or STARTED ride at most once per {@code ride.tracking.lookup-interval-ms}.
+ */
+@Slf4j
+@Service
+public class RideTrackingPublisher implements RideEventListener {
+
+    public static final String TOPIC_PREFIX = "/ride/";
+
+    // t = "s": status change
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record StatusFrame(String t, Long rideId, rideStatus status, Long driverId, Double fare) {
+    }
+
+    // t = "p": full position in microdegrees, t = "d": change since the previous frame in microdegrees
+    public record PositionFrame(String t, int lat, int lng, long ts) {
+    }
+
+    // Reply to a subscription on /app/ride/{rideId}; position fields are null until the driver was seen
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Snapshot(Long rideId, rideStatus status, Long driverId, Integer lat, Integer lng, Long ts) {
+    }
+
+    private static final int RECONCILE_BATCH = 500;
+
+    private static final class Channel {
+        final Long rideId;
+        final Long driverId;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile rideStatus status;
+        boolean hasPosition;
+        int lastLat;
+        int lastLng;
+        long lastTs;
+        long lastSentMillis;
+        int sinceKeyframe;
+
+        Channel(Long rideId, Long driverId, rideStatus status) {
+            this.rideId = rideId;
+            this.driverId = driverId;
+            this.status = status;
+        }
+    }
+
+    private final SimpMessageSendingOperations messagingTemplate;
+    private final RideRepository rideRepository;
+    private final DriverSpatialIndex spatialIndex;
+    private final long publishIntervalMs;
+    private final double minMoveKm;
+    private final int keyframeEvery;
+    private final long lookupIntervalMs;
+
+    private final Map<Long, Channel> byDriver = new ConcurrentHashMap<>();
+    private final Map<Long, Channel> byRide = new ConcurrentHashMap<>();
+    // driverId -> when a ping of the driver without a channel last looked up its ride
+    private final Map<Long, Long> lookedUp = new ConcurrentHashMap<>();
+
+    private final Counter statusCounter;
+    private final Counter positionCounter;
+    private final Counter throttledCounter;
+    private final Counter adoptedCounter;
+
+    public RideTrackingPublisher(SimpMessageSendingOperations messagingTemplate,
+                                 RideRepository rideRepository,
+                                 DriverSpatialIndex spatialIndex,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${ride.tracking.publish-interval-ms:1000}") long publishIntervalMs,
+                                 @Value("${ride.tracking.publish-min-move-meters:5}") double minMoveMeters,
+                                 @Value("${ride.tracking.keyframe-every:10}") int keyframeEvery,
+                                 @Value("${ride.tracking.lookup-interval-ms:5000}") long lookupIntervalMs) {
+        this.messagingTemplate = messagingTemplate;
+        this.rideRepository = rideRepository;
+        this.spatialIndex = spatialIndex;
+        this.publishIntervalMs = publishIntervalMs;
+        this.minMoveKm = minMoveMeters / 1000;
+        this.keyframeEvery = keyframeEvery;
+        this.lookupIntervalMs = lookupIntervalMs;
+
+        this.statusCounter = meterRegistry.counter("ride.tracking.frames", "type", "status");
+        this.positionCounter = meterRegistry.counter("ride.tracking.frames", "type", "position");
+        this.throttledCounter = meterRegistry.counter("ride.tracking.frames.throttled");
+        this.adoptedCounter = meterRegistry.counter("ride.tracking.channels.adopted");
+    }
+
+    // Follow the drivers of rides that were already under way when the app restarted
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadActiveRides() {
+        for (rideStatus status : List.of(rideStatus.ACCEPTED, rideStatus.STARTED))
+            for (Object[] row : rideRepository.findRideAndDriverIdsByStatus(status))
+                follow((Long) row[0], (Long) row[1], status);
+        log.info("Publishing positions for {} active rides", byRide.size());
+    }
+
+    // Every transition is pushed to the ride's subscribers; an accepted ride's driver is followed from then on
+    @Override
+    public void onRideEvent(RideEvent event) {
+        if (event.getToStatus() == rideStatus.ACCEPTED)
+            follow(event.getRideId(), event.getDriverId(), rideStatus.ACCEPTED);
+        publishStatus(event.getRideId(), event.getToStatus(), event.getDriverId(), event.getFare());
+    }
+
+    // Publish a status change, and stop following a finished ride; inside a transaction this happens after the commit
+    public void publishStatus(Long rideId, rideStatus status, Long driverId, Double fare) {
+        Runnable publish = () -> {
+            Channel channel = byRide.get(rideId);
+            if (channel != null)
+                channel.status = status;
+            // Nothing left to follow once the ride is over
+            if (status == rideStatus.COMPLETED || status == rideStatus.CANCELLED)
+                unfollow(rideId);
+            send(rideId, new StatusFrame("s", rideId, status, driverId, fare));
+            statusCounter.increment();
+        };
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish.run();
+                }
+            });
+        } else {
+            publish.run();
+        }
+    }
+
+    // Start sending the driver's position to the ride's subscribers
+    public void follow(Long rideId, Long driverId, rideStatus status) {
+        Channel channel = new Channel(rideId, driverId, status);
+        Channel previous = byDriver.put(driverId, channel);
+        if (previous != null)
+            byRide.remove(previous.rideId, previous);
+        byRide.put(rideId, channel);
+    }
+
+    public void unfollow(Long rideId) {
+        Channel channel = byRide.remove(rideId);
+        if (channel != null)
+            byDriver.remove(channel.driverId, channel);
+    }
+
+    // Catch a followed ride up with the status read from the DB. Statuses only move forward, so an older read
+    // racing a newer event is ignored
+    public void reconcile(Long rideId, rideStatus status) {
+        Channel channel = byRide.get(rideId);
+        if (channel == null || status.compareTo(channel.status) <= 0)
+            return;
+        if (status == rideStatus.COMPLETED || status == rideStatus.CANCELLED)
+            unfollow(rideId);
+        else
+            channel.status = status;
+    }
+
+    @Scheduled(fixedDelayString = "${ride.tracking.reconcile-interval-ms:30000}")
+    public void reconcileAll() {
+        long now = System.currentTimeMillis();
+        lookedUp.values().removeIf(at -> now - at >= lookupIntervalMs);
+
+        List<Long> rideIds = new ArrayList<>(byRide.keySet());
+        for (int from = 0; from < rideIds.size(); from += RECONCILE_BATCH) {
+            List<Long> batch = rideIds.subList(from, Math.min(rideIds.size(), from + RECONCILE_BATCH));
+            for (Object[] row : rideRepository.findStatusesByIds(batch))
+                reconcile((Long) row[0], (rideStatus) row[1]);
+        }
+    }
+
+    public void publishPosition(Long driverId, double lat, double lng, long timestampMillis) {
+        Channel channel = byDriver.get(driverId);
+        if (channel == null)
+            channel = adopt(driverId, timestampMillis);
+        if (channel == null)
+            return;
+        // Another ping of this driver is being published right now, this one would be throttled anyway
+        if (!channel.lock.tryLock())
+            return;
+
+        PositionFrame frame;
+        try {
+            if (channel.hasPosition && timestampMillis - channel.lastSentMillis < publishIntervalMs) {
+                throttledCounter.increment();
+                return;
+            }
+
+            int microLat = (int) Math.round(lat * 1e6);
+            int microLng = (int) Math.round(lng * 1e6);
+            if (channel.hasPosition && GeoUtils.haversineKm(channel.lastLat / 1e6, channel.lastLng / 1e6, lat, lng) < minMoveKm) {
+                throttledCounter.increment();
+                return;
+            }
+
+            if (!channel.hasPosition || channel.sinceKeyframe >= keyframeEvery) {
+                frame = new PositionFrame("p", microLat, microLng, timestampMillis);
+                channel.sinceKeyframe = 0;
+            } else {
+                frame = new PositionFrame("d", microLat - channel.lastLat, microLng - channel.lastLng, timestampMillis);
+                channel.sinceKeyframe++;
+            }
+            channel.hasPosition = true;
+            channel.lastLat = microLat;
+            channel.lastLng = microLng;
+            channel.lastTs = timestampMillis;
+            channel.lastSentMillis = timestampMillis;
+        } finally {
+            channel.lock.unlock();
+        }
+
+        send(channel.rideId, frame);
+        positionCounter.increment();
+    }
+
+    // Follows the driver's ride when it was accepted on another node. Free drivers aren't looked up and busy ones
+    // once per interval, so the pings of drivers between rides don't each cost a query
+    private Channel adopt(Long driverId, long nowMillis) {
+        if (spatialIndex.isAvailable(driverId))
+            return null;
+        Long last = lookedUp.get(driverId);
+        if (last != null && nowMillis - last < lookupIntervalMs)
+            return null;
+        lookedUp.put(driverId, nowMillis);
+
+        List<Object[]> active;
+        try {
+            active = rideRepository.findDriverRideProgress(driverId, List.of(rideStatus.ACCEPTED, rideStatus.STARTED));
+        } catch (DataAccessException e) {
+            log.warn("Failed to look up the ride of driver {}: {}", driverId, e.getMessage());
+            return null;
+        }
+        if (active.isEmpty())
+            return null;
+
+        Long rideId = (Long) active.get(0)[0];
+        // An event handled meanwhile may have set up the channel already
+        if (!byRide.containsKey(rideId)) {
+            follow(rideId, driverId, (rideStatus) active.get(0)[1]);
+            adoptedCounter.increment();
+            log.info("Following ride {} of driver {}, accepted on another node", rideId, driverId);
+        }
+        lookedUp.remove(driverId);
+        return byDriver.get(driverId);
+    }
+
+    // Current state of a followed ride, empty when the ride isn't ACCEPTED or STARTED
+    public Optional<Snapshot> snapshot(Long rideId) {
+        Channel channel = byRide.get(rideId);
+        if (channel == null)
+            return Optional.empty();
+
+        channel.lock.lock();
+        try {
+            if (!channel.hasPosition)
+                return Optional.of(new Snapshot(rideId, channel.status, channel.driverId, null, null, null));
+            return Optional.of(new Snapshot(rideId, channel.status, channel.driverId,
+                    channel.lastLat, channel.lastLng, channel.lastTs));
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    public int followedRides() {
+        return byRide.size();
+    }
+
+    private void send(Long rideId, Object frame) {
+        try {
+            messagingTemplate.convertAndSend(TOPIC_PREFIX + rideId, frame);
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish tracking frame for ride {}: {}", rideId, e.getMessage());
+        }
+    }
+}
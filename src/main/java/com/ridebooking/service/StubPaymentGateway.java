@@ -0,0 +1,38 @@
+package com.ridebooking.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Local stand-in for Razorpay, enabled with payment.gateway=stub
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "payment.gateway", havingValue = "stub")
+public class StubPaymentGateway implements PaymentGateway {
+
+    private final long latencyMs;
+    private final Map<String, String> orders = new ConcurrentHashMap<>();
+
+    public StubPaymentGateway(@Value("${payment.stub.latency-ms:0}") long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public String createOrder(String idempotencyKey, double amountInRupees) throws InterruptedException {
+        if (latencyMs > 0)
+            Thread.sleep(latencyMs);
+        String orderId = orders.computeIfAbsent(idempotencyKey, key -> "order_stub_" + key);
+        log.info("Stub payment order {} for {} rupees", orderId, amountInRupees);
+        return orderId;
+    }
+
+    @Override
+    public Optional<String> findOrder(String idempotencyKey) {
+        return Optional.ofNullable(orders.get(idempotencyKey));
+    }
+}
@@ -0,0 +1,252 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Surge multipliers per geo cell from live supply and demand.
+ * <p>
+ * Every ride request is counted in a sliding window of its pickup cell. Each window is a ring of time buckets
+ * updated with CAS only. Every {@code surge.recompute-interval-ms} the windows are summed and compared with the
+ * AVAILABLE drivers per cell, counted straight from the {@link DriverSpatialIndex}. The resulting multipliers
+ * are published as one immutable snapshot, so fare lookups read a single volatile field and an array slot and
+ * never touch the DB.
+ */
+@Slf4j
+@Service
+public class SurgePricingService {
+
+    private final DriverSpatialIndex spatialIndex;
+
+    private final boolean enabled;
+    private final double cellSizeDeg;
+    private final long bucketMs;
+    private final int windowBuckets;
+    private final int minRequests;
+    private final double thresholdRatio;
+    private final double sensitivity;
+    private final double maxMultiplier;
+    private final double step;
+
+    private final Map<Long, DemandWindow> demand = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public SurgePricingService(DriverSpatialIndex spatialIndex,
+                               MeterRegistry meterRegistry,
+                               @Value("${surge.enabled:true}") boolean enabled,
+                               @Value("${surge.cell-size-deg:0.02}") double cellSizeDeg,
+                               @Value("${surge.bucket-ms:10000}") long bucketMs,
+                               @Value("${surge.window-buckets:30}") int windowBuckets,
+                               @Value("${surge.min-requests:5}") int minRequests,
+                               @Value("${surge.threshold-ratio:1.0}") double thresholdRatio,
+                               @Value("${surge.sensitivity:0.5}") double sensitivity,
+                               @Value("${surge.max-multiplier:2.5}") double maxMultiplier,
+                               @Value("${surge.step:0.1}") double step) {
+        if (cellSizeDeg <= 0 || bucketMs <= 0 || windowBuckets <= 0)
+            throw new IllegalArgumentException("Surge cell size, bucket and window must be positive");
+        this.spatialIndex = spatialIndex;
+        this.enabled = enabled;
+        this.cellSizeDeg = cellSizeDeg;
+        this.bucketMs = bucketMs;
+        this.windowBuckets = windowBuckets;
+        this.minRequests = minRequests;
+        this.thresholdRatio = thresholdRatio;
+        this.sensitivity = sensitivity;
+        this.maxMultiplier = maxMultiplier;
+        this.step = step;
+
+        Gauge.builder("surge.cells", this, s -> s.snapshot.size()).register(meterRegistry);
+        Gauge.builder("surge.multiplier.max", this, s -> s.snapshot.maxMultiplier()).register(meterRegistry);
+    }
+
+    public void recordRequest(double lat, double lng) {
+        recordRequest(lat, lng, System.currentTimeMillis());
+    }
+
+    void recordRequest(double lat, double lng, long nowMillis) {
+        if (!enabled)
+            return;
+        demand.computeIfAbsent(cellOf(lat, lng), cell -> new DemandWindow(windowBuckets))
+                .increment(nowMillis / bucketMs);
+    }
+
+    // Requests counted in the window of the cell around a point
+    long requestCount(double lat, double lng, long nowMillis) {
+        DemandWindow window = demand.get(cellOf(lat, lng));
+        return window != null ? window.sum(nowMillis / bucketMs) : 0;
+    }
+
+    // 1.0 where there is no surge
+    public double multiplierAt(double lat, double lng) {
+        return snapshot.get(cellOf(lat, lng));
+    }
+
+    @Scheduled(fixedDelayString = "${surge.recompute-interval-ms:5000}")
+    public void recompute() {
+        recompute(System.currentTimeMillis());
+    }
+
+    void recompute(long nowMillis) {
+        if (!enabled)
+            return;
+
+        long bucket = nowMillis / bucketMs;
+        Map<Long, int[]> supply = new HashMap<>();
+        spatialIndex.forEachAvailable((driverId, lat, lng) ->
+                supply.computeIfAbsent(cellOf(lat, lng), cell -> new int[1])[0]++);
+
+        Map<Long, Double> multipliers = new HashMap<>();
+        Iterator<Map.Entry<Long, DemandWindow>> it = demand.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, DemandWindow> entry = it.next();
+            long requests = entry.getValue().sum(bucket);
+            if (requests == 0) {
+                // Nothing in the window any more, a new request will create the cell again
+                it.remove();
+                continue;
+            }
+
+            int[] drivers = supply.get(entry.getKey());
+            double multiplier = multiplier(requests, drivers != null ? drivers[0] : 0);
+            if (multiplier > 1.0)
+                multipliers.put(entry.getKey(), multiplier);
+        }
+
+        Snapshot next = Snapshot.of(multipliers);
+        if (next.size() > 0 || snapshot.size() > 0)
+            log.debug("Surge active in {} cells, max {}", next.size(), next.maxMultiplier());
+        snapshot = next;
+    }
+
+    // Demand is requests in the window, supply is drivers free right now
+    double multiplier(long requests, int availableDrivers) {
+        if (requests < minRequests)
+            return 1.0;
+        double ratio = (double) requests / Math.max(availableDrivers, 1);
+        if (ratio <= thresholdRatio)
+            return 1.0;
+
+        double raw = Math.min(1.0 + sensitivity * (ratio - thresholdRatio), maxMultiplier);
+        // Round down to the step so prices don't flicker with every request; the last round drops float noise
+        double stepped = Math.floor(raw / step + 1e-9) * step;
+        return Math.max(1.0, Math.round(stepped * 1000) / 1000.0);
+    }
+
+    private long cellOf(double lat, double lng) {
+        int latIdx = (int) Math.floor(lat / cellSizeDeg);
+        int lngIdx = (int) Math.floor(lng / cellSizeDeg);
+        return ((long) latIdx << 32) | (lngIdx & 0xffffffffL);
+    }
+
+    /**
+     * Ring of request counters, one slot per time bucket.
+     * <p>
+     * A slot packs the bucket number into the high bits and the count into the low {@value #COUNT_BITS} bits,
+     * so moving a slot on to a new bucket and counting in it is one CAS.
+     */
+    static final class DemandWindow {
+        private static final int COUNT_BITS = 20;
+        private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+        private final AtomicLongArray slots;
+
+        DemandWindow(int buckets) {
+            this.slots = new AtomicLongArray(buckets);
+        }
+
+        void increment(long bucket) {
+            int slot = (int) (bucket % slots.length());
+            while (true) {
+                long current = slots.get(slot);
+                long next = (current >>> COUNT_BITS) == bucket
+                        ? Math.min(current + 1, (bucket << COUNT_BITS) | COUNT_MASK)
+                        : (bucket << COUNT_BITS) | 1;
+                if (slots.compareAndSet(slot, current, next))
+                    return;
+            }
+        }
+
+        // Requests in the buckets (bucket - length, bucket]
+        long sum(long bucket) {
+            long total = 0;
+            for (int i = 0; i < slots.length(); i++) {
+                long value = slots.get(i);
+                long slotBucket = value >>> COUNT_BITS;
+                if (slotBucket <= bucket && bucket - slotBucket < slots.length())
+                    total += value & COUNT_MASK;
+            }
+            return total;
+        }
+    }
+
+    // Read-only open-addressing map from cell to multiplier, so lookups don't box
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[0], new double[0], 0, 1.0);
+
+        private final long[] keys;
+        private final double[] values;
+        private final int size;
+        private final double max;
+
+        private Snapshot(long[] keys, double[] values, int size, double max) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+            this.max = max;
+        }
+
+        static Snapshot of(Map<Long, Double> multipliers) {
+            if (multipliers.isEmpty())
+                return EMPTY;
+
+            int capacity = Integer.highestOneBit(multipliers.size() * 2 - 1) << 1;
+            long[] keys = new long[capacity];
+            double[] values = new double[capacity];
+            double max = 1.0;
+            for (Map.Entry<Long, Double> e : multipliers.entrySet()) {
+                int i = slot(e.getKey(), capacity);
+                while (values[i] != 0)
+                    i = (i + 1) & (capacity - 1);
+                keys[i] = e.getKey();
+                values[i] = e.getValue();
+                max = Math.max(max, e.getValue());
+            }
+            return new Snapshot(keys, values, multipliers.size(), max);
+        }
+
+        double get(long cell) {
+            if (size == 0)
+                return 1.0;
+            int mask = keys.length - 1;
+            // values are never 0 in a used slot, so 0 marks the end of the probe
+            for (int i = slot(cell, keys.length); values[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == cell)
+                    return values[i];
+            }
+            return 1.0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        double maxMultiplier() {
+            return max;
+        }
+
+        private static int slot(long cell, int capacity) {
+            long h = cell * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (capacity - 1);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.ridebooking.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tariff configuration as read from tariffs.json, compiled into a {@link TariffTable} before use.
+ * <p>
+ * Zones are lat/lng boxes with their own rates; where boxes overlap the zone listed first wins. Pickups outside
+ * every zone pay the default rates. Multipliers scale all rates of a zone for an hour range of the local day.
+ */
+@Data
+public class TariffConfig {
+
+    // Resolution of the zone grid; zone edges are snapped to it
+    private double cellSizeDeg = 0.01;
+    private String timeZone = "Asia/Kolkata";
+    private double averageSpeedKmph = 40;
+    private Rates defaultRates = new Rates(30, 10, 2, 0);
+    private List<Multiplier> defaultMultipliers = new ArrayList<>();
+    private List<Zone> zones = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rates {
+        private double baseFare;
+        private double perKm;
+        private double perMinute;
+        private double minimumFare;
+    }
+
+    @Data
+    public static class Zone {
+        private String name;
+        private double minLat;
+        private double maxLat;
+        private double minLng;
+        private double maxLng;
+        private Rates rates;
+        // Falls back to the global average speed when not set
+        private Double averageSpeedKmph;
+        private List<Multiplier> multipliers = new ArrayList<>();
+    }
+
+    // Applies from fromHour up to (not including) toHour; a range like 22 -> 6 wraps past midnight
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Multiplier {
+        private int fromHour;
+        private int toHour;
+        private double value;
+    }
+}
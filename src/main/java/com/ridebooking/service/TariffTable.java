@@ -0,0 +1,227 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tariffs compiled into flat lookup arrays.
+ * <p>
+ * The bounding box of all zones is cut into a grid that maps every cell to a zone, and the rates of every zone
+ * are precomputed for each hour of the day with the hour multipliers already applied. Pricing a ride is then a
+ * grid lookup, an hour lookup and a few multiplications, without allocating. Instances are immutable, so a
+ * new table can be swapped in while requests are reading the old one.
+ */
+public final class TariffTable {
+
+    private static final int HOURS = 24;
+    // Upper bound on the zone grid, 4M cells is 8 MB
+    private static final int MAX_CELLS = 4_000_000;
+
+    private final double cellSizeDeg;
+    private final double gridMinLat;
+    private final double gridMinLng;
+    private final int rows;
+    private final int cols;
+    // Zone per grid cell, 0 is the default zone
+    private final short[] cellZone;
+
+    // Indexed by zone * 24 + hour
+    private final double[] baseFare;
+    private final double[] perKm;
+    private final double[] perMinute;
+    private final double[] minimumFare;
+
+    private final double[] averageSpeedKmph;
+    private final String[] zoneNames;
+
+    // Used when the time zone has no DST, which saves an Instant per lookup
+    private final boolean fixedOffset;
+    private final int offsetSeconds;
+    private final ZoneRules zoneRules;
+
+    private TariffTable(double cellSizeDeg, double gridMinLat, double gridMinLng, int rows, int cols,
+                        short[] cellZone, double[] baseFare, double[] perKm, double[] perMinute,
+                        double[] minimumFare, double[] averageSpeedKmph, String[] zoneNames, ZoneRules zoneRules) {
+        this.cellSizeDeg = cellSizeDeg;
+        this.gridMinLat = gridMinLat;
+        this.gridMinLng = gridMinLng;
+        this.rows = rows;
+        this.cols = cols;
+        this.cellZone = cellZone;
+        this.baseFare = baseFare;
+        this.perKm = perKm;
+        this.perMinute = perMinute;
+        this.minimumFare = minimumFare;
+        this.averageSpeedKmph = averageSpeedKmph;
+        this.zoneNames = zoneNames;
+        this.zoneRules = zoneRules;
+        this.fixedOffset = zoneRules.isFixedOffset();
+        this.offsetSeconds = fixedOffset ? zoneRules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+    }
+
+    public static TariffTable compile(TariffConfig config) {
+        List<TariffConfig.Zone> zones = config.getZones() != null ? config.getZones() : List.of();
+        if (config.getCellSizeDeg() <= 0)
+            throw new IllegalArgumentException("cellSizeDeg must be positive");
+        if (zones.size() >= Short.MAX_VALUE)
+            throw new IllegalArgumentException("Too many tariff zones: " + zones.size());
+        checkSpeed(config.getAverageSpeedKmph(), "default");
+        checkRates(config.getDefaultRates(), "default");
+
+        int zoneCount = zones.size() + 1;
+        String[] names = new String[zoneCount];
+        double[] speed = new double[zoneCount];
+        double[] base = new double[zoneCount * HOURS];
+        double[] km = new double[zoneCount * HOURS];
+        double[] minute = new double[zoneCount * HOURS];
+        double[] minimum = new double[zoneCount * HOURS];
+
+        names[0] = "default";
+        speed[0] = config.getAverageSpeedKmph();
+        fillRates(0, config.getDefaultRates(), config.getDefaultMultipliers(), base, km, minute, minimum);
+
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+        for (int z = 0; z < zones.size(); z++) {
+            TariffConfig.Zone zone = zones.get(z);
+            String name = zone.getName() != null ? zone.getName() : "zone-" + (z + 1);
+            if (zone.getMinLat() >= zone.getMaxLat() || zone.getMinLng() >= zone.getMaxLng())
+                throw new IllegalArgumentException("Zone " + name + " has an empty bounding box");
+            checkRates(zone.getRates(), name);
+
+            names[z + 1] = name;
+            speed[z + 1] = zone.getAverageSpeedKmph() != null ? zone.getAverageSpeedKmph() : config.getAverageSpeedKmph();
+            checkSpeed(speed[z + 1], name);
+            fillRates(z + 1, zone.getRates(), zone.getMultipliers(), base, km, minute, minimum);
+
+            minLat = Math.min(minLat, zone.getMinLat());
+            maxLat = Math.max(maxLat, zone.getMaxLat());
+            minLng = Math.min(minLng, zone.getMinLng());
+            maxLng = Math.max(maxLng, zone.getMaxLng());
+        }
+
+        double cellSize = config.getCellSizeDeg();
+        int rows = 0, cols = 0;
+        short[] cellZone = new short[0];
+        if (!zones.isEmpty()) {
+            rows = (int) Math.ceil((maxLat - minLat) / cellSize);
+            cols = (int) Math.ceil((maxLng - minLng) / cellSize);
+            if ((long) rows * cols > MAX_CELLS)
+                throw new IllegalArgumentException("Tariff grid of " + rows + "x" + cols + " cells is too large, use a bigger cellSizeDeg");
+
+            cellZone = new short[rows * cols];
+            for (int row = 0; row < rows; row++) {
+                double lat = minLat + (row + 0.5) * cellSize;
+                for (int col = 0; col < cols; col++) {
+                    double lng = minLng + (col + 0.5) * cellSize;
+                    // First listed zone containing the cell centre wins
+                    for (int z = 0; z < zones.size(); z++) {
+                        TariffConfig.Zone zone = zones.get(z);
+                        if (lat >= zone.getMinLat() && lat < zone.getMaxLat()
+                                && lng >= zone.getMinLng() && lng < zone.getMaxLng()) {
+                            cellZone[row * cols + col] = (short) (z + 1);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        ZoneRules rules = ZoneId.of(config.getTimeZone()).getRules();
+        return new TariffTable(cellSize, minLat, minLng, rows, cols, cellZone, base, km, minute, minimum,
+                speed, names, rules);
+    }
+
+    // Zone of a point, 0 when it lies outside every configured zone
+    public int zoneAt(double lat, double lng) {
+        if (cellZone.length == 0)
+            return 0;
+        int row = (int) Math.floor((lat - gridMinLat) / cellSizeDeg);
+        int col = (int) Math.floor((lng - gridMinLng) / cellSizeDeg);
+        if (row < 0 || row >= rows || col < 0 || col >= cols)
+            return 0;
+        return cellZone[row * cols + col];
+    }
+
+    // Local hour of the day in the tariff time zone
+    public int hourOf(long epochMillis) {
+        long offset = fixedOffset ? offsetSeconds
+                : zoneRules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+        return (int) (Math.floorMod(Math.floorDiv(epochMillis, 1000) + offset, 86_400L) / 3600);
+    }
+
+    public double fare(int zone, int hour, double distanceKm, double durationMinutes) {
+        int i = zone * HOURS + hour;
+        return Math.max(minimumFare[i], baseFare[i] + perKm[i] * distanceKm + perMinute[i] * durationMinutes);
+    }
+
+    // Fare of a ride picked up at the given point and time
+    public double fare(double pickupLat, double pickupLng, double distanceKm, double durationMinutes, long epochMillis) {
+        return fare(zoneAt(pickupLat, pickupLng), hourOf(epochMillis), distanceKm, durationMinutes);
+    }
+
+    // Fare for the straight-line trip, with the duration estimated from the zone's average speed
+    public double estimate(double pickupLat, double pickupLng, double dropLat, double dropLng, long epochMillis) {
+        int zone = zoneAt(pickupLat, pickupLng);
+        double distanceKm = GeoUtils.haversineKm(pickupLat, pickupLng, dropLat, dropLng);
+        double durationMinutes = distanceKm / averageSpeedKmph[zone] * 60;
+        return fare(zone, hourOf(epochMillis), distanceKm, durationMinutes);
+    }
+
+    public double averageSpeedKmph(int zone) {
+        return averageSpeedKmph[zone];
+    }
+
+    public String zoneName(int zone) {
+        return zoneNames[zone];
+    }
+
+    public int zoneCount() {
+        return zoneNames.length;
+    }
+
+    private static void fillRates(int zone, TariffConfig.Rates rates, List<TariffConfig.Multiplier> multipliers,
+                                  double[] base, double[] km, double[] minute, double[] minimum) {
+        double[] byHour = new double[HOURS];
+        Arrays.fill(byHour, 1.0);
+        if (multipliers != null) {
+            for (TariffConfig.Multiplier m : multipliers) {
+                if (m.getFromHour() < 0 || m.getFromHour() > 23 || m.getToHour() < 0 || m.getToHour() > 24)
+                    throw new IllegalArgumentException("Multiplier hours must be within 0-24");
+                if (m.getValue() <= 0)
+                    throw new IllegalArgumentException("Multiplier must be positive");
+                // Count forward from fromHour so 22 -> 6 covers the night; 0 -> 24 is the whole day
+                int span = Math.floorMod(m.getToHour() - m.getFromHour(), HOURS);
+                if (span == 0)
+                    span = HOURS;
+                for (int k = 0; k < span; k++)
+                    byHour[(m.getFromHour() + k) % HOURS] = m.getValue();
+            }
+        }
+
+        for (int h = 0; h < HOURS; h++) {
+            int i = zone * HOURS + h;
+            base[i] = rates.getBaseFare() * byHour[h];
+            km[i] = rates.getPerKm() * byHour[h];
+            minute[i] = rates.getPerMinute() * byHour[h];
+            minimum[i] = rates.getMinimumFare() * byHour[h];
+        }
+    }
+
+    private static void checkRates(TariffConfig.Rates rates, String zone) {
+        if (rates == null)
+            throw new IllegalArgumentException("Zone " + zone + " has no rates");
+        if (rates.getBaseFare() < 0 || rates.getPerKm() < 0 || rates.getPerMinute() < 0 || rates.getMinimumFare() < 0)
+            throw new IllegalArgumentException("Zone " + zone + " has negative rates");
+    }
+
+    private static void checkSpeed(double speedKmph, String zone) {
+        if (speedKmph <= 0)
+            throw new IllegalArgumentException("Zone " + zone + " needs a positive average speed");
+    }
+}
@@ -0,0 +1,5 @@
+package com.ridebooking.trail;
+
+// One GPS fix on a ride's trail
+public record TrailPoint(double latitude, double longitude, long timestampMillis) {
+}
@@ -0,0 +1,92 @@
+package com.ridebooking.trail;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One fixed-size, memory-mapped segment file of the trail log.
+ * <p>
+ * After an 8 byte header the file is a sequence of blocks, each {@code [0x7A][body length varint][body]}. The
+ * marker byte is written last, so a block cut short by a crash still reads as zeroed, unused space and the
+ * scan at startup stops in front of it.
+ */
+final class TrailSegment {
+
+    static final int MAGIC = 0x54524C31; // "TRL1"
+    static final int HEADER_BYTES = 8;
+    static final byte BLOCK_MARKER = 0x7A;
+
+    final int number;
+    final Path file;
+    final MappedByteBuffer buffer;
+    // Next free byte; only touched under the store's write lock
+    int position;
+
+    private TrailSegment(int number, Path file, MappedByteBuffer buffer, int position) {
+        this.number = number;
+        this.file = file;
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    static TrailSegment create(Path file, int number, int size) throws IOException {
+        MappedByteBuffer buffer = map(file, size, true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, 1);
+        return new TrailSegment(number, file, buffer, HEADER_BYTES);
+    }
+
+    static TrailSegment open(Path file, int number) throws IOException {
+        MappedByteBuffer buffer = map(file, 0, false);
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a trail segment: " + file);
+        return new TrailSegment(number, file, buffer, HEADER_BYTES);
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    // Offset of the block following the one at offset, or -1 if there is no complete block there
+    int nextBlock(int offset) {
+        if (offset >= buffer.capacity() || buffer.get(offset) != BLOCK_MARKER)
+            return -1;
+        int[] cursor = {offset + 1};
+        long length = Varint.read(buffer, cursor);
+        return (int) (cursor[0] + length);
+    }
+
+    // Copy the block body in place and mark it valid; the caller has checked that it fits
+    int append(byte[] body, int length) {
+        int offset = position;
+        int cursor = Varint.write(buffer, offset + 1, length);
+        buffer.put(cursor, body, 0, length);
+        buffer.put(offset, BLOCK_MARKER);
+        position = cursor + length;
+        return offset;
+    }
+
+    boolean fits(int bodyLength) {
+        return position + 1 + Varint.MAX_BYTES + bodyLength <= buffer.capacity();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    private static MappedByteBuffer map(Path file, int size, boolean create) throws IOException {
+        StandardOpenOption[] options = create
+                ? new StandardOpenOption[]{StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            long length = create ? size : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.ridebooking.trail;
+
+// Summary of a replayed trail; distance is the sum of the straight segments between consecutive points
+public record TrailStats(int points, double distanceKm, long firstMillis, long lastMillis) {
+
+    public static final TrailStats EMPTY = new TrailStats(0, 0, 0, 0);
+
+    public double durationMinutes() {
+        return points < 2 ? 0 : (lastMillis - firstMillis) / 60_000.0;
+    }
+}
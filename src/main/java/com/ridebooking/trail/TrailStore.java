@@ -0,0 +1,366 @@
+package com.ridebooking.trail;
+
+import com.ridebooking.util.GeoUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only GPS trails of rides, kept in memory-mapped segment files instead of MySQL.
+ * <p>
+ * Points of a ride are collected in a small in-memory buffer and written out as one block once
+ * {@code trail.points-per-block} have been collected, when the ride ends, or when the buffer has been idle for
+ * {@code trail.flush-interval-ms}. A block holds the ride id, the first point in full and every later point as
+ * zigzag varint deltas (microdegrees and milliseconds), which is usually 4-6 bytes per point. Blocks of all
+ * rides are interleaved in the segments; an in-memory index of block positions per ride, rebuilt by scanning
+ * the segments at startup, makes replay a few sequential reads. Segments older than
+ * {@code trail.retention-days} are deleted when a new one is started.
+ */
+@Slf4j
+@Component
+public class TrailStore {
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(double latitude, double longitude, long timestampMillis);
+    }
+
+    private static final String SEGMENT_PREFIX = "trail-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Points not yet written for one ride
+    private static final class RideBuffer {
+        final ReentrantLock lock = new ReentrantLock();
+        final int[] lat;
+        final int[] lng;
+        final long[] time;
+        int count;
+        long lastAppendMillis;
+        boolean closed;
+
+        RideBuffer(int capacity) {
+            lat = new int[capacity];
+            lng = new int[capacity];
+            time = new long[capacity];
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int pointsPerBlock;
+    private final Duration retention;
+    private final long idleFlushMillis;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Changed under writeLock, read without it by replay
+    private final NavigableMap<Integer, TrailSegment> segments = new ConcurrentSkipListMap<>();
+    private TrailSegment active;
+    private final byte[] scratch;
+
+    // rideId -> block positions (segment number << 32 | offset), replaced as a whole on every append
+    private final Map<Long, long[]> index = new ConcurrentHashMap<>();
+    private final Map<Long, RideBuffer> buffers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TrailStore(@Value("${trail.directory:data/trails}") Path directory,
+                      @Value("${trail.segment-size-mb:64}") int segmentSizeMb,
+                      @Value("${trail.points-per-block:32}") int pointsPerBlock,
+                      @Value("${trail.retention-days:30}") int retentionDays,
+                      @Value("${trail.flush-interval-ms:5000}") long idleFlushMillis) throws IOException {
+        this(directory, segmentSizeMb * 1024 * 1024, pointsPerBlock, Duration.ofDays(retentionDays), idleFlushMillis);
+    }
+
+    TrailStore(Path directory, int segmentSize, int pointsPerBlock, Duration retention, long idleFlushMillis)
+            throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.pointsPerBlock = pointsPerBlock;
+        this.retention = retention;
+        this.idleFlushMillis = idleFlushMillis;
+        // Header varints plus one full point and a delta per further point, 10 bytes per varint at worst
+        this.scratch = new byte[3 * Varint.MAX_BYTES + pointsPerBlock * 3 * Varint.MAX_BYTES];
+        if (segmentSize < TrailSegment.HEADER_BYTES + 1 + Varint.MAX_BYTES + scratch.length)
+            throw new IllegalArgumentException("Trail segment size is too small for a block");
+
+        Files.createDirectories(directory);
+        load();
+    }
+
+    public void append(Long rideId, double latitude, double longitude, long timestampMillis) {
+        RideBuffer buffer = buffers.computeIfAbsent(rideId, id -> new RideBuffer(pointsPerBlock));
+        buffer.lock.lock();
+        try {
+            if (buffer.closed) {
+                // Lost a race with close(), the ride is over
+                return;
+            }
+            buffer.lat[buffer.count] = toMicro(latitude);
+            buffer.lng[buffer.count] = toMicro(longitude);
+            buffer.time[buffer.count] = timestampMillis;
+            buffer.count++;
+            buffer.lastAppendMillis = System.currentTimeMillis();
+            if (buffer.count == pointsPerBlock)
+                flush(rideId, buffer);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    // Write out whatever is buffered for a finished ride. The closed buffer stays behind for an idle interval, so
+    // a ping racing with the end of the ride finds it and is dropped instead of starting a new buffer
+    public void close(Long rideId) {
+        RideBuffer buffer = buffers.get(rideId);
+        if (buffer == null)
+            return;
+        buffer.lock.lock();
+        try {
+            flush(rideId, buffer);
+            buffer.closed = true;
+            buffer.lastAppendMillis = System.currentTimeMillis();
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    // Points of the ride in the order they were appended, including ones not yet written to a segment
+    public void replay(Long rideId, PointConsumer consumer) {
+        long[] positions = index.get(rideId);
+        if (positions != null) {
+            for (long position : positions) {
+                TrailSegment segment = segments.get((int) (position >>> 32));
+                if (segment != null)
+                    readBlock(segment, (int) position, consumer);
+            }
+        }
+
+        RideBuffer buffer = buffers.get(rideId);
+        if (buffer == null)
+            return;
+        buffer.lock.lock();
+        try {
+            for (int i = 0; i < buffer.count; i++)
+                consumer.accept(fromMicro(buffer.lat[i]), fromMicro(buffer.lng[i]), buffer.time[i]);
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    public List<TrailPoint> points(Long rideId) {
+        List<TrailPoint> points = new ArrayList<>();
+        replay(rideId, (lat, lng, time) -> points.add(new TrailPoint(lat, lng, time)));
+        return points;
+    }
+
+    public TrailStats stats(Long rideId) {
+        double[] last = new double[2];
+        long[] times = new long[2];
+        int[] count = new int[1];
+        double[] distance = new double[1];
+        replay(rideId, (lat, lng, time) -> {
+            if (count[0] == 0)
+                times[0] = time;
+            else
+                distance[0] += GeoUtils.haversineKm(last[0], last[1], lat, lng);
+            last[0] = lat;
+            last[1] = lng;
+            times[1] = time;
+            count[0]++;
+        });
+        return count[0] == 0 ? TrailStats.EMPTY : new TrailStats(count[0], distance[0], times[0], times[1]);
+    }
+
+    // Write out buffers that stopped receiving points, so a crash loses at most one flush interval, and forget
+    // the buffers of rides that were closed an interval ago
+    @Scheduled(fixedDelayString = "${trail.flush-interval-ms:5000}")
+    public void flushIdle() {
+        long cutoff = System.currentTimeMillis() - idleFlushMillis;
+        buffers.forEach((rideId, buffer) -> {
+            if (buffer.lastAppendMillis > cutoff || !buffer.lock.tryLock())
+                return;
+            try {
+                flush(rideId, buffer);
+                if (buffer.closed)
+                    buffers.remove(rideId, buffer);
+            } finally {
+                buffer.lock.unlock();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buffers.forEach((rideId, buffer) -> {
+            buffer.lock.lock();
+            try {
+                flush(rideId, buffer);
+            } finally {
+                buffer.lock.unlock();
+            }
+        });
+        writeLock.lock();
+        try {
+            segments.values().forEach(TrailSegment::force);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Must hold buffer.lock
+    private void flush(Long rideId, RideBuffer buffer) {
+        if (buffer.count == 0)
+            return;
+
+        writeLock.lock();
+        try {
+            int length = encode(rideId, buffer);
+            if (active == null || !active.fits(length))
+                roll();
+            int offset = active.append(scratch, length);
+
+            long position = ((long) active.number << 32) | offset;
+            index.merge(rideId, new long[]{position}, (old, added) -> {
+                long[] merged = Arrays.copyOf(old, old.length + 1);
+                merged[old.length] = added[0];
+                return merged;
+            });
+            buffer.count = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write trail block for ride " + rideId, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Must hold writeLock, encodes into scratch
+    private int encode(Long rideId, RideBuffer buffer) {
+        int pos = Varint.write(scratch, 0, rideId);
+        pos = Varint.write(scratch, pos, buffer.count);
+        pos = Varint.write(scratch, pos, Varint.zigzag(buffer.lat[0]));
+        pos = Varint.write(scratch, pos, Varint.zigzag(buffer.lng[0]));
+        pos = Varint.write(scratch, pos, Varint.zigzag(buffer.time[0]));
+        for (int i = 1; i < buffer.count; i++) {
+            pos = Varint.write(scratch, pos, Varint.zigzag(buffer.lat[i] - buffer.lat[i - 1]));
+            pos = Varint.write(scratch, pos, Varint.zigzag(buffer.lng[i] - buffer.lng[i - 1]));
+            pos = Varint.write(scratch, pos, Varint.zigzag(buffer.time[i] - buffer.time[i - 1]));
+        }
+        return pos;
+    }
+
+    private void readBlock(TrailSegment segment, int offset, PointConsumer consumer) {
+        int[] cursor = {offset + 1};
+        Varint.read(segment.buffer, cursor); // body length
+        Varint.read(segment.buffer, cursor); // ride id
+        int count = (int) Varint.read(segment.buffer, cursor);
+
+        long lat = 0, lng = 0, time = 0;
+        for (int i = 0; i < count; i++) {
+            lat += Varint.unzigzag(Varint.read(segment.buffer, cursor));
+            lng += Varint.unzigzag(Varint.read(segment.buffer, cursor));
+            time += Varint.unzigzag(Varint.read(segment.buffer, cursor));
+            consumer.accept(fromMicro((int) lat), fromMicro((int) lng), time);
+        }
+    }
+
+    // Must hold writeLock
+    private void roll() throws IOException {
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = TrailSegment.create(directory.resolve(fileName(number)), number, segmentSize);
+        segments.put(number, active);
+        deleteExpired();
+    }
+
+    // Must hold writeLock (or be in the constructor)
+    private void deleteExpired() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        List<Integer> expired = new ArrayList<>();
+        for (TrailSegment segment : segments.values()) {
+            try {
+                if (segment != active && Files.getLastModifiedTime(segment.file).toMillis() < cutoff)
+                    expired.add(segment.number);
+            } catch (IOException e) {
+                log.warn("Could not check age of trail segment {}", segment.file, e);
+            }
+        }
+
+        for (Integer number : expired) {
+            TrailSegment segment = segments.remove(number);
+            index.replaceAll((rideId, positions) -> {
+                long[] kept = Arrays.stream(positions).filter(p -> (int) (p >>> 32) != number).toArray();
+                return kept.length == positions.length ? positions : kept;
+            });
+            index.values().removeIf(positions -> positions.length == 0);
+            try {
+                Files.deleteIfExists(segment.file);
+                log.info("Deleted expired trail segment {}", segment.file);
+            } catch (IOException e) {
+                log.warn("Could not delete trail segment {}", segment.file, e);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(number, TrailSegment.open(file, number));
+            }
+        }
+
+        int blocks = 0;
+        for (TrailSegment segment : segments.values()) {
+            int offset = TrailSegment.HEADER_BYTES;
+            int next;
+            while ((next = segment.nextBlock(offset)) > 0) {
+                int[] cursor = {offset + 1};
+                Varint.read(segment.buffer, cursor);
+                long rideId = Varint.read(segment.buffer, cursor);
+                long position = ((long) segment.number << 32) | offset;
+                index.merge(rideId, new long[]{position}, (old, added) -> {
+                    long[] merged = Arrays.copyOf(old, old.length + 1);
+                    merged[old.length] = added[0];
+                    return merged;
+                });
+                offset = next;
+                blocks++;
+            }
+            segment.position = offset;
+        }
+
+        // Keep appending to the newest segment
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        deleteExpired();
+        log.info("Opened trail store {} with {} segments, {} blocks for {} rides",
+                directory, segments.size(), blocks, index.size());
+    }
+
+    private static String fileName(int number) {
+        return String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    private static int toMicro(double degrees) {
+        return (int) Math.round(degrees * 1e6);
+    }
+
+    private static double fromMicro(int micro) {
+        return micro / 1e6;
+    }
+}
@@ -0,0 +1,54 @@
+package com.ridebooking.trail;
+
+import java.nio.ByteBuffer;
+
+// LEB128 varints with zigzag for signed values, so small deltas of either sign take one or two bytes
+final class Varint {
+
+    static final int MAX_BYTES = 10;
+
+    private Varint() {
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Returns the offset after the written bytes
+    static int write(byte[] out, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+
+    static int write(ByteBuffer out, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put(offset++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put(offset++, (byte) value);
+        return offset;
+    }
+
+    // cursor[0] is advanced past the value
+    static long read(ByteBuffer in, int[] cursor) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get(cursor[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+            shift += 7;
+            if (shift >= 64)
+                throw new IllegalStateException("Malformed varint");
+        }
+    }
+}
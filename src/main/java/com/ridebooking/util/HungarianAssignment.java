@@ -0,0 +1,103 @@
+package com.ridebooking.util;
+
+import java.util.Arrays;
+
+/**
+ * Minimum-cost assignment of rows to columns (Hungarian algorithm with potentials, O(n^2 m) for n <= m).
+ * <p>
+ * Pairs that must not be matched should get a cost larger than any sum of allowed costs, so the solver first
+ * matches as many rows as it can and only then minimises the total. Such pairs still come back in the result
+ * and are left for the caller to drop.
+ */
+public final class HungarianAssignment {
+
+    private HungarianAssignment() {
+    }
+
+    /**
+     * @param cost {@code cost[row][column]}, rectangular, every cost finite.
+     * @return The column assigned to each row, or -1 for rows left over when there are more rows than columns.
+     */
+    public static int[] solve(double[][] cost) {
+        int rows = cost.length;
+        if (rows == 0)
+            return new int[0];
+        int columns = cost[0].length;
+        if (columns == 0) {
+            int[] none = new int[rows];
+            Arrays.fill(none, -1);
+            return none;
+        }
+        if (rows <= columns)
+            return solveWide(cost, rows, columns, false);
+
+        // Fewer columns than rows: solve the transpose and turn column -> row back into row -> column
+        int[] rowOfColumn = solveWide(cost, columns, rows, true);
+        int[] columnOfRow = new int[rows];
+        Arrays.fill(columnOfRow, -1);
+        for (int column = 0; column < columns; column++)
+            columnOfRow[rowOfColumn[column]] = column;
+        return columnOfRow;
+    }
+
+    // n <= m; 1-based with a virtual column 0, u/v are the row and column potentials
+    private static int[] solveWide(double[][] cost, int n, int m, boolean transposed) {
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] rowOf = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minv = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+
+        for (int i = 1; i <= n; i++) {
+            rowOf[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+
+            // Grow an alternating tree from row i until it reaches a free column
+            do {
+                used[j0] = true;
+                int i0 = rowOf[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j])
+                        continue;
+                    double c = transposed ? cost[j - 1][i0 - 1] : cost[i0 - 1][j - 1];
+                    double reduced = c - u[i0] - v[j];
+                    if (reduced < minv[j]) {
+                        minv[j] = reduced;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[rowOf[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (rowOf[j0] != 0);
+
+            // Flip the augmenting path
+            do {
+                int j1 = way[j0];
+                rowOf[j0] = rowOf[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        int[] result = new int[n];
+        for (int j = 1; j <= m; j++)
+            if (rowOf[j] != 0)
+                result[rowOf[j] - 1] = j - 1;
+        return result;
+    }
+}
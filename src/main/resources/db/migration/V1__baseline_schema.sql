@@ -0,0 +1,64 @@
+-- Schema as it was created by ddl-auto=update. Existing databases are baselined at this version and skip it.
+
+CREATE TABLE users (
+    id         BIGINT       NOT NULL AUTO_INCREMENT,
+    created_at DATETIME(6)  NOT NULL,
+    updated_at DATETIME(6)  NOT NULL,
+    username   VARCHAR(255) NOT NULL,
+    email      VARCHAR(255),
+    password   VARCHAR(255) NOT NULL,
+    role       VARCHAR(32)  NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_users_username UNIQUE (username),
+    CONSTRAINT uk_users_email UNIQUE (email)
+);
+
+CREATE TABLE drivers (
+    id                BIGINT       NOT NULL AUTO_INCREMENT,
+    created_at        DATETIME(6)  NOT NULL,
+    updated_at        DATETIME(6)  NOT NULL,
+    username          VARCHAR(255) NOT NULL,
+    email             VARCHAR(255),
+    password          VARCHAR(255) NOT NULL,
+    full_name         VARCHAR(255) NOT NULL,
+    phone_number      VARCHAR(255) NOT NULL,
+    vehicle_number    VARCHAR(255) NOT NULL,
+    vehicle_model     VARCHAR(255) NOT NULL,
+    licence_number    VARCHAR(255) NOT NULL,
+    status            VARCHAR(32)  NOT NULL,
+    current_latitude  DOUBLE,
+    current_longitude DOUBLE,
+    fcm_token         VARCHAR(255),
+    role              VARCHAR(32)  NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_drivers_username UNIQUE (username),
+    CONSTRAINT uk_drivers_email UNIQUE (email),
+    CONSTRAINT uk_drivers_licence_number UNIQUE (licence_number)
+);
+
+CREATE TABLE rides (
+    id                  BIGINT       NOT NULL AUTO_INCREMENT,
+    created_at          DATETIME(6)  NOT NULL,
+    updated_at          DATETIME(6)  NOT NULL,
+    rider_id            BIGINT       NOT NULL,
+    driver_id           BIGINT,
+    pickup_location     VARCHAR(255) NOT NULL,
+    dropoff_location    VARCHAR(255) NOT NULL,
+    pickup_lattitude    DOUBLE       NOT NULL,
+    pickup_longitude    DOUBLE       NOT NULL,
+    start_time          DATETIME(6),
+    end_time            DATETIME(6),
+    fare                DOUBLE,
+    status              VARCHAR(32),
+    user_rating         INT,
+    driver_rating       INT,
+    user_feedback       VARCHAR(255),
+    driver_feedback     VARCHAR(255),
+    distance_km         DOUBLE,
+    duration_minutes    DOUBLE,
+    payment_status      VARCHAR(32),
+    transaction_id      VARCHAR(255),
+    PRIMARY KEY (id),
+    CONSTRAINT fk_rides_rider FOREIGN KEY (rider_id) REFERENCES users (id),
+    CONSTRAINT fk_rides_driver FOREIGN KEY (driver_id) REFERENCES drivers (id)
+);
@@ -0,0 +1,13 @@
+-- Current ride of a rider / driver: rider_id = ? AND status IN ('ACCEPTED', 'STARTED')
+CREATE INDEX idx_rides_rider_status ON rides (rider_id, status);
+CREATE INDEX idx_rides_driver_status ON rides (driver_id, status);
+
+-- Rides by status, oldest first (reloading rides in progress on startup, rides stuck in a state)
+CREATE INDEX idx_rides_status_created ON rides (status, created_at);
+
+-- Ride history pages: rider_id = ? ORDER BY created_at DESC, id DESC, and the keyset continuation
+CREATE INDEX idx_rides_rider_created ON rides (rider_id, created_at, id);
+CREATE INDEX idx_rides_driver_created ON rides (driver_id, created_at, id);
+
+-- AVAILABLE drivers
+CREATE INDEX idx_drivers_status ON drivers (status);
@@ -0,0 +1,16 @@
+-- Append-only log of ride status transitions. A ride reaches each status at most once, so (ride_id, to_status)
+-- is unique and the row doubles as the idempotency record of the transition
+CREATE TABLE ride_events (
+    id              BIGINT       NOT NULL AUTO_INCREMENT,
+    created_at      DATETIME(6)  NOT NULL,
+    updated_at      DATETIME(6)  NOT NULL,
+    ride_id         BIGINT       NOT NULL,
+    from_status     VARCHAR(32),
+    to_status       VARCHAR(32)  NOT NULL,
+    driver_id       BIGINT,
+    fare            DOUBLE,
+    idempotency_key VARCHAR(128) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_ride_events_ride_to_status UNIQUE (ride_id, to_status),
+    CONSTRAINT uk_ride_events_idempotency_key UNIQUE (idempotency_key)
+);
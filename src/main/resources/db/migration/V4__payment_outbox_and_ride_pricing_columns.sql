@@ -0,0 +1,27 @@
+-- Added after the baseline, so databases baselined at V1 get them here as well
+
+-- Surge in effect at the pickup when the ride was booked
+ALTER TABLE rides ADD COLUMN surge_multiplier DOUBLE;
+
+-- Distance tracked from the driver's pings; null when the fare fell back to the client's distance
+ALTER TABLE rides ADD COLUMN tracked_distance_km DOUBLE;
+
+-- Payment orders of completed rides waiting to be created at the gateway
+CREATE TABLE payment_outbox (
+    id              BIGINT        NOT NULL AUTO_INCREMENT,
+    created_at      DATETIME(6)   NOT NULL,
+    updated_at      DATETIME(6)   NOT NULL,
+    ride_id         BIGINT        NOT NULL,
+    idempotency_key VARCHAR(255)  NOT NULL,
+    amount          DOUBLE        NOT NULL,
+    status          VARCHAR(32)   NOT NULL,
+    attempts        INT           NOT NULL,
+    next_attempt_at DATETIME(6)   NOT NULL,
+    order_id        VARCHAR(255),
+    last_error      VARCHAR(1000),
+    PRIMARY KEY (id),
+    CONSTRAINT uk_payment_outbox_ride_id UNIQUE (ride_id),
+    CONSTRAINT uk_payment_outbox_idempotency_key UNIQUE (idempotency_key)
+);
+
+CREATE INDEX idx_payment_outbox_due ON payment_outbox (status, next_attempt_at);
@@ -0,0 +1,3 @@
+-- While a ride is STARTED, tracked_distance_km holds the running distance last checkpointed by the node receiving
+-- the driver's pings, and tracked_points the points it was built from, so any node can complete the ride
+ALTER TABLE rides ADD COLUMN tracked_points INT;
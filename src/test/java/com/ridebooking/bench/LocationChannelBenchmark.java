@@ -0,0 +1,150 @@
+package com.ridebooking.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ridebooking.model.Role;
+import com.ridebooking.security.JwtUtil;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares driver location throughput of the REST endpoint against the STOMP stream on a running server.
+ * <p>
+ * Run with {@code ./gradlew locationBenchmark --args="http://localhost:8080 200 100 1"} where the arguments
+ * are base url, number of drivers, pings per driver and the first driver id. The drivers must exist.
+ * Server-side throughput is measured from the driver.location.pings metric, so both channels are timed
+ * until the server has actually accepted every ping.
+ */
+public class LocationChannelBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int drivers = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int pingsPerDriver = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        long firstDriverId = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        long total = (long) drivers * pingsPerDriver;
+        RestTemplate rest = new RestTemplate();
+
+        double restRate = runRest(rest, baseUrl, drivers, pingsPerDriver, firstDriverId, total);
+        double stompRate = runStomp(rest, baseUrl, drivers, pingsPerDriver, firstDriverId, total);
+
+        System.out.printf("REST : %,.0f pings/s%n", restRate);
+        System.out.printf("STOMP: %,.0f pings/s (%.1fx)%n", stompRate, stompRate / restRate);
+    }
+
+    private static double runRest(RestTemplate rest, String baseUrl, int drivers, int pingsPerDriver,
+                                  long firstDriverId, long total) throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(drivers, 200));
+        double before = pingCount(rest, baseUrl);
+        long start = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int d = 0; d < drivers; d++) {
+            long driverId = firstDriverId + d;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < pingsPerDriver; i++) {
+                    Map<String, Double> body = Map.of("latitude", latitude(i), "longitude", longitude(driverId));
+                    rest.postForEntity(baseUrl + "/api/driver/" + driverId + "/location",
+                            new HttpEntity<>(body, headers), String.class);
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        awaitPings(rest, baseUrl, before + total);
+
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return total / (elapsed / 1e9);
+    }
+
+    private static double runStomp(RestTemplate rest, String baseUrl, int drivers, int pingsPerDriver,
+                                   long firstDriverId, long total) throws Exception {
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        String wsUrl = baseUrl.replaceFirst("^http", "ws") + "/ws/websocket";
+
+        // Connections are opened up front, a driver keeps its session for the whole shift. Location frames are only
+        // taken from the driver's own session
+        JwtUtil jwtUtil = new JwtUtil();
+        List<StompSession> sessions = new ArrayList<>();
+        for (int d = 0; d < drivers; d++) {
+            long driverId = firstDriverId + d;
+            StompHeaders connectHeaders = new StompHeaders();
+            String token = jwtUtil.generateToken("driver-" + driverId, driverId, Role.DRIVER);
+            connectHeaders.add("Authorization", "Bearer " + token);
+            sessions.add(client.connectAsync(wsUrl, (WebSocketHttpHeaders) null, connectHeaders,
+                    new StompSessionHandlerAdapter() {
+                    }).get(10, TimeUnit.SECONDS));
+        }
+
+        double before = pingCount(rest, baseUrl);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < pingsPerDriver; i++) {
+            for (int d = 0; d < drivers; d++) {
+                long driverId = firstDriverId + d;
+                StompHeaders headers = new StompHeaders();
+                headers.setDestination("/app/driver/" + driverId + "/location");
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                sessions.get(d).send(headers, new double[]{latitude(i), longitude(driverId)});
+            }
+        }
+        awaitPings(rest, baseUrl, before + total);
+
+        long elapsed = System.nanoTime() - start;
+        sessions.forEach(StompSession::disconnect);
+        client.stop();
+        return total / (elapsed / 1e9);
+    }
+
+    private static void awaitPings(RestTemplate rest, String baseUrl, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(5);
+        while (pingCount(rest, baseUrl) < expected) {
+            if (System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("Server did not receive all pings in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private static double pingCount(RestTemplate rest, String baseUrl) {
+        try {
+            String json = rest.getForObject(baseUrl + "/actuator/metrics/driver.location.pings", String.class);
+            JsonNode measurements = MAPPER.readTree(json).path("measurements");
+            return measurements.isEmpty() ? 0 : measurements.get(0).path("value").asDouble();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static double latitude(int step) {
+        return 12.90 + step * 0.0001;
+    }
+
+    private static double longitude(long driverId) {
+        return 77.50 + (driverId % 1000) * 0.0005;
+    }
+}
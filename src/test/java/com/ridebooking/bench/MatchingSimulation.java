@@ -0,0 +1,145 @@
+package com.ridebooking.bench;
+
+import com.ridebooking.service.BatchMatcher;
+import com.ridebooking.service.DriverSpatialIndex;
+import com.ridebooking.util.GeoUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares pickup ETAs of first-come nearest-driver matching with the batch matcher on a synthetic peak.
+ * <p>
+ * Run with {@code ./gradlew matchingSimulation --args="10000 12000 5"} where the arguments are the number of
+ * concurrent ride requests, the number of available drivers and how many timed batch runs to average. Requests
+ * and drivers crowd around a few hotspots in a 30 x 30 km city, the rest are spread evenly. The greedy run hands
+ * every request, in arrival order, the nearest driver still free, which is what first-accept dispatch does at
+ * best. The batch run matches all requests at once, like one window of {@code dispatch.mode=batch}.
+ */
+public class MatchingSimulation {
+
+    private static final double CENTER_LAT = 12.97;
+    private static final double CENTER_LNG = 77.59;
+    private static final double CITY_KM = 30;
+    private static final int HOTSPOTS = 6;
+    private static final double HOTSPOT_SIGMA_KM = 1.5;
+    private static final double[] RADII_KM = {2, 5, 8};
+    private static final double AVERAGE_SPEED_KMPH = 25;
+
+    private record Point(double lat, double lng) {
+    }
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int drivers = args.length > 1 ? Integer.parseInt(args[1]) : 12_000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random random = new Random(42);
+        List<Point> hotspots = new ArrayList<>();
+        for (int i = 0; i < HOTSPOTS; i++)
+            hotspots.add(uniform(random));
+        List<Point> pickups = points(random, hotspots, requests, 0.7);
+        List<Point> driverPositions = points(random, hotspots, drivers, 0.5);
+
+        DriverSpatialIndex index = new DriverSpatialIndex(0.01);
+        double maxRadiusKm = Arrays.stream(RADII_KM).max().orElseThrow();
+
+        // Greedy, first come first served
+        reset(index, driverPositions);
+        long start = System.nanoTime();
+        double[] greedyEtas = new double[requests];
+        int greedyMatched = 0;
+        for (int i = 0; i < requests; i++) {
+            Point pickup = pickups.get(i);
+            List<DriverSpatialIndex.Neighbor> nearest = index.findNearestAvailable(pickup.lat(), pickup.lng(), 1, maxRadiusKm);
+            if (nearest.isEmpty()) {
+                greedyEtas[i] = Double.NaN;
+                continue;
+            }
+            index.setAvailable(nearest.get(0).driverId(), false);
+            greedyEtas[i] = eta(nearest.get(0).distanceKm());
+            greedyMatched++;
+        }
+        long greedyMs = (System.nanoTime() - start) / 1_000_000;
+        report("greedy", greedyMatched, requests, greedyEtas, greedyMs);
+
+        // Batch, one window holding every request
+        List<BatchMatcher.Request> batch = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++)
+            batch.add(new BatchMatcher.Request((long) i, pickups.get(i).lat(), pickups.get(i).lng(), Set.of()));
+
+        BatchMatcher matcher = new BatchMatcher(index, new SimpleMeterRegistry(), 0, 5, 200, RADII_KM, AVERAGE_SPEED_KMPH);
+        reset(index, driverPositions);
+        matcher.match(batch, Set.of()); // warm-up
+
+        long[] latencies = new long[runs];
+        List<BatchMatcher.Match> matches = List.of();
+        for (int run = 0; run < runs; run++) {
+            reset(index, driverPositions);
+            start = System.nanoTime();
+            matches = matcher.match(batch, Set.of());
+            latencies[run] = (System.nanoTime() - start) / 1_000_000;
+        }
+        matcher.shutdown();
+
+        double[] batchEtas = new double[requests];
+        Arrays.fill(batchEtas, Double.NaN);
+        for (BatchMatcher.Match match : matches)
+            batchEtas[match.rideId().intValue()] = match.etaMinutes();
+        Arrays.sort(latencies);
+        report("batch", matches.size(), requests, batchEtas, latencies[latencies.length / 2]);
+        System.out.printf("batch matcher latency over %d runs: min=%d ms median=%d ms max=%d ms%n",
+                runs, latencies[0], latencies[latencies.length / 2], latencies[latencies.length - 1]);
+    }
+
+    private static void report(String name, int matched, int requests, double[] etas, long elapsedMs) {
+        double[] found = Arrays.stream(etas).filter(e -> !Double.isNaN(e)).sorted().toArray();
+        double average = Arrays.stream(found).average().orElse(Double.NaN);
+        System.out.printf("%-6s: matched %d/%d, pickup ETA avg=%.2f min p50=%.2f p95=%.2f, took %d ms%n",
+                name, matched, requests, average, percentile(found, 50), percentile(found, 95), elapsedMs);
+    }
+
+    private static void reset(DriverSpatialIndex index, List<Point> positions) {
+        for (int i = 0; i < positions.size(); i++)
+            index.put((long) i, positions.get(i).lat(), positions.get(i).lng(), true);
+    }
+
+    // A share of the points crowds around the hotspots, the rest is spread over the whole city
+    private static List<Point> points(Random random, List<Point> hotspots, int count, double hotspotShare) {
+        List<Point> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < hotspotShare) {
+                Point hotspot = hotspots.get(random.nextInt(hotspots.size()));
+                points.add(offset(hotspot, random.nextGaussian() * HOTSPOT_SIGMA_KM, random.nextGaussian() * HOTSPOT_SIGMA_KM));
+            } else {
+                points.add(uniform(random));
+            }
+        }
+        return points;
+    }
+
+    private static Point uniform(Random random) {
+        Point center = new Point(CENTER_LAT, CENTER_LNG);
+        return offset(center, (random.nextDouble() - 0.5) * CITY_KM, (random.nextDouble() - 0.5) * CITY_KM);
+    }
+
+    private static Point offset(Point from, double northKm, double eastKm) {
+        double kmPerDegreeLng = GeoUtils.KM_PER_DEGREE_LAT * Math.cos(Math.toRadians(from.lat()));
+        return new Point(from.lat() + northKm / GeoUtils.KM_PER_DEGREE_LAT, from.lng() + eastKm / kmPerDegreeLng);
+    }
+
+    private static double eta(double distanceKm) {
+        return distanceKm / AVERAGE_SPEED_KMPH * 60;
+    }
+
+    private static double percentile(double[] sorted, int p) {
+        if (sorted.length == 0)
+            return Double.NaN;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+}
@@ -0,0 +1,56 @@
+package com.ridebooking.controller;
+
+import com.ridebooking.model.Role;
+import com.ridebooking.security.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Offers carry the token that accepts a ride, so the inbox and the accept only answer the driver signed in with
+ * the JWT.
+ */
+@SpringBootTest(properties = "payment.gateway=stub")
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class DriverOfferAccessTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Test
+    void inboxIsOnlyReadByItsDriver() throws Exception {
+        mockMvc.perform(get("/api/driver/{driverId}/offers", 5))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/api/driver/{driverId}/offers", 5).header("Authorization", bearer(6L, Role.DRIVER)))
+                .andExpect(status().isForbidden());
+        // A rider whose user id happens to match isn't the driver
+        mockMvc.perform(get("/api/driver/{driverId}/offers", 5).header("Authorization", bearer(5L, Role.USER)))
+                .andExpect(status().isForbidden());
+
+        mockMvc.perform(get("/api/driver/{driverId}/offers", 5).header("Authorization", bearer(5L, Role.DRIVER)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void acceptNeedsASignedInDriver() throws Exception {
+        mockMvc.perform(post("/api/rides/{rideId}/accept", 1).param("offerToken", "token"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/rides/{rideId}/accept", 1).param("offerToken", "token")
+                        .header("Authorization", bearer(5L, Role.USER)))
+                .andExpect(status().isForbidden());
+    }
+
+    private String bearer(Long id, Role role) {
+        return "Bearer " + jwtUtil.generateToken("account-" + id, id, role);
+    }
+}
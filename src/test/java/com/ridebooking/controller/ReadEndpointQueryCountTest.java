@@ -0,0 +1,182 @@
+package com.ridebooking.controller;
+
+import com.ridebooking.model.Driver;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.RideEventRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Counts the JDBC statements Hibernate prepares for each ride and driver endpoint that used to return entities.
+ * Reads must be a single statement, and no response may pull in the rider or driver rows.
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "payment.gateway=stub"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class ReadEndpointQueryCountTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DriverRepository driverRepository;
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private RideEventRepository rideEventRepository;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User rider;
+    private Driver driver;
+    private Ride acceptedRide;
+
+    @BeforeEach
+    void setUp() {
+        rider = userRepository.save(User.builder()
+                .username("rider")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+        driver = driverRepository.save(Driver.builder()
+                .username("driver")
+                .password("secret")
+                .fullName("Driver")
+                .phoneNumber("9000000000")
+                .vehicleNumber("KA01")
+                .vehicleModel("Swift")
+                .licenceNumber("DL1")
+                .status(driverStatus.AVAILABLE)
+                .currentLatitude(12.97)
+                .currentLongitude(77.59)
+                .role(Role.DRIVER)
+                .build());
+        acceptedRide = rideRepository.save(Ride.builder()
+                .rider(rider)
+                .driver(driver)
+                .pickupLocation("A")
+                .dropoffLocation("B")
+                .pickupLattitude(12.97)
+                .pickupLongitude(77.59)
+                .status(rideStatus.ACCEPTED)
+                .build());
+
+        // Start every request cold so cached lookups don't hide statements
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        rideEventRepository.deleteAll();
+        rideRepository.deleteAll();
+        driverRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void currentRideOfUserIsOneStatement() throws Exception {
+        mockMvc.perform(get("/api/rides/user/{userId}/current", rider.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(acceptedRide.getId()))
+                .andExpect(jsonPath("$.riderId").value(rider.getId()))
+                .andExpect(jsonPath("$.driverId").value(driver.getId()))
+                .andExpect(jsonPath("$.rider").doesNotExist());
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void currentRideOfDriverIsOneStatement() throws Exception {
+        mockMvc.perform(get("/api/rides/driver/{driverId}/current", driver.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(acceptedRide.getId()));
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void availableDriversIsOneStatementWithoutPasswords() throws Exception {
+        mockMvc.perform(get("/api/driver/available"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(driver.getId()))
+                .andExpect(jsonPath("$[0].vehicleNumber").value("KA01"))
+                .andExpect(jsonPath("$[0].password").doesNotExist());
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void rideStatusIsReadWithoutLoadingTheRide() throws Exception {
+        mockMvc.perform(post("/api/rides/{rideId}/track", acceptedRide.getId()))
+                .andExpect(status().isOk())
+                .andExpect(content().string("\"ACCEPTED\""));
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    void bookingLoadsTheRiderOnceAndInsertsTheRide() throws Exception {
+        String booking = """
+                {"pickupLocation":"A","dropLocation":"B","pickupLattitude":12.97,"pickupLongitude":77.59,"userId":%d}
+                """.formatted(rider.getId());
+        mockMvc.perform(post("/api/rides/book").contentType(MediaType.APPLICATION_JSON).content(booking))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("REQUESTED"))
+                .andExpect(jsonPath("$.riderId").value(rider.getId()))
+                .andExpect(jsonPath("$.rider").doesNotExist());
+
+        // select user, insert ride, insert REQUESTED event
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    void cancellingLoadsOnlyTheRide() throws Exception {
+        mockMvc.perform(post("/api/rides/{rideId}/cancel", acceptedRide.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("CANCELLED"))
+                .andExpect(jsonPath("$.driverId").value(driver.getId()))
+                .andExpect(jsonPath("$.driver").doesNotExist());
+
+        // select ride, conditional update, insert CANCELLED event, release driver; the driver row is never loaded
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(4);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(1);
+    }
+}
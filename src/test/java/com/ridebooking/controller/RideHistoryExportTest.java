@@ -0,0 +1,120 @@
+package com.ridebooking.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.paymentStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Streams the NDJSON history export through the real repository query, with more rides than one fetch of the
+ * streaming cursor holds.
+ */
+@SpringBootTest(properties = "payment.gateway=stub")
+@AutoConfigureMockMvc
+@ActiveProfiles("h2")
+class RideHistoryExportTest {
+
+    private static final int RIDES = 1_200;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private RideRepository rideRepository;
+
+    private User rider;
+
+    @BeforeEach
+    void setUp() {
+        rider = newRider("rider");
+        User otherRider = newRider("other");
+
+        List<Ride> rides = new ArrayList<>();
+        for (int i = 0; i < RIDES; i++)
+            rides.add(newRide(rider, i));
+        rides.add(newRide(otherRider, 0));
+        rideRepository.saveAll(rides);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        rideRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void exportStreamsEveryRideOfTheRiderNewestFirst() throws Exception {
+        MvcResult started = mockMvc.perform(get("/api/rides/user/{userId}/rides/export", rider.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(RIDES);
+
+        long previousId = Long.MAX_VALUE;
+        for (String line : lines) {
+            JsonNode ride = objectMapper.readTree(line);
+            assertThat(ride.get("riderId").asLong()).isEqualTo(rider.getId());
+            assertThat(ride.get("status").asText()).isEqualTo("COMPLETED");
+            // Saved one after another, so newest first is also highest id first
+            assertThat(ride.get("id").asLong()).isLessThan(previousId);
+            previousId = ride.get("id").asLong();
+        }
+    }
+
+    private User newRider(String name) {
+        return userRepository.save(User.builder()
+                .username(name)
+                .email(name + "@example.com")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+    }
+
+    private static Ride newRide(User rider, int i) {
+        return Ride.builder()
+                .rider(rider)
+                .pickupLocation("A" + i)
+                .dropoffLocation("B" + i)
+                .pickupLattitude(12.97)
+                .pickupLongitude(77.59)
+                .status(rideStatus.COMPLETED)
+                .fare(100.0 + i)
+                .paymentStatus(paymentStatus.PENDING)
+                .build();
+    }
+}
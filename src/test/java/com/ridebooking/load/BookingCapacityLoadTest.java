@@ -0,0 +1,214 @@
+package com.ridebooking.load;
+
+import com.ridebooking.model.Driver;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.PaymentOutboxRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import com.ridebooking.service.PaymentGateway;
+import com.ridebooking.service.PushSender;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+
+/**
+ * Books rides while the app is flooded with ride completions and the payment gateway is slow.
+ * <p>
+ * Tomcat is capped at {@value #SERVER_THREADS} threads and {@value #SLOW_COMPLETIONS} completions are fired
+ * together with {@value #BOOKINGS} bookings, while every gateway call takes {@value #PAYMENT_DELAY_MS} ms. Payment
+ * orders are created by the outbox worker, so neither mode should leave bookings queued behind the gateway;
+ * the platform run is reported for comparison. Run with {@code ./gradlew loadTest}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+@TestPropertySource(properties = "server.tomcat.threads.max=" + BookingCapacityLoadTest.SERVER_THREADS)
+abstract class BookingCapacityLoadTest {
+
+    static final int SERVER_THREADS = 16;
+    static final int SLOW_COMPLETIONS = 48;
+    static final int BOOKINGS = 200;
+    static final long PAYMENT_DELAY_MS = 1000;
+
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+    static class PlatformThreads extends BookingCapacityLoadTest {
+        @Override
+        void assertCapacity(List<Long> bookingLatenciesMs) {
+            // Reported for comparison only
+        }
+    }
+
+    @TestPropertySource(properties = "spring.threads.virtual.enabled=true")
+    static class VirtualThreads extends BookingCapacityLoadTest {
+        @Override
+        void assertCapacity(List<Long> bookingLatenciesMs) {
+            // No booking should have had to wait for a payment call to finish
+            assertThat(percentile(bookingLatenciesMs, 99)).isLessThan(PAYMENT_DELAY_MS);
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DriverRepository driverRepository;
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @MockitoBean
+    private PaymentGateway paymentGateway;
+    @MockitoBean
+    private PushSender pushSender;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private User rider;
+    private final List<Long> startedRideIds = new ArrayList<>();
+
+    abstract void assertCapacity(List<Long> bookingLatenciesMs);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        given(paymentGateway.createOrder(anyString(), anyDouble())).willAnswer(invocation -> {
+            Thread.sleep(PAYMENT_DELAY_MS);
+            return "order_" + invocation.getArgument(0);
+        });
+
+        paymentOutboxRepository.deleteAll();
+        rideRepository.deleteAll();
+        driverRepository.deleteAll();
+        userRepository.deleteAll();
+
+        rider = userRepository.save(User.builder()
+                .username("rider")
+                .email("rider@example.com")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+
+        startedRideIds.clear();
+        for (int i = 0; i < SLOW_COMPLETIONS; i++) {
+            Driver driver = driverRepository.save(Driver.builder()
+                    .username("driver" + i)
+                    .password("secret")
+                    .fullName("Driver " + i)
+                    .phoneNumber("90000000" + i)
+                    .vehicleNumber("KA01" + i)
+                    .vehicleModel("Swift")
+                    .licenceNumber("DL" + i)
+                    .status(driverStatus.ON_RIDE)
+                    .role(Role.DRIVER)
+                    .build());
+            Ride ride = rideRepository.save(Ride.builder()
+                    .rider(rider)
+                    .driver(driver)
+                    .pickupLocation("A")
+                    .dropoffLocation("B")
+                    .pickupLattitude(12.97)
+                    .pickupLongitude(77.59)
+                    .status(rideStatus.STARTED)
+                    .build());
+            startedRideIds.add(ride.getId());
+        }
+    }
+
+    @Test
+    void bookingsKeepFlowingWhilePaymentsAreSlow() throws Exception {
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Integer>> completions = new ArrayList<>();
+        for (Long rideId : startedRideIds) {
+            HttpRequest request = post("/api/rides/" + rideId + "/complete?distanceKm=5&durationMinutes=12", "");
+            completions.add(clients.submit(() -> {
+                start.await();
+                return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            }));
+        }
+
+        String booking = """
+                {"pickupLocation":"A","dropLocation":"B","pickupLattitude":12.97,"pickupLongitude":77.59,"userId":%d}
+                """.formatted(rider.getId());
+        List<Future<Long>> bookings = new ArrayList<>();
+        for (int i = 0; i < BOOKINGS; i++) {
+            HttpRequest request = post("/api/rides/book", booking);
+            bookings.add(clients.submit(() -> {
+                start.await();
+                // Let the completions grab the request threads first
+                Thread.sleep(50);
+                long begin = System.nanoTime();
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                assertThat(status).isEqualTo(200);
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        List<Long> latencies = new ArrayList<>();
+        for (Future<Long> f : bookings)
+            latencies.add(f.get(60, TimeUnit.SECONDS));
+        for (Future<Integer> f : completions)
+            assertThat(f.get(60, TimeUnit.SECONDS)).isEqualTo(200);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        clients.shutdown();
+
+        Collections.sort(latencies);
+        System.out.printf("%s: %d bookings next to %d slow completions in %d ms, booking p50=%d ms p99=%d ms max=%d ms%n",
+                getClass().getSimpleName(), BOOKINGS, SLOW_COMPLETIONS, elapsedMs,
+                percentile(latencies, 50), percentile(latencies, 99), latencies.get(latencies.size() - 1));
+
+        assertCapacity(latencies);
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    // Expects a sorted list
+    static long percentile(List<Long> sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+}
@@ -0,0 +1,463 @@
+package com.ridebooking.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ridebooking.model.Driver;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.UserRepository;
+import com.ridebooking.security.JwtUtil;
+import com.ridebooking.service.PushSender;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs a small city against the real controllers, services and an embedded database.
+ * <p>
+ * Drivers move one cell per tick on a {@value #GRID} x {@value #GRID} grid and report every move to
+ * {@code POST api/driver/{id}/location}. An idle driver wanders around and polls its offers, accepts the first
+ * one, drives to the pickup, starts the ride, drives to a random drop-off and completes it. Riders book on a
+ * Poisson schedule. Payments go to the stub gateway and push notifications to a mock.
+ * <p>
+ * Reports p50/p99 client latency of book, accept, location, start and complete, the JDBC statements Hibernate
+ * ran per request of each kind, and heap and GC figures for the run. Size it with {@code -Dsimulation.drivers=},
+ * {@code -Dsimulation.riders=}, {@code -Dsimulation.bookings-per-second=}, {@code -Dsimulation.duration-s=} and
+ * {@code -Dsimulation.tick-ms=}. Run with {@code ./gradlew citySimulation}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+@Import(CitySimulationLoadTest.StatementCounting.class)
+@TestPropertySource(properties = {
+        "payment.gateway=stub",
+        "dispatch.wave-timeout-ms=3000",
+        // A tick moves a driver a whole grid cell, far faster than real traffic; don't drop those pings as outliers
+        "ride.tracking.max-speed-kmph=100000",
+        "logging.level.com.ridebooking=WARN"
+})
+class CitySimulationLoadTest {
+
+    static final int GRID = 40;
+    static final double CELL_DEG = 0.005;
+    static final double ORIGIN_LAT = 12.90;
+    static final double ORIGIN_LNG = 77.55;
+    static final double CELL_KM = 0.55;
+
+    private final int drivers = Integer.getInteger("simulation.drivers", 300);
+    private final int riders = Integer.getInteger("simulation.riders", 1000);
+    private final double bookingsPerSecond = Double.parseDouble(System.getProperty("simulation.bookings-per-second", "5"));
+    private final int durationSeconds = Integer.getInteger("simulation.duration-s", 60);
+    private final long tickMs = Long.getLong("simulation.tick-ms", 500);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DriverRepository driverRepository;
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @MockitoBean
+    private PushSender pushSender;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final Map<String, Queue<Long>> latenciesMicros = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final LongAdder completedRides = new LongAdder();
+
+    @Test
+    void simulateCity() throws Exception {
+        List<Long> riderIds = seedRiders();
+        List<Long> driverIds = seedDrivers();
+        StatementCounting.PER_OPERATION.clear();
+
+        long gcCountBefore = 0, gcTimeBefore = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCountBefore += gc.getCollectionCount();
+            gcTimeBefore += gc.getCollectionTime();
+        }
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        long begin = System.nanoTime();
+        for (Long driverId : driverIds)
+            threads.submit(new SimulatedDriver(driverId));
+        threads.submit(() -> bookOnPoissonSchedule(riderIds, threads, begin));
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        running.set(false);
+        threads.shutdown();
+        assertThat(threads.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        report(elapsedMs, gcCountBefore, gcTimeBefore);
+
+        assertThat(failures.getOrDefault("book", new LongAdder()).sum()).isZero();
+        assertThat(failures.getOrDefault("location", new LongAdder()).sum()).isZero();
+        assertThat(completedRides.sum()).isPositive();
+    }
+
+    // Exponential gaps between bookings, from random riders at random pickup cells
+    private void bookOnPoissonSchedule(List<Long> riderIds, ExecutorService threads, long begin) {
+        Random random = new Random(42);
+        long next = begin;
+        while (running.get()) {
+            next += (long) (-Math.log(1 - random.nextDouble()) / bookingsPerSecond * 1e9);
+            long waitNanos = next - System.nanoTime();
+            if (waitNanos > 0)
+                sleep(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            if (!running.get())
+                return;
+
+            Long riderId = riderIds.get(random.nextInt(riderIds.size()));
+            int row = random.nextInt(GRID);
+            int col = random.nextInt(GRID);
+            String body = """
+                    {"pickupLocation":"cell %d/%d","dropLocation":"elsewhere","pickupLattitude":%s,"pickupLongitude":%s,"userId":%d}
+                    """.formatted(row, col, lat(row), lng(col), riderId);
+            threads.submit(() -> call("book", post("/api/rides/book", body)));
+        }
+    }
+
+    private enum Phase { IDLE, TO_PICKUP, ON_TRIP }
+
+    private final class SimulatedDriver implements Runnable {
+        final Long id;
+        final String bearer;
+        int row;
+        int col;
+        int targetRow;
+        int targetCol;
+        Phase phase = Phase.IDLE;
+        Long rideId;
+        int tripCells;
+        long tripStartNanos;
+
+        SimulatedDriver(Long id) {
+            this.id = id;
+            this.bearer = "Bearer " + jwtUtil.generateToken("driver-" + id, id, Role.DRIVER);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.row = random.nextInt(GRID);
+            this.col = random.nextInt(GRID);
+            pickTarget();
+        }
+
+        @Override
+        public void run() {
+            while (running.get()) {
+                long tickBegin = System.nanoTime();
+                try {
+                    tick();
+                } catch (Exception e) {
+                    failures.computeIfAbsent("driver", k -> new LongAdder()).increment();
+                }
+                long spentMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tickBegin);
+                sleep(Math.max(0, tickMs - spentMs));
+            }
+        }
+
+        void tick() throws Exception {
+            boolean arrived = step();
+            call("location", post("/api/driver/" + id + "/location",
+                    "{\"latitude\":%s,\"longitude\":%s}".formatted(lat(row), lng(col))));
+
+            switch (phase) {
+                case IDLE -> {
+                    if (arrived)
+                        pickTarget();
+                    acceptFirstOffer();
+                }
+                case TO_PICKUP -> {
+                    if (!arrived)
+                        return;
+                    HttpResponse<String> started = call("start", post("/api/rides/" + rideId + "/start", ""));
+                    if (started.statusCode() != 200) {
+                        phase = Phase.IDLE;
+                        return;
+                    }
+                    phase = Phase.ON_TRIP;
+                    tripCells = 0;
+                    tripStartNanos = System.nanoTime();
+                    pickTarget();
+                }
+                case ON_TRIP -> {
+                    tripCells++;
+                    if (!arrived)
+                        return;
+                    double minutes = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - tripStartNanos) / 60.0;
+                    HttpResponse<String> completed = call("complete", post("/api/rides/" + rideId
+                            + "/complete?distanceKm=" + tripCells * CELL_KM + "&durationMinutes=" + minutes, ""));
+                    if (completed.statusCode() == 200)
+                        completedRides.increment();
+                    phase = Phase.IDLE;
+                    rideId = null;
+                    pickTarget();
+                }
+            }
+        }
+
+        void acceptFirstOffer() throws Exception {
+            HttpResponse<String> response = call("offers", HttpRequest.newBuilder(uri("/api/driver/" + id + "/offers"))
+                    .header("Authorization", bearer)
+                    .timeout(Duration.ofSeconds(60))
+                    .GET()
+                    .build());
+            if (response.statusCode() != 200)
+                return;
+            JsonNode offers = MAPPER.readTree(response.body());
+            if (offers.isEmpty())
+                return;
+
+            JsonNode offer = offers.get(0);
+            long offeredRide = offer.get("rideId").asLong();
+            HttpRequest accept = HttpRequest.newBuilder(uri("/api/rides/" + offeredRide + "/accept?offerToken="
+                            + offer.get("token").asText()))
+                    .header("Authorization", bearer)
+                    .timeout(Duration.ofSeconds(60))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            HttpResponse<String> accepted = call("accept", accept);
+            if (accepted.statusCode() != 200)
+                return;
+
+            rideId = offeredRide;
+            phase = Phase.TO_PICKUP;
+            targetRow = cellOf(offer.get("pickupLat").asDouble(), ORIGIN_LAT);
+            targetCol = cellOf(offer.get("pickupLng").asDouble(), ORIGIN_LNG);
+        }
+
+        // One cell towards the target, true once there
+        boolean step() {
+            if (row != targetRow)
+                row += Integer.signum(targetRow - row);
+            else if (col != targetCol)
+                col += Integer.signum(targetCol - col);
+            return row == targetRow && col == targetCol;
+        }
+
+        void pickTarget() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            targetRow = random.nextInt(GRID);
+            targetCol = random.nextInt(GRID);
+        }
+    }
+
+    private HttpResponse<String> call(String operation, HttpRequest request) {
+        long begin = System.nanoTime();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(operation + " failed", e);
+        }
+        latenciesMicros.computeIfAbsent(operation, k -> new ConcurrentLinkedQueue<>())
+                .add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        if (response.statusCode() != 200)
+            failures.computeIfAbsent(operation, k -> new LongAdder()).increment();
+        return response;
+    }
+
+    private void report(long elapsedMs, long gcCountBefore, long gcTimeBefore) {
+        System.out.printf("City simulation: %d drivers, %d riders, %.1f bookings/s for %d ms, %d rides completed%n",
+                drivers, riders, bookingsPerSecond, elapsedMs, completedRides.sum());
+        System.out.printf("%-9s %8s %8s %9s %9s %9s %11s%n", "operation", "requests", "non-200", "p50 ms", "p99 ms", "max ms", "statements");
+
+        for (Map.Entry<String, Queue<Long>> entry : new TreeMap<>(latenciesMicros).entrySet()) {
+            List<Long> sorted = new ArrayList<>(entry.getValue());
+            sorted.sort(null);
+            LongAdder[] counts = StatementCounting.PER_OPERATION.get(entry.getKey());
+            double statements = counts == null || counts[0].sum() == 0 ? Double.NaN
+                    : (double) counts[1].sum() / counts[0].sum();
+            System.out.printf("%-9s %8d %8d %9.2f %9.2f %9.2f %11.2f%n", entry.getKey(), sorted.size(),
+                    failures.getOrDefault(entry.getKey(), new LongAdder()).sum(),
+                    BookingCapacityLoadTest.percentile(sorted, 50) / 1000.0,
+                    BookingCapacityLoadTest.percentile(sorted, 99) / 1000.0,
+                    sorted.get(sorted.size() - 1) / 1000.0, statements);
+        }
+
+        long gcCount = -gcCountBefore, gcTime = -gcTimeBefore;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peakHeap += pool.getPeakUsage().getUsed();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("heap: used %d MB, peak %d MB; gc: %d collections, %d ms (%.2f%% of the run)%n",
+                heapUsed >> 20, peakHeap >> 20, gcCount, gcTime, 100.0 * gcTime / elapsedMs);
+    }
+
+    private List<Long> seedRiders() {
+        List<User> users = new ArrayList<>(riders);
+        for (int i = 0; i < riders; i++)
+            users.add(User.builder()
+                    .username("rider" + i)
+                    .email("rider" + i + "@example.com")
+                    .password("secret")
+                    .role(Role.USER)
+                    .build());
+        return userRepository.saveAll(users).stream().map(User::getId).toList();
+    }
+
+    private List<Long> seedDrivers() {
+        List<Driver> seeded = new ArrayList<>(drivers);
+        for (int i = 0; i < drivers; i++)
+            seeded.add(Driver.builder()
+                    .username("driver" + i)
+                    .password("secret")
+                    .fullName("Driver " + i)
+                    .phoneNumber("9" + String.format("%09d", i))
+                    .vehicleNumber("KA01" + i)
+                    .vehicleModel("Swift")
+                    .licenceNumber("DL" + i)
+                    .status(driverStatus.AVAILABLE)
+                    .role(Role.DRIVER)
+                    .build());
+        return driverRepository.saveAll(seeded).stream().map(Driver::getId).toList();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(60))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static double lat(int row) {
+        return ORIGIN_LAT + row * CELL_DEG;
+    }
+
+    private static double lng(int col) {
+        return ORIGIN_LNG + col * CELL_DEG;
+    }
+
+    private static int cellOf(double degrees, double origin) {
+        return Math.max(0, Math.min(GRID - 1, (int) Math.round((degrees - origin) / CELL_DEG)));
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts the statements Hibernate prepares on each request thread and adds them up per operation. Work the
+     * request hands to other threads, such as event listeners and the location flush, isn't included.
+     */
+    @TestConfiguration
+    static class StatementCounting {
+
+        private static final Pattern OPERATION = Pattern.compile(
+                "/api/(?:rides/(book)|rides/\\d+/(accept|start|complete)|driver/\\d+/(location|offers))");
+
+        // operation -> [requests, statements]
+        static final Map<String, LongAdder[]> PER_OPERATION = new ConcurrentHashMap<>();
+        private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+        @Bean
+        HibernatePropertiesCustomizer statementCounter() {
+            StatementInspector inspector = sql -> {
+                STATEMENTS.get()[0]++;
+                return sql;
+            };
+            return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, inspector);
+        }
+
+        @Bean
+        FilterRegistrationBean<OncePerRequestFilter> statementsPerOperation() {
+            return new FilterRegistrationBean<>(new OncePerRequestFilter() {
+                @Override
+                protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                                FilterChain chain) throws ServletException, IOException {
+                    long before = STATEMENTS.get()[0];
+                    try {
+                        chain.doFilter(request, response);
+                    } finally {
+                        Matcher matcher = OPERATION.matcher(request.getRequestURI());
+                        if (matcher.matches()) {
+                            String operation = firstGroup(matcher);
+                            LongAdder[] counts = PER_OPERATION.computeIfAbsent(operation,
+                                    k -> new LongAdder[]{new LongAdder(), new LongAdder()});
+                            counts[0].increment();
+                            counts[1].add(STATEMENTS.get()[0] - before);
+                        }
+                    }
+                }
+            });
+        }
+
+        private static String firstGroup(Matcher matcher) {
+            for (int i = 1; i <= matcher.groupCount(); i++)
+                if (matcher.group(i) != null)
+                    return matcher.group(i);
+            throw new IllegalStateException("No operation in " + matcher.group());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.ridebooking.load;
+
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.service.PaymentGateway;
+import com.ridebooking.service.PushSender;
+import com.ridebooking.service.RideTrackingPublisher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Fans the live position of one ride out to {@value #DEFAULT_SUBSCRIBERS} STOMP subscribers on a single node.
+ * <p>
+ * Every subscriber holds its own WebSocket connection to {@code /ws}, so client and server together need about
+ * twice that many file descriptors ({@code ulimit -n}). Override the count with {@code -Dload.subscribers=}.
+ * Run with {@code ./gradlew loadTest}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("h2")
+@TestPropertySource(properties = {
+        "server.tomcat.max-connections=30000",
+        "ride.tracking.publish-interval-ms=100"
+})
+class RideTrackingFanoutLoadTest {
+
+    static final int DEFAULT_SUBSCRIBERS = 10_000;
+    static final int POSITION_FRAMES = 20;
+    static final long FRAME_INTERVAL_MS = 250;
+    static final long RIDE_ID = 1_000_000L;
+    static final long DRIVER_ID = 1_000_000L;
+
+    private final int subscribers = Integer.getInteger("load.subscribers", DEFAULT_SUBSCRIBERS);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RideTrackingPublisher trackingPublisher;
+
+    @MockitoBean
+    private PaymentGateway paymentGateway;
+    @MockitoBean
+    private PushSender pushSender;
+
+    private final ConcurrentLinkedQueue<StompSession> openSessions = new ConcurrentLinkedQueue<>();
+
+    // Delivery latency histogram in milliseconds, the last bucket collects everything slower
+    private final AtomicLongArray latencyMs = new AtomicLongArray(10_001);
+    private final AtomicLong positionFrames = new AtomicLong();
+    private final AtomicInteger ready = new AtomicInteger();
+
+    @AfterEach
+    void disconnect() {
+        openSessions.forEach(session -> {
+            if (session.isConnected())
+                session.disconnect();
+        });
+        trackingPublisher.unfollow(RIDE_ID);
+    }
+
+    @Test
+    void fansPositionsOutToAllSubscribers() throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        String url = "ws://localhost:" + port + "/ws/websocket";
+        String topic = RideTrackingPublisher.TOPIC_PREFIX + RIDE_ID;
+
+        // Connect in parallel, but not all at once
+        long connectBegin = System.nanoTime();
+        Semaphore inFlight = new Semaphore(500);
+        List<CompletableFuture<StompSession>> connects = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            inFlight.acquire();
+            CompletableFuture<StompSession> connect = stompClient.connectAsync(url, new StompSessionHandlerAdapter() {
+            });
+            connect.whenComplete((session, error) -> {
+                inFlight.release();
+                if (session != null) {
+                    openSessions.add(session);
+                    session.subscribe(topic, new TrackingHandler());
+                }
+            });
+            connects.add(connect);
+        }
+        for (CompletableFuture<StompSession> connect : connects)
+            connect.get(60, TimeUnit.SECONDS);
+        System.out.printf("Connected %d subscribers in %d ms%n",
+                subscribers, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectBegin));
+
+        // Subscriptions are registered asynchronously; keep announcing the ride until everybody has heard it
+        trackingPublisher.follow(RIDE_ID, DRIVER_ID, rideStatus.STARTED);
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (ready.get() < subscribers && System.currentTimeMillis() < deadline) {
+            trackingPublisher.publishStatus(RIDE_ID, rideStatus.STARTED, DRIVER_ID, null);
+            Thread.sleep(500);
+        }
+        assertThat(ready.get()).isEqualTo(subscribers);
+
+        for (int i = 0; i < POSITION_FRAMES; i++) {
+            trackingPublisher.publishPosition(DRIVER_ID, 12.9 + i * 0.0005, 77.6, System.currentTimeMillis());
+            Thread.sleep(FRAME_INTERVAL_MS);
+        }
+
+        long expected = (long) subscribers * POSITION_FRAMES;
+        deadline = System.currentTimeMillis() + 30_000;
+        while (positionFrames.get() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+
+        System.out.printf("%d subscribers received %d of %d position frames, delivery p50=%d ms p99=%d ms max=%d ms%n",
+                subscribers, positionFrames.get(), expected,
+                percentile(50), percentile(99), percentile(100));
+        assertThat(positionFrames.get()).isEqualTo(expected);
+    }
+
+    private final class TrackingHandler implements StompFrameHandler {
+        private boolean seenStatus;
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return Map.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            Map<?, ?> frame = (Map<?, ?>) payload;
+            if ("s".equals(frame.get("t"))) {
+                if (!seenStatus) {
+                    seenStatus = true;
+                    ready.incrementAndGet();
+                }
+                return;
+            }
+
+            long latency = System.currentTimeMillis() - ((Number) frame.get("ts")).longValue();
+            latencyMs.incrementAndGet((int) Math.min(Math.max(latency, 0), latencyMs.length() - 1));
+            positionFrames.incrementAndGet();
+        }
+    }
+
+    private long percentile(int p) {
+        long total = 0;
+        for (int i = 0; i < latencyMs.length(); i++)
+            total += latencyMs.get(i);
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < latencyMs.length(); i++) {
+            seen += latencyMs.get(i);
+            if (seen >= rank)
+                return i;
+        }
+        return latencyMs.length() - 1;
+    }
+}
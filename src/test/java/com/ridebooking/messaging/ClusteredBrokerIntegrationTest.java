@@ -0,0 +1,139 @@
+package com.ridebooking.messaging;
+
+import com.ridebooking.RideServiceApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Starts two app nodes in this JVM with the clustered broker on the in-memory bus, subscribes on one node and
+ * sends on the other.
+ */
+class ClusteredBrokerIntegrationTest {
+
+    private final String cluster = UUID.randomUUID().toString();
+
+    private ConfigurableApplicationContext nodeA;
+    private ConfigurableApplicationContext nodeB;
+    private StompSession session;
+
+    @BeforeEach
+    void startNodes() {
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+    }
+
+    @AfterEach
+    void stopNodes() {
+        if (session != null && session.isConnected())
+            session.disconnect();
+        if (nodeA != null)
+            nodeA.close();
+        if (nodeB != null)
+            nodeB.close();
+    }
+
+    @Test
+    void deliversMessagesSentOnAnotherNode() throws Exception {
+        BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+        session = subscribe(nodeA, "/ride/42", received);
+
+        // The subscription is registered asynchronously, keep sending until it is in place
+        SimpMessagingTemplate templateB = nodeB.getBean(SimpMessagingTemplate.class);
+        Map<?, ?> frame = null;
+        for (int attempt = 0; attempt < 50 && frame == null; attempt++) {
+            templateB.convertAndSend("/ride/42", Map.of("t", "s", "status", "STARTED"));
+            frame = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(frame).isNotNull();
+        assertThat(frame.get("status")).isEqualTo("STARTED");
+        assertThat(counter(nodeB, "websocket.cluster.messages", "direction", "out")).isPositive();
+        assertThat(counter(nodeA, "websocket.cluster.messages", "direction", "in")).isPositive();
+        assertThat(counter(nodeA, "websocket.outbound.messages", "origin", "remote")).isPositive();
+    }
+
+    @Test
+    void doesNotEchoMessagesBackToTheSender() throws Exception {
+        BlockingQueue<Map<?, ?>> received = new LinkedBlockingQueue<>();
+        session = subscribe(nodeA, "/ride/7", received);
+
+        SimpMessagingTemplate templateA = nodeA.getBean(SimpMessagingTemplate.class);
+        Map<?, ?> frame = null;
+        for (int attempt = 0; attempt < 50 && frame == null; attempt++) {
+            templateA.convertAndSend("/ride/7", Map.of("n", attempt));
+            frame = received.poll(200, TimeUnit.MILLISECONDS);
+        }
+        assertThat(frame).isNotNull();
+
+        // Each message was delivered once by node A's own broker and never came back over the bus
+        received.clear();
+        templateA.convertAndSend("/ride/7", Map.of("n", "last"));
+        assertThat(received.poll(2, TimeUnit.SECONDS)).containsEntry("n", "last");
+        assertThat(received.poll(500, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(counter(nodeA, "websocket.cluster.messages", "direction", "in")).isZero();
+    }
+
+    private ConfigurableApplicationContext startNode(String name) {
+        // Passed as arguments so they win over application-h2.properties
+        return new SpringApplicationBuilder(RideServiceApplication.class)
+                .profiles("h2")
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:" + name + "-" + cluster
+                                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                        "--payment.gateway=stub",
+                        "--websocket.broker.mode=cluster",
+                        "--websocket.cluster.transport=in-memory",
+                        "--websocket.cluster.name=" + cluster,
+                        "--websocket.cluster.node-id=" + name);
+    }
+
+    private StompSession subscribe(ConfigurableApplicationContext node, String destination,
+                                   BlockingQueue<Map<?, ?>> received) throws Exception {
+        int port = ((WebServerApplicationContext) node).getWebServer().getPort();
+        WebSocketStompClient client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        StompSession stompSession = client.connectAsync("ws://localhost:" + port + "/ws/websocket",
+                new StompSessionHandlerAdapter() {
+                }).get(10, TimeUnit.SECONDS);
+
+        stompSession.subscribe(destination, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add((Map<?, ?>) payload);
+            }
+        });
+        return stompSession;
+    }
+
+    private static double counter(ConfigurableApplicationContext node, String name, String tag, String value) {
+        var counter = node.getBean(MeterRegistry.class).find(name).tag(tag, value).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
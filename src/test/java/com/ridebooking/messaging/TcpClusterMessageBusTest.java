@@ -0,0 +1,133 @@
+package com.ridebooking.messaging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TcpClusterMessageBusTest {
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+    private static final String SECRET = "cluster-secret";
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    private TcpClusterMessageBus nodeA;
+    private TcpClusterMessageBus nodeB;
+
+    @AfterEach
+    void tearDown() {
+        if (nodeA != null)
+            nodeA.close();
+        if (nodeB != null)
+            nodeB.close();
+    }
+
+    @Test
+    void deliversToOtherNodesOnly() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        // Both nodes share the same peer list, including themselves
+        List<InetSocketAddress> peers = List.of(
+                new InetSocketAddress("localhost", portA), new InetSocketAddress("localhost", portB));
+        nodeA = new TcpClusterMessageBus("a", LOOPBACK, portA, peers, 100, SECRET, MAX_FRAME_BYTES);
+        nodeB = new TcpClusterMessageBus("b", LOOPBACK, portB, peers, 100, SECRET, MAX_FRAME_BYTES);
+        nodeA.start();
+        nodeB.start();
+
+        BlockingQueue<ClusterMessage> receivedA = new LinkedBlockingQueue<>();
+        BlockingQueue<ClusterMessage> receivedB = new LinkedBlockingQueue<>();
+        nodeA.subscribe(receivedA::add);
+        nodeB.subscribe(receivedB::add);
+
+        for (int i = 0; i < 50; i++)
+            nodeA.publish(new ClusterMessage("a", "/ride/" + i, "application/json", ("{\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8)));
+        nodeB.publish(new ClusterMessage("b", "/driver/9", null, new byte[0]));
+
+        for (int i = 0; i < 50; i++) {
+            ClusterMessage message = receivedB.poll(5, TimeUnit.SECONDS);
+            assertThat(message).isNotNull();
+            assertThat(message.origin()).isEqualTo("a");
+            assertThat(message.destination()).isEqualTo("/ride/" + i);
+            assertThat(message.contentType()).isEqualTo("application/json");
+            assertThat(new String(message.payload(), StandardCharsets.UTF_8)).isEqualTo("{\"n\":" + i + "}");
+        }
+
+        ClusterMessage fromB = receivedA.poll(5, TimeUnit.SECONDS);
+        assertThat(fromB).isNotNull();
+        assertThat(fromB.destination()).isEqualTo("/driver/9");
+        assertThat(fromB.contentType()).isNull();
+        assertThat(fromB.payload()).isEmpty();
+
+        // Nobody hears themselves
+        assertThat(receivedA.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(receivedB).isEmpty();
+    }
+
+    @Test
+    void dropsMessagesForUnreachablePeers() throws Exception {
+        nodeA = new TcpClusterMessageBus("a", LOOPBACK, freePort(),
+                List.of(new InetSocketAddress("localhost", freePort())), 10, SECRET, MAX_FRAME_BYTES);
+        nodeA.start();
+
+        for (int i = 0; i < 100; i++)
+            nodeA.publish(new ClusterMessage("a", "/ride/1", null, new byte[0]));
+
+        assertThat(nodeA.droppedMessages()).isGreaterThanOrEqualTo(89);
+    }
+
+    @Test
+    void refusesFramesSignedWithAnotherSecret() throws Exception {
+        int portB = freePort();
+        nodeA = new TcpClusterMessageBus("a", LOOPBACK, freePort(), List.of(new InetSocketAddress("localhost", portB)),
+                10, "not-the-secret", MAX_FRAME_BYTES);
+        nodeB = new TcpClusterMessageBus("b", LOOPBACK, portB, List.of(), 10, SECRET, MAX_FRAME_BYTES);
+        nodeA.start();
+        nodeB.start();
+        BlockingQueue<ClusterMessage> receivedB = new LinkedBlockingQueue<>();
+        nodeB.subscribe(receivedB::add);
+
+        nodeA.publish(new ClusterMessage("a", "/driver/9", null, new byte[0]));
+
+        assertThat(receivedB.poll(1, TimeUnit.SECONDS)).isNull();
+        assertThat(nodeB.rejectedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void closesConnectionsAnnouncingAnOversizedOrNegativeFrame() throws Exception {
+        int portB = freePort();
+        nodeB = new TcpClusterMessageBus("b", LOOPBACK, portB, List.of(), 10, SECRET, MAX_FRAME_BYTES);
+        nodeB.start();
+
+        for (int length : new int[]{-1, MAX_FRAME_BYTES + 1, Integer.MAX_VALUE}) {
+            try (Socket socket = new Socket(LOOPBACK, portB)) {
+                socket.setSoTimeout(5000);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                in.readNBytes(16);
+                new DataOutputStream(socket.getOutputStream()).writeInt(length);
+
+                // Closed without reading a frame body
+                assertThat(in.read()).isEqualTo(-1);
+            }
+        }
+        assertThat(nodeB.rejectedConnections()).isEqualTo(3);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
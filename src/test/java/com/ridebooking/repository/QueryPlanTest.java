@@ -0,0 +1,189 @@
+package com.ridebooking.repository;
+
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.model.rideStatus;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the hot ride and driver lookups are served by the indexes from the migrations rather than by a
+ * table scan, on a schema built by Flyway and filled with enough rows for the planner to care.
+ * <p>
+ * The plans are of the SQL Hibernate generates for the repository methods, recorded by a {@link StatementInspector}
+ * while the methods run, so a change to a query or to the mapping shows up here.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.ridebooking.repository.QueryPlanTest$RecordingInspector")
+@ActiveProfiles("h2")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class QueryPlanTest {
+
+    private static final String[] RIDE_STATUSES = {"COMPLETED", "COMPLETED", "COMPLETED", "CANCELLED", "STARTED"};
+    private static final String[] DRIVER_STATUSES = {"OFFLINE", "OFFLINE", "ON_RIDE", "AVAILABLE"};
+
+    private static final List<rideStatus> CURRENT = List.of(rideStatus.ACCEPTED, rideStatus.STARTED);
+    private static final Pageable PAGE = PageRequest.of(0, 20);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private DriverRepository driverRepository;
+
+    private Long rider;
+    private Long driver;
+    // Keyset of the last ride on the first page of the rider's history
+    private LocalDateTime cursorAt;
+    private Long cursorId;
+
+    @BeforeEach
+    void seed() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            users.add(new Object[]{now, now, "rider" + i, "secret", "USER"});
+        jdbcTemplate.batchUpdate("INSERT INTO users (created_at, updated_at, username, password, role) "
+                + "VALUES (?, ?, ?, ?, ?)", users);
+
+        List<Object[]> drivers = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            drivers.add(new Object[]{now, now, "driver" + i, "secret", "Driver " + i, "9000" + i, "KA01" + i,
+                    "Swift", "DL" + i, DRIVER_STATUSES[i % DRIVER_STATUSES.length], "DRIVER"});
+        jdbcTemplate.batchUpdate("INSERT INTO drivers (created_at, updated_at, username, password, full_name, "
+                + "phone_number, vehicle_number, vehicle_model, licence_number, status, role) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", drivers);
+
+        Long firstUser = jdbcTemplate.queryForObject("SELECT MIN(id) FROM users", Long.class);
+        Long firstDriver = jdbcTemplate.queryForObject("SELECT MIN(id) FROM drivers", Long.class);
+        List<Object[]> rides = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now().minusMinutes(i));
+            rides.add(new Object[]{createdAt, createdAt, firstUser + i % 50, firstDriver + i % 40, "A", "B",
+                    12.97, 77.59, RIDE_STATUSES[i % RIDE_STATUSES.length]});
+        }
+        rider = firstUser + 7;
+        driver = firstDriver + 7;
+        jdbcTemplate.batchUpdate("INSERT INTO rides (created_at, updated_at, rider_id, driver_id, pickup_location, "
+                + "dropoff_location, pickup_lattitude, pickup_longitude, status) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", rides);
+
+        Map<String, Object> cursor = jdbcTemplate.queryForList(
+                "SELECT id, created_at FROM rides WHERE rider_id = ? ORDER BY created_at DESC, id DESC LIMIT 1 OFFSET 19",
+                rider).get(0);
+        cursorId = ((Number) cursor.get("id")).longValue();
+        cursorAt = ((Timestamp) cursor.get("created_at")).toLocalDateTime();
+
+        // Collect column selectivity so the planner weighs the indexes on real numbers
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void schemaIsBuiltByMigrations() {
+        List<String> versions = jdbcTemplate.queryForList(
+                "SELECT \"version\" FROM \"flyway_schema_history\" WHERE \"success\" = TRUE ORDER BY \"installed_rank\"",
+                String.class);
+        assertThat(versions).startsWith("1", "2", "3", "4");
+    }
+
+    @Test
+    void currentRideOfRiderUsesRiderStatusIndex() {
+        String plan = planOf(() -> rideRepository.findRiderRideInStatus(rider, CURRENT),
+                rider, "ACCEPTED", "STARTED");
+        assertThat(plan).contains("idx_rides_rider_status");
+    }
+
+    @Test
+    void currentRideOfDriverUsesDriverStatusIndex() {
+        String plan = planOf(() -> rideRepository.findDriverRideInStatus(driver, CURRENT),
+                driver, "ACCEPTED", "STARTED");
+        assertThat(plan).contains("idx_rides_driver_status");
+        assertThat(planOf(() -> rideRepository.findDriverRideProgress(driver, CURRENT), driver, "ACCEPTED", "STARTED"))
+                .contains("idx_rides_driver_status");
+    }
+
+    @Test
+    void riderHistoryPagesUseRiderCreatedIndex() {
+        assertThat(planOf(() -> rideRepository.findRiderHistory(rider, PAGE), rider))
+                .contains("idx_rides_rider_created");
+        assertThat(planOf(() -> rideRepository.findRiderHistoryBefore(rider, cursorAt, cursorId, PAGE),
+                rider, Timestamp.valueOf(cursorAt), Timestamp.valueOf(cursorAt), cursorId))
+                .contains("idx_rides_rider_created");
+    }
+
+    @Test
+    void driverHistoryPagesUseDriverCreatedIndex() {
+        assertThat(planOf(() -> rideRepository.findDriverHistory(driver, PAGE), driver))
+                .contains("idx_rides_driver_created");
+        assertThat(planOf(() -> rideRepository.findDriverHistoryBefore(driver, cursorAt, cursorId, PAGE),
+                driver, Timestamp.valueOf(cursorAt), Timestamp.valueOf(cursorAt), cursorId))
+                .contains("idx_rides_driver_created");
+    }
+
+    @Test
+    void historyExportUsesCreatedIndexes() {
+        assertThat(planOf(() -> rideRepository.streamRiderHistory(rider).close(), rider))
+                .contains("idx_rides_rider_created");
+        assertThat(planOf(() -> rideRepository.streamDriverHistory(driver).close(), driver))
+                .contains("idx_rides_driver_created");
+    }
+
+    @Test
+    void ridesByStatusUseStatusCreatedIndex() {
+        assertThat(planOf(() -> rideRepository.findRideAndDriverIdsByStatus(rideStatus.STARTED), "STARTED"))
+                .contains("idx_rides_status_created");
+    }
+
+    @Test
+    void availableDriversUseStatusIndex() {
+        assertThat(planOf(() -> driverRepository.findSummariesByStatus(driverStatus.AVAILABLE), "AVAILABLE"))
+                .contains("idx_drivers_status");
+    }
+
+    // Runs the repository call, then explains the one statement Hibernate sent for it with the given bind values.
+    // Placeholders left over after them are row limits of the page
+    private String planOf(Runnable call, Object... params) {
+        RecordingInspector.STATEMENTS.clear();
+        call.run();
+        assertThat(RecordingInspector.STATEMENTS).hasSize(1);
+        String sql = RecordingInspector.STATEMENTS.get(0);
+
+        Object[] args = Arrays.copyOf(params, (int) sql.chars().filter(c -> c == '?').count());
+        Arrays.fill(args, params.length, args.length, PAGE.getPageSize());
+        String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, args).toLowerCase();
+        assertThat(plan).as(sql).doesNotContain("tablescan");
+        return plan;
+    }
+
+    /**
+     * Keeps the SQL of every statement Hibernate prepares. Hibernate creates it from its class name.
+     */
+    public static class RecordingInspector implements StatementInspector {
+
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ridebooking.routing;
+
+import com.ridebooking.util.GeoUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RoadGraphRouterTest {
+
+    // Two roads running north along either bank of a river, joined by a single bridge at the north end
+    private static final String NODES = """
+            id,lat,lng
+            100,12.90,77.60
+            101,12.92,77.60
+            102,12.94,77.60
+            200,12.90,77.61
+            201,12.92,77.61
+            202,12.94,77.61
+            """;
+    private static final String EDGES = """
+            fromId,toId,lengthMeters,speedKmph,oneway
+            100,101,2226,30,0
+            101,102,2226,30,0
+            200,201,2226,30,0
+            201,202,2226,30,0
+            102,202,1085,30,0
+            """;
+
+    @TempDir
+    static Path dir;
+
+    private static RoadGraph graph;
+
+    @BeforeAll
+    static void buildGraph() throws IOException {
+        Path nodes = Files.writeString(dir.resolve("nodes.csv"), NODES);
+        Path edges = Files.writeString(dir.resolve("edges.csv"), EDGES);
+        Path out = dir.resolve("test.rgr");
+        RoadGraphBuilder.build(nodes, edges, out);
+        graph = RoadGraph.load(out);
+    }
+
+    @Test
+    void loadsCsrLayout() {
+        assertThat(graph.nodeCount()).isEqualTo(6);
+        assertThat(graph.edgeCount()).isEqualTo(10);
+        assertThat(graph.maxSpeedKmph()).isEqualTo(30);
+        assertThat(graph.latitude(1)).isCloseTo(12.92, within(1e-6));
+        assertThat(graph.nearestNode(12.9001, 77.6001, 0.5)).isZero();
+        assertThat(graph.nearestNode(13.5, 77.6, 0.5)).isEqualTo(-1);
+    }
+
+    @Test
+    void routesAroundTheRiver() {
+        RoadGraphRouter router = newRouter();
+
+        // Straight across is about 1 km, by road it's up one bank, over the bridge and down the other
+        Optional<Route> route = router.compute(12.90, 77.60, 12.90, 77.61);
+        assertThat(route).isPresent();
+        assertThat(route.get().distanceKm()).isCloseTo((4 * 2226 + 1085) / 1000.0, within(0.01));
+        assertThat(route.get().durationMinutes()).isCloseTo(route.get().distanceKm() / 30 * 60, within(0.01));
+        assertThat(route.get().distanceKm()).isGreaterThan(5 * GeoUtils.haversineKm(12.90, 77.60, 12.90, 77.61));
+    }
+
+    @Test
+    void respectsOneWayAndUnreachable() throws IOException {
+        Path nodes = Files.writeString(dir.resolve("oneway-nodes.csv"), "1,12.90,77.60\n2,12.91,77.60\n3,12.95,77.70\n");
+        Path edges = Files.writeString(dir.resolve("oneway-edges.csv"), "1,2,1113,40,1\n");
+        Path out = dir.resolve("oneway.rgr");
+        RoadGraphBuilder.build(nodes, edges, out);
+        RoadGraphRouter router = new RoadGraphRouter(RoadGraph.load(out), 0.5, 15, 0.005, 1000, 4, 100, Duration.ofMinutes(1));
+
+        assertThat(router.compute(12.90, 77.60, 12.91, 77.60)).isPresent();
+        assertThat(router.compute(12.91, 77.60, 12.90, 77.60)).isEmpty();
+        assertThat(router.compute(12.90, 77.60, 12.95, 77.70)).isEmpty();
+    }
+
+    @Test
+    void cachesByCellPair() {
+        RoadGraphRouter router = newRouter();
+
+        // A few metres apart, inside the same 0.005 degree cells at both ends
+        Route first = router.route(12.9012, 77.6012, 12.9412, 77.6112).orElseThrow();
+        Route nearby = router.route(12.9014, 77.6014, 12.9414, 77.6114).orElseThrow();
+
+        assertThat(nearby).isSameAs(first);
+        assertThat(router.cacheSize()).isEqualTo(1);
+    }
+
+    private RoadGraphRouter newRouter() {
+        return new RoadGraphRouter(graph, 0.5, 15, 0.005, 1000, 4, 100, Duration.ofMinutes(1));
+    }
+}
@@ -0,0 +1,51 @@
+package com.ridebooking.security;
+
+import com.ridebooking.model.Role;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompAuthChannelInterceptorTest {
+
+    private final StompAuthChannelInterceptor interceptor = new StompAuthChannelInterceptor();
+
+    @Test
+    void locationFramesOnlyPassForTheirDriver() {
+        assertThat(interceptor.preSend(location(5L, session(5L, Role.DRIVER)), null)).isNotNull();
+
+        assertThat(interceptor.preSend(location(5L, session(6L, Role.DRIVER)), null)).isNull();
+        // A rider whose user id happens to match isn't the driver
+        assertThat(interceptor.preSend(location(5L, session(5L, Role.USER)), null)).isNull();
+        assertThat(interceptor.preSend(location(5L, null), null)).isNull();
+    }
+
+    @Test
+    void otherFramesPass() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/app/ride/7");
+        accessor.setLeaveMutable(true);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+
+        assertThat(interceptor.preSend(message, null)).isSameAs(message);
+    }
+
+    private static Message<byte[]> location(Long driverId, UsernamePasswordAuthenticationToken user) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/app/driver/" + driverId + "/location");
+        accessor.setUser(user);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage("[12.9,77.6]".getBytes(), accessor.getMessageHeaders());
+    }
+
+    private static UsernamePasswordAuthenticationToken session(Long id, Role role) {
+        JwtPrincipal principal = new JwtPrincipal("account-" + id, id, role, Long.MAX_VALUE);
+        return new UsernamePasswordAuthenticationToken(principal, null, List.of());
+    }
+}
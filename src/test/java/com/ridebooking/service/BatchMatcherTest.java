@@ -0,0 +1,148 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import com.ridebooking.util.HungarianAssignment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
+
+class BatchMatcherTest {
+
+    private static final double LAT = 12.97;
+    private static final double LNG = 77.59;
+    private static final double KM_PER_DEGREE_LNG = GeoUtils.KM_PER_DEGREE_LAT * Math.cos(Math.toRadians(LAT));
+
+    private final DriverSpatialIndex index = new DriverSpatialIndex(0.01);
+    private BatchMatcher matcher;
+
+    @AfterEach
+    void tearDown() {
+        if (matcher != null)
+            matcher.shutdown();
+    }
+
+    @Test
+    void hungarianFindsTheCheapestAssignment() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int rows = 1 + random.nextInt(6);
+            int columns = 1 + random.nextInt(6);
+            double[][] cost = new double[rows][columns];
+            for (double[] row : cost)
+                for (int j = 0; j < columns; j++)
+                    row[j] = random.nextInt(50);
+
+            int[] assigned = HungarianAssignment.solve(cost);
+
+            Set<Integer> usedColumns = new HashSet<>();
+            double total = 0;
+            for (int i = 0; i < rows; i++) {
+                if (assigned[i] < 0)
+                    continue;
+                assertThat(usedColumns.add(assigned[i])).isTrue();
+                total += cost[i][assigned[i]];
+            }
+            assertThat(usedColumns).hasSize(Math.min(rows, columns));
+            assertThat(total).isCloseTo(bruteForce(cost, 0, new boolean[columns]), within(1e-9));
+        }
+    }
+
+    @Test
+    void beatsFirstComeNearestDriver() {
+        // Greedy gives ride 1 driver 10 (1 km) and leaves ride 2 with driver 20 (3.5 km away)
+        index.put(10L, LAT, lng(1), true);
+        index.put(20L, LAT, lng(-1.5), true);
+        matcher = newMatcher(200);
+
+        List<BatchMatcher.Match> matches = matcher.match(List.of(request(1L, 0), request(2L, 2)), Set.of());
+
+        assertThat(matches)
+                .extracting(BatchMatcher.Match::rideId, BatchMatcher.Match::driverId)
+                .containsExactlyInAnyOrder(
+                        tuple(1L, 20L),
+                        tuple(2L, 10L));
+    }
+
+    @Test
+    void skipsReservedExcludedAndOutOfReachDrivers() {
+        index.put(10L, LAT, lng(0.5), true);
+        index.put(20L, LAT, lng(1), true);
+        index.put(30L, LAT, lng(-1), true);
+        index.put(40L, LAT, lng(20), true);
+        matcher = newMatcher(200);
+
+        BatchMatcher.Request ride = new BatchMatcher.Request(1L, LAT, LNG, Set.of(20L));
+        List<BatchMatcher.Match> matches = matcher.match(List.of(ride), Set.of(10L));
+
+        assertThat(matches).extracting(BatchMatcher.Match::driverId).containsExactly(30L);
+
+        BatchMatcher.Request farAway = new BatchMatcher.Request(2L, LAT, lng(40), Set.of());
+        assertThat(matcher.match(List.of(farAway), Set.of())).isEmpty();
+    }
+
+    @Test
+    void partitionedBatchUsesEveryDriverAtMostOnce() {
+        Random random = new Random(7);
+        for (long d = 0; d < 400; d++)
+            index.put(d, LAT + random.nextGaussian() * 0.03, LNG + random.nextGaussian() * 0.03, true);
+        List<BatchMatcher.Request> rides = new ArrayList<>();
+        for (long r = 0; r < 500; r++)
+            rides.add(new BatchMatcher.Request(r, LAT + random.nextGaussian() * 0.03, LNG + random.nextGaussian() * 0.03, Set.of()));
+        matcher = newMatcher(40);
+
+        List<BatchMatcher.Match> matches = matcher.match(rides, Set.of());
+
+        assertThat(matches).extracting(BatchMatcher.Match::driverId).doesNotHaveDuplicates();
+        assertThat(matches).extracting(BatchMatcher.Match::rideId).doesNotHaveDuplicates();
+        assertThat(matches).allSatisfy(m -> assertThat(m.distanceKm()).isLessThanOrEqualTo(8));
+        // Partition borders may cost a few pairs, but nearly every driver should be busy
+        assertThat(matches.size()).isGreaterThan(380);
+    }
+
+    private BatchMatcher newMatcher(int maxPartitionSize) {
+        return new BatchMatcher(index, new SimpleMeterRegistry(), 2, 5, maxPartitionSize, new double[]{2, 5, 8}, 25);
+    }
+
+    private static BatchMatcher.Request request(Long rideId, double kmEast) {
+        return new BatchMatcher.Request(rideId, LAT, lng(kmEast), Set.of());
+    }
+
+    private static double lng(double kmEast) {
+        return LNG + kmEast / KM_PER_DEGREE_LNG;
+    }
+
+    // Cheapest way to give every row a column (or every column a row, whichever is fewer)
+    private static double bruteForce(double[][] cost, int row, boolean[] used) {
+        int rows = cost.length;
+        int columns = cost[0].length;
+        int usedCount = 0;
+        for (boolean u : used)
+            if (u)
+                usedCount++;
+        if (row == rows || usedCount == columns)
+            return 0;
+
+        double best = Double.POSITIVE_INFINITY;
+        // More rows than columns: this row may be the one left out
+        if (rows - row > columns - usedCount)
+            best = bruteForce(cost, row + 1, used);
+        for (int j = 0; j < columns; j++) {
+            if (used[j])
+                continue;
+            used[j] = true;
+            best = Math.min(best, cost[row][j] + bruteForce(cost, row + 1, used));
+            used[j] = false;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,286 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.routing.RouteEstimator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DispatchServiceTest {
+
+    private static final double LAT = 12.97;
+    private static final double LNG = 77.59;
+    // Roughly a kilometre north of the pickup per unit
+    private static final double KM_DEG = 0.009;
+
+    // Runs scheduled waves only when the test says their time has come
+    static final class ManualScheduler implements TaskScheduler {
+
+        static final class Task extends FutureTask<Object> implements ScheduledFuture<Object> {
+            Task(Runnable runnable) {
+                super(runnable, null);
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return 0;
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return 0;
+            }
+        }
+
+        final List<Task> tasks = new ArrayList<>();
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable runnable, Instant startTime) {
+            Task task = new Task(runnable);
+            tasks.add(task);
+            return task;
+        }
+
+        long waiting() {
+            return tasks.stream().filter(task -> !task.isCancelled()).count();
+        }
+
+        // The wave timeout passes; cancelled waves don't run
+        void elapse() {
+            List<Task> due = List.copyOf(tasks);
+            tasks.clear();
+            due.forEach(Task::run);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Instant startTime, Duration period) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Duration period) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Instant startTime, Duration delay) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Duration delay) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DriverSpatialIndex spatialIndex = new DriverSpatialIndex(0.01);
+    private final DriverAcceptanceTracker acceptanceTracker = new DriverAcceptanceTracker();
+    private final RideOfferInbox offerInbox = new RideOfferInbox(new SimpMessagingTemplate((message, timeout) -> true),
+            registry, "secret", 600_000, 10, System::currentTimeMillis);
+    private final NotificationDispatcher notificationDispatcher =
+            new NotificationDispatcher((tokens, title, body) -> List.of(), registry, 1, 100, 1, 10, false);
+    private final BatchMatcher batchMatcher = new BatchMatcher(spatialIndex, registry, 1, 5, 200, new double[]{2, 5, 8}, 25);
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final List<DispatchService.DispatchExpired> expired = new ArrayList<>();
+
+    // The drivers in these tests have no push token
+    private final DriverRepository driverRepository = (DriverRepository) Proxy.newProxyInstance(
+            DriverRepository.class.getClassLoader(), new Class<?>[]{DriverRepository.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("findAllById"))
+                    return List.of();
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    // Status and driver of each ride as the DB has them; rides not listed are still REQUESTED
+    private final Map<Long, rideStatus> statuses = new HashMap<>();
+    private final Map<Long, Long> drivers = new HashMap<>();
+
+    private final RideRepository rideRepository = (RideRepository) Proxy.newProxyInstance(
+            RideRepository.class.getClassLoader(), new Class<?>[]{RideRepository.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "findStatusById" -> Optional.of(statuses.getOrDefault((Long) args[0], rideStatus.REQUESTED));
+                case "findDriverIdById" -> Optional.ofNullable(drivers.get((Long) args[0]));
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+
+    private final DispatchService dispatch = new DispatchService(spatialIndex, acceptanceTracker, driverRepository,
+            rideRepository, notificationDispatcher, offerInbox, batchMatcher, scheduler,
+            new StaticListableBeanFactory().getBeanProvider(RouteEstimator.class),
+            event -> expired.add((DispatchService.DispatchExpired) event),
+            "waves", 60_000, 2, 15_000, new double[]{2, 5, 8}, 25, 1.0, 0.5, 5.0, 10);
+
+    @AfterEach
+    void tearDown() {
+        notificationDispatcher.shutdown();
+        batchMatcher.shutdown();
+    }
+
+    @Test
+    void candidatesAreRankedByPickupTimeAndAcceptance() {
+        driverAt(1L, 0.5);
+        driverAt(2L, 1.5);
+        assertThat(ranked(Set.of())).containsExactly(1L, 2L);
+
+        // The nearer driver ignores offers, the other one takes them all
+        for (int i = 0; i < 10; i++) {
+            acceptanceTracker.recordOffer(1L);
+            acceptanceTracker.recordOffer(2L);
+            acceptanceTracker.recordAccept(2L);
+        }
+        assertThat(ranked(Set.of())).containsExactly(2L, 1L);
+        assertThat(ranked(Set.of(2L))).containsExactly(1L);
+    }
+
+    @Test
+    void unansweredWavesWidenTheSearchThenExpireTheRide() {
+        driverAt(1L, 0.8);
+        driverAt(2L, 1.0);
+        driverAt(3L, 1.2);
+        driverAt(4L, 4.0);
+        dispatch.startDispatch(ride(7L));
+
+        // The best two within the first radius
+        assertThat(offered(7L)).containsExactly(1L, 2L);
+        assertThat(scheduler.waiting()).isEqualTo(1);
+
+        // Nobody answered in time: the next wave goes out to the rest within the wider radius
+        scheduler.elapse();
+        assertThat(offered(7L)).containsExactly(1L, 2L, 3L, 4L);
+        assertThat(dispatch.isDispatching(7L)).isTrue();
+
+        // The widest radius has nobody new, so dispatch gives up
+        scheduler.elapse();
+        assertThat(dispatch.isDispatching(7L)).isFalse();
+        assertThat(expired).containsExactly(new DispatchService.DispatchExpired(7L));
+        assertThat(offered(7L)).isEmpty();
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    void aRideWithNobodyAroundExpiresRightAway() {
+        driverAt(1L, 20);
+        dispatch.startDispatch(ride(7L));
+
+        assertThat(expired).containsExactly(new DispatchService.DispatchExpired(7L));
+        assertThat(offered(7L)).isEmpty();
+        assertThat(scheduler.waiting()).isZero();
+    }
+
+    @Test
+    void dispatchStopsOnceTheRideIsAccepted() {
+        driverAt(1L, 0.8);
+        driverAt(2L, 1.0);
+        driverAt(3L, 1.2);
+        dispatch.startDispatch(ride(7L));
+
+        dispatch.onRideEvent(event(7L, rideStatus.ACCEPTED, 2L));
+
+        assertThat(dispatch.isDispatching(7L)).isFalse();
+        // The offer the driver accepted stays theirs, the other one is withdrawn
+        assertThat(offered(7L)).containsExactly(2L);
+        assertThat(scheduler.waiting()).isZero();
+
+        scheduler.elapse();
+        assertThat(offered(7L)).containsExactly(2L);
+        assertThat(expired).isEmpty();
+    }
+
+    @Test
+    void dispatchStopsOnceTheRideIsCancelled() {
+        driverAt(1L, 0.8);
+        driverAt(2L, 1.0);
+        dispatch.startDispatch(ride(7L));
+
+        dispatch.onRideEvent(event(7L, rideStatus.CANCELLED, null));
+
+        assertThat(dispatch.isDispatching(7L)).isFalse();
+        assertThat(offered(7L)).isEmpty();
+        assertThat(scheduler.waiting()).isZero();
+
+        scheduler.elapse();
+        assertThat(offered(7L)).isEmpty();
+        assertThat(expired).isEmpty();
+    }
+
+    @Test
+    void dispatchStopsOnceTheRideIsAcceptedOnAnotherNode() {
+        driverAt(1L, 0.8);
+        driverAt(2L, 1.0);
+        driverAt(3L, 1.2);
+        dispatch.startDispatch(ride(7L));
+
+        // No event here; the next wave finds the ride taken
+        statuses.put(7L, rideStatus.ACCEPTED);
+        drivers.put(7L, 2L);
+        scheduler.elapse();
+
+        assertThat(dispatch.isDispatching(7L)).isFalse();
+        assertThat(offered(7L)).containsExactly(2L);
+        assertThat(scheduler.waiting()).isZero();
+        assertThat(expired).isEmpty();
+    }
+
+    private void driverAt(Long driverId, double kmNorth) {
+        spatialIndex.put(driverId, LAT + kmNorth * KM_DEG, LNG, true);
+    }
+
+    private List<Long> ranked(Set<Long> exclude) {
+        return dispatch.rankCandidates(LAT, LNG, 8, exclude).stream().map(DispatchService.Candidate::driverId).toList();
+    }
+
+    // Drivers holding an open offer for the ride, by id
+    private List<Long> offered(Long rideId) {
+        List<Long> drivers = new ArrayList<>();
+        for (long driverId = 1; driverId <= 4; driverId++)
+            if (offerInbox.pending(driverId).stream().anyMatch(offer -> offer.rideId().equals(rideId)))
+                drivers.add(driverId);
+        return drivers;
+    }
+
+    private static Ride ride(Long rideId) {
+        Ride ride = Ride.builder()
+                .pickupLocation("A")
+                .dropoffLocation("B")
+                .pickupLattitude(LAT)
+                .pickupLongitude(LNG)
+                .status(rideStatus.REQUESTED)
+                .build();
+        ride.setId(rideId);
+        return ride;
+    }
+
+    private static RideEvent event(Long rideId, rideStatus to, Long driverId) {
+        return RideEvent.builder().rideId(rideId).toStatus(to).driverId(driverId).build();
+    }
+}
@@ -0,0 +1,216 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DriverSpatialIndexTest {
+
+    private static final double CELL_SIZE_DEG = 0.01;
+
+    private record Position(double lat, double lng, boolean available) {
+    }
+
+    private record Hit(Long driverId, double distanceKm) {
+    }
+
+    private final DriverSpatialIndex index = new DriverSpatialIndex(CELL_SIZE_DEG);
+
+    // What the index should hold, scanned in full for every query
+    private final Map<Long, Position> fleet = new HashMap<>();
+    private long nextId;
+
+    @Test
+    void radiusQueriesMatchAFullScan() {
+        Random random = new Random(1);
+        scatter(random, 3000, 12.97, 77.59, 0.2);
+
+        for (int q = 0; q < 300; q++) {
+            double lat = 12.97 + (random.nextDouble() - 0.5) * 0.4;
+            double lng = 77.59 + (random.nextDouble() - 0.5) * 0.4;
+            double radiusKm = 0.2 + random.nextDouble() * 10;
+            assertRadiusMatches(lat, lng, radiusKm);
+        }
+    }
+
+    @Test
+    void nearestQueriesMatchAFullScan() {
+        Random random = new Random(2);
+        scatter(random, 3000, 12.97, 77.59, 0.2);
+
+        for (int q = 0; q < 300; q++) {
+            double lat = 12.97 + (random.nextDouble() - 0.5) * 0.4;
+            double lng = 77.59 + (random.nextDouble() - 0.5) * 0.4;
+            assertNearestMatches(lat, lng, 1 + random.nextInt(30), 0.5 + random.nextDouble() * 8);
+        }
+    }
+
+    @Test
+    void driversOnCellBordersAreFound() {
+        // Every driver sits exactly on a cell corner, and so does every query
+        for (int i = -20; i <= 20; i++)
+            for (int j = -20; j <= 20; j++)
+                put(nextId++, 12.97 + i * CELL_SIZE_DEG, 77.59 + j * CELL_SIZE_DEG, (i + j) % 3 != 0);
+
+        for (int i = -20; i <= 20; i += 5) {
+            for (int j = -20; j <= 20; j += 5) {
+                double lat = 12.97 + i * CELL_SIZE_DEG;
+                double lng = 77.59 + j * CELL_SIZE_DEG;
+                // Radii that end right on neighbouring drivers
+                assertRadiusMatches(lat, lng, GeoUtils.haversineKm(lat, lng, lat + CELL_SIZE_DEG, lng));
+                assertRadiusMatches(lat, lng, GeoUtils.haversineKm(lat, lng, lat, lng + 2 * CELL_SIZE_DEG));
+                assertNearestMatches(lat, lng, 8, 5);
+            }
+        }
+    }
+
+    @Test
+    void searchesReachAcrossTheAntimeridian() {
+        Random random = new Random(3);
+        // Half the fleet east of the antimeridian, half west of it
+        scatter(random, 1000, -16.5, 179.98, 0.05);
+        scatter(random, 1000, -16.5, -179.98, 0.05);
+
+        for (int q = 0; q < 200; q++) {
+            double lat = -16.5 + (random.nextDouble() - 0.5) * 0.1;
+            double lng = wrap(180 + (random.nextDouble() - 0.5) * 0.1);
+            assertRadiusMatches(lat, lng, 0.5 + random.nextDouble() * 8);
+            assertNearestMatches(lat, lng, 1 + random.nextInt(20), 8);
+        }
+    }
+
+    @Test
+    void searchesReachOverThePoles() {
+        Random random = new Random(4);
+        for (int i = 0; i < 2000; i++) {
+            double lat = (i % 2 == 0 ? 1 : -1) * (89.9 + random.nextDouble() * 0.0999);
+            put(nextId++, lat, -180 + random.nextDouble() * 360, random.nextInt(4) != 0);
+        }
+
+        for (int q = 0; q < 200; q++) {
+            double lat = (q % 2 == 0 ? 1 : -1) * (89.85 + random.nextDouble() * 0.149);
+            double lng = -180 + random.nextDouble() * 360;
+            assertRadiusMatches(lat, lng, 0.5 + random.nextDouble() * 15);
+            assertNearestMatches(lat, lng, 1 + random.nextInt(20), 15);
+        }
+    }
+
+    @Test
+    void onlyAvailableDriversAreReturned() {
+        put(1L, 12.97, 77.59, true);
+        put(2L, 12.971, 77.59, false);
+
+        assertThat(ids(index.findAvailableWithinRadius(12.97, 77.59, 1))).containsExactly(1L);
+
+        index.setAvailable(2L, true);
+        index.setAvailable(1L, false);
+        assertThat(ids(index.findNearestAvailable(12.97, 77.59, 5, 1))).containsExactly(2L);
+
+        // A position update keeps the driver's availability
+        index.updateLocation(1L, 12.972, 77.59);
+        assertThat(ids(index.findAvailableWithinRadius(12.97, 77.59, 1))).containsExactly(2L);
+
+        // Drivers first seen through a ping aren't available until told so
+        index.updateLocation(3L, 12.97, 77.591);
+        assertThat(ids(index.findAvailableWithinRadius(12.97, 77.59, 1))).containsExactly(2L);
+        index.setAvailable(3L, true);
+        assertThat(ids(index.findAvailableWithinRadius(12.97, 77.59, 1))).containsExactly(3L, 2L);
+
+        // Unknown drivers can't be flipped into the index
+        index.setAvailable(4L, true);
+        assertThat(index.contains(4L)).isFalse();
+        assertThat(index.copyAvailable().size()).isEqualTo(2);
+    }
+
+    @Test
+    void driversMovingAcrossCellsAreOnlyFoundWhereTheyAre() {
+        put(1000L, 12.97, 77.59, true);
+        index.updateLocation(1000L, 13.2, 77.8);
+        fleet.put(1000L, new Position(13.2, 77.8, true));
+
+        assertThat(index.findAvailableWithinRadius(12.97, 77.59, 2)).isEmpty();
+        assertThat(ids(index.findNearestAvailable(13.2, 77.8, 3, 2))).containsExactly(1000L);
+
+        // Drivers wandering around a small area keep crossing cell borders
+        Random random = new Random(5);
+        scatter(random, 500, 12.97, 77.59, 0.05);
+        for (int step = 0; step < 20_000; step++) {
+            long id = random.nextInt(500);
+            Position p = fleet.get(id);
+            double lat = p.lat() + (random.nextDouble() - 0.5) * 0.02;
+            double lng = p.lng() + (random.nextDouble() - 0.5) * 0.02;
+            index.updateLocation(id, lat, lng);
+            fleet.put(id, new Position(lat, lng, p.available()));
+            if (step % 500 == 0)
+                assertRadiusMatches(12.97 + (random.nextDouble() - 0.5) * 0.1, 77.59 + (random.nextDouble() - 0.5) * 0.1, 3);
+        }
+
+        index.remove(1000L);
+        fleet.remove(1000L);
+        assertThat(index.size()).isEqualTo(fleet.size());
+        assertRadiusMatches(13.2, 77.8, 2);
+        assertNearestMatches(12.97, 77.59, 50, 8);
+    }
+
+    private void assertRadiusMatches(double lat, double lng, double radiusKm) {
+        List<Hit> expected = fullScan(lat, lng, radiusKm);
+        List<DriverSpatialIndex.Neighbor> found = index.findAvailableWithinRadius(lat, lng, radiusKm);
+
+        assertThat(ids(found))
+                .as("drivers within %s km of %s,%s", radiusKm, lat, lng)
+                .containsExactlyInAnyOrderElementsOf(expected.stream().map(Hit::driverId).toList());
+        assertThat(found).isSortedAccordingTo(Comparator.comparingDouble(DriverSpatialIndex.Neighbor::distanceKm));
+    }
+
+    // Drivers at the same distance may come in any order, so compare distances and check the ids are in reach
+    private void assertNearestMatches(double lat, double lng, int k, double maxRadiusKm) {
+        List<Hit> expected = fullScan(lat, lng, maxRadiusKm);
+        List<DriverSpatialIndex.Neighbor> found = index.findNearestAvailable(lat, lng, k, maxRadiusKm);
+
+        assertThat(found)
+                .as("%s nearest drivers within %s km of %s,%s", k, maxRadiusKm, lat, lng)
+                .extracting(DriverSpatialIndex.Neighbor::distanceKm)
+                .containsExactlyElementsOf(expected.stream().limit(k).map(Hit::distanceKm).toList());
+        assertThat(ids(found))
+                .doesNotHaveDuplicates()
+                .isSubsetOf(expected.stream().map(Hit::driverId).toList());
+    }
+
+    // Every available driver within the radius, closest first
+    private List<Hit> fullScan(double lat, double lng, double radiusKm) {
+        return fleet.entrySet().stream()
+                .filter(e -> e.getValue().available())
+                .map(e -> new Hit(e.getKey(), GeoUtils.haversineKm(lat, lng, e.getValue().lat(), e.getValue().lng())))
+                .filter(hit -> hit.distanceKm() <= radiusKm)
+                .sorted(Comparator.comparingDouble(Hit::distanceKm))
+                .toList();
+    }
+
+    // Drivers spread evenly over a square around the point, a quarter of them busy
+    private void scatter(Random random, int count, double lat, double lng, double spreadDeg) {
+        for (int i = 0; i < count; i++) {
+            put(nextId++, lat + (random.nextDouble() - 0.5) * spreadDeg,
+                    wrap(lng + (random.nextDouble() - 0.5) * spreadDeg), random.nextInt(4) != 0);
+        }
+    }
+
+    private void put(Long id, double lat, double lng, boolean available) {
+        index.put(id, lat, lng, available);
+        fleet.put(id, new Position(lat, lng, available));
+    }
+
+    private static double wrap(double lng) {
+        return lng >= 180 ? lng - 360 : lng < -180 ? lng + 360 : lng;
+    }
+
+    private static List<Long> ids(List<DriverSpatialIndex.Neighbor> neighbors) {
+        return neighbors.stream().map(DriverSpatialIndex.Neighbor::driverId).toList();
+    }
+}
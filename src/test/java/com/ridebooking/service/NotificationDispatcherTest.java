@@ -0,0 +1,79 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotificationDispatcherTest {
+
+    // Records every batch it gets and fails the listed tokens on their first attempt
+    static class FakePushSender implements PushSender {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        final List<String> failOnce = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public List<String> sendBatch(List<String> tokens, String title, String body) {
+            batches.add(tokens);
+            List<String> retry = new ArrayList<>();
+            for (String token : tokens)
+                if (failOnce.remove(token))
+                    retry.add(token);
+            return retry;
+        }
+    }
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FakePushSender sender = new FakePushSender();
+    private final NotificationDispatcher dispatcher = new NotificationDispatcher(sender, registry, 2, 100, 3, 10, false);
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void splitsTokensIntoMulticastBatches() throws Exception {
+        List<String> tokens = IntStream.range(0, 1200).mapToObj(i -> "token-" + i).toList();
+
+        dispatcher.broadcast(tokens, "New Ride Request", "Pickup: A, Drop: B");
+
+        awaitSent(1200);
+        assertThat(sender.batches).hasSize(3);
+        assertThat(sender.batches).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(500));
+    }
+
+    @Test
+    void retriesFailedTokensWithBackoff() throws Exception {
+        sender.failOnce.addAll(List.of("token-1", "token-3"));
+
+        dispatcher.broadcast(List.of("token-1", "token-2", "token-3"), "Ride Unavailable", "Ride #1");
+
+        awaitSent(3);
+        assertThat(sender.batches).hasSize(2);
+        assertThat(sender.batches.get(1)).containsExactly("token-1", "token-3");
+    }
+
+    @Test
+    void ignoresNullAndDuplicateTokens() throws Exception {
+        dispatcher.broadcast(Arrays.asList("token-1", null, "token-1"), "title", "body");
+
+        awaitSent(1);
+        assertThat(sender.batches).containsExactly(List.of("token-1"));
+    }
+
+    private void awaitSent(double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.counter("notifications.sent").count() < expected && System.nanoTime() < deadline)
+            Thread.sleep(5);
+        assertThat(registry.counter("notifications.sent").count()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,201 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.PaymentOutbox;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.outboxStatus;
+import com.ridebooking.model.paymentStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.PaymentOutboxRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("h2")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // the worker commits on its own threads
+class PaymentOutboxWorkerTest {
+
+    @Autowired
+    private PaymentOutboxRepository outboxRepository;
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void cleanUp() {
+        outboxRepository.deleteAll();
+        rideRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void retriesFailedOrderAndReusesTheOneAlreadyCreated() throws Exception {
+        // First call creates the order at the gateway but the response is lost
+        FakeGateway gateway = new FakeGateway(1, true);
+        PaymentOutboxWorker worker = newWorker(gateway, 3);
+        Ride ride = newCompletedRide();
+        enqueue(ride);
+
+        PaymentOutbox entry = drain(worker, ride.getId(), outboxStatus.DONE);
+
+        assertThat(entry.getAttempts()).isEqualTo(2);
+        assertThat(entry.getOrderId()).isEqualTo("order_ride_" + ride.getId());
+        assertThat(gateway.created).containsExactly("ride_" + ride.getId());
+        assertThat(rideRepository.findById(ride.getId()).orElseThrow().getTransactionId())
+                .isEqualTo("order_ride_" + ride.getId());
+        worker.shutdown();
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        PaymentOutboxWorker worker = newWorker(new FakeGateway(Integer.MAX_VALUE, false), 2);
+        Ride ride = newCompletedRide();
+        enqueue(ride);
+
+        PaymentOutbox entry = drain(worker, ride.getId(), outboxStatus.FAILED);
+
+        assertThat(entry.getAttempts()).isEqualTo(2);
+        assertThat(entry.getLastError()).contains("gateway timeout");
+        assertThat(rideRepository.findById(ride.getId()).orElseThrow().getPaymentStatus())
+                .isEqualTo(paymentStatus.FAILED);
+        worker.shutdown();
+    }
+
+    @Test
+    void entryIsOnlyClaimedOnce() {
+        Ride ride = newCompletedRide();
+        PaymentOutbox entry = enqueue(ride);
+        LocalDateTime now = LocalDateTime.now();
+
+        assertThat(outboxRepository.claim(entry.getId(), outboxStatus.PENDING, now, now.plusMinutes(1))).isEqualTo(1);
+        assertThat(outboxRepository.claim(entry.getId(), outboxStatus.PENDING, now, now.plusMinutes(1))).isZero();
+        // Still leased, so not up for grabs as a stuck entry either
+        assertThat(outboxRepository.claim(entry.getId(), outboxStatus.IN_PROGRESS, now, now.plusMinutes(1))).isZero();
+    }
+
+    @Test
+    void onlyTheCurrentOwnerRecordsTheOutcome() {
+        Ride ride = newCompletedRide();
+        PaymentOutbox entry = enqueue(ride);
+        LocalDateTime now = LocalDateTime.now();
+
+        // The first worker's lease runs out before it's done and a second worker takes over
+        assertThat(outboxRepository.claim(entry.getId(), outboxStatus.PENDING, now, now)).isEqualTo(1);
+        assertThat(outboxRepository.claim(entry.getId(), outboxStatus.IN_PROGRESS, now, now.plusMinutes(1))).isEqualTo(1);
+
+        assertThat(outboxRepository.failAttempt(entry.getId(), 1, outboxStatus.PENDING, now, "late", now)).isZero();
+        assertThat(outboxRepository.completeAttempt(entry.getId(), 1, "order_late", now)).isZero();
+        assertThat(outboxRepository.completeAttempt(entry.getId(), 2, "order_current", now)).isEqualTo(1);
+
+        PaymentOutbox stored = outboxRepository.findByRideId(ride.getId()).orElseThrow();
+        assertThat(stored.getStatus()).isEqualTo(outboxStatus.DONE);
+        assertThat(stored.getOrderId()).isEqualTo("order_current");
+        // Done is final, the late worker can't turn it back into a retry
+        assertThat(outboxRepository.failAttempt(entry.getId(), 2, outboxStatus.PENDING, now, "late", now)).isZero();
+    }
+
+    private PaymentOutbox drain(PaymentOutboxWorker worker, Long rideId, outboxStatus expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            worker.poll();
+            PaymentOutbox entry = outboxRepository.findByRideId(rideId).orElseThrow();
+            if (entry.getStatus() == expected)
+                return entry;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Outbox entry for ride " + rideId + " never reached " + expected);
+    }
+
+    private PaymentOutboxWorker newWorker(PaymentGateway gateway, int maxAttempts) {
+        return new PaymentOutboxWorker(outboxRepository, rideRepository, gateway, transactionManager,
+                new SimpleMeterRegistry(), 2, maxAttempts, 0, 60_000, false);
+    }
+
+    private PaymentOutbox enqueue(Ride ride) {
+        return outboxRepository.save(PaymentOutbox.builder()
+                .rideId(ride.getId())
+                .idempotencyKey("ride_" + ride.getId())
+                .amount(ride.getFare())
+                .status(outboxStatus.PENDING)
+                .attempts(0)
+                .nextAttemptAt(LocalDateTime.now())
+                .build());
+    }
+
+    private Ride newCompletedRide() {
+        User rider = userRepository.save(User.builder()
+                .username("rider")
+                .email("rider@example.com")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+
+        return rideRepository.save(Ride.builder()
+                .rider(rider)
+                .pickupLocation("A")
+                .dropoffLocation("B")
+                .pickupLattitude(12.97)
+                .pickupLongitude(77.59)
+                .status(rideStatus.COMPLETED)
+                .fare(120.0)
+                .paymentStatus(paymentStatus.PENDING)
+                .build());
+    }
+
+    // Times out on the first few calls; with lostResponses the order is created anyway, as if only the reply got lost
+    private static class FakeGateway implements PaymentGateway {
+        private final int failures;
+        private final boolean lostResponses;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final Map<String, String> orders = new ConcurrentHashMap<>();
+        final List<String> created = new CopyOnWriteArrayList<>();
+
+        FakeGateway(int failures, boolean lostResponses) {
+            this.failures = failures;
+            this.lostResponses = lostResponses;
+        }
+
+        @Override
+        public String createOrder(String idempotencyKey, double amountInRupees) throws Exception {
+            boolean fail = calls.incrementAndGet() <= failures;
+            if (fail && !lostResponses)
+                throw new Exception("gateway timeout");
+
+            if (orders.putIfAbsent(idempotencyKey, "order_" + idempotencyKey) == null)
+                created.add(idempotencyKey);
+            if (fail)
+                throw new Exception("gateway timeout");
+            return orders.get(idempotencyKey);
+        }
+
+        @Override
+        public Optional<String> findOrder(String idempotencyKey) {
+            return Optional.ofNullable(orders.get(idempotencyKey));
+        }
+    }
+}
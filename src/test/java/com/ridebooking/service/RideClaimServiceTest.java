@@ -0,0 +1,172 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.Driver;
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.driverStatus;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.DriverRepository;
+import com.ridebooking.repository.RideEventRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@DataJpaTest
+@ActiveProfiles("h2")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // every claim must commit on its own
+class RideClaimServiceTest {
+
+    private static final int DRIVERS = 32;
+
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private DriverRepository driverRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private RideEventRepository rideEventRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void cleanUp() {
+        rideEventRepository.deleteAll();
+        rideRepository.deleteAll();
+        driverRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void exactlyOneConcurrentAcceptWins() throws Exception {
+        RideClaimService claimService = newClaimService();
+        assertSingleWinner(() -> claimService);
+    }
+
+    @Test
+    void exactlyOneWinsAcrossNodesWithSeparateClaimTables() throws Exception {
+        // Every caller gets its own service, as if each accept landed on a different app node
+        assertSingleWinner(this::newClaimService);
+    }
+
+    @Test
+    void driverAlreadyOnRideCannotClaim() {
+        Ride ride = newRide();
+        Driver driver = newDriver(0);
+        driver.setStatus(driverStatus.ON_RIDE);
+        driverRepository.save(driver);
+
+        RideClaimService claimService = newClaimService();
+        Long rideId = ride.getId();
+        Long driverId = driver.getId();
+
+        assertThatThrownBy(() -> claimService.claim(rideId, driverId, null))
+                .hasMessage("Driver is not available");
+        assertThat(rideRepository.findById(rideId).orElseThrow().getStatus()).isEqualTo(rideStatus.REQUESTED);
+        assertThat(rideEventRepository.findByRideIdOrderByIdAsc(rideId)).isEmpty();
+    }
+
+    private void assertSingleWinner(Supplier<RideClaimService> services) throws Exception {
+        Ride ride = newRide();
+        List<Long> driverIds = new ArrayList<>();
+        for (int i = 0; i < DRIVERS; i++)
+            driverIds.add(newDriver(i).getId());
+
+        ExecutorService pool = Executors.newFixedThreadPool(DRIVERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Long driverId : driverIds) {
+            RideClaimService claimService = services.get();
+            results.add(pool.submit(() -> {
+                start.await();
+                try {
+                    claimService.claim(ride.getId(), driverId, null);
+                    return true;
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+
+        List<Long> winners = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++)
+            if (results.get(i).get(30, TimeUnit.SECONDS))
+                winners.add(driverIds.get(i));
+        pool.shutdown();
+
+        assertThat(winners).hasSize(1);
+
+        Ride claimed = rideRepository.findById(ride.getId()).orElseThrow();
+        assertThat(claimed.getStatus()).isEqualTo(rideStatus.ACCEPTED);
+        assertThat(claimed.getDriver().getId()).isEqualTo(winners.get(0));
+        assertThat(driverRepository.findByStatus(driverStatus.ON_RIDE))
+                .extracting(Driver::getId)
+                .containsExactly(winners.get(0));
+        assertThat(rideEventRepository.findByRideIdOrderByIdAsc(ride.getId()))
+                .extracting(RideEvent::getToStatus, RideEvent::getDriverId)
+                .containsExactly(tuple(rideStatus.ACCEPTED, winners.get(0)));
+    }
+
+    private RideClaimService newClaimService() {
+        RideStateMachine stateMachine = new RideStateMachine(rideEventRepository, new SimpleMeterRegistry(), List.of(), false);
+        return new RideClaimService(rideRepository, driverRepository, stateMachine, transactionManager, 300_000);
+    }
+
+    private Ride newRide() {
+        User rider = userRepository.save(User.builder()
+                .username("rider")
+                .email("rider@example.com")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+
+        return rideRepository.save(Ride.builder()
+                .rider(rider)
+                .pickupLocation("A")
+                .dropoffLocation("B")
+                .pickupLattitude(12.97)
+                .pickupLongitude(77.59)
+                .status(rideStatus.REQUESTED)
+                .build());
+    }
+
+    private Driver newDriver(int i) {
+        return driverRepository.save(Driver.builder()
+                .username("driver" + i)
+                .password("secret")
+                .fullName("Driver " + i)
+                .phoneNumber("90000000" + i)
+                .vehicleNumber("KA01" + i)
+                .vehicleModel("Swift")
+                .licenceNumber("DL" + i)
+                .status(driverStatus.AVAILABLE)
+                .role(Role.DRIVER)
+                .build());
+    }
+}
@@ -0,0 +1,82 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RideOdometerTest {
+
+    private static final long START = 1_760_000_000_000L;
+
+    private final RideOdometer odometer = new RideOdometer(1L, 15, 150, 3);
+
+    @Test
+    void sumsStepsAlongTheRoute() {
+        odometer.record(12.900, 77.600, START);
+        odometer.record(12.905, 77.600, START + 60_000);
+        odometer.record(12.905, 77.605, START + 120_000);
+
+        double expected = GeoUtils.haversineKm(12.900, 77.600, 12.905, 77.600)
+                + GeoUtils.haversineKm(12.905, 77.600, 12.905, 77.605);
+        assertThat(odometer.distanceKm()).isCloseTo(expected, within(1e-9));
+        assertThat(odometer.acceptedPoints()).isEqualTo(3);
+    }
+
+    @Test
+    void ignoresJitterAroundAStandingPosition() {
+        odometer.record(12.90000, 77.60000, START);
+        for (int i = 1; i <= 20; i++)
+            odometer.record(12.90000 + (i % 2 == 0 ? 0.00005 : -0.00005), 77.60000, START + i * 1000);
+
+        assertThat(odometer.distanceKm()).isZero();
+        assertThat(odometer.acceptedPoints()).isEqualTo(1);
+    }
+
+    @Test
+    void slowMovementStillAddsUp() {
+        // 5 m per ping never leaves the jitter radius of the previous ping, but does leave the anchor's
+        for (int i = 0; i <= 100; i++)
+            odometer.record(12.9 + i * 0.000045, 77.6, START + i * 2000);
+
+        assertThat(odometer.distanceKm()).isCloseTo(GeoUtils.haversineKm(12.9, 77.6, 12.9045, 77.6), within(0.02));
+    }
+
+    @Test
+    void dropsImpossibleJumps() {
+        odometer.record(12.900, 77.600, START);
+        odometer.record(13.100, 77.600, START + 10_000); // 22 km in 10 s
+        odometer.record(12.901, 77.600, START + 20_000);
+
+        assertThat(odometer.rejectedPoints()).isEqualTo(1);
+        assertThat(odometer.distanceKm())
+                .isCloseTo(GeoUtils.haversineKm(12.900, 77.600, 12.901, 77.600), within(1e-9));
+    }
+
+    @Test
+    void reanchorsAfterRepeatedOutliers() {
+        // The first fix was off; the following ones agree with each other
+        odometer.record(13.500, 77.600, START);
+        odometer.record(12.900, 77.600, START + 1000);
+        odometer.record(12.900, 77.600, START + 2000);
+        odometer.record(12.900, 77.600, START + 3000);
+        odometer.record(12.901, 77.600, START + 60_000);
+
+        assertThat(odometer.rejectedPoints()).isEqualTo(3);
+        assertThat(odometer.distanceKm())
+                .isCloseTo(GeoUtils.haversineKm(12.900, 77.600, 12.901, 77.600), within(1e-9));
+    }
+
+    @Test
+    void continuesFromACheckpoint() {
+        // Another node tracked 4.2 km in 30 points; the gap to this node's first ping isn't guessed
+        RideOdometer resumed = new RideOdometer(1L, 15, 150, 3, 4.2, 30);
+        resumed.record(12.900, 77.600, START);
+        resumed.record(12.905, 77.600, START + 60_000);
+
+        assertThat(resumed.distanceKm())
+                .isCloseTo(4.2 + GeoUtils.haversineKm(12.900, 77.600, 12.905, 77.600), within(1e-9));
+        assertThat(resumed.acceptedPoints()).isEqualTo(32);
+    }
+}
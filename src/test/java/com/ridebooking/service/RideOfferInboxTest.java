@@ -0,0 +1,92 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RideOfferInboxTest {
+
+    private static final long TTL_MS = 30_000;
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final AtomicLong now = new AtomicLong(1_760_000_000_000L);
+    private final RideOfferInbox inbox = newInbox("secret");
+
+    @Test
+    void onlyTheOfferedDriverCanRedeemBeforeExpiry() {
+        RideOfferInbox.Offer offer = inbox.offer(3L, ride(7L), 1.2, 4.0);
+
+        assertThat(sent).extracting(this::destination).containsExactly("/driver/3/offers");
+        assertThat(inbox.pending(3L)).containsExactly(offer);
+
+        // Another driver, another ride or a tampered token are all turned away
+        assertThatThrownBy(() -> inbox.redeem(7L, 4L, offer.token())).isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> inbox.redeem(8L, 3L, offer.token())).isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> inbox.redeem(7L, 3L, offer.token() + "x")).isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> inbox.redeem(7L, 3L, null)).isInstanceOf(RuntimeException.class);
+
+        inbox.redeem(7L, 3L, offer.token());
+        assertThat(inbox.pending(3L)).isEmpty();
+
+        RideOfferInbox.Offer late = inbox.offer(3L, ride(9L), 1.2, 4.0);
+        now.addAndGet(TTL_MS + 1);
+        assertThat(inbox.pending(3L)).isEmpty();
+        assertThatThrownBy(() -> inbox.redeem(9L, 3L, late.token())).isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    void tokensAreValidOnEveryNodeSharingTheSecret() {
+        RideOfferInbox.Offer offer = inbox.offer(3L, ride(7L), 1.2, 4.0);
+
+        newInbox("secret").redeem(7L, 3L, offer.token());
+        assertThatThrownBy(() -> newInbox("other").redeem(7L, 3L, offer.token()))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    void fullInboxDropsTheOldestOffer() {
+        for (long rideId = 1; rideId <= 4; rideId++) {
+            inbox.offer(3L, ride(rideId), 1, 1);
+            now.addAndGet(1000);
+        }
+
+        assertThat(inbox.pending(3L)).extracting(RideOfferInbox.Offer::rideId).containsExactly(2L, 3L, 4L);
+    }
+
+    @Test
+    void withdrawnOffersAreRemovedAndAnnounced() {
+        inbox.offer(3L, ride(7L), 1, 1);
+        inbox.offer(4L, ride(7L), 1, 1);
+        sent.clear();
+
+        inbox.withdraw(7L, Set.of(3L, 4L));
+
+        assertThat(inbox.pending(3L)).isEmpty();
+        assertThat(inbox.pending(4L)).isEmpty();
+        assertThat(sent).extracting(Message::getPayload)
+                .containsOnly(new RideOfferInbox.OfferFrame("r", 7L, null));
+    }
+
+    private RideOfferInbox newInbox(String secret) {
+        return new RideOfferInbox(new SimpMessagingTemplate((message, timeout) -> sent.add(message)),
+                new SimpleMeterRegistry(), secret, TTL_MS, 3, now::get);
+    }
+
+    private static RideOfferInbox.RideDetails ride(long rideId) {
+        return new RideOfferInbox.RideDetails(rideId, "A", "B", 12.9, 77.6);
+    }
+
+    private String destination(Message<?> message) {
+        return SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+    }
+}
@@ -0,0 +1,171 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.Ride;
+import com.ridebooking.model.RideEvent;
+import com.ridebooking.model.Role;
+import com.ridebooking.model.User;
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideEventRepository;
+import com.ridebooking.repository.RideRepository;
+import com.ridebooking.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@ActiveProfiles("h2")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // listeners only hear about committed transitions
+class RideStateMachineTest {
+
+    @Autowired
+    private RideRepository rideRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private RideEventRepository rideEventRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final BlockingQueue<RideEvent> delivered = new LinkedBlockingQueue<>();
+    private RideStateMachine stateMachine;
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        stateMachine = new RideStateMachine(rideEventRepository, new SimpleMeterRegistry(), List.of(delivered::add), false);
+        tx = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        stateMachine.shutdown();
+        rideEventRepository.deleteAll();
+        rideRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void transitionUpdatesTheRideOnceAndPublishesTheEventAfterCommit() throws Exception {
+        Long rideId = newRide().getId();
+
+        tx.executeWithoutResult(status -> cancel(rideId, null));
+
+        assertThat(rideRepository.findById(rideId).orElseThrow().getStatus()).isEqualTo(rideStatus.CANCELLED);
+        RideEvent event = delivered.poll(5, TimeUnit.SECONDS);
+        assertThat(event).isNotNull();
+        assertThat(event.getToStatus()).isEqualTo(rideStatus.CANCELLED);
+        assertThat(event.getIdempotencyKey()).isEqualTo(RideStateMachine.naturalKey(rideId, rideStatus.CANCELLED));
+
+        // The ride has left REQUESTED, so a second cancel can't write but finds the first one to replay
+        assertThatThrownBy(() -> tx.executeWithoutResult(status -> cancel(rideId, null)))
+                .hasMessageContaining("not in REQUESTED");
+        assertThat(stateMachine.previous(rideId, rideStatus.CANCELLED, null))
+                .map(RideEvent::getId).contains(event.getId());
+        assertThat(rideEventRepository.findByRideIdOrderByIdAsc(rideId)).hasSize(1);
+    }
+
+    @Test
+    void rolledBackTransitionLeavesNoEventAndIsNotPublished() throws Exception {
+        Long rideId = newRide().getId();
+
+        assertThatThrownBy(() -> tx.executeWithoutResult(status -> {
+            cancel(rideId, "key-1");
+            throw new IllegalStateException("boom");
+        })).hasMessage("boom");
+
+        assertThat(rideRepository.findById(rideId).orElseThrow().getStatus()).isEqualTo(rideStatus.REQUESTED);
+        assertThat(rideEventRepository.findByIdempotencyKey(RideStateMachine.transitionKey(rideId, "key-1"))).isEmpty();
+        assertThat(delivered.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void idempotencyKeyCannotBeReusedForAnotherTransition() {
+        Long rideId = newRide().getId();
+        tx.executeWithoutResult(status -> cancel(rideId, "key-1"));
+
+        assertThat(stateMachine.previous(rideId, rideStatus.CANCELLED, "key-1")).isPresent();
+        assertThatThrownBy(() -> stateMachine.previous(rideId, rideStatus.COMPLETED, "key-1"))
+                .hasMessageContaining("Idempotency key");
+    }
+
+    @Test
+    void idempotencyKeysAreScopedToTheRide() {
+        Long first = newRide().getId();
+        Long second = newRide("other-rider").getId();
+
+        tx.executeWithoutResult(status -> cancel(first, "key-1"));
+        // Another client happening to pick the same key doesn't collide with the first ride's event
+        assertThat(stateMachine.previous(second, rideStatus.CANCELLED, "key-1")).isEmpty();
+        tx.executeWithoutResult(status -> cancel(second, "key-1"));
+
+        assertThat(rideEventRepository.findByIdempotencyKey(RideStateMachine.transitionKey(first, "key-1")))
+                .map(RideEvent::getRideId).contains(first);
+        assertThat(rideEventRepository.findByIdempotencyKey(RideStateMachine.transitionKey(second, "key-1")))
+                .map(RideEvent::getRideId).contains(second);
+    }
+
+    @Test
+    void rejectsKeysTooLongForTheEventLog() {
+        Long rideId = newRide().getId();
+        String key = "k".repeat(RideStateMachine.MAX_CLIENT_KEY_LENGTH + 1);
+
+        assertThatThrownBy(() -> tx.executeWithoutResult(status -> cancel(rideId, key)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(rideRepository.findById(rideId).orElseThrow().getStatus()).isEqualTo(rideStatus.REQUESTED);
+        // The longest accepted key still fits the column once scoped
+        assertThat(RideStateMachine.transitionKey(Long.MAX_VALUE, key.substring(1))).hasSizeLessThanOrEqualTo(128);
+        assertThat(RideStateMachine.bookingKey(Long.MAX_VALUE, key.substring(1))).hasSizeLessThanOrEqualTo(128);
+    }
+
+    @Test
+    void rejectsTransitionsOutsideTheLifecycle() {
+        assertThat(RideStateMachine.isAllowed(rideStatus.REQUESTED, rideStatus.ACCEPTED)).isTrue();
+        assertThat(RideStateMachine.isAllowed(rideStatus.REQUESTED, rideStatus.COMPLETED)).isFalse();
+        assertThat(RideStateMachine.isAllowed(rideStatus.COMPLETED, rideStatus.CANCELLED)).isFalse();
+    }
+
+    private void cancel(Long rideId, String idempotencyKey) {
+        stateMachine.transition(rideId, rideStatus.REQUESTED, rideStatus.CANCELLED, null, null, idempotencyKey,
+                now -> rideRepository.updateStatusIf(rideId, rideStatus.REQUESTED, rideStatus.CANCELLED, now));
+    }
+
+    private Ride newRide() {
+        return newRide("rider");
+    }
+
+    private Ride newRide(String username) {
+        User rider = userRepository.save(User.builder()
+                .username(username)
+                .email(username + "@example.com")
+                .password("secret")
+                .role(Role.USER)
+                .build());
+
+        return rideRepository.save(Ride.builder()
+                .rider(rider)
+                .pickupLocation("A")
+                .dropoffLocation("B")
+                .pickupLattitude(12.97)
+                .pickupLongitude(77.59)
+                .status(rideStatus.REQUESTED)
+                .build());
+    }
+}
@@ -0,0 +1,104 @@
+package com.ridebooking.service;
+
+import com.ridebooking.model.rideStatus;
+import com.ridebooking.repository.RideRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RideTrackingPublisherTest {
+
+    private static final long START = 1_760_000_000_000L;
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final DriverSpatialIndex spatialIndex = new DriverSpatialIndex(0.01);
+    private final List<Long> lookups = new ArrayList<>();
+    // [rideId, status, trackedDistanceKm, trackedPoints] of the driver's ride as the DB has it
+    private List<Object[]> activeRide = List.of();
+
+    private final RideRepository rideRepository = (RideRepository) Proxy.newProxyInstance(
+            RideRepository.class.getClassLoader(), new Class<?>[]{RideRepository.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("findDriverRideProgress")) {
+                    lookups.add((Long) args[0]);
+                    return activeRide;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    private final RideTrackingPublisher publisher = new RideTrackingPublisher(
+            new SimpMessagingTemplate((message, timeout) -> sent.add(message)),
+            rideRepository, spatialIndex, new SimpleMeterRegistry(), 1000, 5, 2, 5000);
+
+    @Test
+    void sendsThrottledDeltasBetweenKeyframes() {
+        publisher.follow(7L, 3L, rideStatus.ACCEPTED);
+        spatialIndex.put(99L, 12.9, 77.6, true);
+
+        publisher.publishPosition(3L, 12.900000, 77.600000, START);
+        publisher.publishPosition(3L, 12.901000, 77.600000, START + 500);   // too soon
+        publisher.publishPosition(3L, 12.900010, 77.600000, START + 1000);  // barely moved
+        publisher.publishPosition(3L, 12.901000, 77.600500, START + 2000);
+        publisher.publishPosition(3L, 12.902000, 77.600500, START + 3000);
+        publisher.publishPosition(3L, 12.903000, 77.600500, START + 4000);
+        publisher.publishPosition(99L, 12.903000, 77.600500, START + 4000); // not on a ride
+
+        assertThat(sent).extracting(this::destination).containsOnly("/ride/7");
+        assertThat(sent).extracting(Message::getPayload).containsExactly(
+                new RideTrackingPublisher.PositionFrame("p", 12_900_000, 77_600_000, START),
+                new RideTrackingPublisher.PositionFrame("d", 1_000, 500, START + 2000),
+                new RideTrackingPublisher.PositionFrame("d", 1_000, 0, START + 3000),
+                new RideTrackingPublisher.PositionFrame("p", 12_903_000, 77_600_500, START + 4000));
+    }
+
+    @Test
+    void stopsFollowingFinishedRides() {
+        publisher.follow(7L, 3L, rideStatus.ACCEPTED);
+        publisher.publishPosition(3L, 12.9, 77.6, START);
+        publisher.publishStatus(7L, rideStatus.STARTED, 3L, null);
+
+        assertThat(publisher.snapshot(7L)).hasValue(
+                new RideTrackingPublisher.Snapshot(7L, rideStatus.STARTED, 3L, 12_900_000, 77_600_000, START));
+
+        publisher.publishStatus(7L, rideStatus.COMPLETED, 3L, 250.0);
+        // The driver is free again
+        spatialIndex.put(3L, 12.95, 77.6, true);
+        publisher.publishPosition(3L, 12.95, 77.6, START + 60_000);
+
+        assertThat(publisher.snapshot(7L)).isEmpty();
+        assertThat(sent).extracting(Message::getPayload).last()
+                .isEqualTo(new RideTrackingPublisher.StatusFrame("s", 7L, rideStatus.COMPLETED, 3L, 250.0));
+        assertThat(lookups).isEmpty();
+    }
+
+    @Test
+    void followsRidesAcceptedOnAnotherNode() {
+        spatialIndex.put(3L, 12.9, 77.6, false);
+
+        // No ride yet, and the next ping within the interval doesn't ask again
+        publisher.publishPosition(3L, 12.900, 77.6, START);
+        publisher.publishPosition(3L, 12.901, 77.6, START + 1000);
+        assertThat(lookups).containsExactly(3L);
+        assertThat(sent).isEmpty();
+
+        activeRide = List.<Object[]>of(new Object[]{7L, rideStatus.ACCEPTED, null, null});
+        publisher.publishPosition(3L, 12.902, 77.6, START + 5000);
+
+        assertThat(lookups).containsExactly(3L, 3L);
+        assertThat(sent).extracting(this::destination).containsExactly("/ride/7");
+        assertThat(publisher.snapshot(7L)).hasValue(
+                new RideTrackingPublisher.Snapshot(7L, rideStatus.ACCEPTED, 3L, 12_902_000, 77_600_000, START + 5000));
+    }
+
+    private String destination(Message<?> message) {
+        return SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+    }
+}
@@ -0,0 +1,79 @@
+package com.ridebooking.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SurgePricingServiceTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private DriverSpatialIndex index;
+    private SurgePricingService surge;
+
+    @BeforeEach
+    void setUp() {
+        index = new DriverSpatialIndex(0.01);
+        // bucket 10s, window 30 buckets, min 5 requests, threshold 1.0, sensitivity 0.5, max 2.5, step 0.1
+        surge = new SurgePricingService(index, new SimpleMeterRegistry(), true, 0.02, 10_000, 30, 5, 1.0, 0.5, 2.5, 0.1);
+    }
+
+    @Test
+    void surgesWhereRequestsOutnumberFreeDrivers() {
+        index.put(1L, 12.971, 77.591, true);
+        index.put(2L, 12.972, 77.592, true);
+        index.put(3L, 12.973, 77.593, false); // busy drivers are not supply
+        for (int i = 0; i < 6; i++)
+            surge.recordRequest(12.971, 77.591, NOW + i * 1000);
+
+        surge.recompute(NOW + 10_000);
+
+        // 6 requests over 2 drivers: 1 + 0.5 * (3 - 1)
+        assertThat(surge.multiplierAt(12.975, 77.595)).isEqualTo(2.0);
+        assertThat(surge.multiplierAt(13.5, 77.5)).isEqualTo(1.0);
+    }
+
+    @Test
+    void surgeEndsOnceRequestsLeaveTheWindow() {
+        for (int i = 0; i < 20; i++)
+            surge.recordRequest(12.971, 77.591, NOW);
+        surge.recompute(NOW);
+        assertThat(surge.multiplierAt(12.971, 77.591)).isEqualTo(2.5);
+
+        surge.recompute(NOW + 300_000);
+        assertThat(surge.multiplierAt(12.971, 77.591)).isEqualTo(1.0);
+    }
+
+    @Test
+    void multiplierIsBoundedAndStepped() {
+        assertThat(surge.multiplier(4, 0)).isEqualTo(1.0);   // below min requests
+        assertThat(surge.multiplier(5, 5)).isEqualTo(1.0);   // at threshold
+        assertThat(surge.multiplier(7, 5)).isEqualTo(1.2);   // 1 + 0.5 * 0.4
+        assertThat(surge.multiplier(11, 5)).isEqualTo(1.6);  // 1 + 0.5 * 1.2
+        assertThat(surge.multiplier(100, 1)).isEqualTo(2.5); // capped
+    }
+
+    @Test
+    void concurrentRequestsAreAllCounted() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 1000; i++)
+                    surge.recordRequest(12.971, 77.591, NOW + i);
+            }));
+        for (Future<?> f : futures)
+            f.get();
+        pool.shutdown();
+
+        assertThat(surge.requestCount(12.971, 77.591, NOW + 1000)).isEqualTo(8000);
+    }
+}
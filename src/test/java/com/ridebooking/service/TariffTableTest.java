@@ -0,0 +1,85 @@
+package com.ridebooking.service;
+
+import com.ridebooking.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class TariffTableTest {
+
+    private static final ZoneId IST = ZoneId.of("Asia/Kolkata");
+
+    @Test
+    void defaultTariffsMatchTheOldFormula() {
+        TariffTable table = TariffTable.compile(new TariffConfig());
+
+        double km = GeoUtils.haversineKm(12.9716, 77.5946, 13.0827, 77.5877);
+        double expected = 30 + 10 * km + 2 * (km / 40 * 60);
+        assertThat(table.estimate(12.9716, 77.5946, 13.0827, 77.5877, System.currentTimeMillis()))
+                .isCloseTo(expected, within(1e-9));
+    }
+
+    @Test
+    void firstMatchingZoneWinsAndOutsidePaysDefault() {
+        TariffConfig config = new TariffConfig();
+        config.getZones().add(zone("airport", 13.18, 13.22, 77.68, 77.72, new TariffConfig.Rates(100, 15, 2, 0)));
+        config.getZones().add(zone("bengaluru", 12.8, 13.3, 77.4, 77.8, new TariffConfig.Rates(40, 12, 2, 0)));
+        TariffTable table = TariffTable.compile(config);
+
+        assertThat(table.zoneName(table.zoneAt(13.20, 77.70))).isEqualTo("airport");
+        assertThat(table.zoneName(table.zoneAt(12.97, 77.59))).isEqualTo("bengaluru");
+        assertThat(table.zoneAt(19.07, 72.87)).isZero();
+        assertThat(table.fare(19.07, 72.87, 1, 1, System.currentTimeMillis())).isEqualTo(42);
+    }
+
+    @Test
+    void multipliersWrapPastMidnightAndScaleTheMinimum() {
+        TariffConfig config = new TariffConfig();
+        TariffConfig.Zone city = zone("bengaluru", 12.8, 13.3, 77.4, 77.8, new TariffConfig.Rates(40, 12, 2, 60));
+        city.getMultipliers().add(new TariffConfig.Multiplier(22, 6, 1.5));
+        config.getZones().add(city);
+        TariffTable table = TariffTable.compile(config);
+
+        long lateNight = at(23, 30);
+        long earlyMorning = at(5, 59);
+        long morning = at(6, 0);
+        assertThat(table.hourOf(lateNight)).isEqualTo(23);
+        assertThat(table.fare(12.97, 77.59, 1, 1, lateNight)).isEqualTo(90);
+        assertThat(table.fare(12.97, 77.59, 1, 1, earlyMorning)).isEqualTo(90);
+        assertThat(table.fare(12.97, 77.59, 1, 1, morning)).isEqualTo(60);
+        assertThat(table.fare(12.97, 77.59, 10, 10, morning)).isEqualTo(40 + 120 + 20);
+    }
+
+    @Test
+    void rejectsBrokenConfig() {
+        TariffConfig config = new TariffConfig();
+        config.getZones().add(zone("inverted", 13.3, 12.8, 77.4, 77.8, new TariffConfig.Rates(40, 12, 2, 0)));
+        assertThatThrownBy(() -> TariffTable.compile(config)).isInstanceOf(IllegalArgumentException.class);
+
+        TariffConfig huge = new TariffConfig();
+        huge.setCellSizeDeg(0.0001);
+        huge.getZones().add(zone("india", 8, 37, 68, 97, new TariffConfig.Rates(40, 12, 2, 0)));
+        assertThatThrownBy(() -> TariffTable.compile(huge)).hasMessageContaining("too large");
+    }
+
+    private static TariffConfig.Zone zone(String name, double minLat, double maxLat, double minLng, double maxLng,
+                                          TariffConfig.Rates rates) {
+        TariffConfig.Zone zone = new TariffConfig.Zone();
+        zone.setName(name);
+        zone.setMinLat(minLat);
+        zone.setMaxLat(maxLat);
+        zone.setMinLng(minLng);
+        zone.setMaxLng(maxLng);
+        zone.setRates(rates);
+        return zone;
+    }
+
+    private static long at(int hour, int minute) {
+        return ZonedDateTime.of(2024, 1, 1, hour, minute, 0, 0, IST).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,112 @@
+package com.ridebooking.trail;
+
+import com.ridebooking.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TrailStoreTest {
+
+    private static final long START = 1_760_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private TrailStore store(int segmentSize) throws IOException {
+        return new TrailStore(dir, segmentSize, 4, Duration.ofDays(30), 5000);
+    }
+
+    @Test
+    void replaysWrittenAndBufferedPoints() throws IOException {
+        TrailStore store = store(64 * 1024);
+        for (int i = 0; i < 10; i++) {
+            store.append(1L, 12.9 + i * 0.001, 77.6 - i * 0.0005, START + i * 3000);
+            store.append(2L, 13.0, 77.5 + i * 0.001, START + i * 1000);
+        }
+
+        // Two full blocks of four written, two points still buffered
+        List<TrailPoint> points = store.points(1L);
+        assertThat(points).hasSize(10);
+        for (int i = 0; i < 10; i++) {
+            assertThat(points.get(i).latitude()).isCloseTo(12.9 + i * 0.001, within(1e-6));
+            assertThat(points.get(i).longitude()).isCloseTo(77.6 - i * 0.0005, within(1e-6));
+            assertThat(points.get(i).timestampMillis()).isEqualTo(START + i * 3000);
+        }
+        assertThat(store.points(2L)).hasSize(10);
+        assertThat(store.points(3L)).isEmpty();
+    }
+
+    @Test
+    void rebuildsIndexOnReopen() throws IOException {
+        TrailStore store = store(64 * 1024);
+        for (int i = 0; i < 6; i++)
+            store.append(7L, 12.9, 77.6 + i * 0.01, START + i * 1000);
+        store.close(7L);
+        store.shutdown();
+
+        TrailStore reopened = store(64 * 1024);
+        List<TrailPoint> points = reopened.points(7L);
+        assertThat(points).hasSize(6);
+        assertThat(points.get(5).longitude()).isCloseTo(77.65, within(1e-6));
+
+        // New blocks go after the existing ones
+        reopened.append(8L, 12.9, 77.6, START);
+        reopened.close(8L);
+        assertThat(reopened.points(7L)).hasSize(6);
+        assertThat(reopened.points(8L)).hasSize(1);
+    }
+
+    @Test
+    void pingsArrivingAfterCloseAreDropped() throws IOException {
+        TrailStore store = new TrailStore(dir, 64 * 1024, 4, Duration.ofDays(30), 0);
+        store.append(5L, 12.9, 77.6, START);
+        store.append(5L, 12.91, 77.6, START + 1000);
+        store.close(5L);
+
+        // A ping that was already on its way when the ride ended
+        store.append(5L, 12.92, 77.6, START + 2000);
+        assertThat(store.points(5L)).hasSize(2);
+
+        // Once the closed buffer is forgotten, what was written is all that's left
+        store.flushIdle();
+        assertThat(store.points(5L)).hasSize(2);
+    }
+
+    @Test
+    void rollsToNewSegmentWhenFull() throws IOException {
+        TrailStore store = store(512);
+        for (int i = 0; i < 200; i++)
+            store.append(3L, 12.9 + i * 0.0001, 77.6, START + i * 2000);
+        store.close(3L);
+
+        try (var files = Files.list(dir)) {
+            assertThat(files.count()).isGreaterThan(1);
+        }
+        assertThat(store.points(3L)).hasSize(200);
+        assertThat(store(512).points(3L)).hasSize(200);
+    }
+
+    @Test
+    void summarizesDistanceAndDuration() throws IOException {
+        TrailStore store = store(64 * 1024);
+        store.append(5L, 12.90, 77.60, START);
+        store.append(5L, 12.91, 77.60, START + 60_000);
+        store.append(5L, 12.91, 77.61, START + 180_000);
+
+        TrailStats stats = store.stats(5L);
+        double expected = GeoUtils.haversineKm(12.90, 77.60, 12.91, 77.60)
+                + GeoUtils.haversineKm(12.91, 77.60, 12.91, 77.61);
+        assertThat(stats.points()).isEqualTo(3);
+        assertThat(stats.distanceKm()).isCloseTo(expected, within(1e-6));
+        assertThat(stats.durationMinutes()).isCloseTo(3.0, within(1e-9));
+        assertThat(store.stats(6L)).isEqualTo(TrailStats.EMPTY);
+    }
+}